@@ -0,0 +1,181 @@
+package com.mvasilakos.filestorage.benchmark;
+
+import com.mvasilakos.filestorage.compression.Compressor;
+import com.mvasilakos.filestorage.compression.GzipCompressor;
+import com.mvasilakos.filestorage.compression.Lz4Compressor;
+import com.mvasilakos.filestorage.compression.ZstdCompressor;
+import com.mvasilakos.filestorage.config.CompressionProperties;
+import com.mvasilakos.filestorage.model.CompressionCodec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compression and decompression throughput of each codec on the file types accepted for upload.
+ * The compression ratio of every codec/type pair is printed once per trial.
+ *
+ * <p>Real sample files are used when {@code -Dbenchmark.samples=<dir>} points to a directory
+ * containing {@code sample.txt}, {@code sample.json}, {@code sample.pdf}, {@code sample.jpeg} and
+ * {@code sample.png}; otherwise synthetic content with similar entropy is generated.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompressionBenchmark {
+
+  private static final int SAMPLE_SIZE = 1 << 20;
+  private static final String[] WORDS = {
+      "file", "storage", "upload", "download", "user", "share", "metadata", "encrypted", "the",
+      "a", "of", "and", "to", "is", "with", "for", "content", "stream", "request", "service"
+  };
+
+  @Param({"GZIP", "ZSTD", "LZ4"})
+  private CompressionCodec codec;
+
+  @Param({"txt", "json", "pdf", "jpeg", "png"})
+  private String fileType;
+
+  private Compressor compressor;
+  private byte[] content;
+  private byte[] compressed;
+
+  /**
+   * Load the sample content and compress it once for the decompression benchmark.
+   *
+   * @throws IOException if a sample file cannot be read
+   */
+  @Setup
+  public void setUp() throws IOException {
+    compressor = switch (codec) {
+      case GZIP -> new GzipCompressor();
+      case ZSTD -> new ZstdCompressor(new CompressionProperties());
+      case LZ4 -> new Lz4Compressor();
+      case NONE -> throw new IllegalArgumentException("Nothing to benchmark for " + codec);
+    };
+    content = loadSample(fileType);
+
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream(content.length);
+    try (OutputStream out = compressor.compress(buffer)) {
+      out.write(content);
+    }
+    compressed = buffer.toByteArray();
+    System.out.printf("%n%s/%s: %d -> %d bytes, ratio %.3f%n", codec, fileType, content.length,
+        compressed.length, (double) compressed.length / content.length);
+  }
+
+  /**
+   * Compress the sample.
+   *
+   * @throws IOException never, the sink discards its input
+   */
+  @Benchmark
+  public void compress() throws IOException {
+    try (OutputStream out = compressor.compress(OutputStream.nullOutputStream())) {
+      out.write(content);
+    }
+  }
+
+  /**
+   * Decompress the sample.
+   *
+   * @return number of decompressed bytes
+   * @throws IOException if the compressed sample is corrupt
+   */
+  @Benchmark
+  public long decompress() throws IOException {
+    try (InputStream in = compressor.decompress(new ByteArrayInputStream(compressed))) {
+      return in.transferTo(OutputStream.nullOutputStream());
+    }
+  }
+
+  private static byte[] loadSample(String fileType) throws IOException {
+    String samples = System.getProperty("benchmark.samples");
+    if (samples != null) {
+      Path sample = Path.of(samples, "sample." + fileType);
+      if (Files.isReadable(sample)) {
+        return Files.readAllBytes(sample);
+      }
+    }
+
+    Random random = new Random(42);
+    return switch (fileType) {
+      case "txt" -> text(random, SAMPLE_SIZE);
+      case "json" -> json(random);
+      case "pdf" -> pdf(random);
+      default -> noise(random, SAMPLE_SIZE);
+    };
+  }
+
+  private static byte[] text(Random random, int size) {
+    StringBuilder text = new StringBuilder(size);
+    while (text.length() < size) {
+      text.append(WORDS[random.nextInt(WORDS.length)]).append(random.nextInt(12) == 0 ? '\n' : ' ');
+    }
+    return text.substring(0, size).getBytes(StandardCharsets.US_ASCII);
+  }
+
+  private static byte[] json(Random random) {
+    StringBuilder json = new StringBuilder(SAMPLE_SIZE).append('[');
+    for (int i = 0; json.length() < SAMPLE_SIZE; i++) {
+      json.append(String.format(
+          "{\"id\":%d,\"filename\":\"%s-%d.txt\",\"size\":%d,\"owner\":\"%s\",\"shared\":%b},",
+          i, WORDS[random.nextInt(WORDS.length)], random.nextInt(10_000),
+          random.nextInt(30_000_000), WORDS[random.nextInt(WORDS.length)], random.nextBoolean()));
+    }
+    return json.append("{}]").toString().getBytes(StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * PDFs mostly consist of already deflated content streams held together by plain-text object
+   * syntax, which is what makes them compress poorly.
+   */
+  private static byte[] pdf(Random random) {
+    ByteArrayOutputStream pdf = new ByteArrayOutputStream(SAMPLE_SIZE);
+    pdf.writeBytes("%PDF-1.7\n".getBytes(StandardCharsets.US_ASCII));
+    byte[] stream = new byte[SAMPLE_SIZE];
+    for (int object = 1; pdf.size() < SAMPLE_SIZE; object++) {
+      Deflater deflater = new Deflater();
+      deflater.setInput(text(random, 16 * 1024));
+      deflater.finish();
+      int length = deflater.deflate(stream);
+      deflater.end();
+      pdf.writeBytes(String.format("%d 0 obj\n<< /Length %d /Filter /FlateDecode >>\nstream\n",
+          object, length).getBytes(StandardCharsets.US_ASCII));
+      pdf.write(stream, 0, length);
+      pdf.writeBytes("\nendstream\nendobj\n".getBytes(StandardCharsets.US_ASCII));
+    }
+    return pdf.toByteArray();
+  }
+
+  /**
+   * The entropy-coded payload of JPEG and PNG images is practically random.
+   */
+  private static byte[] noise(Random random, int size) {
+    byte[] noise = new byte[size];
+    random.nextBytes(noise);
+    return noise;
+  }
+
+}
@@ -0,0 +1,180 @@
+package com.mvasilakos.filestorage.benchmark;
+
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.tomcat.util.threads.VirtualThreadExecutor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to serve a burst of concurrent downloads by an embedded Tomcat whose request threads come
+ * from a pool of 200 platform threads, the default, or are virtual threads, set up the way
+ * {@code spring.threads.virtual.enabled} sets up the application's server. Every download streams
+ * its response in chunks with a pause after each, standing in for a transfer blocked on storage
+ * or on a slow client, so with platform threads the connections beyond the pool wait for a thread
+ * while with virtual threads all of them are served at once. Bursts of more than a few hundred
+ * connections need a higher open file limit ({@code ulimit -n}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ConcurrentTransferBenchmark {
+
+  private static final int PLATFORM_THREADS = 200;
+  private static final int CHUNK_SIZE = 1024;
+  private static final int CHUNKS = 10;
+  private static final long CHUNK_PAUSE_MILLIS = 20;
+
+  @Param({"PLATFORM", "VIRTUAL"})
+  private String threads;
+
+  @Param({"100", "1000", "2000"})
+  private int connections;
+
+  private Path baseDirectory;
+  private Tomcat tomcat;
+  private ExecutorService clientExecutor;
+  private HttpClient httpClient;
+  private HttpRequest downloadRequest;
+
+  /**
+   * Start the server and the client.
+   *
+   * @throws IOException        if the server's base directory cannot be created
+   * @throws LifecycleException if the server cannot be started
+   */
+  @Setup
+  public void setUp() throws IOException, LifecycleException {
+    baseDirectory = Files.createTempDirectory("concurrent-transfer-benchmark");
+    tomcat = new Tomcat();
+    tomcat.setBaseDir(baseDirectory.toString());
+
+    Connector connector = new Connector();
+    connector.setPort(0);
+    // Lets the whole burst connect at once rather than retry refused connections
+    connector.setProperty("acceptCount", String.valueOf(connections));
+    if (threads.equals("VIRTUAL")) {
+      connector.getProtocolHandler().setExecutor(new VirtualThreadExecutor("tomcat-handler-"));
+    } else {
+      connector.setProperty("maxThreads", String.valueOf(PLATFORM_THREADS));
+    }
+    tomcat.setConnector(connector);
+
+    Context context = tomcat.addContext("", baseDirectory.toString());
+    Tomcat.addServlet(context, "download", new DownloadServlet());
+    context.addServletMappingDecoded("/download", "download");
+    tomcat.start();
+
+    clientExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    httpClient = HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_1_1)
+        .executor(clientExecutor)
+        .build();
+    downloadRequest = HttpRequest.newBuilder(
+        URI.create("http://localhost:" + connector.getLocalPort() + "/download")).build();
+  }
+
+  /**
+   * Stop the server and the client and remove the server's files.
+   *
+   * @throws IOException        if the files cannot be deleted
+   * @throws LifecycleException if the server cannot be stopped
+   */
+  @TearDown
+  public void tearDown() throws IOException, LifecycleException {
+    httpClient.close();
+    clientExecutor.shutdownNow();
+    tomcat.stop();
+    tomcat.destroy();
+    try (Stream<Path> paths = Files.walk(baseDirectory)) {
+      for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+        Files.delete(path);
+      }
+    }
+  }
+
+  /**
+   * Start all downloads of a burst at once and wait until all of them were received.
+   *
+   * @return number of successful downloads
+   * @throws InterruptedException if interrupted while waiting
+   * @throws ExecutionException   if a download fails
+   */
+  @Benchmark
+  public int downloadBurst() throws InterruptedException, ExecutionException {
+    List<CompletableFuture<HttpResponse<Void>>> downloads = new ArrayList<>(connections);
+    for (int i = 0; i < connections; i++) {
+      downloads.add(httpClient.sendAsync(downloadRequest, BodyHandlers.discarding()));
+    }
+    int succeeded = 0;
+    for (CompletableFuture<HttpResponse<Void>> download : downloads) {
+      if (download.get().statusCode() == HttpServletResponse.SC_OK) {
+        succeeded++;
+      }
+    }
+    return succeeded;
+  }
+
+  /**
+   * Streams a fixed response, pausing after every chunk.
+   */
+  private static final class DownloadServlet extends HttpServlet {
+
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+        throws IOException {
+      response.setContentType("application/octet-stream");
+      response.setContentLengthLong((long) CHUNK_SIZE * CHUNKS);
+      OutputStream outputStream = response.getOutputStream();
+      try {
+        for (int i = 0; i < CHUNKS; i++) {
+          outputStream.write(chunk);
+          outputStream.flush();
+          Thread.sleep(CHUNK_PAUSE_MILLIS);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while streaming the download");
+      }
+    }
+  }
+}
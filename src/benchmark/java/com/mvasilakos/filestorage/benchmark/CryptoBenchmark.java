@@ -0,0 +1,99 @@
+package com.mvasilakos.filestorage.benchmark;
+
+import com.mvasilakos.filestorage.crypto.AesGcmEngine;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of sealing one segment with a cipher and {@link SecureRandom} created for the request, as
+ * the service used to do, compared to the per-thread cipher and shared random of
+ * {@link AesGcmEngine}. Run with {@code -t} greater than one to include contention on the shared
+ * random.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CryptoBenchmark {
+
+  private static final byte[] ASSOCIATED_DATA = new byte[9];
+
+  @Param({"1024", "65536", "262144"})
+  private int segmentSize;
+
+  private final AesGcmEngine aesGcmEngine = new AesGcmEngine();
+  private SecretKey key;
+  private byte[] segment;
+
+  /**
+   * Generate the key and segment content.
+   *
+   * @throws GeneralSecurityException if AES is not available
+   */
+  @Setup
+  public void setUp() throws GeneralSecurityException {
+    KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+    keyGenerator.init(256);
+    key = keyGenerator.generateKey();
+    segment = new byte[segmentSize];
+    new Random(42).nextBytes(segment);
+  }
+
+  /**
+   * Seal a segment, looking up the cipher and seeding a random generator for the request.
+   *
+   * @return sealed segment
+   * @throws GeneralSecurityException if encryption fails
+   */
+  @Benchmark
+  public byte[] perRequestSetup() throws GeneralSecurityException {
+    byte[] nonce = new byte[AesGcmEngine.NONCE_LENGTH];
+    new SecureRandom().nextBytes(nonce);
+    Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+    cipher.init(Cipher.ENCRYPT_MODE, key,
+        new GCMParameterSpec(AesGcmEngine.TAG_LENGTH * 8, nonce));
+    cipher.updateAAD(ASSOCIATED_DATA);
+    return cipher.doFinal(segment);
+  }
+
+  /**
+   * Seal a segment with the engine.
+   *
+   * @return sealed segment
+   */
+  @Benchmark
+  public byte[] engine() {
+    return aesGcmEngine.seal(key, segment, 0, segment.length, ASSOCIATED_DATA);
+  }
+
+  /**
+   * Seal and open a segment with the engine, as a download of a freshly uploaded segment would.
+   *
+   * @return opened segment
+   */
+  @Benchmark
+  public byte[] engineRoundTrip() {
+    byte[] sealed = aesGcmEngine.seal(key, segment, 0, segment.length, ASSOCIATED_DATA);
+    return aesGcmEngine.open(key, sealed, 0, sealed.length, ASSOCIATED_DATA);
+  }
+
+}
@@ -0,0 +1,106 @@
+package com.mvasilakos.filestorage.benchmark;
+
+import com.mvasilakos.filestorage.config.DurabilityProperties;
+import com.mvasilakos.filestorage.config.PackingProperties;
+import com.mvasilakos.filestorage.config.TieringProperties;
+import com.mvasilakos.filestorage.model.DurabilityMode;
+import com.mvasilakos.filestorage.service.FileStorageService;
+import com.mvasilakos.filestorage.storage.PackedBlobStore;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput and latency percentiles of concurrent blob writes without durability, with every
+ * write flushed on its own, and with writes flushed together by group commit. Blobs of 4 KiB are
+ * packed into segment files and blobs of 1 MiB are stored in files of their own. The storage root
+ * is a temporary directory; point {@code java.io.tmpdir} at the disk under test.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Threads(16)
+@Fork(1)
+public class DurableWriteBenchmark {
+
+  @Param({"NONE", "FSYNC", "GROUP_COMMIT"})
+  private DurabilityMode mode;
+
+  @Param({"4096", "1048576"})
+  private int blobSize;
+
+  private final AtomicLong nextBlob = new AtomicLong();
+  private Path storageRoot;
+  private PackedBlobStore packedBlobStore;
+  private FileStorageService fileStorageService;
+  private byte[] blob;
+
+  /**
+   * Create the store.
+   *
+   * @throws IOException if the store cannot be created
+   */
+  @Setup
+  public void setUp() throws IOException {
+    storageRoot = Files.createTempDirectory("durable-write-benchmark");
+    DurabilityProperties durabilityProperties = new DurabilityProperties();
+    durabilityProperties.setMode(mode);
+    packedBlobStore = new PackedBlobStore(storageRoot.toString(), new PackingProperties(),
+        durabilityProperties);
+    packedBlobStore.open();
+    fileStorageService = new FileStorageService(storageRoot.toString(),
+        Optional.of(packedBlobStore), durabilityProperties, new TieringProperties());
+
+    blob = new byte[blobSize];
+    new Random(42).nextBytes(blob);
+  }
+
+  /**
+   * Close the store and remove its files.
+   *
+   * @throws IOException if the files cannot be deleted
+   */
+  @TearDown
+  public void tearDown() throws IOException {
+    packedBlobStore.close();
+    try (Stream<Path> paths = Files.walk(storageRoot)) {
+      for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+        Files.delete(path);
+      }
+    }
+  }
+
+  /**
+   * Store a new blob and wait until it is as durable as the mode makes it.
+   *
+   * @return stored size
+   */
+  @Benchmark
+  public long store() {
+    long blobNumber = nextBlob.getAndIncrement();
+    String storagePath = String.format("%02x/%02x/blob-%d", blobNumber & 0xff,
+        (blobNumber >> 8) & 0xff, blobNumber);
+    return fileStorageService.storeBlob(storagePath, outputStream -> outputStream.write(blob));
+  }
+}
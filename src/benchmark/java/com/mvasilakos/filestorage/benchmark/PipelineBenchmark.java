@@ -0,0 +1,165 @@
+package com.mvasilakos.filestorage.benchmark;
+
+import com.mvasilakos.filestorage.compression.GzipCompressor;
+import com.mvasilakos.filestorage.compression.Lz4Compressor;
+import com.mvasilakos.filestorage.compression.ZstdCompressor;
+import com.mvasilakos.filestorage.config.CompressionProperties;
+import com.mvasilakos.filestorage.config.DurabilityProperties;
+import com.mvasilakos.filestorage.config.EncryptionProperties;
+import com.mvasilakos.filestorage.config.TieringProperties;
+import com.mvasilakos.filestorage.crypto.AesGcmEngine;
+import com.mvasilakos.filestorage.model.CompressionCodec;
+import com.mvasilakos.filestorage.model.FileMetadata;
+import com.mvasilakos.filestorage.service.DataKeyService;
+import com.mvasilakos.filestorage.service.FileCompressionService;
+import com.mvasilakos.filestorage.service.FileEncryptionService;
+import com.mvasilakos.filestorage.service.FilePipelineService;
+import com.mvasilakos.filestorage.service.FilePipelineService.StoredContent;
+import com.mvasilakos.filestorage.service.FileStorageService;
+import com.mvasilakos.filestorage.service.SimpleKeyManagementService;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Upload and download latency of a single file through the whole pipeline, with segments
+ * processed on the request thread ({@code parallelism = 1}) or on a pool with one worker per core
+ * ({@code parallelism = 0}). Blobs are written to a temporary directory; the encryption key is
+ * loaded from, or created in, {@code config/encryption.key} like the application does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PipelineBenchmark {
+
+  private static final String[] WORDS = {
+      "file", "storage", "upload", "download", "user", "share", "metadata", "encrypted", "the",
+      "a", "of", "and", "to", "is", "with", "for", "content", "stream", "request", "service"
+  };
+
+  @Param({"1", "10", "50"})
+  private int fileSizeMb;
+
+  @Param({"1", "0"})
+  private int parallelism;
+
+  @Param({"ZSTD"})
+  private CompressionCodec codec;
+
+  private Path storageRoot;
+  private ForkJoinPool segmentPool;
+  private FilePipelineService filePipelineService;
+  private byte[] content;
+  private FileMetadata storedFile;
+
+  /**
+   * Build the pipeline and store the file downloaded by {@link #download()}.
+   *
+   * @throws IOException if the temporary directory cannot be created
+   */
+  @Setup
+  public void setUp() throws IOException {
+    storageRoot = Files.createTempDirectory("pipeline-benchmark");
+    segmentPool = new ForkJoinPool(
+        parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+
+    CompressionProperties compressionProperties = new CompressionProperties();
+    compressionProperties.setDefaultCodec(codec);
+    SimpleKeyManagementService keyManagementService =
+        new SimpleKeyManagementService(new EncryptionProperties());
+    AesGcmEngine aesGcmEngine = new AesGcmEngine();
+    filePipelineService = new FilePipelineService(
+        new FileEncryptionService(keyManagementService, aesGcmEngine),
+        new FileCompressionService(compressionProperties, List.of(new GzipCompressor(),
+            new ZstdCompressor(compressionProperties), new Lz4Compressor())),
+        new DataKeyService(keyManagementService, aesGcmEngine, new EncryptionProperties()),
+        new FileStorageService(storageRoot.toString(), Optional.empty(),
+            new DurabilityProperties(), new TieringProperties()),
+        segmentPool,
+        256 * 1024);
+
+    content = text(new Random(42), fileSizeMb * 1024 * 1024);
+    StoredContent stored = filePipelineService.store(
+        "download", new ByteArrayInputStream(content), "text/plain");
+    storedFile = FileMetadata.builder()
+        .storagePath("download")
+        .storageFormat(stored.storageFormat())
+        .compressionCodec(stored.compressionCodec())
+        .wrappedKey(stored.wrappedKey())
+        .keyVersion(stored.keyVersion())
+        .build();
+  }
+
+  /**
+   * Remove the stored blobs and stop the pool.
+   *
+   * @throws IOException if the blobs cannot be deleted
+   */
+  @TearDown
+  public void tearDown() throws IOException {
+    segmentPool.shutdown();
+    try (Stream<Path> paths = Files.walk(storageRoot)) {
+      for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+        Files.delete(path);
+      }
+    }
+  }
+
+  /**
+   * Compress, encrypt and store the file.
+   *
+   * @return stored content details
+   */
+  @Benchmark
+  public StoredContent upload() {
+    return filePipelineService.store("upload", new ByteArrayInputStream(content), "text/plain");
+  }
+
+  /**
+   * Read, decrypt and decompress the whole file.
+   *
+   * @return number of bytes read
+   * @throws IOException if the file cannot be read
+   */
+  @Benchmark
+  public long download() throws IOException {
+    try (InputStream restored = filePipelineService.open(storedFile)) {
+      return restored.transferTo(OutputStream.nullOutputStream());
+    }
+  }
+
+  private static byte[] text(Random random, int size) {
+    StringBuilder text = new StringBuilder(size + 16);
+    while (text.length() < size) {
+      text.append(WORDS[random.nextInt(WORDS.length)]).append(random.nextInt(1000)).append(' ');
+    }
+    return text.substring(0, size).getBytes(StandardCharsets.US_ASCII);
+  }
+
+}
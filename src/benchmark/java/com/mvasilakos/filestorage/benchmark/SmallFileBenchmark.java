@@ -0,0 +1,128 @@
+package com.mvasilakos.filestorage.benchmark;
+
+import com.mvasilakos.filestorage.config.DurabilityProperties;
+import com.mvasilakos.filestorage.config.PackingProperties;
+import com.mvasilakos.filestorage.config.TieringProperties;
+import com.mvasilakos.filestorage.service.FileStorageService;
+import com.mvasilakos.filestorage.storage.PackedBlobStore;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Store and read throughput of small blobs kept as one file each ({@code packed = false}) or
+ * appended to shared segment files ({@code packed = true}). Blobs are sharded into two directory
+ * levels like the application stores them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SmallFileBenchmark {
+
+  private static final int STORED_BLOBS = 10_000;
+
+  @Param({"false", "true"})
+  private boolean packed;
+
+  @Param({"4096"})
+  private int blobSize;
+
+  private Path storageRoot;
+  private PackedBlobStore packedBlobStore;
+  private FileStorageService fileStorageService;
+  private byte[] blob;
+  private Random random;
+  private long nextBlob;
+
+  /**
+   * Create the store and fill it with the blobs read by {@link #read()}.
+   *
+   * @throws IOException if the blobs cannot be stored
+   */
+  @Setup
+  public void setUp() throws IOException {
+    storageRoot = Files.createTempDirectory("small-file-benchmark");
+    if (packed) {
+      packedBlobStore = new PackedBlobStore(storageRoot.toString(), new PackingProperties(),
+          new DurabilityProperties());
+      packedBlobStore.open();
+    }
+    fileStorageService = new FileStorageService(storageRoot.toString(),
+        Optional.ofNullable(packedBlobStore), new DurabilityProperties(), new TieringProperties());
+
+    blob = new byte[blobSize];
+    random = new Random(42);
+    random.nextBytes(blob);
+    for (int i = 0; i < STORED_BLOBS; i++) {
+      fileStorageService.storeBlob(path(i), outputStream -> outputStream.write(blob));
+    }
+    nextBlob = STORED_BLOBS;
+  }
+
+  /**
+   * Close the store and remove its files.
+   *
+   * @throws IOException if the files cannot be deleted
+   */
+  @TearDown
+  public void tearDown() throws IOException {
+    if (packedBlobStore != null) {
+      packedBlobStore.close();
+    }
+    try (Stream<Path> paths = Files.walk(storageRoot)) {
+      for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+        Files.delete(path);
+      }
+    }
+  }
+
+  /**
+   * Store a new blob.
+   *
+   * @return stored size
+   */
+  @Benchmark
+  public long store() {
+    return fileStorageService.storeBlob(path(nextBlob++), outputStream -> outputStream.write(blob));
+  }
+
+  /**
+   * Read a random blob stored during setup.
+   *
+   * @return blob content
+   * @throws IOException if the blob cannot be read
+   */
+  @Benchmark
+  public byte[] read() throws IOException {
+    String storagePath = path(random.nextInt(STORED_BLOBS));
+    try (InputStream inputStream = fileStorageService.openFile(storagePath)) {
+      return inputStream.readAllBytes();
+    }
+  }
+
+  private String path(long blobNumber) {
+    return String.format("%02x/%02x/blob-%d", blobNumber & 0xff, (blobNumber >> 8) & 0xff,
+        blobNumber);
+  }
+}
@@ -2,11 +2,13 @@ package com.mvasilakos.filestorage;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * Application entry point.
  */
 @SpringBootApplication
+@EnableScheduling
 public class FileStorageApplication {
 
   /**
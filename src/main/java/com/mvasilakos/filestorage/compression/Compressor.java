@@ -0,0 +1,39 @@
+package com.mvasilakos.filestorage.compression;
+
+import com.mvasilakos.filestorage.model.CompressionCodec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Stream compression algorithm, identified by the codec recorded in the file metadata.
+ */
+public interface Compressor {
+
+  /**
+   * Codec implemented by this compressor.
+   *
+   * @return codec
+   */
+  CompressionCodec codec();
+
+  /**
+   * Wrap a stream so that everything written to it is compressed before reaching the target.
+   * Closing the returned stream finishes the compressed stream and closes the target.
+   *
+   * @param outputStream target for the compressed data
+   * @return uncompressed data stream
+   * @throws IOException if the compressed stream cannot be initialized
+   */
+  OutputStream compress(OutputStream outputStream) throws IOException;
+
+  /**
+   * Wrap a stream of compressed data so that it is decompressed while being read.
+   *
+   * @param inputStream compressed data stream
+   * @return decompressed data stream
+   * @throws IOException if the compressed stream cannot be initialized
+   */
+  InputStream decompress(InputStream inputStream) throws IOException;
+
+}
@@ -0,0 +1,34 @@
+package com.mvasilakos.filestorage.compression;
+
+import com.mvasilakos.filestorage.model.CompressionCodec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.springframework.stereotype.Component;
+
+/**
+ * Gzip compressor, kept for files stored before faster codecs were available.
+ */
+@Component
+public class GzipCompressor implements Compressor {
+
+  private static final int BUFFER_SIZE = 8192;
+
+  @Override
+  public CompressionCodec codec() {
+    return CompressionCodec.GZIP;
+  }
+
+  @Override
+  public OutputStream compress(OutputStream outputStream) throws IOException {
+    return new GZIPOutputStream(outputStream, BUFFER_SIZE);
+  }
+
+  @Override
+  public InputStream decompress(InputStream inputStream) throws IOException {
+    return new GZIPInputStream(inputStream, BUFFER_SIZE);
+  }
+
+}
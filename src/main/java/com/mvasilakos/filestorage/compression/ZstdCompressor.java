@@ -0,0 +1,45 @@
+package com.mvasilakos.filestorage.compression;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import com.mvasilakos.filestorage.config.CompressionProperties;
+import com.mvasilakos.filestorage.model.CompressionCodec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import org.springframework.stereotype.Component;
+
+/**
+ * Zstandard compressor. Compresses about as well as gzip at a fraction of the CPU cost on the
+ * default level; higher levels trade upload throughput for a better ratio.
+ */
+@Component
+public class ZstdCompressor implements Compressor {
+
+  private final int level;
+
+  /**
+   * Constructor.
+   *
+   * @param compressionProperties compression configuration
+   */
+  public ZstdCompressor(CompressionProperties compressionProperties) {
+    this.level = compressionProperties.getZstdLevel();
+  }
+
+  @Override
+  public CompressionCodec codec() {
+    return CompressionCodec.ZSTD;
+  }
+
+  @Override
+  public OutputStream compress(OutputStream outputStream) throws IOException {
+    return new ZstdOutputStream(outputStream, level);
+  }
+
+  @Override
+  public InputStream decompress(InputStream inputStream) throws IOException {
+    return new ZstdInputStream(inputStream);
+  }
+
+}
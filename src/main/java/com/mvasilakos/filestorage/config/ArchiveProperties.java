@@ -0,0 +1,20 @@
+package com.mvasilakos.filestorage.config;
+
+import java.util.zip.Deflater;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Multi-file archive download configuration properties.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "file.storage.archive")
+@Getter
+@Setter
+public class ArchiveProperties {
+
+  private int maxFiles = 1000;
+  private int compressionLevel = Deflater.BEST_SPEED;
+}
@@ -0,0 +1,20 @@
+package com.mvasilakos.filestorage.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Background blob rewrite configuration properties.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "file.storage.rewrite")
+@Getter
+@Setter
+public class BlobRewriteProperties {
+
+  private int batchSize = 100;
+  private long maxBytesPerSecond = 20L * 1024 * 1024;
+  private double cpuShare = 0.25;
+}
@@ -0,0 +1,39 @@
+package com.mvasilakos.filestorage.config;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Executors for tasks that spend most of their time blocked on I/O, such as object store transfers
+ * or files being stored. With virtual threads enabled every task gets a virtual thread of its own,
+ * so blocked tasks hold no platform thread; otherwise tasks run on a cached pool of daemon
+ * platform threads. Virtual threads are enabled by {@code spring.threads.virtual.enabled}, the
+ * same property that moves request handling onto them. Either way the executor is unbounded, and
+ * callers bound the number of their tasks in flight themselves.
+ *
+ * <p>CPU-bound work, such as compressing and encrypting segments, stays on the segment pool, whose
+ * size bounds the CPU spent on it.
+ */
+public final class BlockingExecutors {
+
+  private BlockingExecutors() {
+  }
+
+  /**
+   * Create an executor for blocking tasks.
+   *
+   * @param threadName     name of the threads running the tasks
+   * @param virtualThreads whether to run every task on a virtual thread of its own
+   * @return executor, to be shut down by the caller
+   */
+  public static ExecutorService newExecutor(String threadName, boolean virtualThreads) {
+    if (virtualThreads) {
+      return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(threadName).factory());
+    }
+    return Executors.newCachedThreadPool(runnable -> {
+      Thread thread = new Thread(runnable, threadName);
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+}
@@ -0,0 +1,19 @@
+package com.mvasilakos.filestorage.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Bulk upload configuration properties.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "file.storage.bulk-upload")
+@Getter
+@Setter
+public class BulkUploadProperties {
+
+  private int maxFiles = 500;
+  private int parallelism = 4;
+}
@@ -0,0 +1,28 @@
+package com.mvasilakos.filestorage.config;
+
+import com.mvasilakos.filestorage.model.CompressionCodec;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Compression configuration properties.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "file.storage.compression")
+@Getter
+@Setter
+public class CompressionProperties {
+
+  private CompressionCodec defaultCodec = CompressionCodec.ZSTD;
+  private Map<String, CompressionCodec> codecByType = new HashMap<>();
+  private Set<String> incompressibleTypes = new HashSet<>();
+  private int probeSize = 8192;
+  private double minSavings = 0.1;
+  private int zstdLevel = 3;
+}
@@ -0,0 +1,21 @@
+package com.mvasilakos.filestorage.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Decrypted content cache configuration properties.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "file.storage.cache")
+@Getter
+@Setter
+public class ContentCacheProperties {
+
+  private boolean enabled = false;
+  private long capacity = 64L * 1024 * 1024;
+  private long maxEntrySize = 1024 * 1024;
+  private int admissionWindow = 10_000;
+}
@@ -0,0 +1,23 @@
+package com.mvasilakos.filestorage.config;
+
+import com.mvasilakos.filestorage.model.DurabilityMode;
+import java.time.Duration;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Storage durability configuration properties.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "file.storage.durability")
+@Getter
+@Setter
+public class DurabilityProperties {
+
+  private DurabilityMode mode = DurabilityMode.NONE;
+  private Duration groupCommitWindow = Duration.ZERO;
+  private int groupCommitMaxBatch = 256;
+  private int recoveryParallelism = 0;
+}
@@ -0,0 +1,22 @@
+package com.mvasilakos.filestorage.config;
+
+import java.time.Duration;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Envelope encryption configuration properties.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "file.storage.encryption")
+@Getter
+@Setter
+public class EncryptionProperties {
+
+  private String masterKeyDirectory = "config/master-keys";
+  private int keyCacheSize = 10_000;
+  private int rewrapBatchSize = 500;
+  private Duration rewrapBatchDelay = Duration.ofMillis(100);
+}
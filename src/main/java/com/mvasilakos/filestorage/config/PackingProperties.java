@@ -0,0 +1,21 @@
+package com.mvasilakos.filestorage.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Small blob packing configuration properties.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "file.storage.packing")
+@Getter
+@Setter
+public class PackingProperties {
+
+  private boolean enabled = false;
+  private int threshold = 64 * 1024;
+  private long segmentSize = 64L * 1024 * 1024;
+  private double compactionThreshold = 0.5;
+}
@@ -0,0 +1,26 @@
+package com.mvasilakos.filestorage.config;
+
+import java.util.concurrent.ForkJoinPool;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * File pipeline configuration.
+ */
+@Configuration
+public class PipelineConfig {
+
+  /**
+   * Pool that compresses and encrypts the segments of uploads and downloads in parallel. It is
+   * shared by all requests, so its size bounds the CPU spent on file processing as a whole.
+   *
+   * @param parallelism number of worker threads, or 0 for one per available processor
+   * @return segment pool
+   */
+  @Bean(destroyMethod = "shutdown")
+  public ForkJoinPool segmentPool(@Value("${file.storage.parallelism:0}") int parallelism) {
+    int workers = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+    return new ForkJoinPool(workers, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+  }
+}
@@ -0,0 +1,24 @@
+package com.mvasilakos.filestorage.config;
+
+import com.mvasilakos.filestorage.model.ReconciliationAction;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Storage reconciliation configuration properties.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "file.storage.reconciliation")
+@Getter
+@Setter
+public class ReconciliationProperties {
+
+  private boolean enabled = true;
+  private ReconciliationAction action = ReconciliationAction.QUARANTINE;
+  private int batchSize = 500;
+  private int scanRate = 5000;
+  private int parallelism = 0;
+  private int sampleSize = 100;
+}
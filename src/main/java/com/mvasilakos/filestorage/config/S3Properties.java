@@ -0,0 +1,29 @@
+package com.mvasilakos.filestorage.config;
+
+import java.time.Duration;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * S3-compatible blob store configuration properties.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "file.storage.s3")
+@Getter
+@Setter
+public class S3Properties {
+
+  private String endpoint = "http://localhost:9000";
+  private String region = "us-east-1";
+  private String bucket = "file-storage";
+  private String accessKey = "";
+  private String secretKey = "";
+  private String prefix = "";
+  private boolean pathStyleAccess = true;
+  private int partSize = 8 * 1024 * 1024;
+  private int uploadParallelism = 4;
+  private int downloadParallelism = 4;
+  private Duration requestTimeout = Duration.ofMinutes(1);
+}
@@ -0,0 +1,26 @@
+package com.mvasilakos.filestorage.config;
+
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Embedded server configuration.
+ */
+@Configuration
+public class ServerConfig {
+
+  /**
+   * Answer {@code Expect: 100-continue} only once the request body is read. Uploads rejected on
+   * their declared length, for instance because they exceed the storage limit, are then refused
+   * before the client sends the body at all.
+   *
+   * @return server customizer
+   */
+  @Bean
+  public WebServerFactoryCustomizer<TomcatServletWebServerFactory> continueOnReadCustomizer() {
+    return factory -> factory.addConnectorCustomizers(
+        connector -> connector.setProperty("continueResponseTiming", "onRead"));
+  }
+}
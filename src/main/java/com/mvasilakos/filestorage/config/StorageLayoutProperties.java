@@ -0,0 +1,22 @@
+package com.mvasilakos.filestorage.config;
+
+import java.time.Duration;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Storage directory layout configuration properties.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "file.storage.layout")
+@Getter
+@Setter
+public class StorageLayoutProperties {
+
+  private int shardDepth = 2;
+  private int shardWidth = 2;
+  private int migrationBatchSize = 500;
+  private Duration migrationBatchDelay = Duration.ofMillis(100);
+}
@@ -0,0 +1,24 @@
+package com.mvasilakos.filestorage.config;
+
+import java.time.Duration;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Hot and cold storage tier configuration properties.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "file.storage.tiering")
+@Getter
+@Setter
+public class TieringProperties {
+
+  private boolean enabled = false;
+  private String coldLocation = "";
+  private Duration demoteAfter = Duration.ofDays(30);
+  private Duration promoteWithin = Duration.ofDays(1);
+  private int batchSize = 100;
+  private Duration batchDelay = Duration.ofMillis(100);
+}
@@ -0,0 +1,21 @@
+package com.mvasilakos.filestorage.config;
+
+import java.time.Duration;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Resumable upload configuration properties.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "file.storage.upload")
+@Getter
+@Setter
+public class UploadProperties {
+
+  private int chunkSize = 4 * 1024 * 1024;
+  private Duration sessionTtl = Duration.ofHours(24);
+  private String stagingDirectory = ".uploads";
+}
@@ -1,17 +1,28 @@
 package com.mvasilakos.filestorage.controller;
 
 import com.mvasilakos.filestorage.dto.AuthRequest;
+import com.mvasilakos.filestorage.dto.BlobRewriteStatusDto;
+import com.mvasilakos.filestorage.dto.ContentCacheStatsDto;
 import com.mvasilakos.filestorage.dto.FileMetadataDto;
+import com.mvasilakos.filestorage.dto.KeyRotationStatusDto;
+import com.mvasilakos.filestorage.dto.ReconciliationReportDto;
+import com.mvasilakos.filestorage.dto.StorageMigrationStatusDto;
 import com.mvasilakos.filestorage.dto.UserDto;
 import com.mvasilakos.filestorage.model.User;
 import com.mvasilakos.filestorage.service.AdminService;
+import com.mvasilakos.filestorage.service.BlobRewriteService;
+import com.mvasilakos.filestorage.service.DecryptedContentCache;
 import com.mvasilakos.filestorage.service.FileService;
+import com.mvasilakos.filestorage.service.MasterKeyRotationService;
+import com.mvasilakos.filestorage.service.StorageLayoutMigrationService;
+import com.mvasilakos.filestorage.service.StorageReconciliationService;
 import com.mvasilakos.filestorage.service.UserService;
 import java.util.List;
 import java.util.UUID;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.domain.Page;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.DeleteMapping;
@@ -36,6 +47,11 @@ public class AdminController {
   private final AdminService adminService;
   private final FileService fileService;
   private final UserService userService;
+  private final StorageLayoutMigrationService storageLayoutMigrationService;
+  private final StorageReconciliationService storageReconciliationService;
+  private final DecryptedContentCache decryptedContentCache;
+  private final MasterKeyRotationService masterKeyRotationService;
+  private final BlobRewriteService blobRewriteService;
 
   /**
    * Returns all file metadata for all the files uploaded in the server.
@@ -232,6 +248,126 @@ public class AdminController {
     return ResponseEntity.ok(bytes);
   }
 
+  /**
+   * Start moving stored files into the configured sharded directory layout. The migration runs in
+   * the background while the application keeps serving requests.
+   *
+   * @return migration status
+   */
+  @PostMapping("/storage/layout-migration")
+  public ResponseEntity<StorageMigrationStatusDto> startLayoutMigration() {
+    StorageMigrationStatusDto status = storageLayoutMigrationService.start();
+    return ResponseEntity.status(HttpStatus.ACCEPTED).body(status);
+  }
+
+  /**
+   * Returns the progress of the storage layout migration.
+   *
+   * @return migration status
+   */
+  @GetMapping("/storage/layout-migration")
+  public ResponseEntity<StorageMigrationStatusDto> getLayoutMigrationStatus() {
+    return ResponseEntity.ok(storageLayoutMigrationService.getStatus());
+  }
+
+  /**
+   * Start comparing the stored blobs with the file records. The run happens in the background and
+   * acts only on orphans that the previous run found as well.
+   *
+   * @return findings of the run so far
+   */
+  @PostMapping("/storage/reconciliation")
+  public ResponseEntity<ReconciliationReportDto> startReconciliation() {
+    ReconciliationReportDto report = storageReconciliationService.start();
+    return ResponseEntity.status(HttpStatus.ACCEPTED).body(report);
+  }
+
+  /**
+   * Returns the findings of the current or latest storage reconciliation.
+   *
+   * @return reconciliation report
+   */
+  @GetMapping("/storage/reconciliation")
+  public ResponseEntity<ReconciliationReportDto> getReconciliationReport() {
+    return ResponseEntity.ok(storageReconciliationService.getReport());
+  }
+
+  /**
+   * Returns the hit rate, evictions and memory use of the decrypted content cache.
+   *
+   * @return cache statistics
+   */
+  @GetMapping("/storage/content-cache")
+  public ResponseEntity<ContentCacheStatsDto> getContentCacheStats() {
+    return ResponseEntity.ok(decryptedContentCache.getStats());
+  }
+
+  /**
+   * Generate a new master key and start rewrapping the data keys of all files by it. Stored
+   * content is not re-encrypted; the rewrapping runs in the background.
+   *
+   * @return rotation status
+   */
+  @PostMapping("/encryption/key-rotation")
+  public ResponseEntity<KeyRotationStatusDto> startKeyRotation() {
+    KeyRotationStatusDto status = masterKeyRotationService.start();
+    return ResponseEntity.status(HttpStatus.ACCEPTED).body(status);
+  }
+
+  /**
+   * Returns the progress of the master key rotation and the use of the data key cache.
+   *
+   * @return rotation status
+   */
+  @GetMapping("/encryption/key-rotation")
+  public ResponseEntity<KeyRotationStatusDto> getKeyRotationStatus() {
+    return ResponseEntity.ok(masterKeyRotationService.getStatus());
+  }
+
+  /**
+   * Start rewriting stored blobs into the current format in the background. Only blobs in a legacy
+   * format, under the legacy key or with an outdated codec are rewritten, unless all are requested.
+   *
+   * @param all whether to rewrite all blobs, for instance after a change of compression level
+   * @return rewrite status
+   */
+  @PostMapping("/storage/rewrite")
+  public ResponseEntity<BlobRewriteStatusDto> startBlobRewrite(
+      @RequestParam(defaultValue = "false") boolean all) {
+    BlobRewriteStatusDto status = blobRewriteService.start(all);
+    return ResponseEntity.status(HttpStatus.ACCEPTED).body(status);
+  }
+
+  /**
+   * Pause the blob rewrite after the blob it is working on.
+   *
+   * @return rewrite status
+   */
+  @PostMapping("/storage/rewrite/pause")
+  public ResponseEntity<BlobRewriteStatusDto> pauseBlobRewrite() {
+    return ResponseEntity.status(HttpStatus.ACCEPTED).body(blobRewriteService.pause());
+  }
+
+  /**
+   * Resume the paused blob rewrite after the last file it checked.
+   *
+   * @return rewrite status
+   */
+  @PostMapping("/storage/rewrite/resume")
+  public ResponseEntity<BlobRewriteStatusDto> resumeBlobRewrite() {
+    return ResponseEntity.status(HttpStatus.ACCEPTED).body(blobRewriteService.resume());
+  }
+
+  /**
+   * Returns the progress of the latest blob rewrite.
+   *
+   * @return rewrite status
+   */
+  @GetMapping("/storage/rewrite")
+  public ResponseEntity<BlobRewriteStatusDto> getBlobRewriteStatus() {
+    return ResponseEntity.ok(blobRewriteService.getStatus());
+  }
+
   /**
    * Return the app's most recent logs.
    *
@@ -1,25 +1,39 @@
 package com.mvasilakos.filestorage.controller;
 
+import com.mvasilakos.filestorage.dto.ArchiveRequest;
+import com.mvasilakos.filestorage.dto.BulkUploadResultDto;
 import com.mvasilakos.filestorage.dto.FileMetadataDto;
 import com.mvasilakos.filestorage.dto.RenameFileRequest;
 import com.mvasilakos.filestorage.dto.ShareFileRequest;
+import com.mvasilakos.filestorage.exception.LengthRequiredException;
 import com.mvasilakos.filestorage.model.User;
+import com.mvasilakos.filestorage.service.BulkUploadService;
+import com.mvasilakos.filestorage.service.FileArchiveService;
+import com.mvasilakos.filestorage.service.FileArchiveService.FileArchive;
 import com.mvasilakos.filestorage.service.FileService;
+import com.mvasilakos.filestorage.service.FileService.ContentRange;
+import com.mvasilakos.filestorage.service.FileService.FileDownload;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.core.io.Resource;
 import org.springframework.data.domain.Page;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.util.DigestUtils;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.DeleteMapping;
@@ -28,11 +42,15 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 
 /**
@@ -46,6 +64,8 @@ import org.springframework.web.multipart.MultipartFile;
 public class FileController {
 
   private final FileService fileService;
+  private final FileArchiveService fileArchiveService;
+  private final BulkUploadService bulkUploadService;
 
   /**
    * Upload a file.
@@ -64,6 +84,53 @@ public class FileController {
     return ResponseEntity.status(HttpStatus.CREATED).body(metadata);
   }
 
+  /**
+   * Upload a file sent as the raw request body, without multipart encoding, so that it streams
+   * into storage as it arrives. The declared content length is checked against the maximum file
+   * size and the user's storage limit before the body is read.
+   *
+   * @param filename name of the file
+   * @param request  request whose body is the file's content
+   * @param owner    the user uploading the file
+   * @return uploaded file's metadata
+   * @throws IOException if the request body cannot be read
+   */
+  @PutMapping(value = "/raw", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+  public ResponseEntity<FileMetadataDto> uploadRawFile(@RequestParam String filename,
+      HttpServletRequest request, @AuthenticationPrincipal User owner) throws IOException {
+
+    long contentLength = request.getContentLengthLong();
+    if (contentLength < 0) {
+      throw new LengthRequiredException("Content-Length is required for raw uploads");
+    }
+    log.debug("Uploading raw file: \"{}\" of {} bytes for user: {}",
+        filename, contentLength, owner.getUsername());
+    FileMetadataDto metadata = fileService.uploadRawFile(filename, contentLength,
+        request.getInputStream(), owner);
+    return ResponseEntity.status(HttpStatus.CREATED).body(metadata);
+  }
+
+  /**
+   * Upload many files in one request. The storage limit is checked for all files together, and
+   * each file is reported on separately, so invalid files do not keep the others from being
+   * stored.
+   *
+   * @param files the files to be uploaded
+   * @param owner the user uploading the files
+   * @return outcome of every file, with created if all files were stored and multi-status
+   *     otherwise
+   */
+  @PostMapping(value = "/bulk", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+  public ResponseEntity<List<BulkUploadResultDto>> uploadFiles(
+      @RequestParam("files") List<MultipartFile> files, @AuthenticationPrincipal User owner) {
+
+    log.debug("Uploading {} files for user: {}", files.size(), owner.getUsername());
+    List<BulkUploadResultDto> results = bulkUploadService.uploadFiles(files, owner);
+    boolean allUploaded = results.stream().allMatch(BulkUploadResultDto::uploaded);
+    return ResponseEntity.status(allUploaded ? HttpStatus.CREATED : HttpStatus.MULTI_STATUS)
+        .body(results);
+  }
+
   /**
    * List all files that the given user can access.
    *
@@ -153,11 +220,12 @@ public class FileController {
 
 
   /**
-   * Get metadata for file with given id for the given user if they have access to it.
+   * Get metadata for file with given id for the given user if they have access to it. The
+   * response carries an ETag, so clients can revalidate their copy with If-None-Match.
    *
    * @param id   file's id
    * @param user the authenticated user
-   * @return file metadata
+   * @return file metadata, or not modified if the client's copy is current
    */
   @GetMapping("/{id}")
   public ResponseEntity<FileMetadataDto> getFileMetadata(@PathVariable @Valid UUID id,
@@ -165,41 +233,139 @@ public class FileController {
 
     log.debug("Getting metadata for file: {} by user: {}", id, user.getUsername());
     FileMetadataDto metadata = fileService.getFileMetadata(id, user);
-    return ResponseEntity.ok(metadata);
+    ResponseEntity.BodyBuilder responseBuilder = ResponseEntity.ok();
+    String etag = metadataETag(metadata);
+    if (etag != null) {
+      responseBuilder.eTag(etag);
+    }
+    return responseBuilder.body(metadata);
   }
 
   /**
-   * Download a file if the user has access to it.
+   * Download a file if the user has access to it. The content is decrypted and decompressed while
+   * it is written to the response, so the file is never held in memory as a whole. A single byte
+   * range may be requested for files stored in a seekable format, in which case only that range is
+   * read and returned with a partial content response.
    *
-   * @param id   id of the file to download
-   * @param user the authenticated user
-   * @return file data with appropriate headers
+   * <p>The content hash of the file is sent as its ETag, along with its upload time as
+   * Last-Modified. Clients whose copy is current are answered with not modified before any stored
+   * content is read.
+   *
+   * @param id          id of the file to download
+   * @param rangeHeader optional Range header
+   * @param user        the authenticated user
+   * @param webRequest  current request, for evaluating its conditional headers
+   * @return file data with appropriate headers, or null if not modified was sent
    */
   @GetMapping("/{id}/download")
-  public ResponseEntity<Resource> downloadFile(@PathVariable @Valid UUID id,
-      @AuthenticationPrincipal User user) {
+  public ResponseEntity<StreamingResponseBody> downloadFile(@PathVariable @Valid UUID id,
+      @RequestHeader(value = HttpHeaders.RANGE, required = false) String rangeHeader,
+      @AuthenticationPrincipal User user, WebRequest webRequest) {
 
     log.debug("Downloading file: {} by user: {}", id, user.getUsername());
-    Resource resource = fileService.downloadFile(id, user);
-    FileMetadataDto metadata = fileService.getFileMetadata(id, user);
+    // The check also adds the ETag and Last-Modified headers to the response
+    Optional<FileDownload> modifiedDownload = fileService.downloadFile(id, user,
+        parseRanges(rangeHeader),
+        current -> webRequest.checkNotModified(contentETag(current), lastModified(current)));
+    if (modifiedDownload.isEmpty()) {
+      return null;
+    }
+
+    FileDownload download = modifiedDownload.get();
+    FileMetadataDto metadata = download.metadata();
+    ContentRange range = download.range();
 
-    ResponseEntity.BodyBuilder responseBuilder = ResponseEntity.ok()
+    ResponseEntity.BodyBuilder responseBuilder = ResponseEntity
+        .status(range == null ? HttpStatus.OK : HttpStatus.PARTIAL_CONTENT)
         .header(HttpHeaders.CONTENT_DISPOSITION,
             "attachment; filename=\"" + sanitizeFilename(metadata.filename()) + "\"")
         .header(HttpHeaders.CONTENT_TYPE, metadata.contentType());
 
-    // Try to set content length, but don't fail if we can't determine it
-    try {
-      long contentLength = resource.contentLength();
-      if (contentLength >= 0) {
-        responseBuilder.header(HttpHeaders.CONTENT_LENGTH, String.valueOf(contentLength));
+    if (download.acceptsRanges()) {
+      responseBuilder.header(HttpHeaders.ACCEPT_RANGES, "bytes");
+    }
+    if (range != null) {
+      responseBuilder
+          .header(HttpHeaders.CONTENT_RANGE, String.format("bytes %d-%d/%d",
+              range.start(), range.end(), range.contentLength()))
+          .contentLength(range.length());
+    } else if (metadata.originalFileSize() != null) {
+      responseBuilder.contentLength(metadata.originalFileSize());
+    }
+
+    StreamingResponseBody body = outputStream -> {
+      try (InputStream content = download.content()) {
+        content.transferTo(outputStream);
       }
-    } catch (IOException e) {
-      log.warn("Could not determine content length for file: {}", id, e);
-      // Continue without content-length header
+    };
+    return responseBuilder.body(body);
+  }
+
+  /**
+   * Download several files as one ZIP archive, selected by their ids or by a keyword matched to
+   * their filenames. The archive is streamed to the response as each file is decrypted and
+   * decompressed; files the user cannot access are left out.
+   *
+   * @param archiveRequest request object containing file ids or a search keyword
+   * @param user           the authenticated user
+   * @return ZIP archive of the files
+   */
+  @PostMapping("/archive")
+  public ResponseEntity<StreamingResponseBody> downloadArchive(
+      @RequestBody @Valid ArchiveRequest archiveRequest, @AuthenticationPrincipal User user) {
+
+    log.debug("Downloading archive by user: {}", user.getUsername());
+    FileArchive archive = fileArchiveService.prepareArchive(archiveRequest, user);
+    return ResponseEntity.ok()
+        .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"files.zip\"")
+        .header(HttpHeaders.CONTENT_TYPE, "application/zip")
+        .body(archive::writeTo);
+  }
+
+  /**
+   * Strong validator of the content of a file, which is the digest of the content recorded on
+   * upload.
+   *
+   * @param metadata file metadata
+   * @return quoted ETag, or null if no content hash was recorded for the file
+   */
+  private static String contentETag(FileMetadataDto metadata) {
+    return metadata.contentHash() == null ? null : "\"" + metadata.contentHash() + "\"";
+  }
+
+  /**
+   * Strong validator of the metadata of a file. It covers the file name as well as the content,
+   * since renaming a file changes its metadata but not its content.
+   *
+   * @param metadata file metadata
+   * @return quoted ETag, or null if no content hash was recorded for the file
+   */
+  private static String metadataETag(FileMetadataDto metadata) {
+    if (metadata.contentHash() == null) {
+      return null;
     }
+    return "\"" + metadata.contentHash() + "-"
+        + DigestUtils.md5DigestAsHex(metadata.filename().getBytes(StandardCharsets.UTF_8)) + "\"";
+  }
+
+  private static long lastModified(FileMetadataDto metadata) {
+    return metadata.uploadDate().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+  }
 
-    return responseBuilder.body(resource);
+  /**
+   * Parse a Range header. Malformed headers are ignored, as allowed by RFC 9110, so that the whole
+   * file is returned instead.
+   *
+   * @param rangeHeader Range header value, possibly null
+   * @return requested ranges
+   */
+  private List<HttpRange> parseRanges(String rangeHeader) {
+    try {
+      return HttpRange.parseRanges(rangeHeader);
+    } catch (IllegalArgumentException e) {
+      log.debug("Ignoring malformed Range header: {}", rangeHeader);
+      return List.of();
+    }
   }
 
   /**
@@ -0,0 +1,122 @@
+package com.mvasilakos.filestorage.controller;
+
+import com.mvasilakos.filestorage.dto.CreateUploadSessionRequest;
+import com.mvasilakos.filestorage.dto.FileMetadataDto;
+import com.mvasilakos.filestorage.dto.UploadSessionDto;
+import com.mvasilakos.filestorage.model.User;
+import com.mvasilakos.filestorage.service.UploadSessionService;
+import jakarta.validation.Valid;
+import java.io.InputStream;
+import java.util.UUID;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+
+/**
+ * Controller for resumable uploads. A session is created for the file, its chunks are sent in any
+ * order, each in a request of its own, and the session is committed once all of them arrived.
+ */
+@RestController
+@RequestMapping("/api/files/uploads")
+@RequiredArgsConstructor
+@Validated
+@Slf4j
+public class UploadSessionController {
+
+  private final UploadSessionService uploadSessionService;
+
+  /**
+   * Start a resumable upload.
+   *
+   * @param request details of the file to be uploaded
+   * @param owner   the user uploading the file
+   * @return upload session, including the chunk size to split the file by
+   */
+  @PostMapping
+  public ResponseEntity<UploadSessionDto> createSession(
+      @RequestBody @Valid CreateUploadSessionRequest request,
+      @AuthenticationPrincipal User owner) {
+
+    log.debug("Starting upload of file: \"{}\" for user: {}",
+        request.getFilename(), owner.getUsername());
+    UploadSessionDto session = uploadSessionService.createSession(request.getFilename(),
+        request.getContentType(), request.getTotalSize(), owner);
+    return ResponseEntity.status(HttpStatus.CREATED).body(session);
+  }
+
+  /**
+   * Get the state of an upload, to find out which chunks still have to be sent when resuming it.
+   *
+   * @param id    session id
+   * @param owner the user uploading the file
+   * @return upload session
+   */
+  @GetMapping("/{id}")
+  public ResponseEntity<UploadSessionDto> getSession(@PathVariable @Valid UUID id,
+      @AuthenticationPrincipal User owner) {
+    return ResponseEntity.ok(uploadSessionService.getSession(id, owner));
+  }
+
+  /**
+   * Upload a chunk of the file as the raw request body.
+   *
+   * @param id      session id
+   * @param index   zero based chunk index
+   * @param content chunk content
+   * @param owner   the user uploading the file
+   * @return no content response
+   */
+  @PutMapping(value = "/{id}/chunks/{index}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+  public ResponseEntity<Void> uploadChunk(@PathVariable @Valid UUID id,
+      @PathVariable int index, InputStream content, @AuthenticationPrincipal User owner) {
+
+    log.debug("Receiving chunk {} of upload: {} by user: {}", index, id, owner.getUsername());
+    uploadSessionService.uploadChunk(id, index, content, owner);
+    return ResponseEntity.noContent().build();
+  }
+
+  /**
+   * Complete an upload once all of its chunks were sent.
+   *
+   * @param id    session id
+   * @param owner the user uploading the file
+   * @return uploaded file's metadata
+   */
+  @PostMapping("/{id}/commit")
+  public ResponseEntity<FileMetadataDto> commit(@PathVariable @Valid UUID id,
+      @AuthenticationPrincipal User owner) {
+
+    log.debug("Committing upload: {} by user: {}", id, owner.getUsername());
+    FileMetadataDto metadata = uploadSessionService.commit(id, owner);
+    return ResponseEntity.status(HttpStatus.CREATED).body(metadata);
+  }
+
+  /**
+   * Abort an upload and discard the chunks sent so far.
+   *
+   * @param id    session id
+   * @param owner the user uploading the file
+   * @return no content response
+   */
+  @DeleteMapping("/{id}")
+  public ResponseEntity<Void> abort(@PathVariable @Valid UUID id,
+      @AuthenticationPrincipal User owner) {
+
+    log.debug("Aborting upload: {} by user: {}", id, owner.getUsername());
+    uploadSessionService.abort(id, owner);
+    return ResponseEntity.noContent().build();
+  }
+}
@@ -0,0 +1,82 @@
+package com.mvasilakos.filestorage.crypto;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import javax.crypto.SecretKey;
+
+/**
+ * Reads a frame stream written by {@link AeadOutputStream}, verifying and decrypting one frame at
+ * a time. The stream only ends after the frame marked as final, so truncation is detected.
+ */
+class AeadInputStream extends InputStream {
+
+  private static final int MAX_SEALED_FRAME_LENGTH = 64 * 1024 * 1024;
+
+  private final DataInputStream source;
+  private final AesGcmEngine engine;
+  private final SecretKey key;
+  private byte[] current = new byte[0];
+  private int position;
+  private long frameCount;
+  private boolean lastFrameRead;
+
+  AeadInputStream(InputStream source, AesGcmEngine engine, SecretKey key) {
+    this.source = new DataInputStream(source);
+    this.engine = engine;
+    this.key = key;
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] b = new byte[1];
+    return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    while (position == current.length) {
+      if (lastFrameRead) {
+        return -1;
+      }
+      readFrame();
+    }
+    int count = Math.min(len, current.length - position);
+    System.arraycopy(current, position, b, off, count);
+    position += count;
+    return count;
+  }
+
+  private void readFrame() throws IOException {
+    int header;
+    try {
+      header = source.readInt();
+    } catch (EOFException e) {
+      throw new IOException("Sealed stream is truncated after frame " + frameCount, e);
+    }
+    boolean last = (header & AeadOutputStream.LAST_FRAME_FLAG) != 0;
+    int length = header & ~AeadOutputStream.LAST_FRAME_FLAG;
+    if (length > MAX_SEALED_FRAME_LENGTH) {
+      throw new IOException("Sealed frame is too long: " + length + " bytes");
+    }
+
+    byte[] sealed = source.readNBytes(length);
+    if (sealed.length != length) {
+      throw new IOException("Sealed stream is truncated in frame " + frameCount);
+    }
+    current = engine.open(key, sealed, 0, length,
+        AesGcmEngine.frameAssociatedData(frameCount++, last));
+    position = 0;
+    lastFrameRead = last;
+  }
+
+  @Override
+  public void close() throws IOException {
+    source.close();
+  }
+
+}
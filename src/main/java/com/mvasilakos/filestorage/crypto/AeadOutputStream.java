@@ -0,0 +1,77 @@
+package com.mvasilakos.filestorage.crypto;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import javax.crypto.SecretKey;
+
+/**
+ * Splits a plaintext stream into frames sealed by an {@link AesGcmEngine}. Every frame is written
+ * as a four-byte header holding its sealed length, with the top bit set on the final frame,
+ * followed by the sealed frame. A full frame is only sealed once more content arrives, so that the
+ * final frame can always be marked as such.
+ */
+class AeadOutputStream extends OutputStream {
+
+  static final int LAST_FRAME_FLAG = 0x80000000;
+
+  private final DataOutputStream target;
+  private final AesGcmEngine engine;
+  private final SecretKey key;
+  private final byte[] frame;
+  private int buffered;
+  private long frameCount;
+  private boolean closed;
+
+  AeadOutputStream(OutputStream target, AesGcmEngine engine, SecretKey key, int frameSize) {
+    this.target = new DataOutputStream(target);
+    this.engine = engine;
+    this.key = key;
+    this.frame = new byte[frameSize];
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[] {(byte) b}, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    while (len > 0) {
+      if (buffered == frame.length) {
+        writeFrame(false);
+      }
+      int count = Math.min(len, frame.length - buffered);
+      System.arraycopy(b, off, frame, buffered, count);
+      buffered += count;
+      off += count;
+      len -= count;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      writeFrame(true);
+      target.flush();
+    } finally {
+      target.close();
+    }
+  }
+
+  private void writeFrame(boolean last) throws IOException {
+    byte[] sealed = engine.seal(key, frame, 0, buffered,
+        AesGcmEngine.frameAssociatedData(frameCount++, last));
+    target.writeInt(last ? sealed.length | LAST_FRAME_FLAG : sealed.length);
+    target.write(sealed);
+    buffered = 0;
+  }
+
+}
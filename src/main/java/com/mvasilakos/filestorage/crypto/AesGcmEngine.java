@@ -0,0 +1,164 @@
+package com.mvasilakos.filestorage.crypto;
+
+import com.mvasilakos.filestorage.exception.FileEncryptionException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import org.springframework.stereotype.Component;
+
+/**
+ * AES-GCM authenticated encryption of independent messages, such as file segments.
+ *
+ * <p>Looking up a {@link Cipher} through the provider framework and seeding a new
+ * {@link SecureRandom} are far more expensive than encrypting a small segment, so ciphers are
+ * pooled and re-initialized with a fresh nonce for each message, and all threads share one
+ * {@link SecureRandom}, which is thread-safe. A cipher is only borrowed for the duration of a
+ * call, so sealed messages may be produced and consumed on different threads. The pool is shared
+ * rather than kept per thread, since virtual threads are started per request and would never
+ * reuse a cipher of their own.
+ */
+@Component
+public class AesGcmEngine {
+
+  /**
+   * Length of the nonce prepended to every sealed message in bytes.
+   */
+  public static final int NONCE_LENGTH = 12;
+
+  /**
+   * Length of the authentication tag appended to every sealed message in bytes.
+   */
+  public static final int TAG_LENGTH = 16;
+
+  private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+
+  private final SecureRandom secureRandom = new SecureRandom();
+  // Grows to the number of messages processed at once, ciphers are small
+  private final Queue<Cipher> idleCiphers = new ConcurrentLinkedQueue<>();
+
+  private Cipher borrowCipher() {
+    Cipher cipher = idleCiphers.poll();
+    if (cipher != null) {
+      return cipher;
+    }
+    try {
+      return Cipher.getInstance(TRANSFORMATION);
+    } catch (GeneralSecurityException e) {
+      throw new FileEncryptionException("AES-GCM is not available", e);
+    }
+  }
+
+  /**
+   * Encrypt and authenticate a message under a fresh random nonce.
+   *
+   * @param key            encryption key
+   * @param plaintext      buffer holding the message
+   * @param offset         offset of the message in the buffer
+   * @param length         length of the message
+   * @param associatedData data that is authenticated but not encrypted
+   * @return nonce followed by the ciphertext and authentication tag
+   */
+  public byte[] seal(SecretKey key, byte[] plaintext, int offset, int length,
+      byte[] associatedData) {
+    byte[] sealed = new byte[NONCE_LENGTH + length + TAG_LENGTH];
+    byte[] nonce = new byte[NONCE_LENGTH];
+    secureRandom.nextBytes(nonce);
+    System.arraycopy(nonce, 0, sealed, 0, NONCE_LENGTH);
+
+    Cipher cipher = borrowCipher();
+    try {
+      cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, nonce));
+      cipher.updateAAD(associatedData);
+      cipher.doFinal(plaintext, offset, length, sealed, NONCE_LENGTH);
+      return sealed;
+    } catch (GeneralSecurityException e) {
+      throw new FileEncryptionException("Failed to encrypt segment", e);
+    } finally {
+      idleCiphers.offer(cipher);
+    }
+  }
+
+  /**
+   * Verify and decrypt a message sealed by
+   * {@link #seal(SecretKey, byte[], int, int, byte[])}.
+   *
+   * @param key            encryption key
+   * @param sealed         buffer holding the sealed message
+   * @param offset         offset of the sealed message in the buffer
+   * @param length         length of the sealed message
+   * @param associatedData data the message was authenticated with
+   * @return decrypted message
+   */
+  public byte[] open(SecretKey key, byte[] sealed, int offset, int length,
+      byte[] associatedData) {
+    if (length < NONCE_LENGTH + TAG_LENGTH) {
+      throw new FileEncryptionException("Sealed segment is too short: " + length + " bytes");
+    }
+
+    Cipher cipher = borrowCipher();
+    try {
+      cipher.init(Cipher.DECRYPT_MODE, key,
+          new GCMParameterSpec(TAG_LENGTH * 8, sealed, offset, NONCE_LENGTH));
+      cipher.updateAAD(associatedData);
+      return cipher.doFinal(sealed, offset + NONCE_LENGTH, length - NONCE_LENGTH);
+    } catch (AEADBadTagException e) {
+      throw new FileEncryptionException("Segment failed authentication, file might be corrupted",
+          e);
+    } catch (GeneralSecurityException e) {
+      throw new FileEncryptionException("Failed to decrypt segment", e);
+    } finally {
+      idleCiphers.offer(cipher);
+    }
+  }
+
+  /**
+   * Fill a buffer with bytes from the shared {@link SecureRandom}.
+   *
+   * @param bytes buffer to fill
+   */
+  public void nextBytes(byte[] bytes) {
+    secureRandom.nextBytes(bytes);
+  }
+
+  /**
+   * Wrap a stream so that everything written to it is split into frames that are sealed
+   * independently. Closing the returned stream seals the final frame and closes the target.
+   *
+   * @param outputStream target for the sealed frames
+   * @param key          encryption key
+   * @param frameSize    plaintext length of each frame
+   * @return plaintext stream
+   */
+  public OutputStream sealingStream(OutputStream outputStream, SecretKey key, int frameSize) {
+    return new AeadOutputStream(outputStream, this, key, frameSize);
+  }
+
+  /**
+   * Wrap a stream written by {@link #sealingStream(OutputStream, SecretKey, int)} so that its
+   * frames are verified and decrypted while being read. Reading fails if frames were modified,
+   * reordered or dropped.
+   *
+   * @param inputStream sealed frame stream
+   * @param key         encryption key
+   * @return plaintext stream
+   */
+  public InputStream openingStream(InputStream inputStream, SecretKey key) {
+    return new AeadInputStream(inputStream, this, key);
+  }
+
+  static byte[] frameAssociatedData(long frame, boolean last) {
+    return ByteBuffer.allocate(Long.BYTES + 1)
+        .putLong(frame)
+        .put((byte) (last ? 1 : 0))
+        .array();
+  }
+
+}
@@ -0,0 +1,24 @@
+package com.mvasilakos.filestorage.dto;
+
+import jakarta.validation.constraints.Size;
+import java.util.List;
+import java.util.UUID;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+
+/**
+ * Request object for downloading several files as one archive, either by their ids or by a search
+ * keyword matched to their filenames.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ArchiveRequest {
+
+  private List<UUID> fileIds;
+
+  @Size(max = 255, message = "Keyword cannot be longer than 255 characters")
+  private String keyword;
+}
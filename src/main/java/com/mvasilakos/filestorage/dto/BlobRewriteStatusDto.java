@@ -0,0 +1,36 @@
+package com.mvasilakos.filestorage.dto;
+
+import com.mvasilakos.filestorage.model.BlobRewriteStatus;
+import java.time.LocalDateTime;
+import lombok.Builder;
+
+
+/**
+ * Dto for the progress of a background blob rewrite.
+ *
+ * @param running        whether the rewrite worker is active
+ * @param status         state of the latest rewrite, or null if none was ever started
+ * @param rewriteAll     whether all blobs are rewritten, rather than only outdated ones
+ * @param scanned        number of files checked so far
+ * @param rewritten      number of blobs rewritten into the current format
+ * @param failed         number of blobs that could not be rewritten
+ * @param bytesRewritten number of content bytes rewritten
+ * @param startedAt      start time of the latest rewrite
+ * @param updatedAt      time progress was last saved
+ * @param finishedAt     end time of the latest rewrite, or null until all files were checked
+ */
+@Builder
+public record BlobRewriteStatusDto(
+    boolean running,
+    BlobRewriteStatus status,
+    boolean rewriteAll,
+    long scanned,
+    long rewritten,
+    long failed,
+    long bytesRewritten,
+    LocalDateTime startedAt,
+    LocalDateTime updatedAt,
+    LocalDateTime finishedAt
+) {
+
+}
@@ -0,0 +1,22 @@
+package com.mvasilakos.filestorage.dto;
+
+import lombok.Builder;
+
+
+/**
+ * Dto for the outcome of one file of a bulk upload.
+ *
+ * @param filename original name of the uploaded file
+ * @param uploaded whether the file was stored
+ * @param file     metadata of the stored file, or null if it was not stored
+ * @param error    reason the file was not stored, or null if it was
+ */
+@Builder
+public record BulkUploadResultDto(
+    String filename,
+    boolean uploaded,
+    FileMetadataDto file,
+    String error
+) {
+
+}
@@ -0,0 +1,34 @@
+package com.mvasilakos.filestorage.dto;
+
+import lombok.Builder;
+
+
+/**
+ * Dto for the statistics of the decrypted content cache.
+ *
+ * @param enabled       whether downloads are served from the cache
+ * @param entries       number of cached files
+ * @param usedBytes     off-heap memory held by cached content
+ * @param capacityBytes off-heap memory the cache may hold at most
+ * @param hits          number of downloads served from the cache
+ * @param misses        number of downloads read from storage
+ * @param hitRate       share of downloads served from the cache
+ * @param admissions    number of files loaded into the cache
+ * @param evictions     number of files evicted to make room for others
+ * @param invalidations number of files removed because they were deleted or their blob moved
+ */
+@Builder
+public record ContentCacheStatsDto(
+    boolean enabled,
+    long entries,
+    long usedBytes,
+    long capacityBytes,
+    long hits,
+    long misses,
+    double hitRate,
+    long admissions,
+    long evictions,
+    long invalidations
+) {
+
+}
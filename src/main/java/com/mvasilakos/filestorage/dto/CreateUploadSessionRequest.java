@@ -0,0 +1,30 @@
+package com.mvasilakos.filestorage.dto;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import jakarta.validation.constraints.Size;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+
+/**
+ * Request object for starting a resumable upload.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CreateUploadSessionRequest {
+
+  @NotBlank(message = "Filename cannot be blank")
+  @Size(max = 255, message = "Filename cannot be longer than 255 characters")
+  private String filename;
+
+  @Size(max = 255, message = "Content type cannot be longer than 255 characters")
+  private String contentType;
+
+  @NotNull(message = "Total size must be specified")
+  @Positive(message = "Total size must be positive")
+  private Long totalSize;
+}
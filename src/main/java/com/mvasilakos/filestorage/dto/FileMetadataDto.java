@@ -14,6 +14,8 @@ import lombok.Builder;
  * @param size        size in bytes
  * @param uploadDate  upload date
  * @param storagePath storage path
+ * @param contentHash hex encoded SHA-256 digest of the content, or null for files uploaded before
+ *                    content hashes were recorded
  * @param userDto     details of the user that uploaded it
  */
 @Builder(toBuilder = true)
@@ -25,6 +27,7 @@ public record FileMetadataDto(
     Long originalFileSize,
     LocalDateTime uploadDate,
     String storagePath,
+    String contentHash,
     UserDto userDto
 ) {
 
@@ -0,0 +1,35 @@
+package com.mvasilakos.filestorage.dto;
+
+import java.time.LocalDateTime;
+import lombok.Builder;
+
+
+/**
+ * Dto for the progress of a master key rotation.
+ *
+ * @param running            whether data keys are being rewrapped
+ * @param masterKeyVersion   version of the master key wrapping new data keys
+ * @param scanned            number of files and blobs checked so far
+ * @param rewrapped          number of data keys rewrapped by the current master key
+ * @param failed             number of data keys that could not be rewrapped
+ * @param cachedDataKeys     number of unwrapped data keys currently cached
+ * @param dataKeyCacheHits   number of unwraps served from the cache
+ * @param dataKeyCacheMisses number of unwraps that needed the master key
+ * @param startedAt          start time of the latest rotation
+ * @param finishedAt         end time of the latest rotation, or null while it is running
+ */
+@Builder
+public record KeyRotationStatusDto(
+    boolean running,
+    int masterKeyVersion,
+    long scanned,
+    long rewrapped,
+    long failed,
+    int cachedDataKeys,
+    long dataKeyCacheHits,
+    long dataKeyCacheMisses,
+    LocalDateTime startedAt,
+    LocalDateTime finishedAt
+) {
+
+}
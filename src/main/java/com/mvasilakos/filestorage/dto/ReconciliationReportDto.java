@@ -0,0 +1,48 @@
+package com.mvasilakos.filestorage.dto;
+
+import com.mvasilakos.filestorage.model.ReconciliationAction;
+import java.time.LocalDateTime;
+import java.util.List;
+import lombok.Builder;
+
+
+/**
+ * Dto for the findings of a storage reconciliation run.
+ *
+ * @param running           whether the run is in progress
+ * @param action            what is done with confirmed orphans
+ * @param blobsScanned      number of stored blobs checked
+ * @param rowsScanned       number of distinct storage paths of files checked
+ * @param suspectedBlobs    number of blobs without files seen for the first time, confirmed or
+ *                          cleared by the next run
+ * @param suspectedRows     number of storage paths of files without a blob seen for the first time
+ * @param orphanBlobs       number of blobs confirmed to have no files
+ * @param orphanRows        number of storage paths confirmed to have files but no blob
+ * @param quarantined       number of orphan blobs moved to quarantine
+ * @param deleted           number of orphan blobs and storage paths deleted
+ * @param failed            number of orphans that could not be handled
+ * @param orphanBlobSamples storage paths of some of the orphan blobs
+ * @param orphanRowSamples  some of the storage paths whose blob is missing
+ * @param startedAt         start time of the run
+ * @param finishedAt        end time of the run, or null while it is running
+ */
+@Builder
+public record ReconciliationReportDto(
+    boolean running,
+    ReconciliationAction action,
+    long blobsScanned,
+    long rowsScanned,
+    long suspectedBlobs,
+    long suspectedRows,
+    long orphanBlobs,
+    long orphanRows,
+    long quarantined,
+    long deleted,
+    long failed,
+    List<String> orphanBlobSamples,
+    List<String> orphanRowSamples,
+    LocalDateTime startedAt,
+    LocalDateTime finishedAt
+) {
+
+}
@@ -0,0 +1,27 @@
+package com.mvasilakos.filestorage.dto;
+
+import java.time.LocalDateTime;
+import lombok.Builder;
+
+
+/**
+ * Dto for the progress of a storage layout migration.
+ *
+ * @param running    whether the migration is in progress
+ * @param scanned    number of storage paths checked so far
+ * @param migrated   number of blobs moved to the current layout
+ * @param failed     number of blobs that could not be moved
+ * @param startedAt  start time of the latest migration
+ * @param finishedAt end time of the latest migration, or null while it is running
+ */
+@Builder
+public record StorageMigrationStatusDto(
+    boolean running,
+    long scanned,
+    long migrated,
+    long failed,
+    LocalDateTime startedAt,
+    LocalDateTime finishedAt
+) {
+
+}
@@ -0,0 +1,33 @@
+package com.mvasilakos.filestorage.dto;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+import lombok.Builder;
+
+
+/**
+ * Dto for upload sessions.
+ *
+ * @param id             session id
+ * @param filename       name of the file being uploaded
+ * @param contentType    declared file type
+ * @param totalSize      size of the whole file in bytes
+ * @param chunkSize      size of every chunk but the last one in bytes
+ * @param chunkCount     number of chunks the file is split into
+ * @param receivedChunks indexes of the chunks received so far
+ * @param expiresAt      time after which the session and its chunks are discarded
+ */
+@Builder
+public record UploadSessionDto(
+    UUID id,
+    String filename,
+    String contentType,
+    Long totalSize,
+    Integer chunkSize,
+    Integer chunkCount,
+    List<Integer> receivedChunks,
+    LocalDateTime expiresAt
+) {
+
+}
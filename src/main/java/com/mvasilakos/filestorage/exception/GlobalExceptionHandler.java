@@ -1,6 +1,7 @@
 package com.mvasilakos.filestorage.exception;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.AccessDeniedException;
@@ -27,6 +28,30 @@ public class GlobalExceptionHandler {
     return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(ex.getMessage());
   }
 
+  /**
+   * Returns an HTTP range not satisfiable response in case a download range lies outside the file.
+   *
+   * @param ex raised exception
+   * @return HTTP response entity
+   */
+  @ExceptionHandler(RangeNotSatisfiableException.class)
+  public ResponseEntity<String> handleRangeNotSatisfiable(RangeNotSatisfiableException ex) {
+    return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+        .header(HttpHeaders.CONTENT_RANGE, "bytes */" + ex.getContentLength())
+        .body(ex.getMessage());
+  }
+
+  /**
+   * Returns an HTTP length required response in case an upload does not declare its length.
+   *
+   * @param ex raised exception
+   * @return HTTP response entity
+   */
+  @ExceptionHandler(LengthRequiredException.class)
+  public ResponseEntity<String> handleLengthRequired(LengthRequiredException ex) {
+    return ResponseEntity.status(HttpStatus.LENGTH_REQUIRED).body(ex.getMessage());
+  }
+
   /**
    * Returns an HTTP forbidden response in case of access denied exception.
    *
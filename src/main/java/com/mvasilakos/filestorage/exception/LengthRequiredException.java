@@ -0,0 +1,16 @@
+package com.mvasilakos.filestorage.exception;
+
+/**
+ * Request body of unknown length where the length must be known before the body is read.
+ */
+public class LengthRequiredException extends RuntimeException {
+
+  /**
+   * Constructor.
+   *
+   * @param message message
+   */
+  public LengthRequiredException(String message) {
+    super(message);
+  }
+}
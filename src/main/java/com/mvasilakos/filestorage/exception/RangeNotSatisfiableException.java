@@ -0,0 +1,29 @@
+package com.mvasilakos.filestorage.exception;
+
+/**
+ * Requested byte range lies outside the content of a file.
+ */
+public class RangeNotSatisfiableException extends RuntimeException {
+
+  private final long contentLength;
+
+  /**
+   * Constructor.
+   *
+   * @param message       message
+   * @param contentLength length of the file content
+   */
+  public RangeNotSatisfiableException(String message, long contentLength) {
+    super(message);
+    this.contentLength = contentLength;
+  }
+
+  /**
+   * Length of the file content the range was requested for.
+   *
+   * @return content length in bytes
+   */
+  public long getContentLength() {
+    return contentLength;
+  }
+}
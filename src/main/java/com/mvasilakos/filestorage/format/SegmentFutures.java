@@ -0,0 +1,55 @@
+package com.mvasilakos.filestorage.format;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Bridges segment transformations, which throw {@link IOException}, to futures run on an
+ * executor.
+ */
+final class SegmentFutures {
+
+  private SegmentFutures() {
+  }
+
+  static byte[] seal(SegmentTransformer transformer, byte[] plaintext, int length,
+      byte[] associatedData) {
+    try {
+      return transformer.seal(plaintext, length, associatedData);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  static byte[] open(SegmentTransformer transformer, byte[] sealed, byte[] associatedData) {
+    try {
+      return transformer.open(sealed, associatedData);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Wait for a segment, rethrowing the exception that failed it.
+   */
+  static byte[] join(CompletableFuture<byte[]> future) throws IOException {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof UncheckedIOException uncheckedIoException) {
+        throw uncheckedIoException.getCause();
+      }
+      if (cause instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      if (cause instanceof Error error) {
+        throw error;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+}
@@ -0,0 +1,59 @@
+package com.mvasilakos.filestorage.format;
+
+/**
+ * Position of every sealed segment within a segmented blob.
+ *
+ * @param segmentSize   plaintext length of every segment but the last
+ * @param contentLength total plaintext length
+ * @param offsets       offset of each sealed segment within the blob
+ * @param lengths       length of each sealed segment
+ */
+public record SegmentIndex(
+    int segmentSize,
+    long contentLength,
+    long[] offsets,
+    int[] lengths
+) {
+
+  /**
+   * Number of segments in the blob.
+   *
+   * @return segment count
+   */
+  public int segmentCount() {
+    return offsets.length;
+  }
+
+  /**
+   * Index of the segment holding the given plaintext position.
+   *
+   * @param position plaintext position
+   * @return segment index
+   */
+  public int segmentAt(long position) {
+    return (int) (position / segmentSize);
+  }
+
+  /**
+   * Offset of the first byte after the given segment within the blob.
+   *
+   * @param segment segment index
+   * @return end offset, exclusive
+   */
+  public long endOffset(int segment) {
+    return offsets[segment] + lengths[segment];
+  }
+
+  /**
+   * Plaintext length of the given segment.
+   *
+   * @param segment segment index
+   * @return plaintext length
+   */
+  public int plaintextLength(int segment) {
+    return segment < segmentCount() - 1
+        ? segmentSize
+        : (int) (contentLength - (long) segment * segmentSize);
+  }
+
+}
@@ -0,0 +1,32 @@
+package com.mvasilakos.filestorage.format;
+
+import java.io.IOException;
+
+/**
+ * Turns a plaintext segment into its sealed (compressed and encrypted) form and back. The
+ * associated data binds each sealed segment to its position in the blob.
+ */
+public interface SegmentTransformer {
+
+  /**
+   * Seal a plaintext segment.
+   *
+   * @param plaintext      buffer holding the plaintext segment
+   * @param length         number of plaintext bytes in the buffer
+   * @param associatedData authenticated data identifying the segment
+   * @return sealed segment
+   * @throws IOException if the segment cannot be sealed
+   */
+  byte[] seal(byte[] plaintext, int length, byte[] associatedData) throws IOException;
+
+  /**
+   * Open a sealed segment.
+   *
+   * @param sealed         sealed segment
+   * @param associatedData authenticated data identifying the segment
+   * @return plaintext segment
+   * @throws IOException if the segment cannot be opened or fails authentication
+   */
+  byte[] open(byte[] sealed, byte[] associatedData) throws IOException;
+
+}
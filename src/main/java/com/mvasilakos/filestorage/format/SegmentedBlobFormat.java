@@ -0,0 +1,122 @@
+package com.mvasilakos.filestorage.format;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Layout of segmented blobs. The plaintext is split into fixed-size segments that are sealed
+ * independently, so that any byte range can be served by reading only the segments it overlaps:
+ *
+ * <pre>
+ * header  : magic "FSEG" | version (1 byte)
+ * segments: sealed segment 0 | sealed segment 1 | ... | sealed segment n-1
+ * index   : sealed length of each segment (n x 4 bytes)
+ * trailer : segment size (4) | segment count (4) | content length (8) | magic "FSEG"
+ * </pre>
+ *
+ * <p>The associated data of every segment is its index and whether it is the last one, so
+ * segments cannot be reordered, and the blob cannot be truncated at a segment boundary, without
+ * failing authentication.
+ */
+public final class SegmentedBlobFormat {
+
+  /**
+   * Length of the header in bytes.
+   */
+  public static final int HEADER_LENGTH = 5;
+
+  /**
+   * Length of the trailer in bytes.
+   */
+  public static final int TRAILER_LENGTH = 20;
+
+  private static final byte[] MAGIC = "FSEG".getBytes(StandardCharsets.US_ASCII);
+  private static final byte VERSION = 1;
+
+  private SegmentedBlobFormat() {
+  }
+
+  static void writeHeader(OutputStream outputStream) throws IOException {
+    outputStream.write(MAGIC);
+    outputStream.write(VERSION);
+  }
+
+  static void writeTrailer(DataOutputStream outputStream, int segmentSize, int segmentCount,
+      long contentLength) throws IOException {
+    outputStream.writeInt(segmentSize);
+    outputStream.writeInt(segmentCount);
+    outputStream.writeLong(contentLength);
+    outputStream.write(MAGIC);
+  }
+
+  static byte[] associatedData(long segment, boolean last) {
+    return ByteBuffer.allocate(Long.BYTES + 1)
+        .putLong(segment)
+        .put((byte) (last ? 1 : 0))
+        .array();
+  }
+
+  /**
+   * Read the segment count from a blob trailer, to find out how long the index preceding it is.
+   *
+   * @param trailer last {@link #TRAILER_LENGTH} bytes of the blob
+   * @return number of segments
+   * @throws IOException if the trailer is malformed
+   */
+  public static int readSegmentCount(byte[] trailer) throws IOException {
+    ByteBuffer buffer = checkTrailer(trailer);
+    int segmentCount = buffer.getInt(Integer.BYTES);
+    if (segmentCount < 1) {
+      throw new IOException("Invalid segment count: " + segmentCount);
+    }
+    return segmentCount;
+  }
+
+  /**
+   * Parse the segment index of a blob.
+   *
+   * @param index   index bytes, {@code 4 * segmentCount} long
+   * @param trailer last {@link #TRAILER_LENGTH} bytes of the blob
+   * @return segment index
+   * @throws IOException if the index or trailer is malformed
+   */
+  public static SegmentIndex readIndex(byte[] index, byte[] trailer) throws IOException {
+    ByteBuffer trailerBuffer = checkTrailer(trailer);
+    int segmentSize = trailerBuffer.getInt();
+    int segmentCount = trailerBuffer.getInt();
+    long contentLength = trailerBuffer.getLong();
+
+    if (segmentSize <= 0 || segmentCount < 1 || index.length != segmentCount * Integer.BYTES
+        || contentLength < (long) (segmentCount - 1) * segmentSize
+        || contentLength > (long) segmentCount * segmentSize) {
+      throw new IOException("Segment index is inconsistent with the blob trailer");
+    }
+
+    ByteBuffer indexBuffer = ByteBuffer.wrap(index);
+    long[] offsets = new long[segmentCount];
+    int[] lengths = new int[segmentCount];
+    long offset = HEADER_LENGTH;
+    for (int i = 0; i < segmentCount; i++) {
+      offsets[i] = offset;
+      lengths[i] = indexBuffer.getInt();
+      if (lengths[i] < 0) {
+        throw new IOException("Invalid length for segment " + i);
+      }
+      offset += lengths[i];
+    }
+    return new SegmentIndex(segmentSize, contentLength, offsets, lengths);
+  }
+
+  private static ByteBuffer checkTrailer(byte[] trailer) throws IOException {
+    if (trailer.length != TRAILER_LENGTH || !Arrays.equals(
+        trailer, TRAILER_LENGTH - MAGIC.length, TRAILER_LENGTH, MAGIC, 0, MAGIC.length)) {
+      throw new IOException("Not a segmented blob");
+    }
+    return ByteBuffer.wrap(trailer);
+  }
+
+}
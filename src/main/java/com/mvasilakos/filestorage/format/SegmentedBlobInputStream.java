@@ -0,0 +1,150 @@
+package com.mvasilakos.filestorage.format;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Reads a plaintext range from a segmented blob. The source must be positioned at the first sealed
+ * segment overlapping the range; segments are opened as the stream is consumed.
+ *
+ * <p>Segments may be opened concurrently on an executor, in which case sealed segments are read
+ * ahead from the source and opened at once. The read-ahead starts at one segment past the one
+ * being read and doubles, up to {@code maxInFlight} segments in all, whenever the reader has to
+ * wait for a segment. A slow reader, such as a download to a slow client, thus holds two segments
+ * in memory and reads the source no faster than it consumes it, while a fast reader soon has all
+ * segments it is allowed opened in parallel.
+ */
+public class SegmentedBlobInputStream extends InputStream {
+
+  private final InputStream source;
+  private final SegmentIndex index;
+  private final SegmentTransformer transformer;
+  private final Executor executor;
+  private final int maxInFlight;
+  private final long offset;
+  private final int lastSegment;
+  private final Deque<CompletableFuture<byte[]>> pending = new ArrayDeque<>();
+  private int window;
+  private long remaining;
+  private int nextSegmentToRead;
+  private int nextSegmentToOpen;
+  private byte[] current = new byte[0];
+  private int position;
+
+  /**
+   * Constructor for a stream that opens segments on the reading thread.
+   *
+   * @param source      blob content, starting at the segment holding {@code offset}
+   * @param index       segment index of the blob
+   * @param transformer opens the segments
+   * @param offset      plaintext offset of the range
+   * @param length      plaintext length of the range
+   */
+  public SegmentedBlobInputStream(InputStream source, SegmentIndex index,
+      SegmentTransformer transformer, long offset, long length) {
+    this(source, index, transformer, offset, length, Runnable::run, 1);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param source      blob content, starting at the segment holding {@code offset}
+   * @param index       segment index of the blob
+   * @param transformer opens the segments
+   * @param offset      plaintext offset of the range
+   * @param length      plaintext length of the range
+   * @param executor    executor the segments are opened on
+   * @param maxInFlight maximum number of segments being opened at once
+   */
+  public SegmentedBlobInputStream(InputStream source, SegmentIndex index,
+      SegmentTransformer transformer, long offset, long length, Executor executor,
+      int maxInFlight) {
+    this.source = source;
+    this.index = index;
+    this.transformer = transformer;
+    this.executor = executor;
+    this.maxInFlight = Math.max(1, maxInFlight);
+    this.window = Math.min(2, this.maxInFlight);
+    this.offset = offset;
+    this.remaining = length;
+    this.nextSegmentToRead = index.segmentAt(offset);
+    this.nextSegmentToOpen = nextSegmentToRead;
+    this.lastSegment = length == 0
+        ? nextSegmentToRead - 1
+        : Math.min(index.segmentAt(offset + length - 1), index.segmentCount() - 1);
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] b = new byte[1];
+    return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (remaining == 0) {
+      return -1;
+    }
+    while (position == current.length) {
+      nextSegment();
+    }
+    int count = (int) Math.min(Math.min(len, current.length - position), remaining);
+    System.arraycopy(current, position, b, off, count);
+    position += count;
+    remaining -= count;
+    return count;
+  }
+
+  private void nextSegment() throws IOException {
+    while (pending.size() < window && nextSegmentToRead <= lastSegment) {
+      submitSegment(nextSegmentToRead++);
+    }
+    if (pending.isEmpty()) {
+      throw new IOException("Range exceeds the content of the blob");
+    }
+
+    CompletableFuture<byte[]> next = pending.poll();
+    // Waiting for the first segment only says that reading started
+    if (!next.isDone() && nextSegmentToOpen > index.segmentAt(offset)) {
+      window = Math.min(2 * window, maxInFlight);
+    }
+    current = SegmentFutures.join(next);
+    long segmentStart = (long) nextSegmentToOpen++ * index.segmentSize();
+    position = (int) Math.max(0, offset - segmentStart);
+  }
+
+  private void submitSegment(int segment) throws IOException {
+    byte[] sealed = source.readNBytes(index.lengths()[segment]);
+    if (sealed.length != index.lengths()[segment]) {
+      throw new IOException("Blob is truncated at segment " + segment);
+    }
+
+    byte[] associatedData = SegmentedBlobFormat.associatedData(
+        segment, segment == index.segmentCount() - 1);
+    int expectedLength = index.plaintextLength(segment);
+    pending.add(CompletableFuture.supplyAsync(() -> {
+      byte[] plaintext = SegmentFutures.open(transformer, sealed, associatedData);
+      if (plaintext.length != expectedLength) {
+        throw new UncheckedIOException(
+            new IOException("Unexpected plaintext length for segment " + segment));
+      }
+      return plaintext;
+    }, executor));
+  }
+
+  @Override
+  public void close() throws IOException {
+    pending.forEach(future -> future.cancel(false));
+    pending.clear();
+    source.close();
+  }
+
+}
@@ -0,0 +1,143 @@
+package com.mvasilakos.filestorage.format;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Writes a segmented blob. Plaintext is buffered one segment at a time; a full segment is only
+ * sealed once more content arrives, so that the final segment can always be marked as such.
+ * Closing the stream seals the final segment, writes the index and trailer and closes the target.
+ *
+ * <p>Segments may be sealed concurrently on an executor, in which case up to
+ * {@code maxInFlight} segments are sealed at once and written to the target in order as they
+ * complete.
+ */
+public class SegmentedBlobOutputStream extends OutputStream {
+
+  private final DataOutputStream target;
+  private final SegmentTransformer transformer;
+  private final Executor executor;
+  private final int maxInFlight;
+  private final int segmentSize;
+  private final DataOutputStream index;
+  private final ByteArrayOutputStream indexBuffer = new ByteArrayOutputStream();
+  private final Deque<PendingSegment> pending = new ArrayDeque<>();
+  private final Deque<byte[]> freeBuffers = new ArrayDeque<>();
+  private byte[] segment;
+  private int buffered;
+  private int segmentCount;
+  private long contentLength;
+  private boolean closed;
+
+  /**
+   * Constructor for a stream that seals segments on the writing thread. Writes the blob header to
+   * the target.
+   *
+   * @param target      blob output stream
+   * @param segmentSize plaintext length of each segment
+   * @param transformer seals the segments
+   * @throws IOException if the header cannot be written
+   */
+  public SegmentedBlobOutputStream(OutputStream target, int segmentSize,
+      SegmentTransformer transformer) throws IOException {
+    this(target, segmentSize, transformer, Runnable::run, 1);
+  }
+
+  /**
+   * Constructor. Writes the blob header to the target.
+   *
+   * @param target      blob output stream
+   * @param segmentSize plaintext length of each segment
+   * @param transformer seals the segments
+   * @param executor    executor the segments are sealed on
+   * @param maxInFlight maximum number of segments being sealed at once
+   * @throws IOException if the header cannot be written
+   */
+  public SegmentedBlobOutputStream(OutputStream target, int segmentSize,
+      SegmentTransformer transformer, Executor executor, int maxInFlight) throws IOException {
+    this.target = new DataOutputStream(target);
+    this.transformer = transformer;
+    this.executor = executor;
+    this.maxInFlight = Math.max(1, maxInFlight);
+    this.segmentSize = segmentSize;
+    this.segment = new byte[segmentSize];
+    this.index = new DataOutputStream(indexBuffer);
+    SegmentedBlobFormat.writeHeader(this.target);
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[] {(byte) b}, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    while (len > 0) {
+      if (buffered == segmentSize) {
+        submitSegment(false);
+      }
+      int count = Math.min(len, segmentSize - buffered);
+      System.arraycopy(b, off, segment, buffered, count);
+      buffered += count;
+      contentLength += count;
+      off += count;
+      len -= count;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      submitSegment(true);
+      while (!pending.isEmpty()) {
+        writeSealed(pending.poll());
+      }
+      target.write(indexBuffer.toByteArray());
+      SegmentedBlobFormat.writeTrailer(target, segmentSize, segmentCount, contentLength);
+      target.flush();
+    } finally {
+      pending.forEach(pendingSegment -> pendingSegment.sealed().cancel(false));
+      target.close();
+    }
+  }
+
+  private void submitSegment(boolean last) throws IOException {
+    byte[] plaintext = segment;
+    int length = buffered;
+    byte[] associatedData = SegmentedBlobFormat.associatedData(segmentCount++, last);
+    CompletableFuture<byte[]> sealed = CompletableFuture.supplyAsync(
+        () -> SegmentFutures.seal(transformer, plaintext, length, associatedData), executor);
+    pending.add(new PendingSegment(plaintext, sealed));
+
+    while (pending.size() >= maxInFlight) {
+      writeSealed(pending.poll());
+    }
+    segment = freeBuffers.isEmpty() ? new byte[segmentSize] : freeBuffers.poll();
+    buffered = 0;
+  }
+
+  private void writeSealed(PendingSegment pendingSegment) throws IOException {
+    byte[] sealed = SegmentFutures.join(pendingSegment.sealed());
+    target.write(sealed);
+    index.writeInt(sealed.length);
+    freeBuffers.add(pendingSegment.plaintext());
+  }
+
+  private record PendingSegment(byte[] plaintext, CompletableFuture<byte[]> sealed) {
+
+  }
+
+}
@@ -0,0 +1,23 @@
+package com.mvasilakos.filestorage.initializer;
+
+import com.mvasilakos.filestorage.service.BlobRewriteService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.stereotype.Component;
+
+
+/**
+ * Resumes a blob rewrite that was still running when the application stopped, after the last file
+ * it checked.
+ */
+@Component
+@RequiredArgsConstructor
+public class BlobRewriteResumeInitializer implements CommandLineRunner {
+
+  private final BlobRewriteService blobRewriteService;
+
+  @Override
+  public void run(String... args) {
+    blobRewriteService.resumeInterrupted();
+  }
+}
@@ -0,0 +1,145 @@
+package com.mvasilakos.filestorage.initializer;
+
+import com.mvasilakos.filestorage.config.DurabilityProperties;
+import com.mvasilakos.filestorage.config.TieringProperties;
+import com.mvasilakos.filestorage.service.FileStorageService;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+
+/**
+ * Removes the temporary files that writes interrupted by a crash left behind in the storage root.
+ * Stored files are only ever renamed into place once complete, so these are the only traces such a
+ * crash can leave, and finding them takes a scan of file names rather than a consistency check of
+ * every stored file.
+ *
+ * <p>The scan runs in the background, with one task per top-level directory of the storage root
+ * and of the cold storage location, if one is configured.
+ * Only temporary files last modified before startup are removed, so writes started since are left
+ * alone.
+ */
+@Slf4j
+@Component
+public class StorageRecoveryInitializer implements CommandLineRunner {
+
+  private final List<Path> storageLocations = new ArrayList<>();
+  private final int parallelism;
+  private final Instant startedAt = Instant.now();
+
+  /**
+   * Constructor.
+   *
+   * @param storageLocation      file storage location
+   * @param durabilityProperties durability properties
+   * @param tieringProperties    storage tier properties
+   */
+  public StorageRecoveryInitializer(@Value("${app.storage.location}") String storageLocation,
+      DurabilityProperties durabilityProperties, TieringProperties tieringProperties) {
+    this.storageLocations.add(Paths.get(storageLocation));
+    if (StringUtils.hasText(tieringProperties.getColdLocation())) {
+      this.storageLocations.add(Paths.get(tieringProperties.getColdLocation()));
+    }
+    int configuredParallelism = durabilityProperties.getRecoveryParallelism();
+    this.parallelism = configuredParallelism > 0
+        ? configuredParallelism
+        : Runtime.getRuntime().availableProcessors();
+  }
+
+  @Override
+  public void run(String... args) {
+    Thread recoveryThread = new Thread(this::recover, "storage-recovery");
+    recoveryThread.setDaemon(true);
+    recoveryThread.start();
+  }
+
+  /**
+   * Remove the temporary files left behind by interrupted writes.
+   *
+   * @return number of temporary files removed
+   */
+  public long recover() {
+    long removed = 0;
+    for (Path storageLocation : storageLocations) {
+      if (Files.isDirectory(storageLocation)) {
+        removed += recover(storageLocation);
+      }
+    }
+    return removed;
+  }
+
+  private long recover(Path storageLocation) {
+    long start = System.nanoTime();
+    long removed = 0;
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    try (Stream<Path> entries = Files.list(storageLocation)) {
+      List<Callable<Long>> tasks = new ArrayList<>();
+      for (Path entry : entries.toList()) {
+        if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+          tasks.add(() -> removeLeftovers(entry));
+        } else if (isLeftover(entry) && delete(entry)) {
+          removed++;
+        }
+      }
+      for (Future<Long> task : pool.invokeAll(tasks)) {
+        removed += task.get();
+      }
+    } catch (IOException | ExecutionException e) {
+      log.warn("Storage recovery scan of {} did not complete", storageLocation, e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      pool.shutdownNow();
+    }
+
+    log.info("Storage recovery removed {} leftover temporary files from {} in {} ms", removed,
+        storageLocation, (System.nanoTime() - start) / 1_000_000);
+    return removed;
+  }
+
+  private long removeLeftovers(Path directory) {
+    try (Stream<Path> paths = Files.walk(directory)) {
+      return paths.filter(this::isLeftover).filter(this::delete).count();
+    } catch (IOException | UncheckedIOException e) {
+      log.warn("Failed to scan {} for leftover temporary files", directory, e);
+      return 0;
+    }
+  }
+
+  private boolean isLeftover(Path path) {
+    if (!FileStorageService.isTemporaryFile(path)) {
+      return false;
+    }
+    try {
+      return Files.getLastModifiedTime(path, LinkOption.NOFOLLOW_LINKS).toInstant()
+          .isBefore(startedAt);
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private boolean delete(Path path) {
+    try {
+      return Files.deleteIfExists(path);
+    } catch (IOException e) {
+      log.warn("Failed to delete leftover temporary file: {}", path, e);
+      return false;
+    }
+  }
+}
@@ -29,6 +29,7 @@ public class FileMetadataMapper implements EntityMapper<FileMetadata, FileMetada
         .originalFileSize(entity.getOriginalFileSize())
         .uploadDate(entity.getUploadDate())
         .storagePath(entity.getStoragePath())
+        .contentHash(entity.getContentHash())
         .userDto(userMapper.toDto(entity.getOwner()))
         .build();
   }
@@ -0,0 +1,67 @@
+package com.mvasilakos.filestorage.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import java.time.LocalDateTime;
+import java.util.UUID;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+
+/**
+ * Progress of a background rewrite of stored blobs into the current storage format, saved as it
+ * advances so that the rewrite continues after the last checked file once resumed.
+ */
+@Entity
+@Table(name = "blob_rewrite_jobs")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@ToString
+public class BlobRewriteJob {
+
+  @Id
+  @Column(updatable = false, nullable = false, columnDefinition = "UUID")
+  private UUID id;
+
+  @Enumerated(EnumType.STRING)
+  @Column(nullable = false)
+  private BlobRewriteStatus status;
+
+  @Column(nullable = false, updatable = false)
+  private boolean rewriteAll;
+
+  @Column(nullable = false, columnDefinition = "UUID")
+  private UUID lastFileId;
+
+  @Column(nullable = false)
+  private long scanned;
+
+  @Column(nullable = false)
+  private long rewritten;
+
+  @Column(nullable = false)
+  private long failed;
+
+  @Column(nullable = false)
+  private long bytesRewritten;
+
+  @Column(nullable = false, updatable = false)
+  private LocalDateTime startedAt;
+
+  @Column(nullable = false)
+  private LocalDateTime updatedAt;
+
+  private LocalDateTime finishedAt;
+
+}
@@ -0,0 +1,22 @@
+package com.mvasilakos.filestorage.model;
+
+/**
+ * State of a background blob rewrite.
+ */
+public enum BlobRewriteStatus {
+
+  /**
+   * Blobs are being rewritten, or were when the application stopped.
+   */
+  RUNNING,
+
+  /**
+   * Paused by an administrator, to be resumed where it stopped.
+   */
+  PAUSED,
+
+  /**
+   * All files were checked.
+   */
+  FINISHED
+}
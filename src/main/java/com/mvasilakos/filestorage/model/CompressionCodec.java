@@ -0,0 +1,11 @@
+package com.mvasilakos.filestorage.model;
+
+/**
+ * Compression codecs applied to file content before it is stored.
+ */
+public enum CompressionCodec {
+  NONE,
+  GZIP,
+  ZSTD,
+  LZ4
+}
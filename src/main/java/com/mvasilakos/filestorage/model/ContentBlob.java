@@ -0,0 +1,65 @@
+package com.mvasilakos.filestorage.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import java.time.LocalDateTime;
+import java.util.UUID;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+
+/**
+ * Stored blob shared by all files with the same content, together with the number of files that
+ * reference it.
+ */
+@Entity
+@Table(name = "content_blobs")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@ToString
+public class ContentBlob {
+
+  @Id
+  @Column(updatable = false, nullable = false, columnDefinition = "UUID")
+  private UUID id;
+
+  @Column(nullable = false, unique = true, updatable = false)
+  private String dedupKey;
+
+  @Column(nullable = false, unique = true)
+  private String storagePath;
+
+  @Column(nullable = false)
+  private Long storedSize;
+
+  @Enumerated(EnumType.STRING)
+  @Column(nullable = false)
+  private StorageFormat storageFormat;
+
+  @Enumerated(EnumType.STRING)
+  @Column(nullable = false)
+  private CompressionCodec compressionCodec;
+
+  @Column(nullable = false)
+  private Long refCount;
+
+  @ToString.Exclude
+  private byte[] wrappedKey;
+
+  private Integer keyVersion;
+
+  @Column(nullable = false, updatable = false)
+  private LocalDateTime createdAt;
+
+}
@@ -0,0 +1,23 @@
+package com.mvasilakos.filestorage.model;
+
+/**
+ * Scope within which identical file content is stored only once.
+ */
+public enum DeduplicationScope {
+
+  /**
+   * Every upload is stored in a blob of its own.
+   */
+  NONE,
+
+  /**
+   * Identical content is shared between the files of the same owner only, so uploads reveal
+   * nothing about the files of other users.
+   */
+  PER_USER,
+
+  /**
+   * Identical content is shared between all files in the system.
+   */
+  GLOBAL
+}
@@ -0,0 +1,24 @@
+package com.mvasilakos.filestorage.model;
+
+/**
+ * How stored content is made durable before a write is acknowledged.
+ */
+public enum DurabilityMode {
+
+  /**
+   * Content is left to the operating system to write back, so the most recent writes may be lost
+   * on power failure.
+   */
+  NONE,
+
+  /**
+   * Every write flushes its own file and directory to disk before it completes.
+   */
+  FSYNC,
+
+  /**
+   * Concurrent writes are flushed to disk together in batches, sharing the cost of each flush, and
+   * complete once their batch is on disk.
+   */
+  GROUP_COMMIT
+}
@@ -3,6 +3,8 @@ package com.mvasilakos.filestorage.model;
 import jakarta.persistence.CascadeType;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
 import jakarta.persistence.FetchType;
 import jakarta.persistence.Id;
 import jakarta.persistence.JoinColumn;
@@ -54,9 +56,32 @@ public class FileMetadata {
   @Column(nullable = false)
   private LocalDateTime uploadDate;
 
-  @Column(nullable = false, unique = true)
+  @Column(nullable = false)
   private String storagePath;
 
+  @Column(length = 64)
+  private String contentHash;
+
+  @Enumerated(EnumType.STRING)
+  @Column(nullable = false)
+  private StorageFormat storageFormat;
+
+  @Enumerated(EnumType.STRING)
+  @Column(nullable = false)
+  private CompressionCodec compressionCodec;
+
+  @Enumerated(EnumType.STRING)
+  @Column(nullable = false)
+  @Builder.Default
+  private StorageTier storageTier = StorageTier.HOT;
+
+  private LocalDateTime lastAccessedAt;
+
+  @Exclude
+  private byte[] wrappedKey;
+
+  private Integer keyVersion;
+
   @ManyToOne(fetch = FetchType.LAZY)
   @JoinColumn(name = "owner_id", nullable = false)
   @Exclude
@@ -0,0 +1,23 @@
+package com.mvasilakos.filestorage.model;
+
+/**
+ * What the storage reconciliation does with orphans it has confirmed.
+ */
+public enum ReconciliationAction {
+
+  /**
+   * Orphans are only reported.
+   */
+  REPORT,
+
+  /**
+   * Blobs without files are moved to the quarantine directory, where they can be inspected and
+   * restored; files without blobs are only reported.
+   */
+  QUARANTINE,
+
+  /**
+   * Blobs without files are deleted, and so are the records of files whose blob is missing.
+   */
+  DELETE
+}
@@ -0,0 +1,24 @@
+package com.mvasilakos.filestorage.model;
+
+/**
+ * On-disk layouts of stored file blobs.
+ */
+public enum StorageFormat {
+
+  /**
+   * Initialization vector followed by the gzip-compressed AES-CBC ciphertext. Written by earlier
+   * versions of the application and kept readable.
+   */
+  ENCRYPT_THEN_COMPRESS,
+
+  /**
+   * Initialization vector followed by the AES-CBC ciphertext of the compressed content.
+   */
+  COMPRESS_THEN_ENCRYPT,
+
+  /**
+   * Fixed-size plaintext segments, each compressed and sealed with AES-GCM on its own, followed by
+   * a segment index. Byte ranges can be read without processing the rest of the file.
+   */
+  SEGMENTED
+}
@@ -0,0 +1,17 @@
+package com.mvasilakos.filestorage.model;
+
+/**
+ * Storage volume a blob is kept on.
+ */
+public enum StorageTier {
+
+  /**
+   * Fast volume at the storage root, holding recently accessed blobs and all packed ones.
+   */
+  HOT,
+
+  /**
+   * Large, slower volume that blobs move to once they have not been accessed for a while.
+   */
+  COLD
+}
@@ -0,0 +1,81 @@
+package com.mvasilakos.filestorage.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.FetchType;
+import jakarta.persistence.Id;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.ManyToOne;
+import jakarta.persistence.Table;
+import java.time.LocalDateTime;
+import java.util.UUID;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+import lombok.ToString.Exclude;
+
+
+/**
+ * Resumable upload session. The file is sent as numbered chunks of a fixed size, which are staged
+ * on disk until the session is committed.
+ */
+@Entity
+@Table(name = "upload_sessions")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@ToString
+public class UploadSession {
+
+  @Id
+  @Column(updatable = false, nullable = false, columnDefinition = "UUID")
+  private UUID id;
+
+  @ManyToOne(fetch = FetchType.LAZY)
+  @JoinColumn(name = "owner_id", nullable = false)
+  @Exclude
+  private User owner;
+
+  @Column(nullable = false)
+  private String filename;
+
+  private String contentType;
+
+  @Column(nullable = false)
+  private Long totalSize;
+
+  @Column(nullable = false)
+  private Integer chunkSize;
+
+  @Column(nullable = false, updatable = false)
+  private LocalDateTime createdAt;
+
+  @Column(nullable = false)
+  private LocalDateTime expiresAt;
+
+  /**
+   * Number of chunks the file is split into.
+   *
+   * @return chunk count
+   */
+  public int getChunkCount() {
+    return (int) ((totalSize + chunkSize - 1) / chunkSize);
+  }
+
+  /**
+   * Length of the chunk with the given index; only the last chunk may be shorter than the chunk
+   * size.
+   *
+   * @param index chunk index
+   * @return chunk length in bytes
+   */
+  public long getChunkLength(int index) {
+    return Math.min(chunkSize, totalSize - (long) index * chunkSize);
+  }
+
+}
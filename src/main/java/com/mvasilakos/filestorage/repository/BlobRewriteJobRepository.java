@@ -0,0 +1,23 @@
+package com.mvasilakos.filestorage.repository;
+
+import com.mvasilakos.filestorage.model.BlobRewriteJob;
+import java.util.Optional;
+import java.util.UUID;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+
+/**
+ * Blob rewrite job repository.
+ */
+@Repository
+public interface BlobRewriteJobRepository extends JpaRepository<BlobRewriteJob, UUID> {
+
+  /**
+   * Find the most recently started blob rewrite.
+   *
+   * @return latest blob rewrite job
+   */
+  Optional<BlobRewriteJob> findFirstByOrderByStartedAtDesc();
+
+}
@@ -0,0 +1,134 @@
+package com.mvasilakos.filestorage.repository;
+
+import com.mvasilakos.filestorage.model.CompressionCodec;
+import com.mvasilakos.filestorage.model.ContentBlob;
+import com.mvasilakos.filestorage.model.StorageFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+
+/**
+ * Content blob repository. Reference counts are only changed through single atomic statements,
+ * so concurrent uploads and deletes of the same content need no further locking.
+ */
+@Repository
+public interface ContentBlobRepository extends JpaRepository<ContentBlob, UUID> {
+
+  /**
+   * Find the blob stored for the given deduplication key.
+   *
+   * @param dedupKey deduplication key
+   * @return content blob
+   */
+  Optional<ContentBlob> findByDedupKey(String dedupKey);
+
+  /**
+   * Check whether a shared blob is stored at the given path.
+   *
+   * @param storagePath storage path
+   * @return true if the path belongs to a shared blob
+   */
+  boolean existsByStoragePath(String storagePath);
+
+  /**
+   * Take a reference to the blob stored for the given deduplication key.
+   *
+   * @param dedupKey deduplication key
+   * @return number of updated blobs, 0 if no blob is stored for the key
+   */
+  @Modifying
+  @Transactional
+  @Query("UPDATE ContentBlob b SET b.refCount = b.refCount + 1 WHERE b.dedupKey = :dedupKey")
+  int incrementRefCount(@Param("dedupKey") String dedupKey);
+
+  /**
+   * Drop a reference to the blob stored at the given path.
+   *
+   * @param storagePath storage path
+   * @return number of updated blobs, 0 if the path does not belong to a shared blob
+   */
+  @Modifying
+  @Transactional
+  @Query("UPDATE ContentBlob b SET b.refCount = b.refCount - 1 WHERE b.storagePath = :storagePath")
+  int decrementRefCount(@Param("storagePath") String storagePath);
+
+  /**
+   * Delete the blob stored at the given path if no file references it any more.
+   *
+   * @param storagePath storage path
+   * @return number of deleted blobs
+   */
+  @Modifying
+  @Transactional
+  @Query("DELETE FROM ContentBlob b WHERE b.storagePath = :storagePath AND b.refCount <= 0")
+  int deleteUnreferenced(@Param("storagePath") String storagePath);
+
+  /**
+   * Point the blob stored at a path to a new path.
+   *
+   * @param oldPath current storage path
+   * @param newPath new storage path
+   * @return number of updated blobs
+   */
+  @Modifying
+  @Transactional
+  @Query("UPDATE ContentBlob b SET b.storagePath = :newPath WHERE b.storagePath = :oldPath")
+  int updateStoragePath(@Param("oldPath") String oldPath, @Param("newPath") String newPath);
+
+  /**
+   * Delete the blob stored at the given path, whatever its reference count.
+   *
+   * @param storagePath storage path
+   * @return number of deleted blobs
+   */
+  @Modifying
+  @Transactional
+  @Query("DELETE FROM ContentBlob b WHERE b.storagePath = :storagePath")
+  int deleteByStoragePath(@Param("storagePath") String storagePath);
+
+  /**
+   * Find the blobs, with an id after the given one, whose data key is wrapped by a master key
+   * older than the given version, in id order, so that they can be rewrapped in batches.
+   *
+   * @param version master key version
+   * @param after   blob id to continue after
+   * @param limit   batch size
+   * @return content blobs
+   */
+  @Query(value = "SELECT * FROM content_blobs WHERE key_version < :version AND id > :after "
+      + "ORDER BY id LIMIT :limit",
+      nativeQuery = true)
+  List<ContentBlob> findWithKeyVersionBelow(@Param("version") int version,
+      @Param("after") UUID after, @Param("limit") int limit);
+
+  /**
+   * Point the blob stored at a path to a rewritten copy of it.
+   *
+   * @param oldPath          current storage path
+   * @param newPath          storage path of the rewritten blob
+   * @param storedSize       stored size of the rewritten blob
+   * @param storageFormat    storage format of the rewritten blob
+   * @param compressionCodec compression codec of the rewritten blob
+   * @param wrappedKey       wrapped data key of the rewritten blob
+   * @param keyVersion       version of the master key wrapping the data key
+   * @return number of updated blobs
+   */
+  @Modifying
+  @Transactional
+  @Query("UPDATE ContentBlob b SET b.storagePath = :newPath, b.storedSize = :storedSize, "
+      + "b.storageFormat = :storageFormat, b.compressionCodec = :compressionCodec, "
+      + "b.wrappedKey = :wrappedKey, b.keyVersion = :keyVersion "
+      + "WHERE b.storagePath = :oldPath")
+  int replaceStoredBlob(@Param("oldPath") String oldPath, @Param("newPath") String newPath,
+      @Param("storedSize") Long storedSize, @Param("storageFormat") StorageFormat storageFormat,
+      @Param("compressionCodec") CompressionCodec compressionCodec,
+      @Param("wrappedKey") byte[] wrappedKey, @Param("keyVersion") Integer keyVersion);
+
+}
@@ -1,17 +1,24 @@
 package com.mvasilakos.filestorage.repository;
 
 
+import com.mvasilakos.filestorage.model.CompressionCodec;
 import com.mvasilakos.filestorage.model.FileMetadata;
+import com.mvasilakos.filestorage.model.StorageFormat;
+import com.mvasilakos.filestorage.model.StorageTier;
 import com.mvasilakos.filestorage.model.User;
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 
 /**
@@ -107,6 +114,36 @@ public interface FileMetadataRepository extends JpaRepository<FileMetadata, UUID
   Optional<FileMetadata> findByIdAndOwnerOrSharedWith(@Param("id") UUID id,
       @Param("user") User user);
 
+  /**
+   * Find the files with the given ids which the given user has access to. Files that do not exist
+   * or that the user cannot access are left out.
+   *
+   * @param ids  file ids
+   * @param user user
+   * @return file metadata, in no particular order
+   */
+  @Query("SELECT DISTINCT f FROM FileMetadata f "
+      + "LEFT JOIN f.sharedWith p "
+      + "WHERE f.id IN :ids "
+      + "AND (f.owner = :user OR p.user = :user)")
+  List<FileMetadata> findAllByIdInAndOwnerOrSharedWith(@Param("ids") Collection<UUID> ids,
+      @Param("user") User user);
+
+  /**
+   * Search all files that the given user has access to, matching a keyword to their filename.
+   *
+   * @param user     user
+   * @param keyword  the keyword to search for in filenames (should include wildcards)
+   * @param pageable pagination information (page number, size, sort)
+   * @return file metadata
+   */
+  @Query("SELECT DISTINCT f FROM FileMetadata f "
+      + "LEFT JOIN f.sharedWith p "
+      + "WHERE (f.owner = :user OR p.user = :user) "
+      + "AND LOWER(f.filename) LIKE LOWER(:keyword)")
+  List<FileMetadata> searchOwnerOrSharedWith(@Param("user") User user,
+      @Param("keyword") String keyword, Pageable pageable);
+
   /**
    * Find the most recently uploaded files that the given user has access to (owns or shared with).
    * Uses limit parameter instead of Pageable.
@@ -150,4 +187,187 @@ public interface FileMetadataRepository extends JpaRepository<FileMetadata, UUID
   @Query("SELECT DISTINCT f FROM FileMetadata f WHERE f.size > :size")
   List<FileMetadata> findLargerThan(@Param("size") Long size);
 
-}
\ No newline at end of file
+  /**
+   * List the distinct storage paths that sort after the given one, in order, so that all stored
+   * blobs can be walked through in batches.
+   *
+   * @param after    storage path to continue after, empty to start from the beginning
+   * @param pageable batch size
+   * @return storage paths
+   */
+  @Query("SELECT DISTINCT f.storagePath FROM FileMetadata f WHERE f.storagePath > :after "
+      + "ORDER BY f.storagePath")
+  List<String> findStoragePathsAfter(@Param("after") String after, Pageable pageable);
+
+  /**
+   * Point all files stored at a path to a new path.
+   *
+   * @param oldPath current storage path
+   * @param newPath new storage path
+   * @return number of updated files
+   */
+  @Modifying
+  @Transactional
+  @Query("UPDATE FileMetadata f SET f.storagePath = :newPath WHERE f.storagePath = :oldPath")
+  int updateStoragePath(@Param("oldPath") String oldPath, @Param("newPath") String newPath);
+
+  /**
+   * Check whether any file is stored at the given path.
+   *
+   * @param storagePath storage path
+   * @return true if a file references the path
+   */
+  boolean existsByStoragePath(String storagePath);
+
+  /**
+   * List the distinct storage paths that sort after the given one in byte order, whatever the
+   * collation of the database, so that they can be merged with a sorted listing of stored files.
+   *
+   * @param after storage path to continue after, empty to start from the beginning
+   * @param limit batch size
+   * @return storage paths in byte order
+   */
+  @Query(value = "SELECT storage_path FROM file_metadata "
+      + "WHERE storage_path COLLATE \"C\" > :after "
+      + "GROUP BY storage_path ORDER BY storage_path COLLATE \"C\" LIMIT :limit",
+      nativeQuery = true)
+  List<String> findStoragePathsInByteOrderAfter(@Param("after") String after,
+      @Param("limit") int limit);
+
+  /**
+   * Find which of the given storage paths are referenced by files.
+   *
+   * @param storagePaths storage paths
+   * @return the referenced storage paths
+   */
+  @Query("SELECT DISTINCT f.storagePath FROM FileMetadata f WHERE f.storagePath IN :storagePaths")
+  List<String> findReferencedStoragePaths(
+      @Param("storagePaths") Collection<String> storagePaths);
+
+  /**
+   * Delete all files stored at the given path, along with their permissions.
+   *
+   * @param storagePath storage path
+   * @return number of deleted files
+   */
+  @Modifying
+  @Transactional
+  @Query("DELETE FROM FileMetadata f WHERE f.storagePath = :storagePath")
+  int deleteByStoragePath(@Param("storagePath") String storagePath);
+
+  /**
+   * List the distinct storage paths held on the hot tier that sort after the given one, whose
+   * files have all gone unread since the cutoff. Files never read count from their upload.
+   *
+   * @param after  storage path to continue after, empty to start from the beginning
+   * @param cutoff time before which the files were last read
+   * @param limit  batch size
+   * @return storage paths of blobs to demote
+   */
+  @Query(value = "SELECT storage_path FROM file_metadata "
+      + "WHERE storage_tier = 'HOT' AND storage_path > :after "
+      + "GROUP BY storage_path "
+      + "HAVING MAX(COALESCE(last_accessed_at, upload_date)) < :cutoff "
+      + "ORDER BY storage_path LIMIT :limit",
+      nativeQuery = true)
+  List<String> findStoragePathsToDemote(@Param("after") String after,
+      @Param("cutoff") LocalDateTime cutoff, @Param("limit") int limit);
+
+  /**
+   * List the distinct storage paths held on the cold tier that sort after the given one, with a
+   * file read since the given time.
+   *
+   * @param after storage path to continue after, empty to start from the beginning
+   * @param since time after which a file was read
+   * @param limit batch size
+   * @return storage paths of blobs to promote
+   */
+  @Query(value = "SELECT storage_path FROM file_metadata "
+      + "WHERE storage_tier = 'COLD' AND storage_path > :after "
+      + "GROUP BY storage_path "
+      + "HAVING MAX(last_accessed_at) >= :since "
+      + "ORDER BY storage_path LIMIT :limit",
+      nativeQuery = true)
+  List<String> findStoragePathsToPromote(@Param("after") String after,
+      @Param("since") LocalDateTime since, @Param("limit") int limit);
+
+  /**
+   * Record the tier holding the blob of all files stored at a path.
+   *
+   * @param storagePath storage path
+   * @param storageTier tier holding the blob
+   * @return number of updated files
+   */
+  @Modifying
+  @Transactional
+  @Query("UPDATE FileMetadata f SET f.storageTier = :storageTier "
+      + "WHERE f.storagePath = :storagePath")
+  int updateStorageTier(@Param("storagePath") String storagePath,
+      @Param("storageTier") StorageTier storageTier);
+
+  /**
+   * Record that the files stored at the given paths were read.
+   *
+   * @param storagePaths storage paths
+   * @param accessedAt   time of the reads
+   * @return number of updated files
+   */
+  @Modifying
+  @Transactional
+  @Query("UPDATE FileMetadata f SET f.lastAccessedAt = :accessedAt "
+      + "WHERE f.storagePath IN :storagePaths")
+  int updateLastAccessedAt(@Param("storagePaths") Collection<String> storagePaths,
+      @Param("accessedAt") LocalDateTime accessedAt);
+
+  /**
+   * Find the files, with an id after the given one, whose data key is wrapped by a master key
+   * older than the given version, in id order, so that they can be rewrapped in batches.
+   *
+   * @param version master key version
+   * @param after   file id to continue after
+   * @param limit   batch size
+   * @return file metadata
+   */
+  @Query(value = "SELECT * FROM file_metadata WHERE key_version < :version AND id > :after "
+      + "ORDER BY id LIMIT :limit",
+      nativeQuery = true)
+  List<FileMetadata> findWithKeyVersionBelow(@Param("version") int version,
+      @Param("after") UUID after, @Param("limit") int limit);
+
+  /**
+   * Find the files with an id after the given one, in id order, so that all files can be walked
+   * through in batches.
+   *
+   * @param after file id to continue after
+   * @param limit batch size
+   * @return file metadata
+   */
+  @Query(value = "SELECT * FROM file_metadata WHERE id > :after ORDER BY id LIMIT :limit",
+      nativeQuery = true)
+  List<FileMetadata> findAfterId(@Param("after") UUID after, @Param("limit") int limit);
+
+  /**
+   * Point all files stored at a path to a rewritten copy of their blob, kept on the hot tier.
+   *
+   * @param oldPath          current storage path
+   * @param newPath          storage path of the rewritten blob
+   * @param size             stored size of the rewritten blob
+   * @param storageFormat    storage format of the rewritten blob
+   * @param compressionCodec compression codec of the rewritten blob
+   * @param wrappedKey       wrapped data key of the rewritten blob
+   * @param keyVersion       version of the master key wrapping the data key
+   * @return number of updated files
+   */
+  @Modifying
+  @Transactional
+  @Query("UPDATE FileMetadata f SET f.storagePath = :newPath, f.size = :size, "
+      + "f.storageFormat = :storageFormat, f.compressionCodec = :compressionCodec, "
+      + "f.wrappedKey = :wrappedKey, f.keyVersion = :keyVersion, "
+      + "f.storageTier = com.mvasilakos.filestorage.model.StorageTier.HOT "
+      + "WHERE f.storagePath = :oldPath")
+  int replaceStoredBlob(@Param("oldPath") String oldPath, @Param("newPath") String newPath,
+      @Param("size") Long size, @Param("storageFormat") StorageFormat storageFormat,
+      @Param("compressionCodec") CompressionCodec compressionCodec,
+      @Param("wrappedKey") byte[] wrappedKey, @Param("keyVersion") Integer keyVersion);
+
+}
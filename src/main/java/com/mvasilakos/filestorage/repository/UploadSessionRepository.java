@@ -0,0 +1,52 @@
+package com.mvasilakos.filestorage.repository;
+
+import com.mvasilakos.filestorage.model.UploadSession;
+import com.mvasilakos.filestorage.model.User;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+
+/**
+ * Upload session repository.
+ */
+@Repository
+public interface UploadSessionRepository extends JpaRepository<UploadSession, UUID> {
+
+  /**
+   * Find the upload session with the given id started by the given user.
+   *
+   * @param id    session id
+   * @param owner user
+   * @return upload session
+   */
+  Optional<UploadSession> findByIdAndOwner(UUID id, User owner);
+
+  /**
+   * Find all upload sessions that expired before the given time.
+   *
+   * @param time point in time
+   * @return expired upload sessions
+   */
+  List<UploadSession> findByExpiresAtBefore(LocalDateTime time);
+
+  /**
+   * Push back the expiry of an upload session that is still in use.
+   *
+   * @param id        session id
+   * @param expiresAt new expiry time
+   * @return number of updated sessions
+   */
+  @Modifying
+  @Transactional
+  @Query("UPDATE UploadSession s SET s.expiresAt = :expiresAt WHERE s.id = :id")
+  int extendExpiry(@Param("id") UUID id, @Param("expiresAt") LocalDateTime expiresAt);
+
+}
@@ -0,0 +1,482 @@
+package com.mvasilakos.filestorage.service;
+
+import com.mvasilakos.filestorage.config.BlobRewriteProperties;
+import com.mvasilakos.filestorage.dto.BlobRewriteStatusDto;
+import com.mvasilakos.filestorage.exception.FileStorageException;
+import com.mvasilakos.filestorage.model.BlobRewriteJob;
+import com.mvasilakos.filestorage.model.BlobRewriteStatus;
+import com.mvasilakos.filestorage.model.CompressionCodec;
+import com.mvasilakos.filestorage.model.FileMetadata;
+import com.mvasilakos.filestorage.model.StorageFormat;
+import com.mvasilakos.filestorage.repository.BlobRewriteJobRepository;
+import com.mvasilakos.filestorage.repository.ContentBlobRepository;
+import com.mvasilakos.filestorage.repository.FileMetadataRepository;
+import com.mvasilakos.filestorage.service.FilePipelineService.StoredContent;
+import com.mvasilakos.filestorage.storage.BlobStore;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+
+/**
+ * Rewrites stored blobs into the current storage format, so that changes of cipher, key scheme,
+ * codec or compression level reach the files stored before them. Files stored in a legacy format,
+ * under the legacy key or with a codec other than the one now configured for their content type
+ * are rewritten; on request, all blobs are, which also applies a changed compression level.
+ *
+ * <p>Files are walked in id order, in batches. Each blob is run through the pipeline into a new
+ * blob at a fresh path, checked against the file's content hash, and then swapped in: all files
+ * and the shared blob record are pointed to it in a single transaction, and only then is the old
+ * blob deleted, so every file always points to a complete blob. The worker is held to a budget of
+ * content bytes per second and to a share of wall time spent working, can be paused and resumed,
+ * and saves its progress as it goes, so that a restart picks up after the last checked file.
+ */
+@Slf4j
+@Service
+public class BlobRewriteService {
+
+  private static final UUID FIRST_ID = new UUID(0, 0);
+  private static final int MAX_REPOINT_ATTEMPTS = 3;
+
+  private final FileMetadataRepository fileMetadataRepository;
+  private final ContentBlobRepository contentBlobRepository;
+  private final BlobRewriteJobRepository blobRewriteJobRepository;
+  private final FilePipelineService filePipelineService;
+  private final FileCompressionService fileCompressionService;
+  private final BlobStore blobStore;
+  private final StorageLayout storageLayout;
+  private final DecryptedContentCache decryptedContentCache;
+  private final BlobRewriteProperties properties;
+  private final TransactionTemplate transactionTemplate;
+
+  private final AtomicBoolean running = new AtomicBoolean();
+  private volatile boolean pauseRequested;
+  // Held while saving the job, so not a monitor, which would pin a virtual thread during I/O
+  private final ReentrantLock jobLock = new ReentrantLock();
+  // Guarded by jobLock
+  private BlobRewriteJob job;
+  // Blobs written by the current run and the blobs they replaced, so that blobs shared by several
+  // files are rewritten once, also when files of the same batch still hold the replaced path
+  private final Set<String> rewrittenPaths = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Constructor.
+   *
+   * @param fileMetadataRepository   file metadata repository
+   * @param contentBlobRepository    content blob repository
+   * @param blobRewriteJobRepository blob rewrite job repository
+   * @param filePipelineService      file pipeline service
+   * @param fileCompressionService   file compression service
+   * @param blobStore                store the blobs are kept in
+   * @param storageLayout            current storage layout
+   * @param decryptedContentCache    decrypted content cache
+   * @param properties               blob rewrite properties
+   * @param transactionManager       transaction manager
+   */
+  public BlobRewriteService(FileMetadataRepository fileMetadataRepository,
+      ContentBlobRepository contentBlobRepository,
+      BlobRewriteJobRepository blobRewriteJobRepository, FilePipelineService filePipelineService,
+      FileCompressionService fileCompressionService, BlobStore blobStore,
+      StorageLayout storageLayout, DecryptedContentCache decryptedContentCache,
+      BlobRewriteProperties properties, PlatformTransactionManager transactionManager) {
+    this.fileMetadataRepository = fileMetadataRepository;
+    this.contentBlobRepository = contentBlobRepository;
+    this.blobRewriteJobRepository = blobRewriteJobRepository;
+    this.filePipelineService = filePipelineService;
+    this.fileCompressionService = fileCompressionService;
+    this.blobStore = blobStore;
+    this.storageLayout = storageLayout;
+    this.decryptedContentCache = decryptedContentCache;
+    this.properties = properties;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+  }
+
+  /**
+   * Start a new rewrite in the background, unless one is running. A paused rewrite is discarded.
+   *
+   * @param rewriteAll whether to rewrite all blobs rather than only outdated ones
+   * @return rewrite status
+   */
+  public BlobRewriteStatusDto start(boolean rewriteAll) {
+    jobLock.lock();
+    try {
+      if (!running.get()) {
+        LocalDateTime now = LocalDateTime.now();
+        job = blobRewriteJobRepository.save(BlobRewriteJob.builder()
+            .id(UUID.randomUUID())
+            .status(BlobRewriteStatus.RUNNING)
+            .rewriteAll(rewriteAll)
+            .lastFileId(FIRST_ID)
+            .startedAt(now)
+            .updatedAt(now)
+            .build());
+        rewrittenPaths.clear();
+        launch();
+      }
+      return getStatus();
+    } finally {
+      jobLock.unlock();
+    }
+  }
+
+  /**
+   * Ask the running rewrite to stop after the blob it is working on. Its progress is kept, so it
+   * can be resumed later.
+   *
+   * @return rewrite status
+   */
+  public BlobRewriteStatusDto pause() {
+    jobLock.lock();
+    try {
+      if (running.get()) {
+        pauseRequested = true;
+      }
+      return getStatus();
+    } finally {
+      jobLock.unlock();
+    }
+  }
+
+  /**
+   * Resume the latest rewrite after the last file it checked, unless it is running or finished.
+   *
+   * @return rewrite status
+   */
+  public BlobRewriteStatusDto resume() {
+    jobLock.lock();
+    try {
+      BlobRewriteJob latest = latestJob();
+      if (!running.get() && latest != null && latest.getStatus() != BlobRewriteStatus.FINISHED) {
+        job = latest;
+        job.setStatus(BlobRewriteStatus.RUNNING);
+        saveProgress();
+        launch();
+      }
+      return getStatus();
+    } finally {
+      jobLock.unlock();
+    }
+  }
+
+  /**
+   * Resume the latest rewrite if the application stopped while it was running.
+   */
+  public void resumeInterrupted() {
+    jobLock.lock();
+    try {
+      BlobRewriteJob latest = latestJob();
+      if (latest != null && latest.getStatus() == BlobRewriteStatus.RUNNING) {
+        log.info("Resuming blob rewrite after file {}", latest.getLastFileId());
+        resume();
+      }
+    } finally {
+      jobLock.unlock();
+    }
+  }
+
+  /**
+   * Get the progress of the latest rewrite.
+   *
+   * @return rewrite status
+   */
+  public BlobRewriteStatusDto getStatus() {
+    jobLock.lock();
+    try {
+      BlobRewriteJob latest = latestJob();
+      if (latest == null) {
+        return BlobRewriteStatusDto.builder().running(running.get()).build();
+      }
+      return BlobRewriteStatusDto.builder()
+          .running(running.get())
+          .status(latest.getStatus())
+          .rewriteAll(latest.isRewriteAll())
+          .scanned(latest.getScanned())
+          .rewritten(latest.getRewritten())
+          .failed(latest.getFailed())
+          .bytesRewritten(latest.getBytesRewritten())
+          .startedAt(latest.getStartedAt())
+          .updatedAt(latest.getUpdatedAt())
+          .finishedAt(latest.getFinishedAt())
+          .build();
+    } finally {
+      jobLock.unlock();
+    }
+  }
+
+  private BlobRewriteJob latestJob() {
+    if (job == null) {
+      job = blobRewriteJobRepository.findFirstByOrderByStartedAtDesc().orElse(null);
+    }
+    return job;
+  }
+
+  private void launch() {
+    running.set(true);
+    pauseRequested = false;
+    Thread rewriteThread = new Thread(this::rewriteBlobs, "blob-rewrite");
+    rewriteThread.setDaemon(true);
+    rewriteThread.start();
+  }
+
+  /**
+   * Rewrite the blobs of all files after the last checked one, batch by batch, until all files
+   * were checked or a pause is requested.
+   */
+  void rewriteBlobs() {
+    log.info("Blob rewrite started");
+    BlobRewriteStatus endStatus = BlobRewriteStatus.PAUSED;
+    Throttle throttle = new Throttle(properties.getMaxBytesPerSecond());
+    try {
+      List<FileMetadata> batch;
+      do {
+        batch = fileMetadataRepository.findAfterId(currentJob().getLastFileId(),
+            properties.getBatchSize());
+        for (FileMetadata file : batch) {
+          if (pauseRequested) {
+            return;
+          }
+          long start = System.nanoTime();
+          long bytesRewritten = rewriteQuietly(file, throttle);
+          recordProgress(file, bytesRewritten);
+          if (bytesRewritten != 0) {
+            saveProgress();
+            pace(System.nanoTime() - start);
+          }
+        }
+        saveProgress();
+      } while (!batch.isEmpty());
+      endStatus = BlobRewriteStatus.FINISHED;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      // Left running, so that it is resumed once the application starts again
+      endStatus = BlobRewriteStatus.RUNNING;
+      log.warn("Blob rewrite interrupted");
+    } catch (RuntimeException e) {
+      log.error("Blob rewrite aborted, it can be resumed", e);
+    } finally {
+      finish(endStatus);
+    }
+  }
+
+  private BlobRewriteJob currentJob() {
+    jobLock.lock();
+    try {
+      return job;
+    } finally {
+      jobLock.unlock();
+    }
+  }
+
+  private void recordProgress(FileMetadata file, long bytesRewritten) {
+    jobLock.lock();
+    try {
+      job.setLastFileId(file.getId());
+      job.setScanned(job.getScanned() + 1);
+      if (bytesRewritten > 0) {
+        job.setRewritten(job.getRewritten() + 1);
+        job.setBytesRewritten(job.getBytesRewritten() + bytesRewritten);
+      } else if (bytesRewritten < 0) {
+        job.setFailed(job.getFailed() + 1);
+      }
+    } finally {
+      jobLock.unlock();
+    }
+  }
+
+  private void saveProgress() {
+    jobLock.lock();
+    try {
+      job.setUpdatedAt(LocalDateTime.now());
+      job = blobRewriteJobRepository.save(job);
+    } finally {
+      jobLock.unlock();
+    }
+  }
+
+  private void finish(BlobRewriteStatus status) {
+    jobLock.lock();
+    try {
+      try {
+        job.setStatus(status);
+        if (status == BlobRewriteStatus.FINISHED) {
+          job.setFinishedAt(LocalDateTime.now());
+        }
+        saveProgress();
+      } catch (RuntimeException e) {
+        log.warn("Failed to save blob rewrite progress", e);
+      } finally {
+        running.set(false);
+        pauseRequested = false;
+        log.info("Blob rewrite {}: {} scanned, {} rewritten, {} failed",
+            status.name().toLowerCase(), job.getScanned(), job.getRewritten(), job.getFailed());
+      }
+    } finally {
+      jobLock.unlock();
+    }
+  }
+
+  // Spends the configured share of wall time working and sleeps for the rest
+  private void pace(long busyNanos) throws InterruptedException {
+    double cpuShare = properties.getCpuShare();
+    if (cpuShare > 0 && cpuShare < 1) {
+      TimeUnit.NANOSECONDS.sleep((long) (busyNanos * (1 - cpuShare) / cpuShare));
+    }
+  }
+
+  /**
+   * Rewrite the blob of a file if it is outdated.
+   *
+   * @return number of content bytes rewritten, 0 if the blob was left as it is, -1 on failure
+   */
+  private long rewriteQuietly(FileMetadata file, Throttle throttle) throws InterruptedException {
+    try {
+      return needsRewrite(file) ? rewrite(file, throttle) : 0;
+    } catch (RuntimeException e) {
+      if (e.getCause() instanceof InterruptedIOException) {
+        throw new InterruptedException("Interrupted while rewriting: " + file.getStoragePath());
+      }
+      log.warn("Failed to rewrite blob: {}", file.getStoragePath(), e);
+      return -1;
+    }
+  }
+
+  private boolean needsRewrite(FileMetadata file) {
+    if (rewrittenPaths.contains(file.getStoragePath())) {
+      return false;
+    }
+    if (currentJob().isRewriteAll()) {
+      return true;
+    }
+    if (file.getStorageFormat() != StorageFormat.SEGMENTED || file.getWrappedKey() == null) {
+      return true;
+    }
+    // Content stored uncompressed may simply not have been worth compressing
+    CompressionCodec configuredCodec = fileCompressionService.configuredCodec(
+        file.getContentType());
+    return file.getCompressionCodec() != CompressionCodec.NONE
+        && file.getCompressionCodec() != configuredCodec;
+  }
+
+  private long rewrite(FileMetadata file, Throttle throttle) {
+    String oldPath = file.getStoragePath();
+    String newPath = storageLayout.storagePathFor(UUID.randomUUID().toString());
+    StoredContent storedContent;
+    try (InputStream content =
+        new ThrottledInputStream(filePipelineService.open(file), throttle)) {
+      storedContent = filePipelineService.store(newPath, content, file.getContentType());
+    } catch (IOException e) {
+      throw new FileStorageException("Failed to read blob: " + oldPath, e);
+    }
+    if (file.getContentHash() != null
+        && !file.getContentHash().equals(storedContent.contentHash())) {
+      blobStore.deleteFile(newPath);
+      throw new FileStorageException("Rewritten content does not match the content hash");
+    }
+
+    // Uploads that deduplicated against the old blob just before the swap may still record its
+    // path, so swap until no file is left behind
+    int repointed = 0;
+    for (int attempt = 0; attempt < MAX_REPOINT_ATTEMPTS; attempt++) {
+      Integer updated = transactionTemplate.execute(status -> swap(oldPath, newPath,
+          storedContent));
+      repointed += updated == null ? 0 : updated;
+      if (!fileMetadataRepository.existsByStoragePath(oldPath)) {
+        break;
+      }
+    }
+
+    if (fileMetadataRepository.existsByStoragePath(oldPath)) {
+      throw new FileStorageException("Files still reference the old blob, keeping both");
+    } else if (repointed == 0) {
+      // All files of the blob were deleted in the meantime
+      blobStore.deleteFile(newPath);
+      return 0;
+    }
+    blobStore.deleteFile(oldPath);
+    decryptedContentCache.invalidateBlob(oldPath);
+    rewrittenPaths.add(newPath);
+    rewrittenPaths.add(oldPath);
+    return file.getOriginalFileSize();
+  }
+
+  private int swap(String oldPath, String newPath, StoredContent storedContent) {
+    contentBlobRepository.replaceStoredBlob(oldPath, newPath, storedContent.storedSize(),
+        storedContent.storageFormat(), storedContent.compressionCodec(),
+        storedContent.wrappedKey(), storedContent.keyVersion());
+    return fileMetadataRepository.replaceStoredBlob(oldPath, newPath, storedContent.storedSize(),
+        storedContent.storageFormat(), storedContent.compressionCodec(),
+        storedContent.wrappedKey(), storedContent.keyVersion());
+  }
+
+  /**
+   * Spaces out reads to a fixed number of bytes per second.
+   */
+  private static final class Throttle {
+
+    private final double nanosPerByte;
+    private long nextFree = System.nanoTime();
+
+    private Throttle(long bytesPerSecond) {
+      this.nanosPerByte = bytesPerSecond > 0
+          ? (double) TimeUnit.SECONDS.toNanos(1) / bytesPerSecond
+          : 0;
+    }
+
+    private void acquire(int bytes) throws InterruptedIOException {
+      if (nanosPerByte == 0 || bytes <= 0) {
+        return;
+      }
+      long now = System.nanoTime();
+      long wait = nextFree - now;
+      nextFree = Math.max(nextFree, now) + (long) (bytes * nanosPerByte);
+      if (wait > 0) {
+        try {
+          TimeUnit.NANOSECONDS.sleep(wait);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while throttled");
+        }
+      }
+    }
+  }
+
+  /**
+   * Stream whose reads are held to the throttle's rate.
+   */
+  private static final class ThrottledInputStream extends FilterInputStream {
+
+    private final Throttle throttle;
+
+    private ThrottledInputStream(InputStream in, Throttle throttle) {
+      super(in);
+      this.throttle = throttle;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      throttle.acquire(b < 0 ? 0 : 1);
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int read = super.read(b, off, len);
+      throttle.acquire(read);
+      return read;
+    }
+  }
+}
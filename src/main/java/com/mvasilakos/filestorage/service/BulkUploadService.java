@@ -0,0 +1,237 @@
+package com.mvasilakos.filestorage.service;
+
+import com.mvasilakos.filestorage.config.BlockingExecutors;
+import com.mvasilakos.filestorage.config.BulkUploadProperties;
+import com.mvasilakos.filestorage.dto.BulkUploadResultDto;
+import com.mvasilakos.filestorage.exception.FileStorageException;
+import com.mvasilakos.filestorage.mapper.FileMetadataMapper;
+import com.mvasilakos.filestorage.model.FileMetadata;
+import com.mvasilakos.filestorage.model.User;
+import com.mvasilakos.filestorage.validator.FileValidator;
+import jakarta.annotation.PreDestroy;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.multipart.MultipartFile;
+
+
+/**
+ * Uploads of many files in one request. The storage limit is checked once for the whole batch,
+ * the files are run through the pipeline concurrently, with a bounded number in flight per
+ * request, and the metadata of all stored files is inserted in a single JDBC batch.
+ *
+ * <p>Files that fail validation or storage are reported as such and do not keep the others from
+ * being stored. Only a batch that would exceed the storage limit is rejected as a whole.
+ */
+@Slf4j
+@Service
+public class BulkUploadService {
+
+  private static final String INSERT_FILE = "INSERT INTO file_metadata (id, filename, "
+      + "content_type, size, original_file_size, upload_date, storage_path, content_hash, "
+      + "storage_format, compression_codec, storage_tier, wrapped_key, key_version, owner_id) "
+      + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+  private final FileService fileService;
+  private final FileValidator fileValidator;
+  private final FileMetadataMapper fileMetadataMapper;
+  private final JdbcTemplate jdbcTemplate;
+  private final BulkUploadProperties properties;
+  private final TransactionTemplate transactionTemplate;
+  private final ExecutorService uploadExecutor;
+
+  /**
+   * Constructor.
+   *
+   * @param fileService        file service
+   * @param fileValidator      file validator
+   * @param fileMetadataMapper file metadata mapper
+   * @param jdbcTemplate       JDBC template the batched inserts are sent through
+   * @param properties         bulk upload properties
+   * @param transactionManager transaction manager
+   * @param virtualThreads     whether to store every file on a virtual thread of its own
+   */
+  public BulkUploadService(FileService fileService, FileValidator fileValidator,
+      FileMetadataMapper fileMetadataMapper, JdbcTemplate jdbcTemplate,
+      BulkUploadProperties properties, PlatformTransactionManager transactionManager,
+      @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+    this.fileService = fileService;
+    this.fileValidator = fileValidator;
+    this.fileMetadataMapper = fileMetadataMapper;
+    this.jdbcTemplate = jdbcTemplate;
+    this.properties = properties;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.uploadExecutor = BlockingExecutors.newExecutor("bulk-upload", virtualThreads);
+  }
+
+  /**
+   * Stop the upload threads.
+   */
+  @PreDestroy
+  public void close() {
+    uploadExecutor.shutdownNow();
+  }
+
+  /**
+   * Store many files at once.
+   *
+   * @param files files to store
+   * @param owner the user who is storing the files
+   * @return outcome of every file, in the order the files were given
+   * @throws FileStorageException if there are too many files, or the valid files together would
+   *                              exceed the user's storage limit
+   */
+  public List<BulkUploadResultDto> uploadFiles(List<MultipartFile> files, User owner) {
+    if (files.isEmpty()) {
+      throw new FileStorageException("No files to upload");
+    }
+    if (files.size() > properties.getMaxFiles()) {
+      throw new FileStorageException(
+          "Cannot upload more than " + properties.getMaxFiles() + " files at once");
+    }
+
+    List<PendingUpload> uploads = new ArrayList<>(files.size());
+    long totalSize = 0;
+    for (MultipartFile file : files) {
+      PendingUpload upload = new PendingUpload(file);
+      try {
+        upload.contentType = fileValidator.validateFile(file);
+        totalSize += file.getSize();
+      } catch (RuntimeException e) {
+        upload.error = e.getMessage();
+      }
+      uploads.add(upload);
+    }
+    fileService.checkStorageLimit(owner, totalSize);
+
+    storeAll(uploads, owner);
+    insertAll(uploads, owner);
+
+    log.debug("Bulk upload of {} files for user: {}", files.size(), owner.getUsername());
+    return uploads.stream().map(this::toResult).toList();
+  }
+
+  /**
+   * Run the valid files through the pipeline, with at most the configured number in flight.
+   */
+  private void storeAll(List<PendingUpload> uploads, User owner) {
+    Semaphore filesInFlight = new Semaphore(Math.max(1, properties.getParallelism()));
+    List<CompletableFuture<Void>> stored = new ArrayList<>(uploads.size());
+    try {
+      for (PendingUpload upload : uploads) {
+        if (upload.error != null) {
+          continue;
+        }
+        filesInFlight.acquire();
+        stored.add(CompletableFuture.runAsync(() -> {
+          try {
+            upload.metadata = fileService.storeFile(upload.file, upload.contentType, owner);
+          } finally {
+            filesInFlight.release();
+          }
+        }, uploadExecutor).exceptionally(e -> {
+          upload.error = (e instanceof CompletionException ? e.getCause() : e).getMessage();
+          return null;
+        }));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      releaseAll(uploads, stored);
+      throw new FileStorageException("Interrupted while storing files", e);
+    } catch (RuntimeException e) {
+      releaseAll(uploads, stored);
+      throw e;
+    }
+    // Files handed to the pipeline are stored, or cleaned up, either way
+    awaitAll(stored);
+  }
+
+  /**
+   * Release the content of the files stored so far, once the files already handed to the pipeline
+   * are done, as none of them will be saved.
+   */
+  private void releaseAll(List<PendingUpload> uploads, List<CompletableFuture<Void>> stored) {
+    awaitAll(stored);
+    for (PendingUpload upload : uploads) {
+      if (upload.metadata != null) {
+        fileService.cleanupAfterUploadFail(upload.metadata);
+        upload.metadata = null;
+      }
+    }
+  }
+
+  private static void awaitAll(List<CompletableFuture<Void>> stored) {
+    CompletableFuture.allOf(stored.toArray(CompletableFuture[]::new)).join();
+  }
+
+  /**
+   * Insert the metadata of all stored files in one JDBC batch. If the batch fails, the content of
+   * all of them is released again.
+   */
+  private void insertAll(List<PendingUpload> uploads, User owner) {
+    List<FileMetadata> storedFiles = uploads.stream()
+        .filter(upload -> upload.metadata != null)
+        .map(upload -> upload.metadata)
+        .toList();
+    if (storedFiles.isEmpty()) {
+      return;
+    }
+
+    List<Object[]> rows = new ArrayList<>(storedFiles.size());
+    for (FileMetadata metadata : storedFiles) {
+      rows.add(new Object[]{metadata.getId(), metadata.getFilename(), metadata.getContentType(),
+          metadata.getSize(), metadata.getOriginalFileSize(),
+          Timestamp.valueOf(metadata.getUploadDate()), metadata.getStoragePath(),
+          metadata.getContentHash(), metadata.getStorageFormat().name(),
+          metadata.getCompressionCodec().name(), metadata.getStorageTier().name(),
+          metadata.getWrappedKey(), metadata.getKeyVersion(), owner.getId()});
+    }
+    try {
+      transactionTemplate.executeWithoutResult(status ->
+          jdbcTemplate.batchUpdate(INSERT_FILE, rows));
+    } catch (RuntimeException e) {
+      log.warn("Failed to save metadata of {} uploaded files", storedFiles.size(), e);
+      for (PendingUpload upload : uploads) {
+        if (upload.metadata != null) {
+          fileService.cleanupAfterUploadFail(upload.metadata);
+          upload.metadata = null;
+          upload.error = "Failed to save file metadata";
+        }
+      }
+    }
+  }
+
+  private BulkUploadResultDto toResult(PendingUpload upload) {
+    return BulkUploadResultDto.builder()
+        .filename(upload.file.getOriginalFilename())
+        .uploaded(upload.metadata != null)
+        .file(upload.metadata == null ? null : fileMetadataMapper.toDto(upload.metadata))
+        .error(upload.error)
+        .build();
+  }
+
+  /**
+   * File of a bulk upload on its way to being stored.
+   */
+  private static final class PendingUpload {
+
+    private final MultipartFile file;
+    private String contentType;
+    private volatile FileMetadata metadata;
+    private volatile String error;
+
+    private PendingUpload(MultipartFile file) {
+      this.file = file;
+    }
+  }
+}
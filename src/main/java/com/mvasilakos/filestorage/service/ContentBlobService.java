@@ -0,0 +1,151 @@
+package com.mvasilakos.filestorage.service;
+
+import com.mvasilakos.filestorage.exception.FileStorageException;
+import com.mvasilakos.filestorage.model.ContentBlob;
+import com.mvasilakos.filestorage.model.DeduplicationScope;
+import com.mvasilakos.filestorage.model.User;
+import com.mvasilakos.filestorage.repository.ContentBlobRepository;
+import com.mvasilakos.filestorage.service.FilePipelineService.StoredContent;
+import com.mvasilakos.filestorage.storage.BlobStore;
+import java.time.LocalDateTime;
+import java.util.Optional;
+import java.util.UUID;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+
+/**
+ * Content addressed blob service. Files with identical content share a single stored blob, which
+ * is reference counted and deleted from disk when the last file referencing it is deleted.
+ *
+ * <p>The content hash is only known once the whole upload has gone through the pipeline, so a
+ * duplicate upload is still written to the blob store in full and deleted again afterwards.
+ * Deduplication saves the space of the copies it finds, not the write of each upload.
+ *
+ * <p>Content is only shared between the files of the same owner unless
+ * {@code file.storage.deduplication} is set to {@code GLOBAL}. Sharing it between users lets one
+ * user tell, for instance from timing, whether another user already stored the same content.
+ */
+@Slf4j
+@Service
+public class ContentBlobService {
+
+  private static final int MAX_ATTEMPTS = 3;
+
+  private final ContentBlobRepository contentBlobRepository;
+  private final BlobStore blobStore;
+  private final DeduplicationScope deduplicationScope;
+
+  /**
+   * Constructor.
+   *
+   * @param contentBlobRepository content blob repository
+   * @param blobStore             store the blobs are kept in
+   * @param deduplicationScope    scope within which identical content is stored only once
+   */
+  public ContentBlobService(ContentBlobRepository contentBlobRepository,
+      BlobStore blobStore,
+      @Value("${file.storage.deduplication:PER_USER}") DeduplicationScope deduplicationScope) {
+    this.contentBlobRepository = contentBlobRepository;
+    this.blobStore = blobStore;
+    this.deduplicationScope = deduplicationScope;
+  }
+
+  /**
+   * Register freshly stored content. If a blob with the same content already exists within the
+   * deduplication scope, a reference to it is taken and the fresh blob, which was already written
+   * in full, is deleted; otherwise the fresh blob becomes the shared blob for its content.
+   *
+   * @param storagePath   storage path the content was written to
+   * @param storedContent details of the stored content
+   * @param owner         owner of the file being uploaded
+   * @return blob the file should reference, or empty if deduplication is disabled
+   */
+  public Optional<ContentBlob> deduplicate(String storagePath, StoredContent storedContent,
+      User owner) {
+    if (deduplicationScope == DeduplicationScope.NONE) {
+      return Optional.empty();
+    }
+
+    String dedupKey = dedupKey(storedContent.contentHash(), owner);
+    for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+      if (contentBlobRepository.incrementRefCount(dedupKey) > 0) {
+        ContentBlob existingBlob = contentBlobRepository.findByDedupKey(dedupKey)
+            .orElseThrow(() -> new FileStorageException("Shared blob disappeared: " + dedupKey));
+        deleteQuietly(storagePath);
+        log.debug("Deduplicated content of {} into {}", storagePath,
+            existingBlob.getStoragePath());
+        return Optional.of(existingBlob);
+      }
+
+      try {
+        return Optional.of(contentBlobRepository.saveAndFlush(
+            createContentBlob(dedupKey, storagePath, storedContent)));
+      } catch (DataIntegrityViolationException e) {
+        // Identical content was registered concurrently, take a reference to it instead
+        log.debug("Concurrent upload of identical content, retrying: {}", dedupKey);
+      }
+    }
+    throw new FileStorageException("Failed to register stored content: " + storagePath);
+  }
+
+  /**
+   * Drop a file's reference to the blob at the given storage path. The blob is deleted from disk
+   * once no file references it; blobs that were never shared, such as those stored before
+   * deduplication or with it disabled, are deleted straight away. Within a transaction, the blob
+   * is only deleted after the transaction commits.
+   *
+   * @param storagePath storage path referenced by the file
+   */
+  public void release(String storagePath) {
+    if (contentBlobRepository.decrementRefCount(storagePath) > 0
+        && contentBlobRepository.deleteUnreferenced(storagePath) == 0) {
+      return;
+    }
+
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCommit() {
+          deleteQuietly(storagePath);
+        }
+      });
+    } else {
+      blobStore.deleteFile(storagePath);
+    }
+  }
+
+  private String dedupKey(String contentHash, User owner) {
+    return deduplicationScope == DeduplicationScope.PER_USER
+        ? owner.getId() + ":" + contentHash
+        : contentHash;
+  }
+
+  private ContentBlob createContentBlob(String dedupKey, String storagePath,
+      StoredContent storedContent) {
+    return ContentBlob.builder()
+        .id(UUID.randomUUID())
+        .dedupKey(dedupKey)
+        .storagePath(storagePath)
+        .storedSize(storedContent.storedSize())
+        .storageFormat(storedContent.storageFormat())
+        .compressionCodec(storedContent.compressionCodec())
+        .wrappedKey(storedContent.wrappedKey())
+        .keyVersion(storedContent.keyVersion())
+        .refCount(1L)
+        .createdAt(LocalDateTime.now())
+        .build();
+  }
+
+  private void deleteQuietly(String storagePath) {
+    try {
+      blobStore.deleteFile(storagePath);
+    } catch (Exception e) {
+      log.warn("Failed to delete unreferenced blob: {}", storagePath, e);
+    }
+  }
+}
@@ -0,0 +1,194 @@
+package com.mvasilakos.filestorage.service;
+
+import com.mvasilakos.filestorage.config.EncryptionProperties;
+import com.mvasilakos.filestorage.crypto.AesGcmEngine;
+import com.mvasilakos.filestorage.exception.FileEncryptionException;
+import com.mvasilakos.filestorage.model.FileMetadata;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import org.springframework.stereotype.Service;
+
+
+/**
+ * Envelope encryption of file content. Every file is encrypted with a random data key of its
+ * own, which is stored wrapped, that is encrypted with AES-GCM, by a versioned master key. Rotating
+ * the master key then only means rewrapping the small data keys, not re-encrypting the files.
+ *
+ * <p>Unwrapping costs a cipher initialization per request, so recently unwrapped data keys are
+ * kept in a bounded cache keyed by their wrapped form. Files stored before data keys carry none
+ * and stay encrypted under the legacy key.
+ */
+@Service
+public class DataKeyService {
+
+  private static final int DATA_KEY_LENGTH = 32;
+
+  private final SimpleKeyManagementService keyManagementService;
+  private final AesGcmEngine aesGcmEngine;
+
+  // Guarded by this
+  private final LinkedHashMap<ByteBuffer, SecretKey> unwrappedKeys;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * Constructor.
+   *
+   * @param keyManagementService key management service
+   * @param aesGcmEngine         AES-GCM engine
+   * @param properties           encryption properties
+   */
+  public DataKeyService(SimpleKeyManagementService keyManagementService,
+      AesGcmEngine aesGcmEngine, EncryptionProperties properties) {
+    this.keyManagementService = keyManagementService;
+    this.aesGcmEngine = aesGcmEngine;
+    this.unwrappedKeys = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<ByteBuffer, SecretKey> eldest) {
+        return size() > properties.getKeyCacheSize();
+      }
+    };
+  }
+
+  /**
+   * Generate a random data key for a new file, wrapped by the current master key.
+   *
+   * @return data key with its wrapped form
+   */
+  public DataKey generateDataKey() {
+    byte[] keyBytes = new byte[DATA_KEY_LENGTH];
+    aesGcmEngine.nextBytes(keyBytes);
+    SecretKey key = new SecretKeySpec(keyBytes, "AES");
+    int version = keyManagementService.getCurrentMasterKeyVersion();
+    byte[] wrappedKey = wrap(key, version);
+    cache(wrappedKey, key);
+    return new DataKey(key, wrappedKey, version);
+  }
+
+  /**
+   * Get the key the content of a file is encrypted with: its unwrapped data key, or the legacy
+   * key for files stored before data keys.
+   *
+   * @param metadata file metadata
+   * @return content encryption key
+   */
+  public SecretKey contentKey(FileMetadata metadata) {
+    if (metadata.getWrappedKey() == null) {
+      return keyManagementService.getSecretKey();
+    }
+    return unwrap(metadata.getWrappedKey(), metadata.getKeyVersion());
+  }
+
+  /**
+   * Unwrap a data key, serving recently unwrapped keys from the cache.
+   *
+   * @param wrappedKey data key wrapped by a master key
+   * @param version    version of the wrapping master key
+   * @return data key
+   */
+  public SecretKey unwrap(byte[] wrappedKey, int version) {
+    ByteBuffer cacheKey = ByteBuffer.wrap(wrappedKey);
+    SecretKey key;
+    synchronized (this) {
+      key = unwrappedKeys.get(cacheKey);
+    }
+    if (key != null) {
+      hits.incrementAndGet();
+      return key;
+    }
+
+    misses.incrementAndGet();
+    byte[] keyBytes = aesGcmEngine.open(keyManagementService.getMasterKey(version),
+        wrappedKey, 0, wrappedKey.length, associatedData(version));
+    if (keyBytes.length != DATA_KEY_LENGTH) {
+      throw new FileEncryptionException("Unwrapped data key has the wrong length");
+    }
+    key = new SecretKeySpec(keyBytes, "AES");
+    Arrays.fill(keyBytes, (byte) 0);
+    cache(wrappedKey, key);
+    return key;
+  }
+
+  /**
+   * Rewrap a data key by the current master key. The data key itself, and so the content it
+   * encrypts, is unchanged.
+   *
+   * @param wrappedKey data key wrapped by a master key
+   * @param version    version of the wrapping master key
+   * @return data key wrapped by the current master key
+   */
+  public DataKey rewrap(byte[] wrappedKey, int version) {
+    SecretKey key = unwrap(wrappedKey, version);
+    int currentVersion = keyManagementService.getCurrentMasterKeyVersion();
+    if (version == currentVersion) {
+      return new DataKey(key, wrappedKey, version);
+    }
+    byte[] rewrappedKey = wrap(key, currentVersion);
+    cache(rewrappedKey, key);
+    return new DataKey(key, rewrappedKey, currentVersion);
+  }
+
+  /**
+   * Get the number of data keys currently cached.
+   *
+   * @return cached data keys
+   */
+  public synchronized int getCachedKeyCount() {
+    return unwrappedKeys.size();
+  }
+
+  /**
+   * Get the number of unwraps served from the cache.
+   *
+   * @return cache hits
+   */
+  public long getCacheHits() {
+    return hits.get();
+  }
+
+  /**
+   * Get the number of unwraps that needed the master key.
+   *
+   * @return cache misses
+   */
+  public long getCacheMisses() {
+    return misses.get();
+  }
+
+  private byte[] wrap(SecretKey key, int version) {
+    byte[] keyBytes = key.getEncoded();
+    try {
+      return aesGcmEngine.seal(keyManagementService.getMasterKey(version), keyBytes, 0,
+          keyBytes.length, associatedData(version));
+    } finally {
+      Arrays.fill(keyBytes, (byte) 0);
+    }
+  }
+
+  private synchronized void cache(byte[] wrappedKey, SecretKey key) {
+    unwrappedKeys.put(ByteBuffer.wrap(wrappedKey.clone()), key);
+  }
+
+  // Binds the wrapped key to its master key version, so a tampered version fails authentication
+  private static byte[] associatedData(int version) {
+    return ("data-key:v" + version).getBytes(StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * Data key of a file.
+   *
+   * @param key        data key
+   * @param wrappedKey data key wrapped by the master key
+   * @param keyVersion version of the wrapping master key
+   */
+  public record DataKey(SecretKey key, byte[] wrappedKey, int keyVersion) {
+
+  }
+}
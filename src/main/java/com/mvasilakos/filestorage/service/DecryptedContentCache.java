@@ -0,0 +1,271 @@
+package com.mvasilakos.filestorage.service;
+
+import com.mvasilakos.filestorage.config.ContentCacheProperties;
+import com.mvasilakos.filestorage.dto.ContentCacheStatsDto;
+import com.mvasilakos.filestorage.model.FileMetadata;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import org.springframework.stereotype.Component;
+
+
+/**
+ * Bounded cache of the decrypted, decompressed content of frequently downloaded files, so that
+ * repeated downloads skip reading, decrypting and decompressing the stored blob. Content is kept
+ * in direct buffers, outside the Java heap, and never leaves process memory, so files stay
+ * encrypted at rest.
+ *
+ * <p>Entries are keyed by file id and versioned by the storage path of the file's blob, so content
+ * is only served while the file still points to the blob it was read from. Files are only loaded
+ * on their second download within the admission window, which keeps files downloaded once from
+ * evicting the hot ones. Once the byte budget is exceeded, the least recently used files are
+ * evicted.
+ */
+@Component
+public class DecryptedContentCache {
+
+  private final ContentCacheProperties properties;
+
+  // Both maps, and usedBytes, are guarded by this
+  private final LinkedHashMap<UUID, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private final Map<String, Set<UUID>> fileIdsByBlob = new HashMap<>();
+  private final LinkedHashMap<UUID, Boolean> recentlyRequested;
+  private long usedBytes;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong admissions = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong invalidations = new AtomicLong();
+
+  /**
+   * Constructor.
+   *
+   * @param properties content cache properties
+   */
+  public DecryptedContentCache(ContentCacheProperties properties) {
+    this.properties = properties;
+    this.recentlyRequested = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<UUID, Boolean> eldest) {
+        return size() > properties.getAdmissionWindow();
+      }
+    };
+  }
+
+  /**
+   * Open the cached content of a file.
+   *
+   * @param metadata file metadata
+   * @return stream over the cached content, or null if the file is not cached
+   */
+  public InputStream get(FileMetadata metadata) {
+    ByteBuffer content = lookup(metadata);
+    return content == null ? null : new ByteBufferInputStream(content);
+  }
+
+  /**
+   * Open a byte range of the cached content of a file.
+   *
+   * @param metadata file metadata
+   * @param offset   offset of the first byte to read
+   * @param length   number of bytes to read
+   * @return stream over the requested range of the cached content, or null if the file is not
+   *     cached
+   */
+  public InputStream getRange(FileMetadata metadata, long offset, long length) {
+    ByteBuffer content = lookup(metadata);
+    if (content == null) {
+      return null;
+    }
+    int start = (int) Math.min(offset, content.limit());
+    int end = (int) Math.min(offset + length, content.limit());
+    return new ByteBufferInputStream(content.position(start).limit(end).slice());
+  }
+
+  /**
+   * Record a download of a file that is not cached and decide whether to load it into the cache.
+   * A file is loaded on its second download within the admission window if it fits in the cache.
+   *
+   * @param metadata file metadata
+   * @return true if the content of the file should be loaded and put into the cache
+   */
+  public boolean shouldCache(FileMetadata metadata) {
+    long size = metadata.getOriginalFileSize();
+    if (!properties.isEnabled() || size > properties.getMaxEntrySize()
+        || size > properties.getCapacity()) {
+      return false;
+    }
+    synchronized (this) {
+      return recentlyRequested.put(metadata.getId(), Boolean.TRUE) != null;
+    }
+  }
+
+  /**
+   * Put the decrypted content of a file into the cache, evicting the least recently used files if
+   * the cache grows over its capacity.
+   *
+   * @param metadata file metadata
+   * @param content  decrypted content
+   */
+  public void put(FileMetadata metadata, byte[] content) {
+    if (!properties.isEnabled() || content.length > properties.getCapacity()) {
+      return;
+    }
+    ByteBuffer buffer = ByteBuffer.allocateDirect(content.length).put(content).flip()
+        .asReadOnlyBuffer();
+    synchronized (this) {
+      remove(metadata.getId());
+      entries.put(metadata.getId(), new Entry(metadata.getStoragePath(), buffer));
+      fileIdsByBlob.computeIfAbsent(metadata.getStoragePath(), path -> new HashSet<>())
+          .add(metadata.getId());
+      usedBytes += content.length;
+      admissions.incrementAndGet();
+
+      Iterator<Map.Entry<UUID, Entry>> leastRecentlyUsed = entries.entrySet().iterator();
+      while (usedBytes > properties.getCapacity() && leastRecentlyUsed.hasNext()) {
+        Map.Entry<UUID, Entry> eldest = leastRecentlyUsed.next();
+        leastRecentlyUsed.remove();
+        unindex(eldest.getKey(), eldest.getValue());
+        evictions.incrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * Remove the cached content of a file, for instance once the file is deleted.
+   *
+   * @param fileId file id
+   */
+  public synchronized void invalidateFile(UUID fileId) {
+    if (remove(fileId)) {
+      invalidations.incrementAndGet();
+    }
+  }
+
+  /**
+   * Remove the cached content of all files stored in a blob, for instance once the blob was moved
+   * to another storage path.
+   *
+   * @param storagePath storage path of the blob
+   */
+  public synchronized void invalidateBlob(String storagePath) {
+    Set<UUID> fileIds = fileIdsByBlob.get(storagePath);
+    if (fileIds == null) {
+      return;
+    }
+    for (UUID fileId : Set.copyOf(fileIds)) {
+      invalidateFile(fileId);
+    }
+  }
+
+  /**
+   * Get cache statistics.
+   *
+   * @return cache statistics
+   */
+  public synchronized ContentCacheStatsDto getStats() {
+    long hitCount = hits.get();
+    long missCount = misses.get();
+    return ContentCacheStatsDto.builder()
+        .enabled(properties.isEnabled())
+        .entries(entries.size())
+        .usedBytes(usedBytes)
+        .capacityBytes(properties.getCapacity())
+        .hits(hitCount)
+        .misses(missCount)
+        .hitRate(hitCount + missCount == 0 ? 0 : (double) hitCount / (hitCount + missCount))
+        .admissions(admissions.get())
+        .evictions(evictions.get())
+        .invalidations(invalidations.get())
+        .build();
+  }
+
+  private ByteBuffer lookup(FileMetadata metadata) {
+    if (!properties.isEnabled()) {
+      return null;
+    }
+    Entry entry;
+    synchronized (this) {
+      entry = entries.get(metadata.getId());
+    }
+    if (entry == null || !entry.storagePath().equals(metadata.getStoragePath())) {
+      misses.incrementAndGet();
+      return null;
+    }
+    hits.incrementAndGet();
+    // Every reader gets its own position over the shared content
+    return entry.content().duplicate();
+  }
+
+  private boolean remove(UUID fileId) {
+    Entry entry = entries.remove(fileId);
+    if (entry == null) {
+      return false;
+    }
+    unindex(fileId, entry);
+    return true;
+  }
+
+  private void unindex(UUID fileId, Entry entry) {
+    usedBytes -= entry.content().capacity();
+    Set<UUID> fileIds = fileIdsByBlob.get(entry.storagePath());
+    fileIds.remove(fileId);
+    if (fileIds.isEmpty()) {
+      fileIdsByBlob.remove(entry.storagePath());
+    }
+  }
+
+  private record Entry(String storagePath, ByteBuffer content) {
+
+  }
+
+  /**
+   * Stream over the remaining bytes of a buffer.
+   */
+  private static final class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buffer;
+
+    private ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      int read = Math.min(len, buffer.remaining());
+      buffer.get(b, off, read);
+      return read;
+    }
+
+    @Override
+    public long skip(long n) {
+      int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+      buffer.position(buffer.position() + skipped);
+      return skipped;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+  }
+}
@@ -0,0 +1,238 @@
+package com.mvasilakos.filestorage.service;
+
+import com.mvasilakos.filestorage.config.ArchiveProperties;
+import com.mvasilakos.filestorage.dto.ArchiveRequest;
+import com.mvasilakos.filestorage.exception.FileStorageException;
+import com.mvasilakos.filestorage.model.CompressionCodec;
+import com.mvasilakos.filestorage.model.FileMetadata;
+import com.mvasilakos.filestorage.model.User;
+import com.mvasilakos.filestorage.repository.FileMetadataRepository;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.attribute.FileTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+
+/**
+ * Downloads of several files as one ZIP archive. The files are looked up in a single query, and
+ * the archive is written entry by entry as each file is decrypted and decompressed, so neither the
+ * archive nor any of its files is ever held in memory as a whole.
+ *
+ * <p>Files whose content is already compressed, that is files stored without a codec, are written
+ * without recompressing them. Files the user cannot access, or whose content cannot be read, are
+ * left out of the archive.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class FileArchiveService {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final FileMetadataRepository fileMetadataRepository;
+  private final FilePipelineService filePipelineService;
+  private final DecryptedContentCache decryptedContentCache;
+  private final StorageTieringService storageTieringService;
+  private final ArchiveProperties properties;
+
+  /**
+   * Look up the files to archive: the requested files, in the requested order, or the files whose
+   * filename matches the requested keyword, in filename order. Only files the user has access to
+   * are included, and only those count towards the maximum number of files.
+   *
+   * @param request archive request
+   * @param user    user who wants to download the files
+   * @return archive ready to be written
+   * @throws FileStorageException if neither files nor a keyword were requested, or the archive
+   *                              would contain too many files
+   */
+  public FileArchive prepareArchive(ArchiveRequest request, User user) {
+    List<FileMetadata> files;
+    if (request.getFileIds() != null && !request.getFileIds().isEmpty()) {
+      Set<UUID> fileIds = new LinkedHashSet<>(request.getFileIds());
+      files = findAccessibleFiles(fileIds, user);
+      Map<UUID, Integer> positions = new HashMap<>();
+      for (UUID fileId : fileIds) {
+        positions.put(fileId, positions.size());
+      }
+      files.sort(Comparator.comparing(file -> positions.get(file.getId())));
+    } else if (StringUtils.hasText(request.getKeyword())) {
+      // One more than allowed, to tell a full archive from one that would be too large
+      files = fileMetadataRepository.searchOwnerOrSharedWith(user,
+          "%" + request.getKeyword() + "%",
+          PageRequest.of(0, properties.getMaxFiles() + 1, Sort.by("filename", "id")));
+      if (files.size() > properties.getMaxFiles()) {
+        throw tooManyFiles();
+      }
+    } else {
+      throw new FileStorageException("Either file ids or a keyword must be given");
+    }
+
+    log.debug("Archiving {} files for user: {}", files.size(), user.getUsername());
+    return new FileArchive(files);
+  }
+
+  /**
+   * Look up the requested files the user has access to. Only those count towards the limit, so
+   * the ids are looked up in batches of one more than the limit, which keeps each query bounded
+   * and stops as soon as the archive would contain too many files.
+   *
+   * @param fileIds requested file ids
+   * @param user    user who wants to download the files
+   * @return accessible files, in no particular order
+   * @throws FileStorageException if more files than allowed are accessible
+   */
+  private List<FileMetadata> findAccessibleFiles(Set<UUID> fileIds, User user) {
+    List<FileMetadata> files = new ArrayList<>();
+    List<UUID> batch = new ArrayList<>();
+    Iterator<UUID> ids = fileIds.iterator();
+    while (ids.hasNext()) {
+      batch.add(ids.next());
+      if (batch.size() > properties.getMaxFiles() || !ids.hasNext()) {
+        files.addAll(fileMetadataRepository.findAllByIdInAndOwnerOrSharedWith(batch, user));
+        if (files.size() > properties.getMaxFiles()) {
+          throw tooManyFiles();
+        }
+        batch = new ArrayList<>();
+      }
+    }
+    return files;
+  }
+
+  private FileStorageException tooManyFiles() {
+    return new FileStorageException(
+        "An archive cannot contain more than " + properties.getMaxFiles() + " files");
+  }
+
+  /**
+   * Write an archive of the given files.
+   *
+   * @param files        files to archive
+   * @param outputStream stream to write the archive to, left open
+   * @throws IOException if writing the archive fails
+   */
+  private void writeArchive(List<FileMetadata> files, OutputStream outputStream)
+      throws IOException {
+    ZipOutputStream zip = new ZipOutputStream(
+        new BufferedOutputStream(outputStream, BUFFER_SIZE));
+    EntryNames entryNames = new EntryNames();
+    for (FileMetadata file : files) {
+      InputStream content = openQuietly(file);
+      if (content == null) {
+        continue;
+      }
+      try (content) {
+        // Deflating compressed content costs CPU time for no gain, so such entries are written
+        // in uncompressed deflate blocks
+        zip.setLevel(file.getCompressionCodec() == CompressionCodec.NONE
+            ? Deflater.NO_COMPRESSION
+            : properties.getCompressionLevel());
+        ZipEntry entry = new ZipEntry(entryNames.next(file.getFilename()));
+        if (file.getUploadDate() != null) {
+          entry.setLastModifiedTime(FileTime.from(
+              file.getUploadDate().atZone(ZoneId.systemDefault()).toInstant()));
+        }
+        zip.putNextEntry(entry);
+        content.transferTo(zip);
+        zip.closeEntry();
+      }
+      storageTieringService.recordAccess(file.getStoragePath());
+    }
+    zip.finish();
+    zip.flush();
+  }
+
+  private InputStream openQuietly(FileMetadata file) {
+    try {
+      InputStream cached = decryptedContentCache.get(file);
+      return cached != null ? cached : filePipelineService.open(file);
+    } catch (RuntimeException e) {
+      log.warn("Leaving unreadable file out of archive: {}", file.getId(), e);
+      return null;
+    }
+  }
+
+  /**
+   * Archive of files, written once its content is requested.
+   */
+  public final class FileArchive {
+
+    private final List<FileMetadata> files;
+
+    private FileArchive(List<FileMetadata> files) {
+      this.files = files;
+    }
+
+    /**
+     * Get the number of files in the archive.
+     *
+     * @return number of files
+     */
+    public int getFileCount() {
+      return files.size();
+    }
+
+    /**
+     * Write the archive, decrypting and decompressing one file at a time.
+     *
+     * @param outputStream stream to write the archive to, left open
+     * @throws IOException if writing the archive fails
+     */
+    public void writeTo(OutputStream outputStream) throws IOException {
+      writeArchive(files, outputStream);
+    }
+  }
+
+  /**
+   * Unique entry names for the files of an archive. Path separators in filenames are replaced, so
+   * every file is extracted into the same directory, and files of the same name are numbered.
+   */
+  static final class EntryNames {
+
+    private final Set<String> used = new HashSet<>();
+    private final Map<String, Integer> counters = new HashMap<>();
+
+    String next(String filename) {
+      String name = StringUtils.hasText(filename)
+          ? filename.replaceAll("[/\\\\]", "_")
+          : "file";
+      if (name.equals(".") || name.equals("..")) {
+        name = "_";
+      }
+      if (used.add(name)) {
+        return name;
+      }
+
+      int extension = name.lastIndexOf('.');
+      String base = extension > 0 ? name.substring(0, extension) : name;
+      String suffix = extension > 0 ? name.substring(extension) : "";
+      String candidate;
+      do {
+        int counter = counters.merge(name, 1, Integer::sum);
+        candidate = base + " (" + counter + ")" + suffix;
+      } while (!used.add(candidate));
+      return candidate;
+    }
+  }
+}
@@ -1,11 +1,16 @@
 package com.mvasilakos.filestorage.service;
 
+import com.mvasilakos.filestorage.compression.Compressor;
+import com.mvasilakos.filestorage.config.CompressionProperties;
 import com.mvasilakos.filestorage.exception.FileCompressionException;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import com.mvasilakos.filestorage.model.CompressionCodec;
 import java.io.IOException;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
 import org.springframework.stereotype.Service;
 
 /**
@@ -14,42 +19,132 @@ import org.springframework.stereotype.Service;
 @Service
 public class FileCompressionService {
 
+  private static final int BUFFER_SIZE = 8192;
+
+  private final CompressionProperties compressionProperties;
+  private final Map<CompressionCodec, Compressor> compressors =
+      new EnumMap<>(CompressionCodec.class);
+
+  /**
+   * Constructor.
+   *
+   * @param compressionProperties compression configuration
+   * @param compressors           available compressor implementations
+   */
+  public FileCompressionService(CompressionProperties compressionProperties,
+      List<Compressor> compressors) {
+    this.compressionProperties = compressionProperties;
+    compressors.forEach(compressor -> this.compressors.put(compressor.codec(), compressor));
+  }
+
+  /**
+   * Number of leading bytes of a file that {@link #selectCodec(String, byte[])} expects.
+   *
+   * @return probe size in bytes
+   */
+  public int getProbeSize() {
+    return compressionProperties.getProbeSize();
+  }
+
+  /**
+   * Choose the codec for a file. Content types that are known to be compressed already are stored
+   * as they are; everything else gets the codec configured for its content type, or the default
+   * codec, but only if a trial compression of its first bytes saves enough space to be worth the
+   * CPU time.
+   *
+   * @param contentType detected content type
+   * @param sample      leading bytes of the file, at most {@link #getProbeSize()} long
+   * @return selected codec
+   */
+  public CompressionCodec selectCodec(String contentType, byte[] sample) {
+    CompressionCodec codec = configuredCodec(contentType);
+    if (codec == CompressionCodec.NONE || sample.length == 0) {
+      return codec;
+    }
+
+    return estimateSavings(sample) >= compressionProperties.getMinSavings()
+        ? codec
+        : CompressionCodec.NONE;
+  }
+
   /**
-   * Compress byte array.
+   * Codec configured for a content type: none for types known to be compressed already, otherwise
+   * the codec configured for the type, or the default codec. Unlike
+   * {@link #selectCodec(String, byte[])}, this does not look at the content.
    *
-   * @param data uncompressed data
-   * @return compressed data
+   * @param contentType content type
+   * @return configured codec
    */
-  public byte[] compress(byte[] data) {
+  public CompressionCodec configuredCodec(String contentType) {
+    if (contentType == null) {
+      return compressionProperties.getDefaultCodec();
+    }
+    if (compressionProperties.getIncompressibleTypes().contains(contentType)) {
+      return CompressionCodec.NONE;
+    }
+    return compressionProperties.getCodecByType()
+        .getOrDefault(contentType, compressionProperties.getDefaultCodec());
+  }
+
+  private double estimateSavings(byte[] sample) {
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+    long compressedLength = 0;
     try {
-      ByteArrayOutputStream compressedBytes = new ByteArrayOutputStream();
-      try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(compressedBytes)) {
-        gzipOutputStream.write(data);
-        gzipOutputStream.finish();
+      deflater.setInput(sample);
+      deflater.finish();
+      byte[] buffer = new byte[BUFFER_SIZE];
+      while (!deflater.finished()) {
+        compressedLength += deflater.deflate(buffer);
       }
-      return compressedBytes.toByteArray();
+    } finally {
+      deflater.end();
+    }
+    return 1.0 - (double) compressedLength / sample.length;
+  }
+
+  /**
+   * Wrap a stream so that everything written to it is compressed before reaching the target.
+   * Closing the returned stream finishes the compressed stream and closes the target.
+   *
+   * @param outputStream target for the compressed data
+   * @param codec        compression codec
+   * @return uncompressed data stream
+   */
+  public OutputStream compressingStream(OutputStream outputStream, CompressionCodec codec) {
+    if (codec == CompressionCodec.NONE) {
+      return outputStream;
+    }
+    try {
+      return getCompressor(codec).compress(outputStream);
     } catch (IOException e) {
-      throw new FileCompressionException("Failed to compress data", e);
+      throw new FileCompressionException("Failed to initialize compression stream", e);
     }
   }
 
   /**
-   * Decompress byte array.
+   * Wrap a stream of compressed data so that it is decompressed while being read.
    *
-   * @param compressedData compressed data
-   * @return decompressed data
+   * @param inputStream compressed data stream
+   * @param codec       compression codec
+   * @return decompressed data stream
    */
-  public byte[] decompress(byte[] compressedData) {
+  public InputStream decompressingStream(InputStream inputStream, CompressionCodec codec) {
+    if (codec == CompressionCodec.NONE) {
+      return inputStream;
+    }
     try {
-      ByteArrayOutputStream decompressedBytes = new ByteArrayOutputStream();
-      try (ByteArrayInputStream inputStream = new ByteArrayInputStream(compressedData);
-          GZIPInputStream gzipInputStream = new GZIPInputStream(inputStream)) {
-        gzipInputStream.transferTo(decompressedBytes);
-      }
-      return decompressedBytes.toByteArray();
+      return getCompressor(codec).decompress(inputStream);
     } catch (IOException e) {
-      throw new FileCompressionException("Failed to decompress data", e);
+      throw new FileCompressionException("Failed to initialize decompression stream", e);
+    }
+  }
+
+  private Compressor getCompressor(CompressionCodec codec) {
+    Compressor compressor = compressors.get(codec);
+    if (compressor == null) {
+      throw new FileCompressionException("No compressor available for codec: " + codec);
     }
+    return compressor;
   }
 
-}
\ No newline at end of file
+}
@@ -1,10 +1,11 @@
 package com.mvasilakos.filestorage.service;
 
+import com.mvasilakos.filestorage.crypto.AesGcmEngine;
 import com.mvasilakos.filestorage.exception.FileEncryptionException;
-import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
-import java.security.SecureRandom;
+import java.io.OutputStream;
 import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
 import javax.crypto.CipherOutputStream;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.IvParameterSpec;
@@ -16,77 +17,128 @@ import org.springframework.stereotype.Service;
 @Service
 public class FileEncryptionService {
 
+  /**
+   * Length of the initialization vector of the legacy AES-CBC formats in bytes.
+   */
+  public static final int IV_LENGTH = 16;
+
+  private static final int STREAM_FRAME_SIZE = 64 * 1024;
+
   private final SecretKey secretKey;
+  private final AesGcmEngine aesGcmEngine;
 
   /**
    * Constructor.
    *
    * @param keyManagementService keyManagementService
+   * @param aesGcmEngine         AES-GCM engine
    */
-  public FileEncryptionService(SimpleKeyManagementService keyManagementService) {
+  public FileEncryptionService(SimpleKeyManagementService keyManagementService,
+      AesGcmEngine aesGcmEngine) {
     this.secretKey = keyManagementService.getSecretKey();
+    this.aesGcmEngine = aesGcmEngine;
   }
 
   /**
-   * Decrypt byte array.
+   * Wrap a stream of AES-CBC encrypted data, as written by the legacy storage formats, so that it
+   * is decrypted while being read.
    *
-   * @param encryptedData byte array
-   * @param iv            initialization vector
-   * @return byte array
+   * @param inputStream encrypted data stream
+   * @param iv          initialization vector
+   * @return decrypted data stream
    */
-  public byte[] decrypt(byte[] encryptedData, byte[] iv) {
+  public InputStream decryptingStream(InputStream inputStream, byte[] iv) {
     try {
       IvParameterSpec ivParameterSpec = new IvParameterSpec(iv);
       Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
       cipher.init(Cipher.DECRYPT_MODE, secretKey, ivParameterSpec);
 
-      return cipher.doFinal(encryptedData);
+      return new CipherInputStream(inputStream, cipher);
     } catch (Exception e) {
-      throw new FileEncryptionException("Failed to decrypt data", e);
+      throw new FileEncryptionException("Failed to initialize decryption stream", e);
     }
   }
 
   /**
-   * Encrypt data stream.
+   * Wrap a stream so that everything written to it is AES-CBC encrypted before reaching the
+   * target, as in the legacy storage formats. Closing the returned stream writes the final cipher
+   * block and closes the target.
    *
-   * @param inputStream unencrypted data stream
-   * @return encrypted data stream
+   * @param outputStream target for the encrypted data
+   * @param iv           initialization vector
+   * @return unencrypted data stream
    */
-  public EncryptionResult encryptStream(InputStream inputStream) {
+  public OutputStream encryptingStream(OutputStream outputStream, byte[] iv) {
     try {
-      byte[] iv = generateIv();
       IvParameterSpec ivParameterSpec = new IvParameterSpec(iv);
 
       Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
       cipher.init(Cipher.ENCRYPT_MODE, secretKey, ivParameterSpec);
 
-      ByteArrayOutputStream encryptedBytesBuffer = new ByteArrayOutputStream();
-      try (CipherOutputStream cipherOutputStream = new CipherOutputStream(encryptedBytesBuffer,
-          cipher)) {
-        byte[] buffer = new byte[8192];
-        int bytesRead;
-        while ((bytesRead = inputStream.read(buffer)) != -1) {
-          cipherOutputStream.write(buffer, 0, bytesRead);
-        }
-        cipherOutputStream.flush();
-      }
-
-      return new EncryptionResult(encryptedBytesBuffer.toByteArray(), iv);
+      return new CipherOutputStream(outputStream, cipher);
     } catch (Exception e) {
-      throw new FileEncryptionException("Failed to encrypt stream", e);
+      throw new FileEncryptionException("Failed to initialize encryption stream", e);
     }
   }
 
-  private byte[] generateIv() {
-    byte[] iv = new byte[16];
-    new SecureRandom().nextBytes(iv);
-    return iv;
+  /**
+   * Wrap a stream so that everything written to it is encrypted and authenticated with AES-GCM in
+   * independently sealed frames. Closing the returned stream seals the final frame and closes the
+   * target.
+   *
+   * @param outputStream target for the encrypted data
+   * @return unencrypted data stream
+   */
+  public OutputStream sealingStream(OutputStream outputStream) {
+    return aesGcmEngine.sealingStream(outputStream, secretKey, STREAM_FRAME_SIZE);
   }
 
   /**
-   * Encryption result class.
+   * Wrap a stream written by {@link #sealingStream(OutputStream)} so that it is verified and
+   * decrypted while being read.
+   *
+   * @param inputStream encrypted data stream
+   * @return decrypted data stream
    */
-  public record EncryptionResult(byte[] encryptedData, byte[] iv) {
+  public InputStream openingStream(InputStream inputStream) {
+    return aesGcmEngine.openingStream(inputStream, secretKey);
+  }
 
+  /**
+   * Encrypt and authenticate a segment with AES-GCM under a fresh random nonce.
+   *
+   * @param key            content encryption key of the file
+   * @param data           buffer holding the segment
+   * @param length         number of bytes in the buffer
+   * @param associatedData data that is authenticated but not encrypted
+   * @return nonce followed by the ciphertext and authentication tag
+   */
+  public byte[] sealSegment(SecretKey key, byte[] data, int length, byte[] associatedData) {
+    return aesGcmEngine.seal(key, data, 0, length, associatedData);
   }
-}
\ No newline at end of file
+
+  /**
+   * Verify and decrypt a segment sealed by
+   * {@link #sealSegment(SecretKey, byte[], int, byte[])}.
+   *
+   * @param key            content encryption key of the file
+   * @param sealed         nonce followed by the ciphertext and authentication tag
+   * @param associatedData data the segment was authenticated with
+   * @return decrypted segment
+   */
+  public byte[] openSegment(SecretKey key, byte[] sealed, byte[] associatedData) {
+    return aesGcmEngine.open(key, sealed, 0, sealed.length, associatedData);
+  }
+
+  /**
+   * Generate a random initialization vector for the legacy AES-CBC formats.
+   *
+   * @return initialization vector
+   */
+  public byte[] generateIv() {
+    byte[] iv = new byte[IV_LENGTH];
+    aesGcmEngine.nextBytes(iv);
+    return iv;
+  }
+
+}
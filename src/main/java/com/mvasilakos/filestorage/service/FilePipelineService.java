@@ -0,0 +1,307 @@
+package com.mvasilakos.filestorage.service;
+
+import com.mvasilakos.filestorage.exception.FileStorageException;
+import com.mvasilakos.filestorage.format.SegmentIndex;
+import com.mvasilakos.filestorage.format.SegmentTransformer;
+import com.mvasilakos.filestorage.format.SegmentedBlobFormat;
+import com.mvasilakos.filestorage.format.SegmentedBlobInputStream;
+import com.mvasilakos.filestorage.format.SegmentedBlobOutputStream;
+import com.mvasilakos.filestorage.model.CompressionCodec;
+import com.mvasilakos.filestorage.model.FileMetadata;
+import com.mvasilakos.filestorage.model.StorageFormat;
+import com.mvasilakos.filestorage.service.DataKeyService.DataKey;
+import com.mvasilakos.filestorage.storage.BlobStore;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import javax.crypto.SecretKey;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+
+/**
+ * Chains compression, encryption and storage into a single streaming pipeline, so that file
+ * content only ever passes through a bounded number of fixed-size buffers on its way to and from
+ * disk.
+ */
+@Slf4j
+@Service
+public class FilePipelineService {
+
+  private final FileEncryptionService fileEncryptionService;
+  private final FileCompressionService fileCompressionService;
+  private final DataKeyService dataKeyService;
+  private final BlobStore blobStore;
+  private final int segmentSize;
+  private final Executor segmentExecutor;
+  private final int maxSegmentsInFlight;
+
+  /**
+   * Constructor. Segments are processed on the segment pool when it has more than one worker, in
+   * the style of pigz, and on the request thread otherwise.
+   *
+   * @param fileEncryptionService  file encryption service
+   * @param fileCompressionService file compression service
+   * @param dataKeyService         data key service
+   * @param blobStore              store the blobs are kept in
+   * @param segmentPool            pool segments are compressed and encrypted on
+   * @param segmentSize            plaintext length of the segments new files are split into
+   */
+  public FilePipelineService(FileEncryptionService fileEncryptionService,
+      FileCompressionService fileCompressionService, DataKeyService dataKeyService,
+      BlobStore blobStore, ForkJoinPool segmentPool,
+      @Value("${file.storage.segment-size:262144}") int segmentSize) {
+    this.fileEncryptionService = fileEncryptionService;
+    this.fileCompressionService = fileCompressionService;
+    this.dataKeyService = dataKeyService;
+    this.blobStore = blobStore;
+    this.segmentSize = segmentSize;
+
+    int parallelism = segmentPool.getParallelism();
+    this.segmentExecutor = parallelism > 1 ? segmentPool : Runnable::run;
+    // Two segments per worker keep the pool busy while completed segments are written in order
+    this.maxSegmentsInFlight = parallelism > 1 ? 2 * parallelism : 1;
+  }
+
+  /**
+   * Compress, encrypt and store the given content in the segmented format, under a fresh data key.
+   * Compression is skipped for content that would not benefit from it. The SHA-256 digest of the
+   * plaintext is computed as the content streams past, so it is known as soon as the content is
+   * stored.
+   *
+   * @param storagePath storage path
+   * @param content     unencrypted content
+   * @param contentType detected content type
+   * @return details of the stored content
+   */
+  public StoredContent store(String storagePath, InputStream content, String contentType) {
+    byte[] sample = readSample(content);
+    CompressionCodec codec = fileCompressionService.selectCodec(contentType, sample);
+    MessageDigest digest = sha256();
+    InputStream fullContent = new DigestInputStream(
+        new SequenceInputStream(new ByteArrayInputStream(sample), content), digest);
+    DataKey dataKey = dataKeyService.generateDataKey();
+    SegmentTransformer transformer = segmentTransformer(codec, dataKey.key());
+
+    long storedSize = blobStore.storeBlob(storagePath, outputStream -> {
+      try (OutputStream segmentedStream =
+          new SegmentedBlobOutputStream(outputStream, segmentSize, transformer,
+              segmentExecutor, maxSegmentsInFlight)) {
+        fullContent.transferTo(segmentedStream);
+      }
+    });
+
+    return new StoredContent(storedSize, StorageFormat.SEGMENTED, codec,
+        HexFormat.of().formatHex(digest.digest()), dataKey.wrappedKey(), dataKey.keyVersion());
+  }
+
+  private MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+
+  private byte[] readSample(InputStream content) {
+    try {
+      return content.readNBytes(fileCompressionService.getProbeSize());
+    } catch (IOException e) {
+      throw new FileStorageException("Failed to read file content", e);
+    }
+  }
+
+  /**
+   * Open a stored file for reading. The content is decrypted and decompressed on the fly, in the
+   * order dictated by the file's storage format, as the returned stream is consumed; the caller is
+   * responsible for closing it.
+   *
+   * @param metadata file metadata
+   * @return unencrypted content stream
+   */
+  public InputStream open(FileMetadata metadata) {
+    if (metadata.getStorageFormat() == StorageFormat.SEGMENTED) {
+      SegmentIndex index = readSegmentIndex(metadata.getStoragePath());
+      return openSegments(metadata, index, 0, index.contentLength());
+    }
+
+    InputStream storedStream = blobStore.openFile(metadata.getStoragePath());
+    try {
+      byte[] iv = storedStream.readNBytes(FileEncryptionService.IV_LENGTH);
+      if (iv.length != FileEncryptionService.IV_LENGTH) {
+        throw new FileStorageException("Could not read full IV from file. "
+            + "File might be corrupted or not properly encrypted.");
+      }
+
+      CompressionCodec codec = metadata.getCompressionCodec();
+      return switch (metadata.getStorageFormat()) {
+        case ENCRYPT_THEN_COMPRESS -> fileEncryptionService.decryptingStream(
+            fileCompressionService.decompressingStream(storedStream, codec), iv);
+        case COMPRESS_THEN_ENCRYPT -> fileCompressionService.decompressingStream(
+            fileEncryptionService.decryptingStream(storedStream, iv), codec);
+        case SEGMENTED -> throw new IllegalStateException("Segmented files are opened by range");
+      };
+    } catch (IOException e) {
+      closeQuietly(storedStream);
+      throw new FileStorageException("Failed to read encrypted file", e);
+    } catch (RuntimeException e) {
+      closeQuietly(storedStream);
+      throw e;
+    }
+  }
+
+  /**
+   * Whether byte ranges of the file can be read without processing the whole file.
+   *
+   * @param metadata file metadata
+   * @return true if {@link #openRange(FileMetadata, long, long)} is supported for the file
+   */
+  public boolean supportsRanges(FileMetadata metadata) {
+    return metadata.getStorageFormat() == StorageFormat.SEGMENTED;
+  }
+
+  /**
+   * Open a byte range of a stored file for reading. Only the segments overlapping the range are
+   * read from disk, decrypted and decompressed.
+   *
+   * @param metadata file metadata
+   * @param offset   offset of the first plaintext byte to read
+   * @param length   number of plaintext bytes to read
+   * @return unencrypted content stream over the requested range
+   */
+  public InputStream openRange(FileMetadata metadata, long offset, long length) {
+    if (!supportsRanges(metadata)) {
+      throw new FileStorageException(
+          "Range reads are not supported for format: " + metadata.getStorageFormat());
+    }
+
+    SegmentIndex index = readSegmentIndex(metadata.getStoragePath());
+    if (offset < 0 || length < 0 || offset + length > index.contentLength()) {
+      throw new FileStorageException(String.format(
+          "Range %d+%d is outside the file content of %d bytes",
+          offset, length, index.contentLength()));
+    }
+    return openSegments(metadata, index, offset, length);
+  }
+
+  private InputStream openSegments(FileMetadata metadata, SegmentIndex index, long offset,
+      long length) {
+    if (length == 0) {
+      return InputStream.nullInputStream();
+    }
+    int firstSegment = index.segmentAt(offset);
+    int lastSegment = index.segmentAt(offset + length - 1);
+    long blobOffset = index.offsets()[firstSegment];
+    InputStream storedStream = blobStore.openFileRange(metadata.getStoragePath(),
+        blobOffset, index.endOffset(lastSegment) - blobOffset);
+
+    return new SegmentedBlobInputStream(storedStream, index,
+        segmentTransformer(metadata.getCompressionCodec(), dataKeyService.contentKey(metadata)),
+        offset, length, segmentExecutor, maxSegmentsInFlight);
+  }
+
+  private SegmentIndex readSegmentIndex(String storagePath) {
+    long blobSize = blobStore.getFileSize(storagePath);
+    long indexEnd = blobSize - SegmentedBlobFormat.TRAILER_LENGTH;
+    try {
+      if (indexEnd < SegmentedBlobFormat.HEADER_LENGTH) {
+        throw new IOException("Blob is too short to be segmented: " + blobSize + " bytes");
+      }
+      byte[] trailer = readFully(storagePath, indexEnd, SegmentedBlobFormat.TRAILER_LENGTH);
+      long indexLength = (long) SegmentedBlobFormat.readSegmentCount(trailer) * Integer.BYTES;
+      if (indexLength > indexEnd - SegmentedBlobFormat.HEADER_LENGTH) {
+        throw new IOException("Segment index does not fit in the blob");
+      }
+
+      byte[] index = readFully(storagePath, indexEnd - indexLength, (int) indexLength);
+      SegmentIndex segmentIndex = SegmentedBlobFormat.readIndex(index, trailer);
+      if (segmentIndex.endOffset(segmentIndex.segmentCount() - 1) != indexEnd - indexLength) {
+        throw new IOException("Segment index does not match the blob size");
+      }
+      return segmentIndex;
+    } catch (IOException e) {
+      throw new FileStorageException("Failed to read segment index of file: " + storagePath, e);
+    }
+  }
+
+  private byte[] readFully(String storagePath, long offset, int length) throws IOException {
+    try (InputStream rangeStream = blobStore.openFileRange(storagePath, offset, length)) {
+      byte[] bytes = rangeStream.readNBytes(length);
+      if (bytes.length != length) {
+        throw new IOException("Unexpected end of blob");
+      }
+      return bytes;
+    }
+  }
+
+  private SegmentTransformer segmentTransformer(CompressionCodec codec, SecretKey key) {
+    return new SegmentTransformer() {
+
+      @Override
+      public byte[] seal(byte[] plaintext, int length, byte[] associatedData) throws IOException {
+        if (codec == CompressionCodec.NONE) {
+          return fileEncryptionService.sealSegment(key, plaintext, length, associatedData);
+        }
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(length);
+        try (OutputStream compressingStream =
+            fileCompressionService.compressingStream(compressed, codec)) {
+          compressingStream.write(plaintext, 0, length);
+        }
+        return fileEncryptionService.sealSegment(key,
+            compressed.toByteArray(), compressed.size(), associatedData);
+      }
+
+      @Override
+      public byte[] open(byte[] sealed, byte[] associatedData) throws IOException {
+        byte[] compressed = fileEncryptionService.openSegment(key, sealed, associatedData);
+        if (codec == CompressionCodec.NONE) {
+          return compressed;
+        }
+        try (InputStream decompressingStream = fileCompressionService.decompressingStream(
+            new ByteArrayInputStream(compressed), codec)) {
+          return decompressingStream.readAllBytes();
+        }
+      }
+    };
+  }
+
+  private void closeQuietly(InputStream inputStream) {
+    try {
+      inputStream.close();
+    } catch (IOException e) {
+      log.warn("Failed to close stored file stream", e);
+    }
+  }
+
+  /**
+   * Details of content written by the pipeline.
+   *
+   * @param storedSize       number of bytes stored
+   * @param storageFormat    on-disk format of the stored blob
+   * @param compressionCodec compression codec applied to the content
+   * @param contentHash      hex encoded SHA-256 digest of the unencrypted content
+   * @param wrappedKey       data key of the content, wrapped by the master key
+   * @param keyVersion       version of the master key wrapping the data key
+   */
+  public record StoredContent(
+      long storedSize,
+      StorageFormat storageFormat,
+      CompressionCodec compressionCodec,
+      String contentHash,
+      byte[] wrappedKey,
+      Integer keyVersion
+  ) {
+
+  }
+
+}
@@ -2,29 +2,36 @@ package com.mvasilakos.filestorage.service;
 
 import com.mvasilakos.filestorage.dto.FileMetadataDto;
 import com.mvasilakos.filestorage.exception.FileStorageException;
+import com.mvasilakos.filestorage.exception.InvalidFileException;
+import com.mvasilakos.filestorage.exception.RangeNotSatisfiableException;
 import com.mvasilakos.filestorage.mapper.FileMetadataMapper;
+import com.mvasilakos.filestorage.model.ContentBlob;
 import com.mvasilakos.filestorage.model.FileAccessLevel;
 import com.mvasilakos.filestorage.model.FileMetadata;
 import com.mvasilakos.filestorage.model.FilePermission;
 import com.mvasilakos.filestorage.model.User;
 import com.mvasilakos.filestorage.repository.FileMetadataRepository;
 import com.mvasilakos.filestorage.repository.FilePermissionRepository;
+import com.mvasilakos.filestorage.service.FilePipelineService.StoredContent;
 import com.mvasilakos.filestorage.validator.FileValidator;
 import jakarta.transaction.Transactional;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.function.Predicate;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.ByteArrayResource;
-import org.springframework.core.io.Resource;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpRange;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
@@ -45,13 +52,16 @@ public class FileService {
   private final FilePermissionRepository filePermissionRepository;
   private final FileValidator fileValidator;
   private final UserService userService;
-  private final FileEncryptionService fileEncryptionService;
-  private final FileCompressionService fileCompressionService;
-  private final FileStorageService fileStorageService;
+  private final FilePipelineService filePipelineService;
+  private final ContentBlobService contentBlobService;
+  private final StorageLayout storageLayout;
+  private final StorageTieringService storageTieringService;
+  private final DecryptedContentCache decryptedContentCache;
 
 
   /**
-   * Store file.
+   * Store file. Content that is already stored is not kept twice; the file references the existing
+   * blob instead.
    *
    * @param file  file to store
    * @param owner the user who is storing the file
@@ -59,32 +69,85 @@ public class FileService {
    * @throws FileStorageException if storage fails or limits are exceeded
    */
   public FileMetadataDto uploadFile(MultipartFile file, User owner) {
-    fileValidator.validateFile(file);
+    String detectedContentType = fileValidator.validateFile(file);
+    checkStorageLimit(owner, file.getSize());
 
-    long userStorageUsed = calculateUserTotalStorage(owner);
-    long originalFileSize = file.getSize();
-    validateStorageLimit(userStorageUsed, originalFileSize);
-
-    FileMetadata metadata = createFileMetadata(file, owner);
+    return saveUploadedFile(storeFile(file, detectedContentType, owner));
+  }
 
+  /**
+   * Store a file sent as a raw request body, streaming it through the pipeline as it arrives. The
+   * declared length is checked against the maximum file size and the user's storage limit before
+   * any content is read; the content type is detected from the leading bytes, which are then
+   * stored with the rest.
+   *
+   * @param filename      name of the file
+   * @param contentLength declared length of the content
+   * @param content       content of the file, read once
+   * @param owner         the user who is storing the file
+   * @return file metadata DTO
+   * @throws InvalidFileException if the file is empty, too large or of a type that is not allowed
+   * @throws FileStorageException if storage fails or the storage limit would be exceeded
+   */
+  public FileMetadataDto uploadRawFile(String filename, long contentLength, InputStream content,
+      User owner) {
+    fileValidator.validateDeclaredFile(filename, contentLength);
+    checkStorageLimit(owner, contentLength);
+
+    // Detection reads ahead and resets, so the sniffed bytes reach the pipeline too
+    InputStream bufferedContent = new BufferedInputStream(content);
+    String detectedContentType = fileValidator.validateContentType(bufferedContent, filename);
+    FileMetadata metadata = createFileMetadata(filename, detectedContentType, contentLength,
+        owner);
     try {
-      FileEncryptionService.EncryptionResult encryptionResult =
-          fileEncryptionService.encryptStream(file.getInputStream());
+      storeContent(metadata, bufferedContent, detectedContentType);
+    } catch (Exception e) {
+      cleanupAfterUploadFail(metadata);
+      throw new FileStorageException(
+          String.format("Failed to encrypt/store file: \"%s\"", filename), e);
+    }
+    return saveUploadedFile(metadata);
+  }
 
-      byte[] compressedData = fileCompressionService.compress(encryptionResult.encryptedData());
+  private FileMetadataDto saveUploadedFile(FileMetadata metadata) {
+    try {
+      FileMetadata savedMetadata = fileMetadataRepository.save(metadata);
+      return fileMetadataMapper.toDto(savedMetadata);
+    } catch (Exception e) {
+      cleanupAfterUploadFail(metadata);
+      throw new FileStorageException(
+          String.format("Failed to encrypt/store file: \"%s\"", metadata.getFilename()), e);
+    }
+  }
 
-      fileStorageService.storeEncryptedFile(
-          metadata.getStoragePath(),
-          encryptionResult.iv(),
-          compressedData
-      );
+  /**
+   * Check that the user has room for files of the given total size.
+   *
+   * @param owner    user who is storing the files
+   * @param fileSize total size of the files
+   * @throws FileStorageException if the files would exceed the user's storage limit
+   */
+  void checkStorageLimit(User owner, long fileSize) {
+    validateStorageLimit(calculateUserTotalStorage(owner), fileSize);
+  }
 
-      long finalStoredFileSize = fileStorageService.getFileSize(metadata.getStoragePath());
-      metadata.setSize(finalStoredFileSize);
-      metadata.setOriginalFileSize(originalFileSize);
+  /**
+   * Run the content of a file through the pipeline and build its metadata, which is left for the
+   * caller to save. If the content is already stored, the file references the existing blob.
+   *
+   * @param file                file to store
+   * @param detectedContentType content type detected from the file's content
+   * @param owner               the user who is storing the file
+   * @return unsaved file metadata
+   * @throws FileStorageException if storing the content fails, in which case nothing is kept
+   */
+  FileMetadata storeFile(MultipartFile file, String detectedContentType, User owner) {
+    FileMetadata metadata = createFileMetadata(file.getOriginalFilename(),
+        file.getContentType(), file.getSize(), owner);
 
-      FileMetadata savedMetadata = fileMetadataRepository.save(metadata);
-      return fileMetadataMapper.toDto(savedMetadata);
+    try (InputStream content = file.getInputStream()) {
+      storeContent(metadata, content, detectedContentType);
+      return metadata;
 
     } catch (IOException e) {
       cleanupAfterUploadFail(metadata);
@@ -110,16 +173,35 @@ public class FileService {
     }
   }
 
-  private FileMetadata createFileMetadata(MultipartFile file, User owner) {
+  // Runs the content through the pipeline and fills in how it was stored
+  private void storeContent(FileMetadata metadata, InputStream content,
+      String detectedContentType) {
+    StoredContent storedContent = filePipelineService.store(
+        metadata.getStoragePath(), content, detectedContentType);
+    metadata.setSize(storedContent.storedSize());
+    metadata.setStorageFormat(storedContent.storageFormat());
+    metadata.setCompressionCodec(storedContent.compressionCodec());
+    metadata.setContentHash(storedContent.contentHash());
+    metadata.setWrappedKey(storedContent.wrappedKey());
+    metadata.setKeyVersion(storedContent.keyVersion());
+
+    Optional<ContentBlob> sharedBlob = contentBlobService.deduplicate(
+        metadata.getStoragePath(), storedContent, metadata.getOwner());
+    sharedBlob.ifPresent(blob -> referenceBlob(metadata, blob));
+  }
+
+  private FileMetadata createFileMetadata(String filename, String contentType, long size,
+      User owner) {
     UUID id = UUID.randomUUID();
-    String sanitizedFilename = sanitizeFilename(file.getOriginalFilename());
+    String sanitizedFilename = sanitizeFilename(filename);
     String storagePath = generateStoragePath(id);
 
     return FileMetadata.builder()
         .id(id)
         .filename(sanitizedFilename)
-        .contentType(file.getContentType())
-        .size(file.getSize())
+        .contentType(contentType)
+        .size(size)
+        .originalFileSize(size)
         .uploadDate(LocalDateTime.now())
         .storagePath(storagePath)
         .owner(owner)
@@ -147,13 +229,28 @@ public class FileService {
   }
 
   private String generateStoragePath(UUID id) {
-    LocalDateTime timestamp = LocalDateTime.now();
-    return String.format("%s_%s", id, timestamp);
+    return storageLayout.storagePathFor(id.toString());
   }
 
-  private void cleanupAfterUploadFail(FileMetadata metadata) {
+  private void referenceBlob(FileMetadata metadata, ContentBlob blob) {
+    metadata.setStoragePath(blob.getStoragePath());
+    metadata.setSize(blob.getStoredSize());
+    metadata.setStorageFormat(blob.getStorageFormat());
+    metadata.setCompressionCodec(blob.getCompressionCodec());
+    metadata.setWrappedKey(blob.getWrappedKey());
+    metadata.setKeyVersion(blob.getKeyVersion());
+    // Content uploaded again is as good as read, and worth keeping on the hot tier
+    storageTieringService.recordAccess(blob.getStoragePath());
+  }
+
+  /**
+   * Release the content stored for a file whose metadata could not be saved.
+   *
+   * @param metadata unsaved file metadata
+   */
+  void cleanupAfterUploadFail(FileMetadata metadata) {
     try {
-      fileStorageService.deleteFile(metadata.getStoragePath());
+      contentBlobService.release(metadata.getStoragePath());
     } catch (Exception e) {
       log.warn("Failed to cleanup file after upload failure: {}", metadata.getStoragePath(), e);
     }
@@ -189,30 +286,106 @@ public class FileService {
   }
 
   /**
-   * Get file data.
+   * Open a file for streaming download. The returned content stream decrypts and decompresses the
+   * stored data as it is read and must be closed by the caller.
+   *
+   * @param fileId file id
+   * @param user   user who wants to access the file
+   * @return file metadata and content stream
+   */
+  public FileDownload downloadFile(UUID fileId, User user) {
+    return downloadFile(fileId, user, List.of());
+  }
+
+  /**
+   * Open a file for streaming download, limited to the requested byte range if the file's storage
+   * format allows reading it without processing the whole file. Requests for several ranges are
+   * answered with the whole file.
    *
    * @param fileId file id
    * @param user   user who wants to access the file
-   * @return file content
+   * @param ranges byte ranges requested by the client, possibly empty
+   * @return file metadata, content stream and the range it covers
+   * @throws RangeNotSatisfiableException if the requested range lies outside the file
    */
-  public Resource downloadFile(UUID fileId, User user) {
+  public FileDownload downloadFile(UUID fileId, User user, List<HttpRange> ranges) {
+    return downloadFile(fileId, user, ranges, metadata -> false).orElseThrow();
+  }
+
+  /**
+   * Open a file for streaming download unless the client's copy of it is current. The check is
+   * made against the same metadata the content is opened from, before the requested range is
+   * validated or any stored content is read.
+   *
+   * @param fileId      file id
+   * @param user        user who wants to access the file
+   * @param ranges      byte ranges requested by the client, possibly empty
+   * @param notModified whether the client's copy matches the file with the given metadata
+   * @return file metadata, content stream and the range it covers, or empty if not modified
+   * @throws RangeNotSatisfiableException if the requested range lies outside the file
+   */
+  public Optional<FileDownload> downloadFile(UUID fileId, User user, List<HttpRange> ranges,
+      Predicate<FileMetadataDto> notModified) {
     FileMetadata metadata = fileMetadataRepository.findByIdAndOwnerOrSharedWith(fileId, user)
         .orElseThrow(() -> new FileStorageException("File not found for ID: " + fileId));
+    FileMetadataDto metadataDto = fileMetadataMapper.toDto(metadata);
+    if (notModified.test(metadataDto)) {
+      return Optional.empty();
+    }
+    boolean acceptsRanges = filePipelineService.supportsRanges(metadata);
+    ContentRange range = acceptsRanges && ranges.size() == 1
+        ? toContentRange(ranges.get(0), metadata.getOriginalFileSize())
+        : null;
 
     try {
-      FileStorageService.StoredFileData storedData = fileStorageService.readEncryptedFile(
-          metadata.getStoragePath());
+      InputStream content = range == null
+          ? openContent(metadata)
+          : openContentRange(metadata, range);
+      storageTieringService.recordAccess(metadata.getStoragePath());
+      return Optional.of(new FileDownload(metadataDto, content, acceptsRanges, range));
+    } catch (Exception e) {
+      throw new FileStorageException(
+          String.format("Failed to process file: \"%s\"", metadata.getFilename()), e);
+    }
+  }
 
-      byte[] encryptedData = fileCompressionService.decompress(
-          storedData.compressedEncryptedData());
+  private InputStream openContent(FileMetadata metadata) throws IOException {
+    InputStream cached = decryptedContentCache.get(metadata);
+    if (cached != null) {
+      return cached;
+    }
+    if (!decryptedContentCache.shouldCache(metadata)) {
+      return filePipelineService.open(metadata);
+    }
 
-      byte[] originalData = fileEncryptionService.decrypt(encryptedData, storedData.iv());
+    byte[] content;
+    try (InputStream stored = filePipelineService.open(metadata)) {
+      content = stored.readAllBytes();
+    }
+    decryptedContentCache.put(metadata, content);
+    return new ByteArrayInputStream(content);
+  }
 
-      return new ByteArrayResource(originalData);
+  private InputStream openContentRange(FileMetadata metadata, ContentRange range)
+      throws IOException {
+    InputStream cached = decryptedContentCache.getRange(metadata, range.start(), range.length());
+    return cached != null
+        ? cached
+        : filePipelineService.openRange(metadata, range.start(), range.length());
+  }
 
-    } catch (Exception e) {
-      throw new FileStorageException(
-          String.format("Failed to process file: \"%s\"", metadata.getFilename()), e);
+  private ContentRange toContentRange(HttpRange range, long contentLength) {
+    try {
+      long start = range.getRangeStart(contentLength);
+      long end = range.getRangeEnd(contentLength);
+      if (start > end) {
+        throw new IllegalArgumentException("Range is empty");
+      }
+      return new ContentRange(start, end, contentLength);
+    } catch (IllegalArgumentException e) {
+      throw new RangeNotSatisfiableException(
+          String.format("Range %s is not satisfiable for %d bytes", range, contentLength),
+          contentLength);
     }
   }
 
@@ -336,7 +509,7 @@ public class FileService {
   }
 
   /**
-   * Delete a file.
+   * Delete a file. Its stored content is deleted with it unless other files share the content.
    *
    * @param fileId file id
    * @param owner  user who wants to delete the file
@@ -345,8 +518,9 @@ public class FileService {
   public void deleteFile(UUID fileId, User owner) {
     FileMetadata metadata = fileMetadataRepository.findByIdAndOwner(fileId, owner)
         .orElseThrow(() -> new FileStorageException("File not found"));
-    fileStorageService.deleteFile(metadata.getStoragePath());
+    contentBlobService.release(metadata.getStoragePath());
     fileMetadataRepository.delete(metadata);
+    decryptedContentCache.invalidateFile(fileId);
   }
 
   /**
@@ -380,4 +554,40 @@ public class FileService {
     filePermission.setAccessLevel(fileAccessLevel);
     filePermissionRepository.save(filePermission);
   }
-}
\ No newline at end of file
+
+  /**
+   * Downloaded file, consisting of its metadata and a stream over its unencrypted content.
+   *
+   * @param metadata      file metadata
+   * @param content       unencrypted content, limited to {@code range} if one is present
+   * @param acceptsRanges whether byte ranges of the file can be requested
+   * @param range         byte range covered by the content, or null for the whole file
+   */
+  public record FileDownload(
+      FileMetadataDto metadata,
+      InputStream content,
+      boolean acceptsRanges,
+      ContentRange range
+  ) {
+
+  }
+
+  /**
+   * Byte range of a file.
+   *
+   * @param start         offset of the first byte
+   * @param end           offset of the last byte, inclusive
+   * @param contentLength length of the whole file
+   */
+  public record ContentRange(long start, long end, long contentLength) {
+
+    /**
+     * Number of bytes in the range.
+     *
+     * @return range length
+     */
+    public long length() {
+      return end - start + 1;
+    }
+  }
+}
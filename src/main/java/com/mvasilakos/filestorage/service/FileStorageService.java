@@ -1,81 +1,216 @@
 package com.mvasilakos.filestorage.service;
 
+import com.mvasilakos.filestorage.config.DurabilityProperties;
+import com.mvasilakos.filestorage.config.TieringProperties;
 import com.mvasilakos.filestorage.exception.FileStorageException;
+import com.mvasilakos.filestorage.model.DurabilityMode;
+import com.mvasilakos.filestorage.model.StorageTier;
+import com.mvasilakos.filestorage.storage.BlobStore;
+import com.mvasilakos.filestorage.storage.FileSync;
+import com.mvasilakos.filestorage.storage.PackedBlobStore;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.util.StreamUtils;
+import org.springframework.util.StringUtils;
 
 /**
- * File storage service.
+ * File storage service, the blob store on the local file system. Files are written to a temporary
+ * file next to their final path and renamed into place once complete, so a crash never leaves a
+ * truncated file behind at a storage path. Unless durability is disabled, each writer flushes its
+ * own file and rename to disk: concurrent flushes of separate files are already batched by the
+ * file system journal, so only appends to packed segments are group committed.
+ *
+ * <p>If a cold storage location is configured, blobs may also live there, at the same relative
+ * storage path. Reads look for a blob on the hot tier first and on the cold tier next, so blobs
+ * can be moved between tiers while they are being read.
  */
+@Slf4j
 @Service
-public class FileStorageService {
+public class FileStorageService implements BlobStore {
+
+  /**
+   * Suffix of the temporary files that content is written to before it is renamed into place.
+   */
+  public static final String TEMP_SUFFIX = ".tmp";
+
+  /**
+   * Directory under the storage root that orphaned blobs are moved to.
+   */
+  public static final String QUARANTINE_DIRECTORY = ".quarantine";
+
+  private static final int READ_BUFFER_SIZE = 64 * 1024;
+  private static final int WRITE_BUFFER_SIZE = 64 * 1024;
 
   private final Path rootLocation;
+  private final Path coldLocation;
+  private final PackedBlobStore packedBlobStore;
+  private final DurabilityMode durabilityMode;
 
   /**
    * Constructor.
    *
-   * @param storageLocation file storage location
+   * @param storageLocation      file storage location
+   * @param packedBlobStore      store small blobs are packed into, if packing is enabled
+   * @param durabilityProperties durability properties
+   * @param tieringProperties    storage tier properties
    */
-  public FileStorageService(@Value("${app.storage.location}") String storageLocation) {
+  public FileStorageService(@Value("${app.storage.location}") String storageLocation,
+      Optional<PackedBlobStore> packedBlobStore, DurabilityProperties durabilityProperties,
+      TieringProperties tieringProperties) {
     this.rootLocation = Paths.get(storageLocation);
+    // Blobs already on the cold tier stay readable when moving them around is switched off
+    this.coldLocation = StringUtils.hasText(tieringProperties.getColdLocation())
+        ? Paths.get(tieringProperties.getColdLocation())
+        : null;
+    this.packedBlobStore = packedBlobStore.orElse(null);
+    this.durabilityMode = durabilityProperties.getMode();
   }
 
   /**
-   * Store encrypted file.
+   * Whether the path is a temporary file that content is written to before it is renamed into
+   * place.
    *
-   * @param storagePath             storage path
-   * @param iv                      initialization vector
-   * @param encryptedCompressedData encrypted data
+   * @param path path of a file under the storage root
+   * @return true if the path is a temporary file
    */
-  public void storeEncryptedFile(String storagePath, byte[] iv, byte[] encryptedCompressedData) {
+  public static boolean isTemporaryFile(Path path) {
+    return path.getFileName().toString().endsWith(TEMP_SUFFIX);
+  }
+
+  /**
+   * Store a file by streaming its content into a temporary file, which replaces the file at the
+   * storage path once the writer is done. The writer may close the stream it is given; the channel
+   * is only closed once the writer returns.
+   *
+   * @param storagePath storage path
+   * @param writer      writes the content of the file
+   * @return number of bytes stored
+   */
+  public long storeFile(String storagePath, ContentWriter writer) {
+    Path fullStoragePath = rootLocation.resolve(storagePath);
+    Path tempPath = temporaryPathFor(fullStoragePath);
     try {
-      Path fullStoragePath = rootLocation.resolve(storagePath);
       Files.createDirectories(fullStoragePath.getParent());
 
-      try (OutputStream fileOutputStream = Files.newOutputStream(fullStoragePath)) {
-        fileOutputStream.write(iv);
-        fileOutputStream.write(encryptedCompressedData);
+      long size;
+      try (FileChannel channel = FileChannel.open(tempPath,
+          StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+        OutputStream fileOutputStream = new BufferedOutputStream(
+            Channels.newOutputStream(channel), WRITE_BUFFER_SIZE);
+        writer.writeTo(StreamUtils.nonClosing(fileOutputStream));
+        fileOutputStream.flush();
+        size = channel.position();
       }
+      publish(tempPath, fullStoragePath);
+      return size;
     } catch (IOException e) {
       throw new FileStorageException("Failed to store encrypted file", e);
+    } finally {
+      deleteQuietly(tempPath);
     }
   }
 
   /**
-   * Retrieve encrypted file.
+   * Store a blob. Blobs that turn out to be no larger than the packing threshold are appended to
+   * the packed blob store instead of being given a file of their own; larger ones are spilled to a
+   * file as soon as they outgrow the threshold.
    *
    * @param storagePath storage path
-   * @return encrypted file data
+   * @param writer      writes the content of the blob
+   * @return number of bytes stored
    */
-  public StoredFileData readEncryptedFile(String storagePath) {
-    try {
-      Path fullStoragePath = rootLocation.resolve(storagePath);
+  @Override
+  public long storeBlob(String storagePath, ContentWriter writer) {
+    if (packedBlobStore == null) {
+      return storeFile(storagePath, writer);
+    }
 
-      if (!Files.exists(fullStoragePath)) {
-        throw new FileStorageException("Stored file not found on disk at path: " + fullStoragePath);
-      }
-      if (!Files.isReadable(fullStoragePath)) {
-        throw new FileStorageException("File is not readable at path: " + fullStoragePath);
+    Path fullStoragePath = rootLocation.resolve(storagePath);
+    try (SpillingOutputStream outputStream =
+        new SpillingOutputStream(packedBlobStore.getThreshold(), fullStoragePath)) {
+      writer.writeTo(StreamUtils.nonClosing(outputStream));
+      if (outputStream.isSpilled()) {
+        return outputStream.finishSpill();
       }
+      packedBlobStore.put(storagePath, outputStream.buffer(), outputStream.count());
+      return outputStream.count();
+    } catch (IOException e) {
+      throw new FileStorageException("Failed to store encrypted file", e);
+    }
+  }
 
-      try (InputStream fileInputStream = Files.newInputStream(fullStoragePath)) {
-        byte[] iv = new byte[16];
-        int bytesRead = fileInputStream.read(iv);
-        if (bytesRead != 16) {
-          throw new IOException("Could not read full IV from file. "
-              + "File might be corrupted or not properly encrypted.");
-        }
-
-        byte[] compressedEncryptedData = fileInputStream.readAllBytes();
+  /**
+   * Open a stored file for streaming reads.
+   *
+   * @param storagePath storage path
+   * @return buffered stream over the stored file
+   */
+  @Override
+  public InputStream openFile(String storagePath) {
+    InputStream packedStream = openPacked(storagePath, 0, Long.MAX_VALUE);
+    if (packedStream != null) {
+      return packedStream;
+    }
+    try {
+      FileChannel channel = openStoredChannel(storagePath);
+      if (channel == null) {
+        return openMovedIntoPack(storagePath, 0, Long.MAX_VALUE);
+      }
+      return new BufferedInputStream(Channels.newInputStream(channel), READ_BUFFER_SIZE);
+    } catch (IOException e) {
+      throw new FileStorageException("Failed to read encrypted file", e);
+    }
+  }
 
-        return new StoredFileData(iv, compressedEncryptedData);
+  /**
+   * Open a byte range of a stored file for streaming reads.
+   *
+   * @param storagePath storage path
+   * @param offset      offset of the first byte to read
+   * @param length      number of bytes to read
+   * @return buffered stream over the requested range of the stored file
+   */
+  @Override
+  public InputStream openFileRange(String storagePath, long offset, long length) {
+    InputStream packedStream = openPacked(storagePath, offset, length);
+    if (packedStream != null) {
+      return packedStream;
+    }
+    try {
+      FileChannel channel = openStoredChannel(storagePath);
+      if (channel == null) {
+        return openMovedIntoPack(storagePath, offset, length);
+      }
+      try {
+        channel.position(offset);
+        InputStream rangeStream = new BoundedInputStream(Channels.newInputStream(channel), length);
+        return new BufferedInputStream(rangeStream, (int) Math.min(READ_BUFFER_SIZE, length + 1));
+      } catch (IOException e) {
+        channel.close();
+        throw e;
       }
     } catch (IOException e) {
       throw new FileStorageException("Failed to read encrypted file", e);
@@ -88,9 +223,13 @@ public class FileStorageService {
    * @param storagePath storage path
    * @return size in bytes
    */
+  @Override
   public long getFileSize(String storagePath) {
+    if (packedBlobStore != null && packedBlobStore.contains(storagePath)) {
+      return packedBlobStore.size(storagePath);
+    }
     try {
-      Path fullStoragePath = rootLocation.resolve(storagePath);
+      Path fullStoragePath = locate(storagePath);
       return Files.size(fullStoragePath);
     } catch (IOException e) {
       throw new FileStorageException("Failed to get file size", e);
@@ -102,19 +241,472 @@ public class FileStorageService {
    *
    * @param storagePath storage path
    */
+  @Override
   public void deleteFile(String storagePath) {
     try {
-      Path fullStoragePath = rootLocation.resolve(storagePath);
-      Files.deleteIfExists(fullStoragePath);
+      if (packedBlobStore != null && packedBlobStore.delete(storagePath)) {
+        return;
+      }
+      Files.deleteIfExists(rootLocation.resolve(storagePath));
+      if (coldLocation != null) {
+        Files.deleteIfExists(coldLocation.resolve(storagePath));
+      }
     } catch (IOException e) {
       throw new FileStorageException("Failed to delete file", e);
     }
   }
 
   /**
-   * Stored file data class.
+   * Check whether a file is stored at the given path.
+   *
+   * @param storagePath storage path
+   * @return true if the file exists
+   */
+  @Override
+  public boolean fileExists(String storagePath) {
+    return (packedBlobStore != null && packedBlobStore.contains(storagePath))
+        || Files.isRegularFile(rootLocation.resolve(storagePath))
+        || (coldLocation != null && Files.isRegularFile(coldLocation.resolve(storagePath)));
+  }
+
+  /**
+   * Atomically move a stored file within its tier, replacing any file already stored at the target
+   * path.
+   *
+   * @param sourcePath storage path of the file to move
+   * @param targetPath storage path to move the file to
+   */
+  public void moveFile(String sourcePath, String targetPath) {
+    Path tierLocation = tierLocationOf(sourcePath);
+    try {
+      Files.move(tierLocation.resolve(sourcePath), tierLocation.resolve(targetPath),
+          StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      throw new FileStorageException("Failed to move file", e);
+    }
+  }
+
+  /**
+   * Make a stored file available at a second path as well, by hard linking it where the file system
+   * allows and by copying it otherwise. The target is on the same tier as the source. Writes to the
+   * target are never visible half done.
+   *
+   * @param sourcePath storage path of the existing file
+   * @param targetPath storage path to make the file available at
+   */
+  public void linkFile(String sourcePath, String targetPath) {
+    if (packedBlobStore != null && packedBlobStore.contains(sourcePath)) {
+      try {
+        byte[] blob = packedBlobStore.read(sourcePath, 0, Long.MAX_VALUE);
+        if (blob != null) {
+          packedBlobStore.put(targetPath, blob, blob.length);
+          return;
+        }
+      } catch (IOException e) {
+        throw new FileStorageException("Failed to link file", e);
+      }
+    }
+    Path tierLocation = tierLocationOf(sourcePath);
+    Path fullSourcePath = tierLocation.resolve(sourcePath);
+    Path fullTargetPath = tierLocation.resolve(targetPath);
+    try {
+      Files.createDirectories(fullTargetPath.getParent());
+      try {
+        Files.createLink(fullTargetPath, fullSourcePath);
+      } catch (FileAlreadyExistsException e) {
+        if (!Files.isSameFile(fullSourcePath, fullTargetPath)) {
+          throw e;
+        }
+      } catch (UnsupportedOperationException | FileSystemException e) {
+        // No hard links here (exFAT, many network mounts); a missing source fails the copy too
+        Path tempPath = temporaryPathFor(fullTargetPath);
+        try {
+          Files.copy(fullSourcePath, tempPath);
+          publish(tempPath, fullTargetPath);
+        } finally {
+          deleteQuietly(tempPath);
+        }
+      }
+    } catch (NoSuchFileException e) {
+      throw new FileStorageException("Stored file not found on disk at path: " + fullSourcePath);
+    } catch (IOException e) {
+      throw new FileStorageException("Failed to link file", e);
+    }
+  }
+
+  /**
+   * Move a stored file out of the way into the quarantine directory of its tier, at the same
+   * relative path, replacing any file quarantined there before.
+   *
+   * @param storagePath storage path
+   */
+  public void quarantineFile(String storagePath) {
+    Path tierLocation = tierLocationOf(storagePath);
+    Path quarantinePath = tierLocation.resolve(QUARANTINE_DIRECTORY).resolve(storagePath);
+    try {
+      Files.createDirectories(quarantinePath.getParent());
+      InputStream packedStream = openPacked(storagePath, 0, Long.MAX_VALUE);
+      if (packedStream == null) {
+        Files.move(tierLocation.resolve(storagePath), quarantinePath,
+            StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return;
+      }
+      Path tempPath = temporaryPathFor(quarantinePath);
+      try {
+        Files.copy(packedStream, tempPath);
+        publish(tempPath, quarantinePath);
+      } finally {
+        deleteQuietly(tempPath);
+      }
+      packedBlobStore.delete(storagePath);
+    } catch (NoSuchFileException e) {
+      throw new FileStorageException("Stored file not found on disk at path: " + storagePath);
+    } catch (IOException e) {
+      throw new FileStorageException("Failed to quarantine file", e);
+    }
+  }
+
+  /**
+   * Whether a cold storage location is configured.
+   *
+   * @return true if blobs can be moved to the cold tier
+   */
+  public boolean isTiered() {
+    return coldLocation != null;
+  }
+
+  /**
+   * Move a stored blob to the given tier. The blob is completely written to the target tier before
+   * it is deleted from the other one, so it stays readable throughout. Blobs promoted to the hot
+   * tier are packed again if they are small enough.
+   *
+   * @param storagePath storage path
+   * @param storageTier tier to move the blob to
+   * @return true if the blob was moved, false if it was not found on the other tier
+   */
+  public boolean moveToTier(String storagePath, StorageTier storageTier) {
+    if (coldLocation == null) {
+      throw new FileStorageException("No cold storage location is configured");
+    }
+    try {
+      return storageTier == StorageTier.COLD ? demote(storagePath) : promote(storagePath);
+    } catch (IOException e) {
+      throw new FileStorageException("Failed to move file to the " + storageTier + " tier", e);
+    }
+  }
+
+  private boolean demote(String storagePath) throws IOException {
+    boolean packed = packedBlobStore != null && packedBlobStore.contains(storagePath);
+    Path hotPath = rootLocation.resolve(storagePath);
+    Path coldPath = coldLocation.resolve(storagePath);
+    try (InputStream hotStream = packed
+        ? openPacked(storagePath, 0, Long.MAX_VALUE)
+        : Files.newInputStream(hotPath)) {
+      if (hotStream == null) {
+        return false;
+      }
+      copyInto(hotStream, coldPath);
+    } catch (NoSuchFileException e) {
+      return false;
+    }
+
+    if (packed) {
+      packedBlobStore.delete(storagePath);
+    } else {
+      Files.deleteIfExists(hotPath);
+    }
+    return true;
+  }
+
+  private boolean promote(String storagePath) throws IOException {
+    Path coldPath = coldLocation.resolve(storagePath);
+    try (FileChannel coldChannel = FileChannel.open(coldPath, StandardOpenOption.READ)) {
+      InputStream coldStream = Channels.newInputStream(coldChannel);
+      if (packedBlobStore != null && coldChannel.size() <= packedBlobStore.getThreshold()) {
+        byte[] blob = coldStream.readAllBytes();
+        packedBlobStore.put(storagePath, blob, blob.length);
+      } else {
+        copyInto(coldStream, rootLocation.resolve(storagePath));
+      }
+    } catch (NoSuchFileException e) {
+      return false;
+    }
+
+    Files.deleteIfExists(coldPath);
+    return true;
+  }
+
+  private void copyInto(InputStream content, Path fullStoragePath) throws IOException {
+    Path tempPath = temporaryPathFor(fullStoragePath);
+    try {
+      Files.createDirectories(fullStoragePath.getParent());
+      Files.copy(content, tempPath);
+      publish(tempPath, fullStoragePath);
+    } finally {
+      deleteQuietly(tempPath);
+    }
+  }
+
+  /**
+   * Storage locations of the tiers loose blobs are kept on, the hot tier first.
+   *
+   * @return tier storage locations
+   */
+  public List<Path> getTierLocations() {
+    return coldLocation == null ? List.of(rootLocation) : List.of(rootLocation, coldLocation);
+  }
+
+  /**
+   * List the storage paths of all blobs packed into shared segment files.
+   *
+   * @return packed storage paths, in no particular order
+   */
+  public List<String> listPackedFiles() {
+    return packedBlobStore == null ? List.of() : packedBlobStore.storagePaths();
+  }
+
+  /**
+   * Delete a directory and all files within it.
+   *
+   * @param storagePath storage path of the directory
+   */
+  public void deleteDirectory(String storagePath) {
+    Path fullStoragePath = rootLocation.resolve(storagePath);
+    if (!Files.isDirectory(fullStoragePath)) {
+      return;
+    }
+    try (Stream<Path> paths = Files.walk(fullStoragePath)) {
+      for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+        Files.deleteIfExists(path);
+      }
+    } catch (IOException e) {
+      throw new FileStorageException("Failed to delete directory", e);
+    }
+  }
+
+  /**
+   * Storage location of the tier holding a loose blob, the hot one unless the blob is only found
+   * on the cold tier.
+   */
+  private Path tierLocationOf(String storagePath) {
+    if (coldLocation == null || Files.exists(rootLocation.resolve(storagePath))) {
+      return rootLocation;
+    }
+    return Files.exists(coldLocation.resolve(storagePath)) ? coldLocation : rootLocation;
+  }
+
+  private Path locate(String storagePath) {
+    return tierLocationOf(storagePath).resolve(storagePath);
+  }
+
+  /**
+   * Open a loose blob on whichever tier holds it. A blob that disappears from the hot tier is
+   * looked for on the cold one, and the other way around, to follow a concurrent tier move.
+   *
+   * @return channel positioned at the start of the blob, or null if the blob was not found
+   */
+  private FileChannel openStoredChannel(String storagePath) throws IOException {
+    try {
+      return FileChannel.open(rootLocation.resolve(storagePath), StandardOpenOption.READ);
+    } catch (NoSuchFileException e) {
+      if (coldLocation == null) {
+        return null;
+      }
+    }
+    try {
+      return FileChannel.open(coldLocation.resolve(storagePath), StandardOpenOption.READ);
+    } catch (NoSuchFileException e) {
+      // Promoted to the hot tier in the meantime
+    }
+    try {
+      return FileChannel.open(rootLocation.resolve(storagePath), StandardOpenOption.READ);
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+  }
+
+  private InputStream openMovedIntoPack(String storagePath, long offset, long length) {
+    InputStream packedStream = coldLocation == null
+        ? null
+        : openPacked(storagePath, offset, length);
+    if (packedStream == null) {
+      throw new FileStorageException(
+          "Stored file not found on disk at path: " + rootLocation.resolve(storagePath));
+    }
+    return packedStream;
+  }
+
+  private static Path temporaryPathFor(Path fullStoragePath) {
+    return fullStoragePath.resolveSibling(String.format("%s.%016x%s",
+        fullStoragePath.getFileName(), ThreadLocalRandom.current().nextLong(), TEMP_SUFFIX));
+  }
+
+  /**
+   * Atomically rename a completely written temporary file to its final path. Unless durability is
+   * disabled, the content is flushed to disk before the rename and the rename right after it.
+   */
+  private void publish(Path tempPath, Path fullStoragePath) throws IOException {
+    boolean durable = durabilityMode != DurabilityMode.NONE;
+    if (durable) {
+      FileSync.syncFile(tempPath);
+    }
+    Files.move(tempPath, fullStoragePath,
+        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    if (durable) {
+      FileSync.syncDirectory(fullStoragePath.getParent());
+    }
+  }
+
+  private static void deleteQuietly(Path tempPath) {
+    try {
+      Files.deleteIfExists(tempPath);
+    } catch (IOException e) {
+      log.warn("Failed to delete temporary file: {}", tempPath, e);
+    }
+  }
+
+  private InputStream openPacked(String storagePath, long offset, long length) {
+    if (packedBlobStore == null) {
+      return null;
+    }
+    try {
+      byte[] blob = packedBlobStore.read(storagePath, offset, length);
+      return blob == null ? null : new ByteArrayInputStream(blob);
+    } catch (IOException e) {
+      throw new FileStorageException("Failed to read encrypted file", e);
+    }
+  }
+
+  /**
+   * Output stream that buffers content in memory up to a threshold, and moves it to a file of its
+   * own once the content grows past it. Spilled content is written to a temporary file that only
+   * replaces the file at the storage path once the spill is finished.
+   */
+  private final class SpillingOutputStream extends OutputStream {
+
+    private final Path spillPath;
+    private final Path tempPath;
+    private byte[] buffer;
+    private int count;
+    private FileChannel spillChannel;
+    private OutputStream spillStream;
+
+    private SpillingOutputStream(int threshold, Path spillPath) {
+      this.spillPath = spillPath;
+      this.tempPath = temporaryPathFor(spillPath);
+      this.buffer = new byte[threshold];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      if (spillStream == null && count == buffer.length) {
+        spill();
+      }
+      if (spillStream != null) {
+        spillStream.write(b);
+      } else {
+        buffer[count++] = (byte) b;
+      }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (spillStream == null && count + len > buffer.length) {
+        spill();
+      }
+      if (spillStream != null) {
+        spillStream.write(b, off, len);
+      } else {
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
+      }
+    }
+
+    private void spill() throws IOException {
+      Files.createDirectories(spillPath.getParent());
+      spillChannel = FileChannel.open(tempPath, StandardOpenOption.CREATE_NEW,
+          StandardOpenOption.WRITE);
+      spillStream = new BufferedOutputStream(Channels.newOutputStream(spillChannel),
+          WRITE_BUFFER_SIZE);
+      spillStream.write(buffer, 0, count);
+      buffer = null;
+    }
+
+    private boolean isSpilled() {
+      return spillStream != null;
+    }
+
+    private byte[] buffer() {
+      return buffer;
+    }
+
+    private int count() {
+      return count;
+    }
+
+    private long finishSpill() throws IOException {
+      spillStream.flush();
+      long size = spillChannel.position();
+      spillChannel.close();
+      publish(tempPath, spillPath);
+      return size;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (spillChannel != null) {
+        spillChannel.close();
+        deleteQuietly(tempPath);
+      }
+    }
+  }
+
+  /**
+   * Input stream that ends after a fixed number of bytes of the underlying stream.
    */
-  public record StoredFileData(byte[] iv, byte[] compressedEncryptedData) {
+  private static final class BoundedInputStream extends FilterInputStream {
+
+    private long remaining;
 
+    private BoundedInputStream(InputStream inputStream, long length) {
+      super(inputStream);
+      this.remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (remaining <= 0) {
+        return -1;
+      }
+      int b = super.read();
+      if (b != -1) {
+        remaining--;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (remaining <= 0) {
+        return -1;
+      }
+      int count = super.read(b, off, (int) Math.min(len, remaining));
+      if (count > 0) {
+        remaining -= count;
+      }
+      return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(Math.min(n, remaining));
+      remaining -= skipped;
+      return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+      return (int) Math.min(super.available(), remaining);
+    }
   }
-}
\ No newline at end of file
+}
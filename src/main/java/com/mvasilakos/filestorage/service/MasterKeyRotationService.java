@@ -0,0 +1,192 @@
+package com.mvasilakos.filestorage.service;
+
+import com.mvasilakos.filestorage.config.EncryptionProperties;
+import com.mvasilakos.filestorage.dto.KeyRotationStatusDto;
+import com.mvasilakos.filestorage.repository.ContentBlobRepository;
+import com.mvasilakos.filestorage.repository.FileMetadataRepository;
+import com.mvasilakos.filestorage.service.DataKeyService.DataKey;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+
+/**
+ * Rotates the master key while the application keeps serving requests. A new master key is
+ * generated, and from then on wraps all new data keys, after which the data keys of existing files
+ * and blobs are rewrapped by it in the background. Only the wrapped keys change, stored content is
+ * never touched.
+ *
+ * <p>Rows are walked in id order, one batch at a time, and each batch is written back in a single
+ * JDBC batch. Updates only apply while a row is still wrapped by the master key it was read with,
+ * so rows changed in the meantime are left alone; they stay readable, since older master keys are
+ * kept, and are picked up by the next rotation.
+ */
+@Slf4j
+@Service
+public class MasterKeyRotationService {
+
+  private static final UUID FIRST_ID = new UUID(0, 0);
+  private static final String UPDATE_FILE_KEY = "UPDATE file_metadata "
+      + "SET wrapped_key = ?, key_version = ? WHERE id = ? AND key_version = ?";
+  private static final String UPDATE_BLOB_KEY = "UPDATE content_blobs "
+      + "SET wrapped_key = ?, key_version = ? WHERE id = ? AND key_version = ?";
+
+  private final SimpleKeyManagementService keyManagementService;
+  private final DataKeyService dataKeyService;
+  private final FileMetadataRepository fileMetadataRepository;
+  private final ContentBlobRepository contentBlobRepository;
+  private final JdbcTemplate jdbcTemplate;
+  private final EncryptionProperties properties;
+
+  private final AtomicBoolean running = new AtomicBoolean();
+  private final AtomicLong scanned = new AtomicLong();
+  private final AtomicLong rewrapped = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  private volatile LocalDateTime startedAt;
+  private volatile LocalDateTime finishedAt;
+
+  /**
+   * Constructor.
+   *
+   * @param keyManagementService   key management service
+   * @param dataKeyService         data key service
+   * @param fileMetadataRepository file metadata repository
+   * @param contentBlobRepository  content blob repository
+   * @param jdbcTemplate           JDBC template the batched updates are sent through
+   * @param properties             encryption properties
+   */
+  public MasterKeyRotationService(SimpleKeyManagementService keyManagementService,
+      DataKeyService dataKeyService, FileMetadataRepository fileMetadataRepository,
+      ContentBlobRepository contentBlobRepository, JdbcTemplate jdbcTemplate,
+      EncryptionProperties properties) {
+    this.keyManagementService = keyManagementService;
+    this.dataKeyService = dataKeyService;
+    this.fileMetadataRepository = fileMetadataRepository;
+    this.contentBlobRepository = contentBlobRepository;
+    this.jdbcTemplate = jdbcTemplate;
+    this.properties = properties;
+  }
+
+  /**
+   * Generate a new master key and start rewrapping all data keys by it in the background, unless
+   * a rotation is already running.
+   *
+   * @return rotation status
+   */
+  public KeyRotationStatusDto start() {
+    if (running.compareAndSet(false, true)) {
+      scanned.set(0);
+      rewrapped.set(0);
+      failed.set(0);
+      startedAt = LocalDateTime.now();
+      finishedAt = null;
+
+      try {
+        keyManagementService.rotateMasterKey();
+      } catch (RuntimeException e) {
+        finishedAt = LocalDateTime.now();
+        running.set(false);
+        throw e;
+      }
+      Thread rotationThread = new Thread(this::rewrapAll, "master-key-rotation");
+      rotationThread.setDaemon(true);
+      rotationThread.start();
+    }
+    return getStatus();
+  }
+
+  /**
+   * Get the progress of the latest rotation.
+   *
+   * @return rotation status
+   */
+  public KeyRotationStatusDto getStatus() {
+    return KeyRotationStatusDto.builder()
+        .running(running.get())
+        .masterKeyVersion(keyManagementService.getCurrentMasterKeyVersion())
+        .scanned(scanned.get())
+        .rewrapped(rewrapped.get())
+        .failed(failed.get())
+        .cachedDataKeys(dataKeyService.getCachedKeyCount())
+        .dataKeyCacheHits(dataKeyService.getCacheHits())
+        .dataKeyCacheMisses(dataKeyService.getCacheMisses())
+        .startedAt(startedAt)
+        .finishedAt(finishedAt)
+        .build();
+  }
+
+  /**
+   * Rewrap the data keys of all files and blobs by the current master key, batch by batch.
+   */
+  void rewrapAll() {
+    int version = keyManagementService.getCurrentMasterKeyVersion();
+    log.info("Rewrapping data keys by master key version {}", version);
+    try {
+      rewrapTable(UPDATE_BLOB_KEY, after -> contentBlobRepository
+          .findWithKeyVersionBelow(version, after, properties.getRewrapBatchSize()).stream()
+          .map(blob -> new WrappedKey(blob.getId(), blob.getWrappedKey(), blob.getKeyVersion()))
+          .toList());
+      rewrapTable(UPDATE_FILE_KEY, after -> fileMetadataRepository
+          .findWithKeyVersionBelow(version, after, properties.getRewrapBatchSize()).stream()
+          .map(file -> new WrappedKey(file.getId(), file.getWrappedKey(), file.getKeyVersion()))
+          .toList());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      log.warn("Data key rewrapping interrupted");
+    } catch (RuntimeException e) {
+      log.error("Data key rewrapping aborted", e);
+    } finally {
+      finishedAt = LocalDateTime.now();
+      running.set(false);
+      log.info("Data key rewrapping finished: {} scanned, {} rewrapped, {} failed",
+          scanned.get(), rewrapped.get(), failed.get());
+    }
+  }
+
+  private void rewrapTable(String updateSql, BatchQuery batchQuery) throws InterruptedException {
+    UUID lastId = FIRST_ID;
+    List<WrappedKey> batch;
+    do {
+      batch = batchQuery.findAfter(lastId);
+      List<Object[]> updates = new ArrayList<>(batch.size());
+      for (WrappedKey row : batch) {
+        scanned.incrementAndGet();
+        try {
+          DataKey dataKey = dataKeyService.rewrap(row.wrappedKey(), row.keyVersion());
+          updates.add(new Object[]{dataKey.wrappedKey(), dataKey.keyVersion(), row.id(),
+              row.keyVersion()});
+        } catch (RuntimeException e) {
+          failed.incrementAndGet();
+          log.warn("Failed to rewrap data key of: {}", row.id(), e);
+        }
+      }
+      if (!updates.isEmpty()) {
+        for (int updated : jdbcTemplate.batchUpdate(updateSql, updates)) {
+          if (updated > 0 || updated == Statement.SUCCESS_NO_INFO) {
+            rewrapped.incrementAndGet();
+          }
+        }
+      }
+      if (!batch.isEmpty()) {
+        lastId = batch.get(batch.size() - 1).id();
+        Thread.sleep(properties.getRewrapBatchDelay().toMillis());
+      }
+    } while (!batch.isEmpty());
+  }
+
+  private record WrappedKey(UUID id, byte[] wrappedKey, int keyVersion) {
+
+  }
+
+  private interface BatchQuery {
+
+    List<WrappedKey> findAfter(UUID after);
+  }
+}
@@ -1,14 +1,22 @@
 package com.mvasilakos.filestorage.service;
 
+import com.mvasilakos.filestorage.config.EncryptionProperties;
 import com.mvasilakos.filestorage.exception.FileEncryptionException;
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.PosixFilePermission;
 import java.security.NoSuchAlgorithmException;
 import java.util.Base64;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
@@ -18,33 +26,108 @@ import org.springframework.stereotype.Service;
 
 /**
  * Encryption key management service.
+ *
+ * <p>Files are encrypted with data keys of their own, which are wrapped by a versioned master
+ * key. Master keys are kept in the master key directory, one file per version, and the highest
+ * version wraps all new data keys. Older versions are kept so that data keys wrapped by them can
+ * still be unwrapped until they are rewrapped. The single key in {@code config/encryption.key}
+ * predates data keys and only decrypts files stored before them.
  */
 @Slf4j
-@Getter
 @Service
 public class SimpleKeyManagementService {
 
   private static final String KEY_FILE_PATH = "config/encryption.key";
+  private static final Pattern MASTER_KEY_FILE = Pattern.compile("master-(\\d+)\\.key");
+
+  @Getter
   private final SecretKey secretKey;
+  private final Path masterKeyDirectory;
+  private final Map<Integer, SecretKey> masterKeys = new ConcurrentHashMap<>();
+  private volatile int currentMasterKeyVersion;
+  // Held while the new key file is written, which a monitor would do pinned to its carrier thread
+  private final ReentrantLock rotationLock = new ReentrantLock();
 
   /**
    * Constructor.
+   *
+   * @param properties encryption properties
    */
-  public SimpleKeyManagementService() {
-    this.secretKey = loadOrCreateKey();
+  public SimpleKeyManagementService(EncryptionProperties properties) {
+    this.secretKey = loadOrCreateKey(Paths.get(KEY_FILE_PATH));
+    this.masterKeyDirectory = Paths.get(properties.getMasterKeyDirectory());
+    loadMasterKeys();
+    if (masterKeys.isEmpty()) {
+      rotateMasterKey();
+    }
   }
 
-  private SecretKey loadOrCreateKey() {
-    Path keyPath = Paths.get(KEY_FILE_PATH);
+  /**
+   * Get the version of the master key that wraps new data keys.
+   *
+   * @return current master key version
+   */
+  public int getCurrentMasterKeyVersion() {
+    return currentMasterKeyVersion;
+  }
 
-    if (Files.exists(keyPath)) {
-      try {
-        byte[] keyBytes = Files.readAllBytes(keyPath);
-        byte[] decodedKey = Base64.getDecoder().decode(keyBytes);
-        return new SecretKeySpec(decodedKey, "AES");
-      } catch (Exception e) {
-        throw new FileEncryptionException("Failed to load encryption key", e);
+  /**
+   * Get the master key of the given version.
+   *
+   * @param version master key version
+   * @return master key
+   * @throws FileEncryptionException if no master key of that version exists
+   */
+  public SecretKey getMasterKey(int version) {
+    SecretKey masterKey = masterKeys.get(version);
+    if (masterKey == null) {
+      throw new FileEncryptionException("Unknown master key version: " + version);
+    }
+    return masterKey;
+  }
+
+  /**
+   * Generate a new master key, which wraps all data keys from now on. Previous master keys are
+   * kept for unwrapping the data keys they wrapped.
+   *
+   * @return version of the new master key
+   */
+  public int rotateMasterKey() {
+    rotationLock.lock();
+    try {
+      int version = currentMasterKeyVersion + 1;
+      SecretKey masterKey = generateNewKey();
+      saveKey(masterKey, masterKeyDirectory.resolve("master-" + version + ".key"));
+      masterKeys.put(version, masterKey);
+      currentMasterKeyVersion = version;
+      log.info("Master key rotated to version {}", version);
+      return version;
+    } finally {
+      rotationLock.unlock();
+    }
+  }
+
+  private void loadMasterKeys() {
+    if (!Files.isDirectory(masterKeyDirectory)) {
+      return;
+    }
+    try (DirectoryStream<Path> keyFiles = Files.newDirectoryStream(masterKeyDirectory)) {
+      for (Path keyFile : keyFiles) {
+        Matcher matcher = MASTER_KEY_FILE.matcher(keyFile.getFileName().toString());
+        if (matcher.matches()) {
+          int version = Integer.parseInt(matcher.group(1));
+          masterKeys.put(version, loadKey(keyFile));
+          currentMasterKeyVersion = Math.max(currentMasterKeyVersion, version);
+        }
       }
+    } catch (IOException e) {
+      throw new FileEncryptionException("Failed to load master keys", e);
+    }
+  }
+
+  private SecretKey loadOrCreateKey(Path keyPath) {
+    if (Files.exists(keyPath)) {
+      return loadKey(keyPath);
     } else {
       SecretKey newKey = generateNewKey();
       saveKey(newKey, keyPath);
@@ -52,6 +135,16 @@ public class SimpleKeyManagementService {
     }
   }
 
+  private SecretKey loadKey(Path keyPath) {
+    try {
+      byte[] keyBytes = Files.readAllBytes(keyPath);
+      byte[] decodedKey = Base64.getDecoder().decode(keyBytes);
+      return new SecretKeySpec(decodedKey, "AES");
+    } catch (Exception e) {
+      throw new FileEncryptionException("Failed to load encryption key", e);
+    }
+  }
+
   private SecretKey generateNewKey() {
     try {
       KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
@@ -67,7 +160,8 @@ public class SimpleKeyManagementService {
       Files.createDirectories(keyPath.getParent());
 
       byte[] encoded = Base64.getEncoder().encode(key.getEncoded());
-      Files.write(keyPath, encoded);
+      // Never overwrite a key, data encrypted under it would be lost
+      Files.write(keyPath, encoded, StandardOpenOption.CREATE_NEW);
 
       try {
         Files.setPosixFilePermissions(keyPath, Set.of(
@@ -84,4 +178,4 @@ public class SimpleKeyManagementService {
       throw new FileEncryptionException("Failed to save encryption key", e);
     }
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,91 @@
+package com.mvasilakos.filestorage.service;
+
+import com.mvasilakos.filestorage.model.UploadSession;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Enumeration;
+import java.util.NoSuchElementException;
+import java.util.function.IntFunction;
+import org.springframework.web.multipart.MultipartFile;
+
+
+/**
+ * Multipart file view of a committed upload session, so that staged chunks go through the same
+ * validation and storage as single request uploads. Chunks are opened one at a time as the content
+ * is read.
+ */
+class StagedUploadFile implements MultipartFile {
+
+  private final UploadSession session;
+  private final IntFunction<InputStream> chunkOpener;
+
+  StagedUploadFile(UploadSession session, IntFunction<InputStream> chunkOpener) {
+    this.session = session;
+    this.chunkOpener = chunkOpener;
+  }
+
+  @Override
+  public String getName() {
+    return "file";
+  }
+
+  @Override
+  public String getOriginalFilename() {
+    return session.getFilename();
+  }
+
+  @Override
+  public String getContentType() {
+    return session.getContentType();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return session.getTotalSize() == 0;
+  }
+
+  @Override
+  public long getSize() {
+    return session.getTotalSize();
+  }
+
+  @Override
+  public byte[] getBytes() throws IOException {
+    try (InputStream inputStream = getInputStream()) {
+      return inputStream.readAllBytes();
+    }
+  }
+
+  @Override
+  public InputStream getInputStream() {
+    int chunkCount = session.getChunkCount();
+    return new SequenceInputStream(new Enumeration<>() {
+
+      private int nextChunk = 0;
+
+      @Override
+      public boolean hasMoreElements() {
+        return nextChunk < chunkCount;
+      }
+
+      @Override
+      public InputStream nextElement() {
+        if (!hasMoreElements()) {
+          throw new NoSuchElementException();
+        }
+        return chunkOpener.apply(nextChunk++);
+      }
+    });
+  }
+
+  @Override
+  public void transferTo(File dest) throws IOException {
+    try (InputStream inputStream = getInputStream()) {
+      Files.copy(inputStream, dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+}
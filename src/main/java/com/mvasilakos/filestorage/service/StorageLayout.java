@@ -0,0 +1,86 @@
+package com.mvasilakos.filestorage.service;
+
+import com.mvasilakos.filestorage.config.StorageLayoutProperties;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import org.springframework.stereotype.Component;
+
+
+/**
+ * Directory layout of the storage root. Blobs are spread over nested shard directories named
+ * after the leading hex digits of the SHA-256 of the blob name, e.g. {@code ab/cd/<name>}, so that
+ * no single directory grows large enough to slow down lookups.
+ */
+@Component
+public class StorageLayout {
+
+  private static final int HASH_HEX_LENGTH = 64;
+
+  private final int shardDepth;
+  private final int shardWidth;
+
+  /**
+   * Constructor.
+   *
+   * @param properties storage layout properties
+   */
+  public StorageLayout(StorageLayoutProperties properties) {
+    if (properties.getShardDepth() < 0 || properties.getShardWidth() < 1
+        || properties.getShardDepth() * properties.getShardWidth() > HASH_HEX_LENGTH) {
+      throw new IllegalArgumentException(String.format(
+          "Invalid shard layout: depth %d, width %d",
+          properties.getShardDepth(), properties.getShardWidth()));
+    }
+    this.shardDepth = properties.getShardDepth();
+    this.shardWidth = properties.getShardWidth();
+  }
+
+  /**
+   * Storage path of the blob with the given name. Each shard level fans out into
+   * {@code 16^width} directories.
+   *
+   * @param blobName blob name, unique within the storage
+   * @return storage path relative to the storage root
+   */
+  public String storagePathFor(String blobName) {
+    if (shardDepth == 0) {
+      return blobName;
+    }
+    String hash = HexFormat.of().formatHex(sha256(blobName));
+    StringBuilder storagePath = new StringBuilder();
+    for (int level = 0; level < shardDepth; level++) {
+      storagePath.append(hash, level * shardWidth, (level + 1) * shardWidth).append('/');
+    }
+    return storagePath.append(blobName).toString();
+  }
+
+  /**
+   * Whether a storage path already follows the current layout.
+   *
+   * @param storagePath storage path
+   * @return true if the path is where {@link #storagePathFor(String)} puts its blob
+   */
+  public boolean isCurrent(String storagePath) {
+    return storagePath.equals(storagePathFor(blobName(storagePath)));
+  }
+
+  /**
+   * Name of the blob stored at the given path, without its shard directories.
+   *
+   * @param storagePath storage path
+   * @return blob name
+   */
+  public String blobName(String storagePath) {
+    return storagePath.substring(storagePath.lastIndexOf('/') + 1);
+  }
+
+  private byte[] sha256(String blobName) {
+    try {
+      return MessageDigest.getInstance("SHA-256").digest(blobName.getBytes(StandardCharsets.UTF_8));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+}
@@ -0,0 +1,186 @@
+package com.mvasilakos.filestorage.service;
+
+import com.mvasilakos.filestorage.config.StorageLayoutProperties;
+import com.mvasilakos.filestorage.dto.StorageMigrationStatusDto;
+import com.mvasilakos.filestorage.repository.ContentBlobRepository;
+import com.mvasilakos.filestorage.repository.FileMetadataRepository;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+
+/**
+ * Moves stored blobs into the current storage layout while the application keeps serving
+ * requests. Each blob is first linked at its new path, then its files are pointed to that path,
+ * and only then is the old path removed, so a blob is reachable through its recorded path at all
+ * times. Storage paths are walked in batches, in order, so an interrupted migration can simply be
+ * started again.
+ */
+@Slf4j
+@Service
+public class StorageLayoutMigrationService {
+
+  private static final int MAX_REPOINT_ATTEMPTS = 3;
+
+  private final FileMetadataRepository fileMetadataRepository;
+  private final ContentBlobRepository contentBlobRepository;
+  private final FileStorageService fileStorageService;
+  private final StorageLayout storageLayout;
+  private final StorageLayoutProperties properties;
+  private final DecryptedContentCache decryptedContentCache;
+  private final TransactionTemplate transactionTemplate;
+
+  private final AtomicBoolean running = new AtomicBoolean();
+  private final AtomicLong scanned = new AtomicLong();
+  private final AtomicLong migrated = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  private volatile LocalDateTime startedAt;
+  private volatile LocalDateTime finishedAt;
+
+  /**
+   * Constructor.
+   *
+   * @param fileMetadataRepository file metadata repository
+   * @param contentBlobRepository  content blob repository
+   * @param fileStorageService     file storage service
+   * @param storageLayout          current storage layout
+   * @param properties             storage layout properties
+   * @param decryptedContentCache  decrypted content cache
+   * @param transactionManager     transaction manager
+   */
+  public StorageLayoutMigrationService(FileMetadataRepository fileMetadataRepository,
+      ContentBlobRepository contentBlobRepository, FileStorageService fileStorageService,
+      StorageLayout storageLayout, StorageLayoutProperties properties,
+      DecryptedContentCache decryptedContentCache, PlatformTransactionManager transactionManager) {
+    this.fileMetadataRepository = fileMetadataRepository;
+    this.contentBlobRepository = contentBlobRepository;
+    this.fileStorageService = fileStorageService;
+    this.storageLayout = storageLayout;
+    this.properties = properties;
+    this.decryptedContentCache = decryptedContentCache;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+  }
+
+  /**
+   * Start migrating all blobs to the current layout in the background, unless a migration is
+   * already running.
+   *
+   * @return migration status
+   */
+  public StorageMigrationStatusDto start() {
+    if (running.compareAndSet(false, true)) {
+      scanned.set(0);
+      migrated.set(0);
+      failed.set(0);
+      startedAt = LocalDateTime.now();
+      finishedAt = null;
+
+      Thread migrationThread = new Thread(this::migrateAll, "storage-layout-migration");
+      migrationThread.setDaemon(true);
+      migrationThread.start();
+    }
+    return getStatus();
+  }
+
+  /**
+   * Get the progress of the latest migration.
+   *
+   * @return migration status
+   */
+  public StorageMigrationStatusDto getStatus() {
+    return StorageMigrationStatusDto.builder()
+        .running(running.get())
+        .scanned(scanned.get())
+        .migrated(migrated.get())
+        .failed(failed.get())
+        .startedAt(startedAt)
+        .finishedAt(finishedAt)
+        .build();
+  }
+
+  /**
+   * Migrate all blobs to the current layout, batch by batch.
+   */
+  void migrateAll() {
+    log.info("Storage layout migration started");
+    try {
+      String lastPath = "";
+      List<String> batch;
+      do {
+        batch = fileMetadataRepository.findStoragePathsAfter(
+            lastPath, PageRequest.of(0, properties.getMigrationBatchSize()));
+        for (String storagePath : batch) {
+          scanned.incrementAndGet();
+          if (!storageLayout.isCurrent(storagePath)) {
+            migrateQuietly(storagePath);
+          }
+        }
+        if (!batch.isEmpty()) {
+          lastPath = batch.get(batch.size() - 1);
+          Thread.sleep(properties.getMigrationBatchDelay().toMillis());
+        }
+      } while (!batch.isEmpty());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      log.warn("Storage layout migration interrupted");
+    } catch (RuntimeException e) {
+      log.error("Storage layout migration aborted", e);
+    } finally {
+      finishedAt = LocalDateTime.now();
+      running.set(false);
+      log.info("Storage layout migration finished: {} scanned, {} migrated, {} failed",
+          scanned.get(), migrated.get(), failed.get());
+    }
+  }
+
+  private void migrateQuietly(String oldPath) {
+    try {
+      migrate(oldPath);
+    } catch (RuntimeException e) {
+      failed.incrementAndGet();
+      log.warn("Failed to migrate blob: {}", oldPath, e);
+    }
+  }
+
+  private void migrate(String oldPath) {
+    String newPath = storageLayout.storagePathFor(storageLayout.blobName(oldPath));
+    if (fileStorageService.fileExists(oldPath)) {
+      fileStorageService.linkFile(oldPath, newPath);
+    } else if (!fileStorageService.fileExists(newPath)) {
+      failed.incrementAndGet();
+      log.warn("Blob is missing from disk, leaving its files untouched: {}", oldPath);
+      return;
+    }
+
+    // Uploads that deduplicated against the old path just before it was repointed may still
+    // record it, so repoint until no file is left behind
+    int repointed = 0;
+    for (int attempt = 0; attempt < MAX_REPOINT_ATTEMPTS; attempt++) {
+      Integer updated = transactionTemplate.execute(status ->
+          fileMetadataRepository.updateStoragePath(oldPath, newPath)
+              + contentBlobRepository.updateStoragePath(oldPath, newPath));
+      repointed += updated == null ? 0 : updated;
+      if (!fileMetadataRepository.existsByStoragePath(oldPath)) {
+        break;
+      }
+    }
+
+    if (fileMetadataRepository.existsByStoragePath(oldPath)) {
+      failed.incrementAndGet();
+      log.warn("Files still reference the old path, keeping both links: {}", oldPath);
+    } else if (repointed == 0) {
+      // All files of the blob were deleted in the meantime
+      fileStorageService.deleteFile(newPath);
+    } else {
+      fileStorageService.deleteFile(oldPath);
+      decryptedContentCache.invalidateBlob(oldPath);
+      migrated.incrementAndGet();
+    }
+  }
+}
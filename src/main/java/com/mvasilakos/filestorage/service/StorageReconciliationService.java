@@ -0,0 +1,606 @@
+package com.mvasilakos.filestorage.service;
+
+import com.mvasilakos.filestorage.config.ReconciliationProperties;
+import com.mvasilakos.filestorage.dto.ReconciliationReportDto;
+import com.mvasilakos.filestorage.model.ReconciliationAction;
+import com.mvasilakos.filestorage.repository.ContentBlobRepository;
+import com.mvasilakos.filestorage.repository.FileMetadataRepository;
+import com.mvasilakos.filestorage.storage.BlobStore;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+
+/**
+ * Finds blobs that no file references and files whose blob is missing, which crashes, failed
+ * cleanups and account deletions leave behind.
+ *
+ * <p>Stored files are listed in byte order, one top-level directory of each storage tier at a time
+ * with the next few listed in parallel. The listings of the hot and the cold tier are merged, and
+ * merged with the storage paths of all files, which are read from the database in byte order in
+ * batches. Packed blobs are checked against the database
+ * in batches as well. Both sides are throttled to a configured number of entries per second, so
+ * a run does not compete with user requests for disk and database time.
+ *
+ * <p>An orphan is only acted upon once two consecutive runs have found it, and after checking once
+ * more that it is still an orphan, so uploads and deletes in progress during a run are never
+ * mistaken for orphans.
+ */
+@Slf4j
+@Service
+public class StorageReconciliationService {
+
+  private final FileMetadataRepository fileMetadataRepository;
+  private final ContentBlobRepository contentBlobRepository;
+  private final FileStorageService fileStorageService;
+  private final BlobStore blobStore;
+  private final ReconciliationProperties properties;
+  private final TransactionTemplate transactionTemplate;
+  private final int parallelism;
+
+  private final AtomicBoolean running = new AtomicBoolean();
+  private Set<String> suspectedBlobs = Set.of();
+  private Set<String> suspectedRows = Set.of();
+  private volatile Run currentRun;
+
+  /**
+   * Constructor.
+   *
+   * @param fileMetadataRepository file metadata repository
+   * @param contentBlobRepository  content blob repository
+   * @param fileStorageService     file storage service
+   * @param blobStore              store the blobs of files are kept in
+   * @param properties             reconciliation properties
+   * @param transactionManager     transaction manager
+   */
+  public StorageReconciliationService(FileMetadataRepository fileMetadataRepository,
+      ContentBlobRepository contentBlobRepository, FileStorageService fileStorageService,
+      BlobStore blobStore, ReconciliationProperties properties,
+      PlatformTransactionManager transactionManager) {
+    this.fileMetadataRepository = fileMetadataRepository;
+    this.contentBlobRepository = contentBlobRepository;
+    this.fileStorageService = fileStorageService;
+    this.blobStore = blobStore;
+    this.properties = properties;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.parallelism = properties.getParallelism() > 0
+        ? properties.getParallelism()
+        : Runtime.getRuntime().availableProcessors();
+  }
+
+  /**
+   * Start a reconciliation run in the background, unless one is already running.
+   *
+   * @return findings of the run
+   */
+  public ReconciliationReportDto start() {
+    if (running.compareAndSet(false, true)) {
+      Thread reconciliationThread = new Thread(this::runExclusively, "storage-reconciliation");
+      reconciliationThread.setDaemon(true);
+      reconciliationThread.start();
+    }
+    return getReport();
+  }
+
+  /**
+   * Reconcile the storage root with the database on schedule.
+   */
+  @Scheduled(fixedDelayString = "${file.storage.reconciliation.interval:PT6H}",
+      initialDelayString = "${file.storage.reconciliation.initial-delay:PT1H}")
+  public void reconcileOnSchedule() {
+    if (properties.isEnabled() && running.compareAndSet(false, true)) {
+      runExclusively();
+    }
+  }
+
+  /**
+   * Get the findings of the current or latest run.
+   *
+   * @return findings, all zero if no run has started yet
+   */
+  public ReconciliationReportDto getReport() {
+    Run run = currentRun;
+    if (run == null) {
+      return ReconciliationReportDto.builder()
+          .running(running.get())
+          .action(properties.getAction())
+          .orphanBlobSamples(List.of())
+          .orphanRowSamples(List.of())
+          .build();
+    }
+    return run.report(running.get());
+  }
+
+  private void runExclusively() {
+    try {
+      reconcile();
+    } finally {
+      running.set(false);
+    }
+  }
+
+  /**
+   * Compare the storage tiers with the database once and handle the orphans confirmed by the
+   * previous run.
+   */
+  void reconcile() {
+    Run run = new Run(properties.getAction(), properties.getSampleSize());
+    currentRun = run;
+    log.info("Storage reconciliation started");
+
+    Throttle throttle = new Throttle(properties.getScanRate());
+    Set<String> blobCandidates = new HashSet<>();
+    Set<String> rowCandidates = new HashSet<>();
+    ExecutorService listingPool = Executors.newFixedThreadPool(parallelism);
+    try {
+      compareLooseFiles(listingPool, throttle, run, blobCandidates, rowCandidates);
+      comparePackedFiles(throttle, run, blobCandidates);
+
+      for (String storagePath : blobCandidates) {
+        if (suspectedBlobs.contains(storagePath)) {
+          throttle.acquire(1);
+          handleOrphanBlob(storagePath, run);
+        }
+      }
+      for (String storagePath : rowCandidates) {
+        if (suspectedRows.contains(storagePath)) {
+          throttle.acquire(1);
+          handleOrphanRow(storagePath, run);
+        }
+      }
+      run.suspectedBlobs.set(countNew(blobCandidates, suspectedBlobs));
+      run.suspectedRows.set(countNew(rowCandidates, suspectedRows));
+      suspectedBlobs = blobCandidates;
+      suspectedRows = rowCandidates;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      log.warn("Storage reconciliation interrupted");
+    } catch (IOException | RuntimeException e) {
+      log.error("Storage reconciliation aborted", e);
+    } finally {
+      listingPool.shutdownNow();
+      run.finishedAt = LocalDateTime.now();
+      log.info("Storage reconciliation finished: {} blobs and {} storage paths scanned, "
+              + "{} orphan blobs, {} storage paths without blob, {} quarantined, {} deleted, "
+              + "{} failed", run.blobsScanned.get(), run.rowsScanned.get(), run.orphanBlobs.get(),
+          run.orphanRows.get(), run.quarantined.get(), run.deleted.get(), run.failed.get());
+    }
+  }
+
+  private void compareLooseFiles(ExecutorService listingPool, Throttle throttle, Run run,
+      Set<String> blobCandidates, Set<String> rowCandidates) throws IOException {
+    List<Iterator<String>> tierFiles = new ArrayList<>();
+    for (Path tierLocation : fileStorageService.getTierLocations()) {
+      tierFiles.add(new LooseFileIterator(tierLocation, listingPool, throttle));
+    }
+    Iterator<String> files = new MergingIterator(tierFiles);
+    Iterator<String> rows = new StoragePathIterator(throttle);
+    String file = files.hasNext() ? files.next() : null;
+    String row = rows.hasNext() ? rows.next() : null;
+
+    while (file != null || row != null) {
+      int order = file == null ? 1 : row == null ? -1 : file.compareTo(row);
+      if (order <= 0) {
+        run.blobsScanned.incrementAndGet();
+      }
+      if (order >= 0) {
+        run.rowsScanned.incrementAndGet();
+      }
+
+      if (order < 0) {
+        blobCandidates.add(file);
+      } else if (order > 0 && !blobStore.fileExists(row)) {
+        // Packed blobs are not listed, and loose ones may have been stored since their listing
+        rowCandidates.add(row);
+      }
+      if (order <= 0) {
+        file = files.hasNext() ? files.next() : null;
+      }
+      if (order >= 0) {
+        row = rows.hasNext() ? rows.next() : null;
+      }
+    }
+  }
+
+  private void comparePackedFiles(Throttle throttle, Run run, Set<String> blobCandidates)
+      throws InterruptedException {
+    List<String> packedFiles = fileStorageService.listPackedFiles();
+    for (int from = 0; from < packedFiles.size(); from += properties.getBatchSize()) {
+      List<String> batch = packedFiles.subList(from,
+          Math.min(from + properties.getBatchSize(), packedFiles.size()));
+      throttle.acquire(batch.size());
+      run.blobsScanned.addAndGet(batch.size());
+
+      Set<String> referenced = new HashSet<>(
+          fileMetadataRepository.findReferencedStoragePaths(batch));
+      for (String storagePath : batch) {
+        if (!referenced.contains(storagePath)) {
+          blobCandidates.add(storagePath);
+        }
+      }
+    }
+  }
+
+  private void handleOrphanBlob(String storagePath, Run run) {
+    run.orphanBlobs.incrementAndGet();
+    run.sample(run.orphanBlobSamples, storagePath);
+    if (properties.getAction() == ReconciliationAction.REPORT) {
+      return;
+    }
+
+    try {
+      if (!releaseOrphanBlob(storagePath)) {
+        log.info("Blob is referenced again, leaving it in place: {}", storagePath);
+        return;
+      }
+      if (properties.getAction() == ReconciliationAction.QUARANTINE) {
+        fileStorageService.quarantineFile(storagePath);
+        run.quarantined.incrementAndGet();
+      } else {
+        fileStorageService.deleteFile(storagePath);
+        run.deleted.incrementAndGet();
+      }
+    } catch (RuntimeException e) {
+      run.failed.incrementAndGet();
+      log.warn("Failed to handle orphan blob: {}", storagePath, e);
+    }
+  }
+
+  /**
+   * Drop the deduplication record of an orphan blob, so no upload can start sharing it, unless the
+   * blob is referenced again. Uploads take a reference by updating the record before saving their
+   * file, so the record is only deleted while it counts no references, in one transaction with the
+   * check for files.
+   *
+   * @param storagePath storage path of the orphan blob
+   * @return true if the blob is still an orphan and can be moved away
+   */
+  private boolean releaseOrphanBlob(String storagePath) {
+    return Boolean.TRUE.equals(transactionTemplate.execute(status ->
+        !fileMetadataRepository.existsByStoragePath(storagePath)
+            && (contentBlobRepository.deleteUnreferenced(storagePath) > 0
+            || !contentBlobRepository.existsByStoragePath(storagePath))));
+  }
+
+  private void handleOrphanRow(String storagePath, Run run) {
+    run.orphanRows.incrementAndGet();
+    run.sample(run.orphanRowSamples, storagePath);
+    if (properties.getAction() != ReconciliationAction.DELETE) {
+      return;
+    }
+
+    try {
+      if (blobStore.fileExists(storagePath)) {
+        log.info("Blob has reappeared, keeping its files: {}", storagePath);
+        return;
+      }
+      transactionTemplate.executeWithoutResult(status -> {
+        fileMetadataRepository.deleteByStoragePath(storagePath);
+        contentBlobRepository.deleteByStoragePath(storagePath);
+      });
+      run.deleted.incrementAndGet();
+    } catch (RuntimeException e) {
+      run.failed.incrementAndGet();
+      log.warn("Failed to delete files of missing blob: {}", storagePath, e);
+    }
+  }
+
+  private static long countNew(Set<String> candidates, Set<String> suspected) {
+    return candidates.stream().filter(candidate -> !suspected.contains(candidate)).count();
+  }
+
+  /**
+   * Storage path of a file under a tier storage location, with forward slashes on every platform.
+   */
+  private static String storagePathOf(Path tierLocation, Path file) {
+    StringJoiner storagePath = new StringJoiner("/");
+    for (Path name : tierLocation.relativize(file)) {
+      storagePath.add(name.toString());
+    }
+    return storagePath.toString();
+  }
+
+  /**
+   * Lists the loose files under a tier storage location as storage paths in byte order. Top-level
+   * directories are listed on the listing pool, a few ahead of the one being consumed; the
+   * dot-directories holding packed segments, staged uploads and quarantined blobs are skipped, and
+   * so are temporary files.
+   */
+  private final class LooseFileIterator implements Iterator<String> {
+
+    private final Path tierLocation;
+    private final ExecutorService listingPool;
+    private final Throttle throttle;
+    private final Iterator<Path> entries;
+    private final Deque<Future<List<String>>> listings = new ArrayDeque<>();
+    private Iterator<String> current = Collections.emptyIterator();
+
+    private LooseFileIterator(Path tierLocation, ExecutorService listingPool, Throttle throttle)
+        throws IOException {
+      this.tierLocation = tierLocation;
+      this.listingPool = listingPool;
+      this.throttle = throttle;
+      if (!Files.isDirectory(tierLocation)) {
+        this.entries = Collections.emptyIterator();
+        return;
+      }
+      try (Stream<Path> paths = Files.list(tierLocation)) {
+        // A directory's paths all start with its name and a slash, which is where it sorts
+        this.entries = paths
+            .filter(path -> !path.getFileName().toString().startsWith("."))
+            .sorted(Comparator.comparing(this::sortKey))
+            .toList()
+            .iterator();
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (!current.hasNext()) {
+        listAhead();
+        if (listings.isEmpty()) {
+          return false;
+        }
+        current = await(listings.poll()).iterator();
+      }
+      return true;
+    }
+
+    @Override
+    public String next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return current.next();
+    }
+
+    private void listAhead() {
+      while (listings.size() < 2 * parallelism && entries.hasNext()) {
+        Path entry = entries.next();
+        if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+          listings.add(listingPool.submit(() -> listDirectory(entry)));
+        } else {
+          List<String> listing = FileStorageService.isTemporaryFile(entry)
+              ? List.of()
+              : List.of(storagePathOf(tierLocation, entry));
+          listings.add(CompletableFuture.completedFuture(listing));
+        }
+      }
+    }
+
+    private List<String> listDirectory(Path directory) throws IOException, InterruptedException {
+      List<String> storagePaths = new ArrayList<>();
+      try (Stream<Path> paths = Files.find(directory, Integer.MAX_VALUE,
+          (path, attributes) -> attributes.isRegularFile())) {
+        for (Path path : (Iterable<Path>) paths::iterator) {
+          if (!FileStorageService.isTemporaryFile(path)) {
+            throttle.acquire(1);
+            storagePaths.add(storagePathOf(tierLocation, path));
+          }
+        }
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+      Collections.sort(storagePaths);
+      return storagePaths;
+    }
+
+    private List<String> await(Future<List<String>> listing) {
+      try {
+        return listing.get();
+      } catch (ExecutionException e) {
+        throw new IllegalStateException("Failed to list stored files", e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while listing stored files", e);
+      }
+    }
+
+    private String sortKey(Path entry) {
+      String name = entry.getFileName().toString();
+      return Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS) ? name + "/" : name;
+    }
+  }
+
+  /**
+   * Merges storage paths listed in byte order into one listing in byte order. A blob found on more
+   * than one tier, such as one being moved between tiers, is listed once.
+   */
+  private static final class MergingIterator implements Iterator<String> {
+
+    private final List<Iterator<String>> iterators;
+    private final String[] heads;
+
+    private MergingIterator(List<Iterator<String>> iterators) {
+      this.iterators = iterators;
+      this.heads = new String[iterators.size()];
+      for (int i = 0; i < heads.length; i++) {
+        advance(i);
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return Arrays.stream(heads).anyMatch(Objects::nonNull);
+    }
+
+    @Override
+    public String next() {
+      String next = null;
+      for (String head : heads) {
+        if (head != null && (next == null || head.compareTo(next) < 0)) {
+          next = head;
+        }
+      }
+      if (next == null) {
+        throw new NoSuchElementException();
+      }
+      for (int i = 0; i < heads.length; i++) {
+        if (next.equals(heads[i])) {
+          advance(i);
+        }
+      }
+      return next;
+    }
+
+    private void advance(int i) {
+      heads[i] = iterators.get(i).hasNext() ? iterators.get(i).next() : null;
+    }
+  }
+
+  /**
+   * Reads the distinct storage paths of all files from the database in byte order, batch by
+   * batch.
+   */
+  private final class StoragePathIterator implements Iterator<String> {
+
+    private final Throttle throttle;
+    private Iterator<String> batch = Collections.emptyIterator();
+    private String lastPath = "";
+    private boolean exhausted;
+
+    private StoragePathIterator(Throttle throttle) {
+      this.throttle = throttle;
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (!batch.hasNext() && !exhausted) {
+        List<String> storagePaths = fileMetadataRepository.findStoragePathsInByteOrderAfter(
+            lastPath, properties.getBatchSize());
+        exhausted = storagePaths.size() < properties.getBatchSize();
+        if (!storagePaths.isEmpty()) {
+          lastPath = storagePaths.get(storagePaths.size() - 1);
+          try {
+            throttle.acquire(storagePaths.size());
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reading storage paths", e);
+          }
+        }
+        batch = storagePaths.iterator();
+      }
+      return batch.hasNext();
+    }
+
+    @Override
+    public String next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return batch.next();
+    }
+  }
+
+  /**
+   * Spaces out work to a fixed number of entries per second across all threads of a run.
+   */
+  private static final class Throttle {
+
+    private final long nanosPerEntry;
+    private long nextFree = System.nanoTime();
+
+    private Throttle(int entriesPerSecond) {
+      this.nanosPerEntry = entriesPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / entriesPerSecond
+          : 0;
+    }
+
+    private void acquire(int entries) throws InterruptedException {
+      if (nanosPerEntry == 0) {
+        return;
+      }
+      long wait;
+      synchronized (this) {
+        long now = System.nanoTime();
+        nextFree = Math.max(nextFree, now) + entries * nanosPerEntry;
+        wait = nextFree - now - entries * nanosPerEntry;
+      }
+      if (wait > 0) {
+        TimeUnit.NANOSECONDS.sleep(wait);
+      }
+    }
+  }
+
+  /**
+   * Findings of a run, updated while it progresses.
+   */
+  private static final class Run {
+
+    private final ReconciliationAction action;
+    private final int sampleSize;
+    private final LocalDateTime startedAt = LocalDateTime.now();
+    private final AtomicLong blobsScanned = new AtomicLong();
+    private final AtomicLong rowsScanned = new AtomicLong();
+    private final AtomicLong suspectedBlobs = new AtomicLong();
+    private final AtomicLong suspectedRows = new AtomicLong();
+    private final AtomicLong orphanBlobs = new AtomicLong();
+    private final AtomicLong orphanRows = new AtomicLong();
+    private final AtomicLong quarantined = new AtomicLong();
+    private final AtomicLong deleted = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final List<String> orphanBlobSamples = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> orphanRowSamples = Collections.synchronizedList(new ArrayList<>());
+    private volatile LocalDateTime finishedAt;
+
+    private Run(ReconciliationAction action, int sampleSize) {
+      this.action = action;
+      this.sampleSize = sampleSize;
+    }
+
+    private void sample(List<String> samples, String storagePath) {
+      if (samples.size() < sampleSize) {
+        samples.add(storagePath);
+      }
+    }
+
+    private ReconciliationReportDto report(boolean running) {
+      return ReconciliationReportDto.builder()
+          .running(running)
+          .action(action)
+          .blobsScanned(blobsScanned.get())
+          .rowsScanned(rowsScanned.get())
+          .suspectedBlobs(suspectedBlobs.get())
+          .suspectedRows(suspectedRows.get())
+          .orphanBlobs(orphanBlobs.get())
+          .orphanRows(orphanRows.get())
+          .quarantined(quarantined.get())
+          .deleted(deleted.get())
+          .failed(failed.get())
+          .orphanBlobSamples(List.copyOf(orphanBlobSamples))
+          .orphanRowSamples(List.copyOf(orphanRowSamples))
+          .startedAt(startedAt)
+          .finishedAt(finishedAt)
+          .build();
+    }
+  }
+}
@@ -0,0 +1,155 @@
+package com.mvasilakos.filestorage.service;
+
+import com.mvasilakos.filestorage.config.TieringProperties;
+import com.mvasilakos.filestorage.model.StorageTier;
+import com.mvasilakos.filestorage.repository.FileMetadataRepository;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+
+/**
+ * Keeps recently read blobs on the fast hot tier and the rest on the large cold tier. Reads are
+ * recorded in memory and written to the files' last access time in batches, so downloads do not
+ * wait for a database write. A background mover demotes blobs whose files have gone unread for a
+ * while and promotes cold blobs that were read again, batch by batch with a pause in between to
+ * limit the load it adds.
+ */
+@Slf4j
+@Service
+public class StorageTieringService {
+
+  private final FileMetadataRepository fileMetadataRepository;
+  private final FileStorageService fileStorageService;
+  private final TieringProperties properties;
+
+  private final Set<String> accessedPaths = ConcurrentHashMap.newKeySet();
+  private final AtomicBoolean running = new AtomicBoolean();
+
+  /**
+   * Constructor.
+   *
+   * @param fileMetadataRepository file metadata repository
+   * @param fileStorageService     file storage service
+   * @param properties             storage tier properties
+   */
+  public StorageTieringService(FileMetadataRepository fileMetadataRepository,
+      FileStorageService fileStorageService, TieringProperties properties) {
+    this.fileMetadataRepository = fileMetadataRepository;
+    this.fileStorageService = fileStorageService;
+    this.properties = properties;
+  }
+
+  private boolean isActive() {
+    return properties.isEnabled() && fileStorageService.isTiered();
+  }
+
+  /**
+   * Record that the blob at the given storage path was read.
+   *
+   * @param storagePath storage path
+   */
+  public void recordAccess(String storagePath) {
+    if (isActive()) {
+      accessedPaths.add(storagePath);
+    }
+  }
+
+  /**
+   * Write the recorded reads to the last access time of the files.
+   */
+  @Scheduled(fixedDelayString = "${file.storage.tiering.access-flush-interval:PT1M}")
+  public void flushAccesses() {
+    if (accessedPaths.isEmpty()) {
+      return;
+    }
+
+    LocalDateTime accessedAt = LocalDateTime.now();
+    List<String> batch = new ArrayList<>();
+    // Reads recorded while flushing are either included or kept for the next flush
+    for (Iterator<String> paths = accessedPaths.iterator(); paths.hasNext(); ) {
+      batch.add(paths.next());
+      paths.remove();
+      if (batch.size() == properties.getBatchSize() || !paths.hasNext()) {
+        fileMetadataRepository.updateLastAccessedAt(batch, accessedAt);
+        batch = new ArrayList<>();
+      }
+    }
+  }
+
+  /**
+   * Move blobs between tiers on schedule.
+   */
+  @Scheduled(fixedDelayString = "${file.storage.tiering.interval:PT1H}")
+  public void moveBetweenTiers() {
+    if (!isActive() || !running.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      flushAccesses();
+      LocalDateTime now = LocalDateTime.now();
+      int demoted = moveAll(StorageTier.COLD, now.minus(properties.getDemoteAfter()));
+      int promoted = moveAll(StorageTier.HOT, now.minus(properties.getPromoteWithin()));
+      log.info("Storage tiering demoted {} and promoted {} blobs", demoted, promoted);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      running.set(false);
+    }
+  }
+
+  /**
+   * Move every blob due to the given tier.
+   *
+   * @return number of blobs moved
+   */
+  int moveAll(StorageTier storageTier, LocalDateTime threshold) throws InterruptedException {
+    int moved = 0;
+    String lastPath = "";
+    List<String> batch;
+    do {
+      batch = storageTier == StorageTier.COLD
+          ? fileMetadataRepository.findStoragePathsToDemote(
+              lastPath, threshold, properties.getBatchSize())
+          : fileMetadataRepository.findStoragePathsToPromote(
+              lastPath, threshold, properties.getBatchSize());
+      for (String storagePath : batch) {
+        if (move(storagePath, storageTier)) {
+          moved++;
+        }
+        lastPath = storagePath;
+      }
+      if (!batch.isEmpty() && !properties.getBatchDelay().isZero()) {
+        Thread.sleep(properties.getBatchDelay().toMillis());
+      }
+    } while (batch.size() == properties.getBatchSize());
+    return moved;
+  }
+
+  private boolean move(String storagePath, StorageTier storageTier) {
+    try {
+      boolean moved = fileStorageService.moveToTier(storagePath, storageTier);
+      if (!moved && !fileStorageService.fileExists(storagePath)) {
+        log.warn("Blob is missing from disk, leaving its files untouched: {}", storagePath);
+        return false;
+      }
+      // A blob found on the target tier already was moved by an earlier, interrupted run
+      if (fileMetadataRepository.updateStorageTier(storagePath, storageTier) == 0) {
+        // All files of the blob were deleted in the meantime
+        fileStorageService.deleteFile(storagePath);
+        return false;
+      }
+      return moved;
+    } catch (RuntimeException e) {
+      log.warn("Failed to move blob to the {} tier: {}", storageTier, storagePath, e);
+      return false;
+    }
+  }
+}
@@ -0,0 +1,266 @@
+package com.mvasilakos.filestorage.service;
+
+import com.mvasilakos.filestorage.config.UploadProperties;
+import com.mvasilakos.filestorage.dto.FileMetadataDto;
+import com.mvasilakos.filestorage.dto.UploadSessionDto;
+import com.mvasilakos.filestorage.exception.FileStorageException;
+import com.mvasilakos.filestorage.exception.InvalidFileException;
+import com.mvasilakos.filestorage.model.UploadSession;
+import com.mvasilakos.filestorage.model.User;
+import com.mvasilakos.filestorage.repository.UploadSessionRepository;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+
+/**
+ * Resumable upload service. Chunks may be sent in any order and retried; each is encrypted while
+ * it is staged on disk and only replaces an earlier copy once it has been received in full. On
+ * commit the staged chunks are streamed, in order, through the regular upload pipeline.
+ */
+@Slf4j
+@Service
+public class UploadSessionService {
+
+  private static final int COPY_BUFFER_SIZE = 64 * 1024;
+  private static final String PART_SUFFIX = ".part";
+
+  private final UploadSessionRepository uploadSessionRepository;
+  private final FileStorageService fileStorageService;
+  private final FileEncryptionService fileEncryptionService;
+  private final FileService fileService;
+  private final UploadProperties uploadProperties;
+  private final long maxFileSize;
+
+  /**
+   * Constructor.
+   *
+   * @param uploadSessionRepository upload session repository
+   * @param fileStorageService      file storage service
+   * @param fileEncryptionService   file encryption service
+   * @param fileService             file service
+   * @param uploadProperties        upload properties
+   * @param maxFileSize             maximum size of a single file
+   */
+  public UploadSessionService(UploadSessionRepository uploadSessionRepository,
+      FileStorageService fileStorageService, FileEncryptionService fileEncryptionService,
+      FileService fileService, UploadProperties uploadProperties,
+      @Value("${file.storage.max-file-size}") long maxFileSize) {
+    this.uploadSessionRepository = uploadSessionRepository;
+    this.fileStorageService = fileStorageService;
+    this.fileEncryptionService = fileEncryptionService;
+    this.fileService = fileService;
+    this.uploadProperties = uploadProperties;
+    this.maxFileSize = maxFileSize;
+  }
+
+  /**
+   * Start a resumable upload.
+   *
+   * @param filename    name of the file
+   * @param contentType declared content type
+   * @param totalSize   size of the whole file in bytes
+   * @param owner       the user uploading the file
+   * @return upload session
+   * @throws InvalidFileException if the file is larger than allowed
+   */
+  public UploadSessionDto createSession(String filename, String contentType, long totalSize,
+      User owner) {
+    if (totalSize > maxFileSize) {
+      throw new InvalidFileException(String.format(
+          "File too large. Maximum allowed size: %d bytes, actual size: %d bytes",
+          maxFileSize, totalSize));
+    }
+
+    LocalDateTime now = LocalDateTime.now();
+    UploadSession session = UploadSession.builder()
+        .id(UUID.randomUUID())
+        .owner(owner)
+        .filename(filename)
+        .contentType(contentType)
+        .totalSize(totalSize)
+        .chunkSize(uploadProperties.getChunkSize())
+        .createdAt(now)
+        .expiresAt(now.plus(uploadProperties.getSessionTtl()))
+        .build();
+    return toDto(uploadSessionRepository.save(session));
+  }
+
+  /**
+   * Get the state of an upload session, including the chunks received so far.
+   *
+   * @param sessionId session id
+   * @param owner     the user uploading the file
+   * @return upload session
+   */
+  public UploadSessionDto getSession(UUID sessionId, User owner) {
+    return toDto(findActiveSession(sessionId, owner));
+  }
+
+  /**
+   * Stage a chunk of the file. A chunk that was already received is replaced.
+   *
+   * @param sessionId session id
+   * @param index     zero based chunk index
+   * @param content   chunk content
+   * @param owner     the user uploading the file
+   * @throws InvalidFileException if the index is out of range or the chunk has the wrong length
+   */
+  public void uploadChunk(UUID sessionId, int index, InputStream content, User owner) {
+    UploadSession session = findActiveSession(sessionId, owner);
+    if (index < 0 || index >= session.getChunkCount()) {
+      throw new InvalidFileException(String.format(
+          "Chunk index %d is out of range, expected 0-%d", index, session.getChunkCount() - 1));
+    }
+
+    long expectedLength = session.getChunkLength(index);
+    String partPath = chunkPath(session, index) + "." + UUID.randomUUID() + PART_SUFFIX;
+    AtomicLong received = new AtomicLong();
+    try {
+      fileStorageService.storeFile(partPath, outputStream -> {
+        try (OutputStream sealingStream = fileEncryptionService.sealingStream(outputStream)) {
+          received.set(copyChunk(content, sealingStream, expectedLength));
+        }
+      });
+      if (received.get() != expectedLength) {
+        throw new InvalidFileException(String.format(
+            "Chunk %d has %d bytes, expected %d", index, received.get(), expectedLength));
+      }
+      fileStorageService.moveFile(partPath, chunkPath(session, index));
+    } catch (RuntimeException e) {
+      deleteQuietly(partPath);
+      throw e;
+    }
+
+    uploadSessionRepository.extendExpiry(session.getId(),
+        LocalDateTime.now().plus(uploadProperties.getSessionTtl()));
+  }
+
+  private long copyChunk(InputStream content, OutputStream outputStream, long expectedLength)
+      throws IOException {
+    byte[] buffer = new byte[COPY_BUFFER_SIZE];
+    long copied = 0;
+    int read;
+    while ((read = content.read(buffer)) != -1) {
+      copied += read;
+      if (copied > expectedLength) {
+        throw new InvalidFileException("Chunk is longer than " + expectedLength + " bytes");
+      }
+      outputStream.write(buffer, 0, read);
+    }
+    return copied;
+  }
+
+  /**
+   * Assemble the staged chunks into a file and store it like a single request upload. The session
+   * is discarded once the file is stored.
+   *
+   * @param sessionId session id
+   * @param owner     the user uploading the file
+   * @return uploaded file's metadata
+   * @throws FileStorageException if chunks are missing
+   */
+  public FileMetadataDto commit(UUID sessionId, User owner) {
+    UploadSession session = findActiveSession(sessionId, owner);
+    List<Integer> missingChunks = IntStream.range(0, session.getChunkCount())
+        .filter(index -> !fileStorageService.fileExists(chunkPath(session, index)))
+        .boxed()
+        .toList();
+    if (!missingChunks.isEmpty()) {
+      throw new FileStorageException("Upload is missing chunks: " + missingChunks);
+    }
+
+    FileMetadataDto metadata = fileService.uploadFile(
+        new StagedUploadFile(session, index -> openChunk(session, index)), owner);
+    discard(session);
+    return metadata;
+  }
+
+  private InputStream openChunk(UploadSession session, int index) {
+    return fileEncryptionService.openingStream(
+        fileStorageService.openFile(chunkPath(session, index)));
+  }
+
+  /**
+   * Abort an upload and delete its staged chunks.
+   *
+   * @param sessionId session id
+   * @param owner     the user uploading the file
+   */
+  public void abort(UUID sessionId, User owner) {
+    discard(findActiveSession(sessionId, owner));
+  }
+
+  /**
+   * Delete upload sessions that were abandoned, together with their staged chunks.
+   */
+  @Scheduled(fixedDelayString = "${file.storage.upload.cleanup-interval:PT15M}")
+  public void purgeExpiredSessions() {
+    List<UploadSession> expiredSessions =
+        uploadSessionRepository.findByExpiresAtBefore(LocalDateTime.now());
+    for (UploadSession session : expiredSessions) {
+      try {
+        discard(session);
+      } catch (RuntimeException e) {
+        log.warn("Failed to purge expired upload session: {}", session.getId(), e);
+      }
+    }
+    if (!expiredSessions.isEmpty()) {
+      log.info("Purged {} expired upload sessions", expiredSessions.size());
+    }
+  }
+
+  private UploadSession findActiveSession(UUID sessionId, User owner) {
+    return uploadSessionRepository.findByIdAndOwner(sessionId, owner)
+        .filter(session -> session.getExpiresAt().isAfter(LocalDateTime.now()))
+        .orElseThrow(() -> new FileStorageException("Upload session not found: " + sessionId));
+  }
+
+  private void discard(UploadSession session) {
+    // Chunks go first, so that a failure leaves the session for the next purge to retry
+    fileStorageService.deleteDirectory(sessionDirectory(session));
+    uploadSessionRepository.delete(session);
+  }
+
+  private UploadSessionDto toDto(UploadSession session) {
+    List<Integer> receivedChunks = IntStream.range(0, session.getChunkCount())
+        .filter(index -> fileStorageService.fileExists(chunkPath(session, index)))
+        .boxed()
+        .toList();
+    return UploadSessionDto.builder()
+        .id(session.getId())
+        .filename(session.getFilename())
+        .contentType(session.getContentType())
+        .totalSize(session.getTotalSize())
+        .chunkSize(session.getChunkSize())
+        .chunkCount(session.getChunkCount())
+        .receivedChunks(receivedChunks)
+        .expiresAt(session.getExpiresAt())
+        .build();
+  }
+
+  private String sessionDirectory(UploadSession session) {
+    return uploadProperties.getStagingDirectory() + "/" + session.getId();
+  }
+
+  private String chunkPath(UploadSession session, int index) {
+    return sessionDirectory(session) + "/" + index;
+  }
+
+  private void deleteQuietly(String storagePath) {
+    try {
+      fileStorageService.deleteFile(storagePath);
+    } catch (Exception e) {
+      log.warn("Failed to delete partial chunk: {}", storagePath, e);
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package com.mvasilakos.filestorage.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+
+/**
+ * Where the stored, encrypted content of files is kept. Blobs are written once, by streaming their
+ * content, and read back whole or by byte range, so that implementations never need to hold a
+ * whole blob in memory.
+ */
+public interface BlobStore {
+
+  /**
+   * Store a blob by streaming its content. The blob only becomes visible at the storage path once
+   * the writer is done; if the writer fails, nothing is stored. The writer may close the stream it
+   * is given.
+   *
+   * @param storagePath storage path
+   * @param writer      writes the content of the blob
+   * @return number of bytes stored
+   */
+  long storeBlob(String storagePath, ContentWriter writer);
+
+  /**
+   * Open a stored blob for streaming reads.
+   *
+   * @param storagePath storage path
+   * @return stream over the stored blob
+   */
+  InputStream openFile(String storagePath);
+
+  /**
+   * Open a byte range of a stored blob for streaming reads.
+   *
+   * @param storagePath storage path
+   * @param offset      offset of the first byte to read
+   * @param length      number of bytes to read
+   * @return stream over the requested range of the stored blob
+   */
+  InputStream openFileRange(String storagePath, long offset, long length);
+
+  /**
+   * Get stored blob size.
+   *
+   * @param storagePath storage path
+   * @return size in bytes
+   */
+  long getFileSize(String storagePath);
+
+  /**
+   * Delete a stored blob, if it exists.
+   *
+   * @param storagePath storage path
+   */
+  void deleteFile(String storagePath);
+
+  /**
+   * Check whether a blob is stored at the given path.
+   *
+   * @param storagePath storage path
+   * @return true if the blob exists
+   */
+  boolean fileExists(String storagePath);
+
+  /**
+   * Writes the content of a blob to the storage stream.
+   */
+  @FunctionalInterface
+  interface ContentWriter {
+
+    /**
+     * Write the blob content.
+     *
+     * @param outputStream storage stream
+     * @throws IOException if writing fails
+     */
+    void writeTo(OutputStream outputStream) throws IOException;
+  }
+}
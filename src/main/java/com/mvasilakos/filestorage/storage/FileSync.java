@@ -0,0 +1,51 @@
+package com.mvasilakos.filestorage.storage;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import lombok.extern.slf4j.Slf4j;
+
+
+/**
+ * Helpers for flushing files and directory entries to disk.
+ */
+@Slf4j
+public final class FileSync {
+
+  private FileSync() {
+  }
+
+  /**
+   * Flush the content of a file to disk.
+   *
+   * @param file file to flush
+   * @throws IOException if the file cannot be flushed
+   */
+  public static void syncFile(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      channel.force(false);
+    }
+  }
+
+  /**
+   * Flush the entries of a directory to disk, so that files created in or renamed into it survive
+   * a crash. File systems that cannot open directories for reading, such as those on Windows, order
+   * directory updates on their own and are skipped.
+   *
+   * @param directory directory to flush
+   * @throws IOException if the directory cannot be flushed
+   */
+  public static void syncDirectory(Path directory) throws IOException {
+    FileChannel channel;
+    try {
+      channel = FileChannel.open(directory, StandardOpenOption.READ);
+    } catch (IOException e) {
+      log.debug("Cannot open directory {} to flush it", directory, e);
+      return;
+    }
+    try (channel) {
+      channel.force(true);
+    }
+  }
+}
@@ -0,0 +1,173 @@
+package com.mvasilakos.filestorage.storage;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+
+
+/**
+ * Flushes appends to shared files in batches, so that concurrent writers share one flush of each
+ * file instead of queueing behind one another's. Writers block until the batch their append joined
+ * is on disk.
+ *
+ * <p>A batch holds every append that queued up while the previous batch was being flushed, plus
+ * those arriving within an optional window after its first one, up to a maximum size. Each file in
+ * the batch is flushed once. An append whose file fails to flush completes with that failure,
+ * without failing appends to other files.
+ */
+@Slf4j
+public class GroupCommitCoordinator implements AutoCloseable {
+
+  private static final Request CLOSE = new Request(null);
+
+  private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+  private final long windowNanos;
+  private final int maxBatchSize;
+  private final Thread commitThread;
+  private volatile boolean closed;
+
+  /**
+   * Constructor. Starts the thread that commits the batches.
+   *
+   * @param name         name of the commit thread
+   * @param window       how long a batch waits for more appends after its first one
+   * @param maxBatchSize maximum number of appends in a batch
+   */
+  public GroupCommitCoordinator(String name, Duration window, int maxBatchSize) {
+    this.windowNanos = window.toNanos();
+    this.maxBatchSize = Math.max(1, maxBatchSize);
+    this.commitThread = new Thread(this::run, name);
+    this.commitThread.setDaemon(true);
+    this.commitThread.start();
+  }
+
+  /**
+   * Flush everything written to a channel so far to disk, as part of the next batch.
+   *
+   * @param channel channel to flush
+   * @throws IOException if the channel cannot be flushed
+   */
+  public void commit(FileChannel channel) throws IOException {
+    if (closed) {
+      throw new IOException("Group commit coordinator is closed");
+    }
+    Request request = new Request(channel);
+    queue.add(request);
+    if (closed) {
+      failPending();
+    }
+
+    try {
+      request.result.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException ioException) {
+        throw ioException;
+      }
+      throw new IOException("Group commit failed", e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for group commit");
+    }
+  }
+
+  /**
+   * Stop the commit thread. Appends still waiting for a batch fail.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    // Interrupting the commit thread would close the channels it is flushing
+    queue.add(CLOSE);
+    try {
+      commitThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    failPending();
+  }
+
+  private void run() {
+    boolean running = true;
+    while (running) {
+      List<Request> batch = new ArrayList<>();
+      try {
+        Request next = queue.take();
+        long deadline = System.nanoTime() + windowNanos;
+        while (next != null && next != CLOSE) {
+          batch.add(next);
+          next = batch.size() < maxBatchSize
+              ? queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)
+              : null;
+        }
+        running = next != CLOSE;
+      } catch (InterruptedException e) {
+        running = false;
+      }
+      if (!batch.isEmpty()) {
+        commitBatch(batch);
+      }
+    }
+  }
+
+  private void commitBatch(List<Request> batch) {
+    long start = System.nanoTime();
+    Map<FileChannel, IOException> failures = new IdentityHashMap<>();
+    for (Request request : batch) {
+      if (!failures.containsKey(request.channel)) {
+        failures.put(request.channel, flush(request.channel));
+      }
+    }
+
+    for (Request request : batch) {
+      IOException failure = failures.get(request.channel);
+      if (failure == null) {
+        request.result.complete(null);
+      } else {
+        request.result.completeExceptionally(failure);
+      }
+    }
+    log.debug("Group committed {} appends with {} flushes in {} us", batch.size(),
+        failures.size(), (System.nanoTime() - start) / 1_000);
+  }
+
+  private static IOException flush(FileChannel channel) {
+    try {
+      channel.force(false);
+      return null;
+    } catch (IOException e) {
+      return e;
+    }
+  }
+
+  private void failPending() {
+    Request request;
+    while ((request = queue.poll()) != null) {
+      request.result.completeExceptionally(
+          new IOException("Group commit coordinator is closed"));
+    }
+  }
+
+  /**
+   * An append waiting for the channel it was written to to be flushed.
+   */
+  private static final class Request {
+
+    private final FileChannel channel;
+    private final CompletableFuture<Void> result = new CompletableFuture<>();
+
+    private Request(FileChannel channel) {
+      this.channel = channel;
+    }
+  }
+}
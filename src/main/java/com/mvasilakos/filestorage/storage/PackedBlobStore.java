@@ -0,0 +1,549 @@
+package com.mvasilakos.filestorage.storage;
+
+import com.mvasilakos.filestorage.config.DurabilityProperties;
+import com.mvasilakos.filestorage.config.PackingProperties;
+import com.mvasilakos.filestorage.model.DurabilityMode;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+
+/**
+ * Append-only store that packs small blobs into large segment files, in the style of Bitcask, so
+ * that storing or reading one costs a single positional write or read instead of a file of its
+ * own. An in-memory index maps each storage path to the offset and length of its data.
+ *
+ * <p>Segments are logs of records of the form
+ * {@code [type:1][pathLength:2][dataLength:4][path][data][crc32c:4]}, where the type is either a
+ * put or a tombstone marking a deleted path. The index is rebuilt on startup by replaying the
+ * segments in order; a torn record at the end of the newest segment, left by a crash during an
+ * append, is cut off. Segments whose records are mostly dead are compacted in the background by
+ * appending their live records to the active segment and deleting them. Tombstones are only
+ * carried along while an older segment still holds a put for their path.
+ *
+ * <p>Unless durability is disabled, every put and tombstone is flushed to disk before it is
+ * acknowledged, either on its own or together with the other records appended during the same
+ * group commit. Live records moved by compaction are always flushed before the segment they came
+ * from is deleted.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "file.storage.packing", name = "enabled", havingValue = "true")
+public class PackedBlobStore {
+
+  /**
+   * Directory under the storage root that holds the segment files.
+   */
+  public static final String PACK_DIRECTORY = ".packs";
+
+  private static final String SEGMENT_PREFIX = "segment-";
+  private static final String SEGMENT_SUFFIX = ".pack";
+  private static final byte PUT = 1;
+  private static final byte DELETE = 2;
+  private static final int HEADER_LENGTH = Byte.BYTES + Short.BYTES + Integer.BYTES;
+  private static final int CHECKSUM_LENGTH = Integer.BYTES;
+  private static final int MAX_PATH_LENGTH = 0xFFFF;
+
+  private final Path packDirectory;
+  private final int threshold;
+  private final long segmentSize;
+  private final double compactionThreshold;
+  private final DurabilityMode durabilityMode;
+  private final GroupCommitCoordinator groupCommitCoordinator;
+
+  private final Map<String, Location> index = new ConcurrentHashMap<>();
+  private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+  private final ReentrantLock appendLock = new ReentrantLock();
+  private final ReentrantReadWriteLock segmentLock = new ReentrantReadWriteLock();
+  private volatile Segment activeSegment;
+
+  /**
+   * Constructor.
+   *
+   * @param storageLocation      file storage location
+   * @param properties           packing properties
+   * @param durabilityProperties durability properties
+   */
+  public PackedBlobStore(@Value("${app.storage.location}") String storageLocation,
+      PackingProperties properties, DurabilityProperties durabilityProperties) {
+    this.packDirectory = Paths.get(storageLocation).resolve(PACK_DIRECTORY);
+    this.threshold = properties.getThreshold();
+    this.segmentSize = properties.getSegmentSize();
+    this.compactionThreshold = properties.getCompactionThreshold();
+    this.durabilityMode = durabilityProperties.getMode();
+    this.groupCommitCoordinator = durabilityMode == DurabilityMode.GROUP_COMMIT
+        ? new GroupCommitCoordinator("packed-group-commit",
+            durabilityProperties.getGroupCommitWindow(),
+            durabilityProperties.getGroupCommitMaxBatch())
+        : null;
+  }
+
+  /**
+   * Open the segment files and rebuild the index from them.
+   *
+   * @throws IOException if the segments cannot be read
+   */
+  @PostConstruct
+  public void open() throws IOException {
+    Files.createDirectories(packDirectory);
+    List<Path> segmentPaths;
+    try (Stream<Path> paths = Files.list(packDirectory)) {
+      segmentPaths = paths
+          .filter(path -> path.getFileName().toString().startsWith(SEGMENT_PREFIX))
+          .filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+          .sorted()
+          .toList();
+    }
+
+    for (int i = 0; i < segmentPaths.size(); i++) {
+      Segment segment = Segment.open(segmentPaths.get(i));
+      segments.put(segment.id, segment);
+      replay(segment, i == segmentPaths.size() - 1);
+    }
+
+    Segment lastSegment = segments.isEmpty() ? null : segments.lastEntry().getValue();
+    activeSegment = lastSegment != null && lastSegment.size < segmentSize
+        ? lastSegment
+        : createSegment(lastSegment == null ? 1 : lastSegment.id + 1);
+    log.info("Opened packed blob store with {} blobs in {} segments",
+        index.size(), segments.size());
+  }
+
+  /**
+   * Close all segment files.
+   */
+  @PreDestroy
+  public void close() {
+    if (groupCommitCoordinator != null) {
+      groupCommitCoordinator.close();
+    }
+    segmentLock.writeLock().lock();
+    try {
+      for (Segment segment : segments.values()) {
+        closeQuietly(segment);
+      }
+    } finally {
+      segmentLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Largest blob, in bytes, that is packed rather than stored in a file of its own.
+   *
+   * @return packing threshold
+   */
+  public int getThreshold() {
+    return threshold;
+  }
+
+  /**
+   * Store a blob, replacing any blob already stored at the path.
+   *
+   * @param storagePath storage path
+   * @param data        buffer holding the blob
+   * @param length      number of bytes in the buffer
+   * @throws IOException if the blob cannot be appended
+   */
+  public void put(String storagePath, byte[] data, int length) throws IOException {
+    byte[] record = encodeRecord(PUT, storagePath, data, length);
+    Location location;
+    appendLock.lock();
+    try {
+      location = append(record);
+      index(storagePath, location);
+    } finally {
+      appendLock.unlock();
+    }
+    sync(location);
+  }
+
+  /**
+   * Whether a blob is stored at the path.
+   *
+   * @param storagePath storage path
+   * @return true if the path is packed
+   */
+  public boolean contains(String storagePath) {
+    return index.containsKey(storagePath);
+  }
+
+  /**
+   * List the paths of all packed blobs.
+   *
+   * @return snapshot of the packed storage paths
+   */
+  public List<String> storagePaths() {
+    return List.copyOf(index.keySet());
+  }
+
+  /**
+   * Size of the blob stored at the path.
+   *
+   * @param storagePath storage path
+   * @return size in bytes, or -1 if the path is not packed
+   */
+  public long size(String storagePath) {
+    Location location = index.get(storagePath);
+    return location == null ? -1 : location.dataLength;
+  }
+
+  /**
+   * Read a range of the blob stored at the path.
+   *
+   * @param storagePath storage path
+   * @param offset      offset of the first byte to read
+   * @param length      maximum number of bytes to read
+   * @return the bytes read, or null if the path is not packed
+   * @throws IOException if the segment cannot be read
+   */
+  public byte[] read(String storagePath, long offset, long length) throws IOException {
+    segmentLock.readLock().lock();
+    try {
+      Location location = index.get(storagePath);
+      if (location == null) {
+        return null;
+      }
+      long start = Math.min(Math.max(offset, 0), location.dataLength);
+      ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(length, location.dataLength - start));
+      readFully(segments.get(location.segmentId).channel, buffer, location.dataOffset + start);
+      return buffer.array();
+    } finally {
+      segmentLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Delete the blob stored at the path by appending a tombstone for it.
+   *
+   * @param storagePath storage path
+   * @return true if a blob was deleted
+   * @throws IOException if the tombstone cannot be appended
+   */
+  public boolean delete(String storagePath) throws IOException {
+    Location tombstone;
+    appendLock.lock();
+    try {
+      Location location = index.remove(storagePath);
+      if (location == null) {
+        return false;
+      }
+      segments.get(location.segmentId).liveBytes.addAndGet(-location.recordLength);
+      tombstone = append(encodeRecord(DELETE, storagePath, new byte[0], 0));
+    } finally {
+      appendLock.unlock();
+    }
+    sync(tombstone);
+    return true;
+  }
+
+  /**
+   * Compact the sealed segments in which the share of dead records, left behind by deleted and
+   * replaced blobs, exceeds the compaction threshold.
+   */
+  @Scheduled(fixedDelayString = "${file.storage.packing.compaction-interval:PT10M}")
+  public void compact() {
+    for (Segment segment : List.copyOf(segments.values())) {
+      if (segment == activeSegment || segment.size == 0) {
+        continue;
+      }
+      double deadShare = 1 - (double) segment.liveBytes.get() / segment.size;
+      if (deadShare >= compactionThreshold) {
+        try {
+          compact(segment);
+        } catch (IOException | UncheckedIOException e) {
+          log.warn("Failed to compact packed segment: {}", segment.path, e);
+        }
+      }
+    }
+  }
+
+  private void compact(Segment segment) throws IOException {
+    int moved = 0;
+    for (Record record : readRecords(segment, false).records) {
+      appendLock.lock();
+      try {
+        if (record.type == PUT) {
+          Location location = index.get(record.path);
+          if (location != null && location.segmentId == segment.id
+              && location.recordOffset == record.offset) {
+            index(record.path, append(record.bytes));
+            moved++;
+          }
+        } else if (!index.containsKey(record.path) && olderSegmentHoldsPut(segment, record.path)) {
+          // Without the tombstone, the put it shadows would come back on the next startup
+          append(record.bytes);
+        }
+      } finally {
+        appendLock.unlock();
+      }
+    }
+
+    // The moved records must be on disk before the only other copy of them is deleted
+    for (Segment newerSegment : segments.tailMap(segment.id, false).values()) {
+      newerSegment.channel.force(false);
+    }
+    segmentLock.writeLock().lock();
+    try {
+      segments.remove(segment.id);
+      closeQuietly(segment);
+      Files.deleteIfExists(segment.path);
+    } finally {
+      segmentLock.writeLock().unlock();
+    }
+    log.info("Compacted packed segment {}, moving {} live blobs", segment.path.getFileName(),
+        moved);
+  }
+
+  private boolean olderSegmentHoldsPut(Segment segment, String storagePath) {
+    for (Segment olderSegment : segments.headMap(segment.id).values()) {
+      if (olderSegment.putPaths.contains(storagePath)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void replay(Segment segment, boolean newest) throws IOException {
+    RecordScan scan = readRecords(segment, true);
+    for (Record record : scan.records) {
+      if (record.type == PUT) {
+        index(record.path, new Location(segment.id, record.offset,
+            record.offset + HEADER_LENGTH + record.pathLength, record.bytes.length,
+            record.dataLength));
+      } else {
+        Location location = index.remove(record.path);
+        if (location != null) {
+          segments.get(location.segmentId).liveBytes.addAndGet(-location.recordLength);
+        }
+      }
+    }
+
+    if (scan.validLength < segment.size) {
+      if (newest) {
+        log.warn("Cutting off {} bytes of torn records at the end of packed segment {}",
+            segment.size - scan.validLength, segment.path);
+        segment.channel.truncate(scan.validLength);
+        segment.size = scan.validLength;
+      } else {
+        log.error("Packed segment {} is corrupt after offset {}", segment.path,
+            scan.validLength);
+      }
+    }
+  }
+
+  private void index(String storagePath, Location location) {
+    Segment segment = segments.get(location.segmentId);
+    segment.liveBytes.addAndGet(location.recordLength);
+    segment.putPaths.add(storagePath);
+    Location previous = index.put(storagePath, location);
+    if (previous != null) {
+      segments.get(previous.segmentId).liveBytes.addAndGet(-previous.recordLength);
+    }
+  }
+
+  private Location append(byte[] record) throws IOException {
+    Segment segment = activeSegment;
+    if (segment.size > 0 && segment.size + record.length > segmentSize) {
+      segment = createSegment(segment.id + 1);
+      activeSegment = segment;
+    }
+
+    long recordOffset = segment.size;
+    ByteBuffer buffer = ByteBuffer.wrap(record);
+    while (buffer.hasRemaining()) {
+      segment.channel.write(buffer, recordOffset + buffer.position());
+    }
+    segment.size += record.length;
+
+    int pathLength = ByteBuffer.wrap(record, Byte.BYTES, Short.BYTES).getShort() & 0xFFFF;
+    return new Location(segment.id, recordOffset, recordOffset + HEADER_LENGTH + pathLength,
+        record.length, record.length - HEADER_LENGTH - pathLength - CHECKSUM_LENGTH);
+  }
+
+  /**
+   * Flush an appended record to disk. This happens outside the append lock, so that appends from
+   * other threads can join the same flush.
+   */
+  private void sync(Location location) throws IOException {
+    if (durabilityMode == DurabilityMode.NONE) {
+      return;
+    }
+    segmentLock.readLock().lock();
+    try {
+      Segment segment = segments.get(location.segmentId);
+      if (segment == null) {
+        // Compacted already, which flushed the record where it was moved to
+        return;
+      }
+      if (durabilityMode == DurabilityMode.GROUP_COMMIT) {
+        groupCommitCoordinator.commit(segment.channel);
+      } else {
+        segment.channel.force(false);
+      }
+    } finally {
+      segmentLock.readLock().unlock();
+    }
+  }
+
+  private Segment createSegment(long id) throws IOException {
+    Segment segment = Segment.open(
+        packDirectory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX)));
+    segments.put(segment.id, segment);
+    if (durabilityMode != DurabilityMode.NONE) {
+      FileSync.syncDirectory(packDirectory);
+    }
+    return segment;
+  }
+
+  private static byte[] encodeRecord(byte type, String storagePath, byte[] data, int length) {
+    byte[] path = storagePath.getBytes(StandardCharsets.UTF_8);
+    if (path.length > MAX_PATH_LENGTH) {
+      throw new IllegalArgumentException("Storage path is too long: " + storagePath);
+    }
+    ByteBuffer record = ByteBuffer.allocate(HEADER_LENGTH + path.length + length
+        + CHECKSUM_LENGTH);
+    record.put(type).putShort((short) path.length).putInt(length).put(path).put(data, 0, length);
+    CRC32C checksum = new CRC32C();
+    checksum.update(record.array(), 0, record.position());
+    record.putInt((int) checksum.getValue());
+    return record.array();
+  }
+
+  private static RecordScan readRecords(Segment segment, boolean stopAtDamage)
+      throws IOException {
+    List<Record> records = new ArrayList<>();
+    long offset = 0;
+    try (InputStream segmentStream = Files.newInputStream(segment.path);
+        DataInputStream input = new DataInputStream(new BufferedInputStream(segmentStream))) {
+      while (offset + HEADER_LENGTH + CHECKSUM_LENGTH <= segment.size) {
+        byte type = input.readByte();
+        int pathLength = input.readUnsignedShort();
+        int dataLength = input.readInt();
+        long recordLength = (long) HEADER_LENGTH + pathLength + dataLength + CHECKSUM_LENGTH;
+        if ((type != PUT && type != DELETE) || dataLength < 0
+            || offset + recordLength > segment.size) {
+          break;
+        }
+
+        byte[] bytes = new byte[(int) recordLength];
+        ByteBuffer.wrap(bytes).put(type).putShort((short) pathLength).putInt(dataLength);
+        input.readFully(bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH);
+        CRC32C checksum = new CRC32C();
+        checksum.update(bytes, 0, bytes.length - CHECKSUM_LENGTH);
+        int storedChecksum = ByteBuffer.wrap(bytes, bytes.length - CHECKSUM_LENGTH,
+            CHECKSUM_LENGTH).getInt();
+        if (storedChecksum != (int) checksum.getValue()) {
+          break;
+        }
+
+        String path = new String(bytes, HEADER_LENGTH, pathLength, StandardCharsets.UTF_8);
+        records.add(new Record(type, path, pathLength, dataLength, offset, bytes));
+        offset += recordLength;
+      }
+    } catch (EOFException e) {
+      // The segment ends in a torn record
+    }
+    if (!stopAtDamage && offset < segment.size) {
+      throw new IOException("Packed segment is corrupt after offset " + offset);
+    }
+    return new RecordScan(records, offset);
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new EOFException("Unexpected end of packed segment");
+      }
+    }
+  }
+
+  private static void closeQuietly(Segment segment) {
+    try {
+      segment.channel.close();
+    } catch (IOException e) {
+      log.warn("Failed to close packed segment: {}", segment.path, e);
+    }
+  }
+
+  /**
+   * Position of a blob within the segments.
+   */
+  private record Location(long segmentId, long recordOffset, long dataOffset, int recordLength,
+                          int dataLength) {
+
+  }
+
+  /**
+   * Record read back from a segment.
+   */
+  private record Record(byte type, String path, int pathLength, int dataLength, long offset,
+                        byte[] bytes) {
+
+  }
+
+  /**
+   * Records of a segment, up to the first damaged one.
+   */
+  private record RecordScan(List<Record> records, long validLength) {
+
+  }
+
+  /**
+   * Segment file, with the number of bytes taken by records that are still live and the paths of
+   * all puts it holds, live or not.
+   */
+  private static final class Segment {
+
+    private final long id;
+    private final Path path;
+    private final FileChannel channel;
+    private final AtomicLong liveBytes = new AtomicLong();
+    private final Set<String> putPaths = ConcurrentHashMap.newKeySet();
+    private volatile long size;
+
+    private Segment(long id, Path path, FileChannel channel, long size) {
+      this.id = id;
+      this.path = path;
+      this.channel = channel;
+      this.size = size;
+    }
+
+    private static Segment open(Path path) throws IOException {
+      String name = path.getFileName().toString();
+      long id = Long.parseLong(
+          name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+      FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+          StandardOpenOption.READ, StandardOpenOption.WRITE);
+      return new Segment(id, path, channel, channel.size());
+    }
+  }
+}
@@ -0,0 +1,562 @@
+package com.mvasilakos.filestorage.storage;
+
+import com.mvasilakos.filestorage.config.BlockingExecutors;
+import com.mvasilakos.filestorage.config.S3Properties;
+import com.mvasilakos.filestorage.exception.FileStorageException;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandler;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+
+
+/**
+ * Blob store backed by an S3-compatible object store, such as Amazon S3 or MinIO, so that storage
+ * scales independently of the application nodes. Each blob is an object named after its storage
+ * path, under an optional key prefix.
+ *
+ * <p>Blobs up to one part in size are uploaded with a single PUT. Larger blobs are uploaded as a
+ * multipart upload whose parts are sent in parallel while the writer keeps producing content,
+ * with a bounded number of parts in flight; a failed upload is aborted so that no parts are left
+ * behind. Reads of up to one part are streamed from a single ranged GET, while larger reads fetch
+ * consecutive part-sized ranges in parallel, a bounded number ahead of the reader that grows only
+ * while the reader keeps up.
+ *
+ * <p>Requests are signed with AWS Signature Version 4 and sent over HTTP/1.1, which object stores
+ * serve over many parallel connections better than multiplexed over one.
+ */
+@Slf4j
+@Component
+@Primary
+@ConditionalOnProperty(prefix = "file.storage", name = "backend", havingValue = "S3")
+public class S3BlobStore implements BlobStore {
+
+  private static final Pattern UPLOAD_ID = Pattern.compile("<UploadId>([^<]+)</UploadId>");
+  private static final String EMPTY_PAYLOAD_HASH = S3RequestSigner.sha256Hex(new byte[0]);
+  private static final int ERROR_BODY_LIMIT = 1024;
+
+  private final S3Properties properties;
+  private final S3RequestSigner signer;
+  private final HttpClient httpClient;
+  private final ExecutorService transferExecutor;
+
+  /**
+   * Constructor.
+   *
+   * @param properties     S3 properties
+   * @param virtualThreads whether to run every transfer on a virtual thread of its own
+   */
+  public S3BlobStore(S3Properties properties,
+      @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+    this.properties = properties;
+    this.signer = new S3RequestSigner(properties.getAccessKey(), properties.getSecretKey(),
+        properties.getRegion());
+    this.transferExecutor = BlockingExecutors.newExecutor("s3-transfer", virtualThreads);
+    this.httpClient = HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_1_1)
+        .connectTimeout(properties.getRequestTimeout())
+        .executor(transferExecutor)
+        .build();
+  }
+
+  /**
+   * Stop the transfer threads.
+   */
+  @PreDestroy
+  public void close() {
+    transferExecutor.shutdownNow();
+  }
+
+  /**
+   * Store a blob by streaming its content, uploading it in parallel parts if it is larger than
+   * one part.
+   *
+   * @param storagePath storage path
+   * @param writer      writes the content of the blob
+   * @return number of bytes stored
+   */
+  @Override
+  public long storeBlob(String storagePath, ContentWriter writer) {
+    MultipartUploadStream outputStream = new MultipartUploadStream(storagePath);
+    boolean stored = false;
+    try {
+      writer.writeTo(StreamUtils.nonClosing(outputStream));
+      long size = outputStream.complete();
+      stored = true;
+      return size;
+    } catch (IOException e) {
+      throw new FileStorageException("Failed to store encrypted file", e);
+    } finally {
+      if (!stored) {
+        outputStream.abort();
+      }
+    }
+  }
+
+  /**
+   * Open a stored blob for streaming reads.
+   *
+   * @param storagePath storage path
+   * @return stream over the stored blob
+   */
+  @Override
+  public InputStream openFile(String storagePath) {
+    return openFileRange(storagePath, 0, getFileSize(storagePath));
+  }
+
+  /**
+   * Open a byte range of a stored blob for streaming reads, fetching ranges larger than one part
+   * in parallel.
+   *
+   * @param storagePath storage path
+   * @param offset      offset of the first byte to read
+   * @param length      number of bytes to read
+   * @return stream over the requested range of the stored blob
+   */
+  @Override
+  public InputStream openFileRange(String storagePath, long offset, long length) {
+    if (length <= 0) {
+      return InputStream.nullInputStream();
+    }
+    if (length <= properties.getPartSize()) {
+      try {
+        return getRange(storagePath, offset, length, BodyHandlers.ofInputStream()).body();
+      } catch (IOException e) {
+        throw new FileStorageException("Failed to read encrypted file", e);
+      }
+    }
+    return new ParallelRangeInputStream(storagePath, offset, length);
+  }
+
+  /**
+   * Get stored blob size.
+   *
+   * @param storagePath storage path
+   * @return size in bytes
+   */
+  @Override
+  public long getFileSize(String storagePath) {
+    try {
+      HttpResponse<String> response = send("HEAD", objectUri(storagePath, null), Map.of(),
+          BodyPublishers.noBody(), EMPTY_PAYLOAD_HASH, BodyHandlers.ofString());
+      checkStatus(response, storagePath, response.body());
+      return response.headers().firstValueAsLong("Content-Length")
+          .orElseThrow(() -> new FileStorageException(
+              "Object store returned no size for path: " + storagePath));
+    } catch (IOException e) {
+      throw new FileStorageException("Failed to get file size", e);
+    }
+  }
+
+  /**
+   * Delete a stored blob, if it exists.
+   *
+   * @param storagePath storage path
+   */
+  @Override
+  public void deleteFile(String storagePath) {
+    try {
+      HttpResponse<String> response = send("DELETE", objectUri(storagePath, null), Map.of(),
+          BodyPublishers.noBody(), EMPTY_PAYLOAD_HASH, BodyHandlers.ofString());
+      if (response.statusCode() != 404) {
+        checkStatus(response, storagePath, response.body());
+      }
+    } catch (IOException e) {
+      throw new FileStorageException("Failed to delete file", e);
+    }
+  }
+
+  /**
+   * Check whether a blob is stored at the given path.
+   *
+   * @param storagePath storage path
+   * @return true if the blob exists
+   */
+  @Override
+  public boolean fileExists(String storagePath) {
+    try {
+      HttpResponse<String> response = send("HEAD", objectUri(storagePath, null), Map.of(),
+          BodyPublishers.noBody(), EMPTY_PAYLOAD_HASH, BodyHandlers.ofString());
+      if (response.statusCode() == 404) {
+        return false;
+      }
+      checkStatus(response, storagePath, response.body());
+      return true;
+    } catch (IOException e) {
+      throw new FileStorageException("Failed to check file", e);
+    }
+  }
+
+  private <T> HttpResponse<T> getRange(String storagePath, long offset, long length,
+      BodyHandler<T> bodyHandler) throws IOException {
+    HttpResponse<T> response = send("GET", objectUri(storagePath, null),
+        Map.of("Range", "bytes=" + offset + "-" + (offset + length - 1)), BodyPublishers.noBody(),
+        EMPTY_PAYLOAD_HASH, bodyHandler);
+    if (response.statusCode() >= 300) {
+      Object body = response.body();
+      checkStatus(response, storagePath, body instanceof InputStream errorStream
+          ? readError(errorStream)
+          : new String((byte[]) body, StandardCharsets.UTF_8));
+    }
+    return response;
+  }
+
+  private String initiateUpload(String storagePath) throws IOException {
+    HttpResponse<String> response = send("POST", objectUri(storagePath, "uploads"), Map.of(),
+        BodyPublishers.noBody(), EMPTY_PAYLOAD_HASH, BodyHandlers.ofString());
+    checkStatus(response, storagePath, response.body());
+    Matcher matcher = UPLOAD_ID.matcher(response.body());
+    if (!matcher.find()) {
+      throw new FileStorageException("Object store returned no upload id for path: "
+          + storagePath);
+    }
+    return matcher.group(1);
+  }
+
+  private String uploadPart(String storagePath, String uploadId, int partNumber, byte[] part,
+      int length) throws IOException {
+    HttpResponse<String> response = send("PUT", objectUri(storagePath,
+            "partNumber=" + partNumber + "&uploadId=" + S3RequestSigner.encode(uploadId, false)),
+        Map.of(), BodyPublishers.ofByteArray(part, 0, length), S3RequestSigner.UNSIGNED_PAYLOAD,
+        BodyHandlers.ofString());
+    checkStatus(response, storagePath, response.body());
+    return response.headers().firstValue("ETag")
+        .orElseThrow(() -> new FileStorageException(
+            "Object store returned no ETag for part " + partNumber + " of path: " + storagePath));
+  }
+
+  private void completeUpload(String storagePath, String uploadId, List<String> etags)
+      throws IOException {
+    StringBuilder body = new StringBuilder("<CompleteMultipartUpload>");
+    for (int i = 0; i < etags.size(); i++) {
+      body.append("<Part><PartNumber>").append(i + 1).append("</PartNumber><ETag>")
+          .append(etags.get(i)).append("</ETag></Part>");
+    }
+    byte[] payload = body.append("</CompleteMultipartUpload>").toString()
+        .getBytes(StandardCharsets.UTF_8);
+    HttpResponse<String> response = send("POST",
+        objectUri(storagePath, "uploadId=" + S3RequestSigner.encode(uploadId, false)), Map.of(),
+        BodyPublishers.ofByteArray(payload), S3RequestSigner.sha256Hex(payload),
+        BodyHandlers.ofString());
+    checkStatus(response, storagePath, response.body());
+    // Completing an upload can fail after the response status was already sent
+    if (response.body().contains("<Error>")) {
+      throw new FileStorageException("Failed to complete upload of path " + storagePath + ": "
+          + response.body());
+    }
+  }
+
+  private void abortUpload(String storagePath, String uploadId) {
+    try {
+      HttpResponse<String> response = send("DELETE",
+          objectUri(storagePath, "uploadId=" + S3RequestSigner.encode(uploadId, false)), Map.of(),
+          BodyPublishers.noBody(), EMPTY_PAYLOAD_HASH,
+          BodyHandlers.ofString());
+      if (response.statusCode() != 404) {
+        checkStatus(response, storagePath, response.body());
+      }
+    } catch (IOException | RuntimeException e) {
+      log.warn("Failed to abort upload {} of path {}", uploadId, storagePath, e);
+    }
+  }
+
+  private void putObject(String storagePath, byte[] content, int length) throws IOException {
+    HttpResponse<String> response = send("PUT", objectUri(storagePath, null), Map.of(),
+        BodyPublishers.ofByteArray(content, 0, length), S3RequestSigner.UNSIGNED_PAYLOAD,
+        BodyHandlers.ofString());
+    checkStatus(response, storagePath, response.body());
+  }
+
+  private <T> HttpResponse<T> send(String method, URI uri, Map<String, String> headers,
+      BodyPublisher body, String payloadHash, BodyHandler<T> bodyHandler) throws IOException {
+    HttpRequest.Builder request = HttpRequest.newBuilder(uri)
+        .method(method, body)
+        .timeout(properties.getRequestTimeout());
+    signer.sign(method, uri, headers, payloadHash, Instant.now()).forEach(request::header);
+    try {
+      return httpClient.send(request.build(), bodyHandler);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted during " + method + " " + uri);
+    }
+  }
+
+  private URI objectUri(String storagePath, String query) {
+    String key = S3RequestSigner.encode(properties.getPrefix() + storagePath, true);
+    URI endpoint = URI.create(properties.getEndpoint());
+    String uri = properties.isPathStyleAccess()
+        ? endpoint.getScheme() + "://" + endpoint.getRawAuthority() + "/" + properties.getBucket()
+            + "/" + key
+        : endpoint.getScheme() + "://" + properties.getBucket() + "." + endpoint.getRawAuthority()
+            + "/" + key;
+    return URI.create(query == null ? uri : uri + "?" + query);
+  }
+
+  private static void checkStatus(HttpResponse<?> response, String storagePath, String body) {
+    if (response.statusCode() == 404) {
+      throw new FileStorageException("Stored file not found in object store at path: "
+          + storagePath);
+    }
+    if (response.statusCode() >= 300) {
+      throw new FileStorageException("Object store request " + response.request().method() + " "
+          + storagePath + " failed with status " + response.statusCode() + ": " + body);
+    }
+  }
+
+  private static String readError(InputStream errorStream) throws IOException {
+    try (errorStream) {
+      return new String(errorStream.readNBytes(ERROR_BODY_LIMIT), StandardCharsets.UTF_8);
+    }
+  }
+
+  private static IOException unwrap(CompletionException e) {
+    Throwable cause = e.getCause();
+    if (cause instanceof RuntimeException runtimeException) {
+      throw runtimeException;
+    }
+    return cause instanceof IOException ioException ? ioException : new IOException(cause);
+  }
+
+  /**
+   * Buffers the content of a blob part by part. The first part is only uploaded once the content
+   * outgrows it, so that small blobs take a single PUT; from then on every full part is uploaded
+   * in the background, blocking the writer while too many parts are in flight.
+   */
+  private final class MultipartUploadStream extends OutputStream {
+
+    private final String storagePath;
+    private final Semaphore partsInFlight = new Semaphore(properties.getUploadParallelism());
+    private final List<CompletableFuture<String>> parts = new ArrayList<>();
+    private byte[] buffer = new byte[properties.getPartSize()];
+    private int count;
+    private long size;
+    private String uploadId;
+
+    private MultipartUploadStream(String storagePath) {
+      this.storagePath = storagePath;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
+        if (count == buffer.length) {
+          uploadBufferedPart();
+        }
+        int copied = Math.min(len, buffer.length - count);
+        System.arraycopy(b, off, buffer, count, copied);
+        count += copied;
+        size += copied;
+        off += copied;
+        len -= copied;
+      }
+    }
+
+    private void uploadBufferedPart() throws IOException {
+      if (uploadId == null) {
+        uploadId = initiateUpload(storagePath);
+      }
+      // Fail fast instead of uploading the rest of a blob that can no longer be completed
+      for (CompletableFuture<String> part : parts) {
+        if (part.isCompletedExceptionally()) {
+          awaitParts();
+        }
+      }
+      try {
+        partsInFlight.acquire();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while uploading " + storagePath);
+      }
+
+      byte[] part = buffer;
+      int length = count;
+      int partNumber = parts.size() + 1;
+      String partUploadId = uploadId;
+      parts.add(CompletableFuture.supplyAsync(() -> {
+        try {
+          return uploadPart(storagePath, partUploadId, partNumber, part, length);
+        } catch (IOException e) {
+          throw new CompletionException(e);
+        } finally {
+          partsInFlight.release();
+        }
+      }, transferExecutor));
+      buffer = new byte[properties.getPartSize()];
+      count = 0;
+    }
+
+    private List<String> awaitParts() throws IOException {
+      List<String> etags = new ArrayList<>(parts.size());
+      try {
+        for (CompletableFuture<String> part : parts) {
+          etags.add(part.join());
+        }
+      } catch (CompletionException e) {
+        throw unwrap(e);
+      }
+      return etags;
+    }
+
+    private long complete() throws IOException {
+      if (uploadId == null) {
+        putObject(storagePath, buffer, count);
+        return size;
+      }
+      if (count > 0) {
+        uploadBufferedPart();
+      }
+      completeUpload(storagePath, uploadId, awaitParts());
+      return size;
+    }
+
+    private void abort() {
+      if (uploadId == null) {
+        return;
+      }
+      // Parts still uploading would otherwise outlive the abort
+      for (CompletableFuture<String> part : parts) {
+        try {
+          part.join();
+        } catch (CompletionException | CancellationException e) {
+          log.debug("Part of aborted upload {} failed", uploadId, e);
+        }
+      }
+      abortUpload(storagePath, uploadId);
+    }
+  }
+
+  /**
+   * Reads a large range of a blob as consecutive part-sized ranges fetched in parallel, keeping a
+   * bounded number of them fetched or in flight ahead of the reader. One range is kept ahead at
+   * first, and twice as many whenever the reader has to wait for a range, up to the download
+   * parallelism, so a slow reader, such as a download to a slow client, holds two ranges in memory
+   * while a fast one gets all fetches it is allowed in parallel.
+   */
+  private final class ParallelRangeInputStream extends InputStream {
+
+    private final String storagePath;
+    private final long end;
+    private final Deque<CompletableFuture<byte[]>> pending = new ArrayDeque<>();
+    private long nextOffset;
+    private byte[] chunk = new byte[0];
+    private int position;
+    private int readAhead = 1;
+    private boolean started;
+
+    private ParallelRangeInputStream(String storagePath, long offset, long length) {
+      this.storagePath = storagePath;
+      this.nextOffset = offset;
+      this.end = offset + length;
+      fetchNext();
+    }
+
+    private boolean fetchNext() {
+      if (nextOffset >= end) {
+        return false;
+      }
+      long offset = nextOffset;
+      long length = Math.min(properties.getPartSize(), end - offset);
+      nextOffset += length;
+      pending.add(CompletableFuture.supplyAsync(() -> {
+        try {
+          byte[] range = getRange(storagePath, offset, length, BodyHandlers.ofByteArray()).body();
+          if (range.length != length) {
+            throw new IOException("Object store returned " + range.length + " bytes instead of "
+                + length + " at offset " + offset + " of path: " + storagePath);
+          }
+          return range;
+        } catch (IOException e) {
+          throw new CompletionException(e);
+        }
+      }, transferExecutor));
+      return true;
+    }
+
+    private boolean nextChunk() throws IOException {
+      CompletableFuture<byte[]> next = pending.poll();
+      if (next == null) {
+        return false;
+      }
+      // Waiting for the first range only says that reading started
+      if (!next.isDone() && started) {
+        readAhead = Math.min(2 * readAhead, Math.max(1, properties.getDownloadParallelism()));
+      }
+      started = true;
+      try {
+        chunk = next.join();
+      } catch (CompletionException e) {
+        throw unwrap(e);
+      }
+      position = 0;
+      while (pending.size() < readAhead && fetchNext()) {
+        // Fill the read-ahead window
+      }
+      return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+      while (position == chunk.length) {
+        if (!nextChunk()) {
+          return -1;
+        }
+      }
+      return chunk[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      while (position == chunk.length) {
+        if (!nextChunk()) {
+          return -1;
+        }
+      }
+      int copied = Math.min(len, chunk.length - position);
+      System.arraycopy(chunk, position, b, off, copied);
+      position += copied;
+      return copied;
+    }
+
+    @Override
+    public void close() {
+      pending.forEach(range -> range.cancel(true));
+      pending.clear();
+    }
+  }
+}
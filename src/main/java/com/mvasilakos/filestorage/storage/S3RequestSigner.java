@@ -0,0 +1,165 @@
+package com.mvasilakos.filestorage.storage;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+
+/**
+ * Signs requests to S3-compatible object stores with AWS Signature Version 4, sent in the
+ * Authorization header. Payloads are either hashed by the caller or sent unsigned, which S3 and
+ * its compatible stores accept and which spares hashing every uploaded part.
+ */
+final class S3RequestSigner {
+
+  /**
+   * Payload hash of requests whose payload is not signed.
+   */
+  static final String UNSIGNED_PAYLOAD = "UNSIGNED-PAYLOAD";
+
+  private static final String ALGORITHM = "AWS4-HMAC-SHA256";
+  private static final String SERVICE = "s3";
+  private static final DateTimeFormatter DATE_TIME =
+      DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+  private static final DateTimeFormatter DATE =
+      DateTimeFormatter.ofPattern("yyyyMMdd").withZone(ZoneOffset.UTC);
+
+  private final String accessKey;
+  private final String secretKey;
+  private final String region;
+
+  S3RequestSigner(String accessKey, String secretKey, String region) {
+    this.accessKey = accessKey;
+    this.secretKey = secretKey;
+    this.region = region;
+  }
+
+  /**
+   * Compute the headers that authenticate a request.
+   *
+   * @param method      HTTP method
+   * @param uri         request URI, with its path and query already percent-encoded
+   * @param headers     further headers to sign, such as Range
+   * @param payloadHash hex encoded SHA-256 digest of the payload, or {@link #UNSIGNED_PAYLOAD}
+   * @param time        time of the request
+   * @return headers to send with the request, including the signed ones
+   */
+  Map<String, String> sign(String method, URI uri, Map<String, String> headers,
+      String payloadHash, Instant time) {
+    String dateTime = DATE_TIME.format(time);
+    String scope = DATE.format(time) + "/" + region + "/" + SERVICE + "/aws4_request";
+
+    Map<String, String> signedHeaders = new TreeMap<>();
+    headers.forEach((name, value) -> signedHeaders.put(name.toLowerCase(), value.trim()));
+    signedHeaders.put("host", host(uri));
+    signedHeaders.put("x-amz-content-sha256", payloadHash);
+    signedHeaders.put("x-amz-date", dateTime);
+    String signedHeaderNames = String.join(";", signedHeaders.keySet());
+
+    String canonicalRequest = String.join("\n",
+        method,
+        uri.getRawPath().isEmpty() ? "/" : uri.getRawPath(),
+        canonicalQuery(uri.getRawQuery()),
+        signedHeaders.entrySet().stream()
+            .map(header -> header.getKey() + ":" + header.getValue() + "\n")
+            .collect(Collectors.joining()),
+        signedHeaderNames,
+        payloadHash);
+    String stringToSign = String.join("\n", ALGORITHM, dateTime, scope,
+        sha256Hex(canonicalRequest.getBytes(StandardCharsets.UTF_8)));
+
+    byte[] signingKey = hmac(("AWS4" + secretKey).getBytes(StandardCharsets.UTF_8),
+        DATE.format(time));
+    signingKey = hmac(signingKey, region);
+    signingKey = hmac(signingKey, SERVICE);
+    signingKey = hmac(signingKey, "aws4_request");
+    String signature = HexFormat.of().formatHex(hmac(signingKey, stringToSign));
+
+    Map<String, String> requestHeaders = new LinkedHashMap<>(headers);
+    requestHeaders.put("x-amz-content-sha256", payloadHash);
+    requestHeaders.put("x-amz-date", dateTime);
+    requestHeaders.put("Authorization", ALGORITHM + " Credential=" + accessKey + "/" + scope
+        + ", SignedHeaders=" + signedHeaderNames + ", Signature=" + signature);
+    return requestHeaders;
+  }
+
+  /**
+   * Hex encoded SHA-256 digest of a payload.
+   *
+   * @param payload payload
+   * @return payload hash
+   */
+  static String sha256Hex(byte[] payload) {
+    try {
+      return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(payload));
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+
+  /**
+   * Percent-encode a string the way Signature Version 4 expects, leaving only unreserved
+   * characters and, optionally, slashes as they are.
+   *
+   * @param value       string to encode
+   * @param keepSlashes whether slashes separate path segments and are left as they are
+   * @return encoded string
+   */
+  static String encode(String value, boolean keepSlashes) {
+    StringBuilder encoded = new StringBuilder(value.length());
+    for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+      char c = (char) (b & 0xFF);
+      if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+          || c == '-' || c == '_' || c == '.' || c == '~' || (keepSlashes && c == '/')) {
+        encoded.append(c);
+      } else {
+        encoded.append('%').append(HexFormat.of().withUpperCase().toHexDigits(b));
+      }
+    }
+    return encoded.toString();
+  }
+
+  /**
+   * Value of the Host header that the HTTP client sends for the URI, which leaves out default
+   * ports.
+   */
+  private static String host(URI uri) {
+    int port = uri.getPort();
+    boolean defaultPort = port == -1
+        || ("http".equals(uri.getScheme()) && port == 80)
+        || ("https".equals(uri.getScheme()) && port == 443);
+    return defaultPort ? uri.getHost() : uri.getHost() + ":" + port;
+  }
+
+  private static String canonicalQuery(String rawQuery) {
+    if (rawQuery == null || rawQuery.isEmpty()) {
+      return "";
+    }
+    return Arrays.stream(rawQuery.split("&"))
+        .map(parameter -> parameter.contains("=") ? parameter : parameter + "=")
+        .sorted()
+        .collect(Collectors.joining("&"));
+  }
+
+  private static byte[] hmac(byte[] key, String data) {
+    try {
+      Mac mac = Mac.getInstance("HmacSHA256");
+      mac.init(new SecretKeySpec(key, "HmacSHA256"));
+      return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("HMAC-SHA256 is not available", e);
+    }
+  }
+}
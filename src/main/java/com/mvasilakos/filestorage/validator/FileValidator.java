@@ -36,43 +36,86 @@ public class FileValidator {
    * Make sure the file is of one of the allowed file types.
    *
    * @param file file
+   * @return content type detected from the file's content
    * @throws InvalidFileException thrown if file type is not allowed
    */
-  public void validateFile(MultipartFile file) throws InvalidFileException {
+  public String validateFile(MultipartFile file) throws InvalidFileException {
     if (file.isEmpty()) {
       throw new InvalidFileException("Cannot store empty file");
     }
-    if (file.getOriginalFilename() == null || file.getOriginalFilename().trim().isEmpty()) {
-      throw new InvalidFileException("File must have a valid filename");
-    }
+    validateFilename(file.getOriginalFilename());
 
     try (InputStream is = file.getInputStream()) {
-      // Tika detects MIME type based on content, not just filename
-      String detectedType = tika.detect(is, file.getOriginalFilename());
+      String detectedType = detectAllowedType(is, file.getOriginalFilename());
+      validateFileSize(file.getSize());
+      return detectedType;
 
-      if (!ALLOWED_TYPES.contains(detectedType)) {
-        throw new InvalidFileException("File type not allowed: " + detectedType);
-      }
+    } catch (IOException e) {
+      throw new InvalidFileException("Could not analyze file");
+    }
+  }
 
-      validateFileSize(file);
+  /**
+   * Make sure a file sent as a raw request body may be stored, judging by its name and declared
+   * length only, so that it can be rejected before any of its content is read.
+   *
+   * @param filename      name of the file
+   * @param contentLength declared length of the file
+   * @throws InvalidFileException thrown if the filename is missing or the file is empty or too
+   *                              large
+   */
+  public void validateDeclaredFile(String filename, long contentLength)
+      throws InvalidFileException {
+    validateFilename(filename);
+    validateFileSize(contentLength);
+  }
 
+  /**
+   * Make sure a streamed file is of one of the allowed file types. The type is detected from the
+   * leading bytes, and the stream is reset to where it was, so it must support mark and reset.
+   *
+   * @param content  content of the file
+   * @param filename name of the file
+   * @return content type detected from the file's content
+   * @throws InvalidFileException thrown if file type is not allowed
+   */
+  public String validateContentType(InputStream content, String filename)
+      throws InvalidFileException {
+    if (!content.markSupported()) {
+      throw new IllegalArgumentException("Content type detection needs mark and reset");
+    }
+    try {
+      return detectAllowedType(content, filename);
     } catch (IOException e) {
       throw new InvalidFileException("Could not analyze file");
     }
   }
 
-  private void validateFileSize(MultipartFile file) throws InvalidFileException {
-    if (file.isEmpty()) {
-      throw new InvalidFileException("File is empty");
+  private void validateFilename(String filename) throws InvalidFileException {
+    if (filename == null || filename.trim().isEmpty()) {
+      throw new InvalidFileException("File must have a valid filename");
+    }
+  }
+
+  private String detectAllowedType(InputStream content, String filename) throws IOException {
+    // Tika detects MIME type based on content, not just filename
+    String detectedType = tika.detect(content, filename);
+
+    if (!ALLOWED_TYPES.contains(detectedType)) {
+      throw new InvalidFileException("File type not allowed: " + detectedType);
     }
-    if (file.getSize() == 0) {
-      throw new InvalidFileException("File has zero bytes");
+    return detectedType;
+  }
+
+  private void validateFileSize(long fileSize) throws InvalidFileException {
+    if (fileSize == 0) {
+      throw new InvalidFileException("File is empty");
     }
-    if (file.getSize() > maxFileSize) {
+    if (fileSize > maxFileSize) {
       throw new InvalidFileException(
           String.format("File too large. Maximum allowed size: %s, actual size: %s",
               formatFileSize(maxFileSize),
-              formatFileSize(file.getSize())
+              formatFileSize(fileSize)
           )
       );
     }
@@ -0,0 +1,18 @@
+-- V10__create_blob_rewrite_jobs_table.sql
+-- Description: Create blob_rewrite_jobs table recording the progress of background blob rewrites
+
+CREATE TABLE blob_rewrite_jobs (
+    id UUID PRIMARY KEY,
+    status VARCHAR(10) NOT NULL,
+    rewrite_all BOOLEAN NOT NULL,
+    last_file_id UUID NOT NULL,
+    scanned BIGINT NOT NULL DEFAULT 0,
+    rewritten BIGINT NOT NULL DEFAULT 0,
+    failed BIGINT NOT NULL DEFAULT 0,
+    bytes_rewritten BIGINT NOT NULL DEFAULT 0,
+    started_at TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    updated_at TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    finished_at TIMESTAMP WITHOUT TIME ZONE
+);
+
+CREATE INDEX idx_blob_rewrite_jobs_started_at ON blob_rewrite_jobs(started_at);
@@ -0,0 +1,7 @@
+-- V4__add_storage_format_to_file_metadata.sql
+-- Description: Record the on-disk format and compression codec of each stored file
+
+-- Existing blobs were encrypted first and gzip-compressed afterwards
+ALTER TABLE file_metadata
+    ADD COLUMN storage_format VARCHAR(30) NOT NULL DEFAULT 'ENCRYPT_THEN_COMPRESS',
+    ADD COLUMN compression_codec VARCHAR(20) NOT NULL DEFAULT 'GZIP';
@@ -0,0 +1,20 @@
+-- V5__create_content_blobs_table.sql
+-- Description: Create content_blobs table for deduplicated, reference counted blob storage
+
+CREATE TABLE content_blobs (
+    id UUID PRIMARY KEY DEFAULT uuid_generate_v4(),
+    dedup_key VARCHAR(128) UNIQUE NOT NULL,
+    storage_path VARCHAR(500) UNIQUE NOT NULL,
+    stored_size BIGINT NOT NULL,
+    storage_format VARCHAR(30) NOT NULL,
+    compression_codec VARCHAR(20) NOT NULL,
+    ref_count BIGINT NOT NULL CHECK (ref_count >= 0),
+    created_at TIMESTAMP WITHOUT TIME ZONE NOT NULL
+);
+
+-- Plaintext SHA-256 of each file, also used to find its shared blob
+ALTER TABLE file_metadata ADD COLUMN content_hash VARCHAR(64);
+
+-- Files with identical content now share a storage path
+ALTER TABLE file_metadata DROP CONSTRAINT file_metadata_storage_path_key;
+CREATE INDEX idx_file_metadata_storage_path ON file_metadata(storage_path);
@@ -0,0 +1,16 @@
+-- V6__create_upload_sessions_table.sql
+-- Description: Create upload_sessions table for resumable chunked uploads
+
+CREATE TABLE upload_sessions (
+    id UUID PRIMARY KEY DEFAULT uuid_generate_v4(),
+    owner_id UUID NOT NULL REFERENCES users(id) ON DELETE CASCADE,
+    filename VARCHAR(255) NOT NULL,
+    content_type VARCHAR(255),
+    total_size BIGINT NOT NULL CHECK (total_size > 0),
+    chunk_size INTEGER NOT NULL CHECK (chunk_size > 0),
+    created_at TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    expires_at TIMESTAMP WITHOUT TIME ZONE NOT NULL
+);
+
+CREATE INDEX idx_upload_sessions_owner_id ON upload_sessions(owner_id);
+CREATE INDEX idx_upload_sessions_expires_at ON upload_sessions(expires_at);
@@ -0,0 +1,5 @@
+-- V7__add_storage_path_byte_order_indexes.sql
+-- Description: Let the storage reconciliation walk storage paths in byte order, matching the order
+-- in which it lists stored files, whatever the collation of the database
+
+CREATE INDEX idx_file_metadata_storage_path_c ON file_metadata (storage_path COLLATE "C");
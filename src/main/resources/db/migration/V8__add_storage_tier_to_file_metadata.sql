@@ -0,0 +1,9 @@
+-- V8__add_storage_tier_to_file_metadata.sql
+-- Description: Record which storage tier holds each file's blob and when the file was last read
+
+ALTER TABLE file_metadata
+    ADD COLUMN storage_tier VARCHAR(10) NOT NULL DEFAULT 'HOT',
+    ADD COLUMN last_accessed_at TIMESTAMP WITHOUT TIME ZONE;
+
+CREATE INDEX idx_file_metadata_storage_tier_storage_path
+    ON file_metadata(storage_tier, storage_path);
@@ -0,0 +1,13 @@
+-- V9__add_data_keys_to_file_metadata.sql
+-- Description: Store the wrapped per-file data key and the version of the master key wrapping it
+
+ALTER TABLE file_metadata
+    ADD COLUMN wrapped_key BYTEA,
+    ADD COLUMN key_version INTEGER;
+
+ALTER TABLE content_blobs
+    ADD COLUMN wrapped_key BYTEA,
+    ADD COLUMN key_version INTEGER;
+
+CREATE INDEX idx_file_metadata_key_version_id ON file_metadata(key_version, id);
+CREATE INDEX idx_content_blobs_key_version_id ON content_blobs(key_version, id);
@@ -0,0 +1,111 @@
+package com.mvasilakos.filestorage.crypto;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.mvasilakos.filestorage.exception.FileEncryptionException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+
+class AesGcmEngineTest {
+
+  private static final byte[] ASSOCIATED_DATA = {1, 2, 3};
+
+  private final AesGcmEngine aesGcmEngine = new AesGcmEngine();
+  private SecretKey key;
+
+  @BeforeEach
+  void setUp() throws NoSuchAlgorithmException {
+    KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+    keyGenerator.init(256);
+    key = keyGenerator.generateKey();
+  }
+
+  @Test
+  void sealThenOpenShouldRoundTripOnAnotherThread() {
+    // Given
+    byte[] message = "segment content".getBytes();
+    byte[] sealed = aesGcmEngine.seal(key, message, 0, message.length, ASSOCIATED_DATA);
+
+    // When
+    byte[] opened = CompletableFuture.supplyAsync(
+        () -> aesGcmEngine.open(key, sealed, 0, sealed.length, ASSOCIATED_DATA)).join();
+
+    // Then
+    assertArrayEquals(message, opened);
+  }
+
+  @Test
+  void sealShouldUseFreshNonceForEveryMessage() {
+    byte[] message = "segment content".getBytes();
+
+    byte[] first = aesGcmEngine.seal(key, message, 0, message.length, ASSOCIATED_DATA);
+    byte[] second = aesGcmEngine.seal(key, message, 0, message.length, ASSOCIATED_DATA);
+
+    assertFalse(Arrays.equals(first, second));
+  }
+
+  @Test
+  void openWhenAssociatedDataDiffersShouldThrowException() {
+    // Given
+    byte[] message = "segment content".getBytes();
+    byte[] sealed = aesGcmEngine.seal(key, message, 0, message.length, ASSOCIATED_DATA);
+    byte[] otherAssociatedData = {1, 2, 4};
+
+    // When & Then
+    assertThrows(FileEncryptionException.class,
+        () -> aesGcmEngine.open(key, sealed, 0, sealed.length, otherAssociatedData));
+  }
+
+  @Test
+  void sealingStreamThenOpeningStreamShouldRoundTripContent() throws IOException {
+    // Given
+    byte[] content = new byte[100_003];
+    new Random(42).nextBytes(content);
+
+    // When
+    byte[] sealed = sealStream(content);
+
+    // Then
+    try (InputStream opened = aesGcmEngine.openingStream(new ByteArrayInputStream(sealed), key)) {
+      assertArrayEquals(content, opened.readAllBytes());
+    }
+  }
+
+  @Test
+  void openingStreamWhenFinalFrameIsMissingShouldThrowException() throws IOException {
+    // Given
+    byte[] content = new byte[4096];
+    byte[] sealed = sealStream(content);
+    int frameLength = Integer.BYTES + AesGcmEngine.NONCE_LENGTH + 1024 + AesGcmEngine.TAG_LENGTH;
+    byte[] truncated = Arrays.copyOf(sealed, 3 * frameLength);
+
+    // When & Then
+    try (InputStream opened =
+        aesGcmEngine.openingStream(new ByteArrayInputStream(truncated), key)) {
+      assertThrows(IOException.class, opened::readAllBytes);
+    }
+  }
+
+  private byte[] sealStream(byte[] content) throws IOException {
+    ByteArrayOutputStream sealed = new ByteArrayOutputStream();
+    try (OutputStream sealing = aesGcmEngine.sealingStream(sealed, key, 1024)) {
+      sealing.write(content);
+    }
+    return sealed.toByteArray();
+  }
+
+}
@@ -0,0 +1,127 @@
+package com.mvasilakos.filestorage.format;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+
+class SegmentedBlobInputStreamTest {
+
+  private static final int SEGMENT_SIZE = 4;
+  private static final int SEGMENT_COUNT = 8;
+
+  // Segments are stored as they are, so the sealed blob is the plaintext
+  private final SegmentTransformer transformer = new SegmentTransformer() {
+    @Override
+    public byte[] seal(byte[] plaintext, int length, byte[] associatedData) {
+      return Arrays.copyOf(plaintext, length);
+    }
+
+    @Override
+    public byte[] open(byte[] sealed, byte[] associatedData) {
+      return sealed;
+    }
+  };
+
+  private byte[] content;
+  private SegmentIndex index;
+
+  @BeforeEach
+  void setUp() {
+    content = new byte[SEGMENT_SIZE * SEGMENT_COUNT];
+    for (int i = 0; i < content.length; i++) {
+      content[i] = (byte) i;
+    }
+    long[] offsets = new long[SEGMENT_COUNT];
+    int[] lengths = new int[SEGMENT_COUNT];
+    for (int i = 0; i < SEGMENT_COUNT; i++) {
+      offsets[i] = (long) i * SEGMENT_SIZE;
+      lengths[i] = SEGMENT_SIZE;
+    }
+    index = new SegmentIndex(SEGMENT_SIZE, content.length, offsets, lengths);
+  }
+
+  @Test
+  void readShouldKeepOneSegmentAheadOfSlowReader() throws IOException {
+    // Given
+    ByteArrayInputStream source = new ByteArrayInputStream(content);
+    byte[] read = new byte[content.length];
+
+    // When & Then
+    // Segments opened on the reading thread are always ready, so the read-ahead never grows
+    try (InputStream inputStream = new SegmentedBlobInputStream(source, index, transformer, 0,
+        content.length, Runnable::run, SEGMENT_COUNT)) {
+      for (int segment = 0; segment < SEGMENT_COUNT; segment++) {
+        read[segment * SEGMENT_SIZE] = (byte) inputStream.read();
+        assertEquals(Math.min(segment + 2, SEGMENT_COUNT), segmentsRead(source));
+        inputStream.readNBytes(read, segment * SEGMENT_SIZE + 1, SEGMENT_SIZE - 1);
+        assertEquals(Math.min(segment + 2, SEGMENT_COUNT), segmentsRead(source));
+      }
+      assertEquals(-1, inputStream.read());
+    }
+    assertArrayEquals(content, read);
+  }
+
+  @Test
+  void readShouldDoubleReadAheadWhenReaderWaits() throws Exception {
+    // Given
+    ByteArrayInputStream source = new ByteArrayInputStream(content);
+    Thread reader = Thread.currentThread();
+    AtomicInteger segmentsConsumed = new AtomicInteger();
+    AtomicInteger segmentsSubmitted = new AtomicInteger();
+    List<Integer> submittedWhenOpened = new ArrayList<>();
+    ExecutorService worker = Executors.newSingleThreadExecutor();
+    byte[] read = new byte[content.length];
+
+    // When
+    // Segment k is only opened once the reader has consumed the segments before it and waits
+    // for it, so every segment but the first is still pending when the reader gets to it
+    try (InputStream inputStream = new SegmentedBlobInputStream(source, index, transformer, 0,
+        content.length, task -> {
+          int segment = segmentsSubmitted.getAndIncrement();
+          worker.execute(() -> {
+            awaitReaderWaiting(reader, segmentsConsumed, segment);
+            submittedWhenOpened.add(segmentsSubmitted.get());
+            task.run();
+          });
+        }, SEGMENT_COUNT)) {
+      for (int segment = 0; segment < SEGMENT_COUNT; segment++) {
+        inputStream.readNBytes(read, segment * SEGMENT_SIZE, SEGMENT_SIZE);
+        segmentsConsumed.incrementAndGet();
+      }
+    } finally {
+      worker.shutdown();
+      worker.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    // Then
+    assertArrayEquals(content, read);
+    assertEquals(List.of(2, 3, 6, 8, 8, 8, 8, 8), submittedWhenOpened);
+  }
+
+  private static int segmentsRead(ByteArrayInputStream source) {
+    return (SEGMENT_SIZE * SEGMENT_COUNT - source.available()) / SEGMENT_SIZE;
+  }
+
+  private static void awaitReaderWaiting(Thread reader, AtomicInteger segmentsConsumed,
+      int segment) {
+    // Gives up after a while rather than leave the reader blocked, failing the assertions
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while ((segmentsConsumed.get() < segment || reader.getState() != Thread.State.WAITING)
+        && System.nanoTime() < deadline) {
+      Thread.yield();
+    }
+  }
+}
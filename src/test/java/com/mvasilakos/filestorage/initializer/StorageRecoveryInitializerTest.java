@@ -0,0 +1,77 @@
+package com.mvasilakos.filestorage.initializer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.mvasilakos.filestorage.config.DurabilityProperties;
+import com.mvasilakos.filestorage.config.TieringProperties;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+class StorageRecoveryInitializerTest {
+
+  @TempDir
+  private Path storageRoot;
+
+  private StorageRecoveryInitializer storageRecoveryInitializer;
+
+  @BeforeEach
+  void setUp() {
+    DurabilityProperties properties = new DurabilityProperties();
+    properties.setRecoveryParallelism(2);
+    storageRecoveryInitializer = new StorageRecoveryInitializer(storageRoot.toString(),
+        properties, new TieringProperties());
+  }
+
+  @Test
+  void recoverShouldRemoveTemporaryFilesLeftBeforeStartup() throws IOException {
+    // Given
+    Path storedFile = createFile("ab/cd/blob", true);
+    Path flatStoredFile = createFile("flat-blob", true);
+    Path leftover = createFile("ab/cd/blob.00000000000000ff.tmp", true);
+    Path otherLeftover = createFile("ef/01/other.0000000000000001.tmp", true);
+    Path rootLeftover = createFile("flat-blob.0000000000000002.tmp", true);
+    Path writeInProgress = createFile("ab/cd/new.0000000000000003.tmp", false);
+
+    // When
+    long removed = storageRecoveryInitializer.recover();
+
+    // Then
+    assertEquals(3, removed);
+    assertFalse(Files.exists(leftover));
+    assertFalse(Files.exists(otherLeftover));
+    assertFalse(Files.exists(rootLeftover));
+    assertTrue(Files.exists(storedFile));
+    assertTrue(Files.exists(flatStoredFile));
+    assertTrue(Files.exists(writeInProgress));
+  }
+
+  @Test
+  void recoverWhenStorageRootIsMissingShouldRemoveNothing() {
+    // Given
+    storageRecoveryInitializer = new StorageRecoveryInitializer(
+        storageRoot.resolve("missing").toString(), new DurabilityProperties(),
+        new TieringProperties());
+
+    // When & Then
+    assertEquals(0, storageRecoveryInitializer.recover());
+  }
+
+  private Path createFile(String storagePath, boolean beforeStartup) throws IOException {
+    Path path = storageRoot.resolve(storagePath);
+    Files.createDirectories(path.getParent());
+    Files.write(path, new byte[16]);
+    Instant modified = Instant.now().plus(beforeStartup ? -1 : 1, ChronoUnit.HOURS);
+    Files.setLastModifiedTime(path, FileTime.from(modified));
+    return path;
+  }
+}
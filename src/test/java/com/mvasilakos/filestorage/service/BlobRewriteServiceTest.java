@@ -0,0 +1,291 @@
+package com.mvasilakos.filestorage.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.mvasilakos.filestorage.compression.GzipCompressor;
+import com.mvasilakos.filestorage.config.BlobRewriteProperties;
+import com.mvasilakos.filestorage.config.CompressionProperties;
+import com.mvasilakos.filestorage.config.ContentCacheProperties;
+import com.mvasilakos.filestorage.config.DurabilityProperties;
+import com.mvasilakos.filestorage.config.EncryptionProperties;
+import com.mvasilakos.filestorage.config.StorageLayoutProperties;
+import com.mvasilakos.filestorage.config.TieringProperties;
+import com.mvasilakos.filestorage.crypto.AesGcmEngine;
+import com.mvasilakos.filestorage.dto.BlobRewriteStatusDto;
+import com.mvasilakos.filestorage.model.BlobRewriteJob;
+import com.mvasilakos.filestorage.model.BlobRewriteStatus;
+import com.mvasilakos.filestorage.model.CompressionCodec;
+import com.mvasilakos.filestorage.model.FileMetadata;
+import com.mvasilakos.filestorage.model.StorageFormat;
+import com.mvasilakos.filestorage.repository.BlobRewriteJobRepository;
+import com.mvasilakos.filestorage.repository.ContentBlobRepository;
+import com.mvasilakos.filestorage.repository.FileMetadataRepository;
+import com.mvasilakos.filestorage.service.FilePipelineService.StoredContent;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import javax.crypto.KeyGenerator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+
+
+@ExtendWith(MockitoExtension.class)
+class BlobRewriteServiceTest {
+
+  private static final UUID FIRST_ID = new UUID(0, 0);
+
+  @Mock
+  private FileMetadataRepository fileMetadataRepository;
+
+  @Mock
+  private ContentBlobRepository contentBlobRepository;
+
+  @Mock
+  private BlobRewriteJobRepository blobRewriteJobRepository;
+
+  @Mock
+  private SimpleKeyManagementService keyManagementService;
+
+  @Mock
+  private PlatformTransactionManager transactionManager;
+
+  @TempDir
+  private Path storageRoot;
+
+  private final ForkJoinPool segmentPool = new ForkJoinPool(2);
+  private FileEncryptionService fileEncryptionService;
+  private FileCompressionService fileCompressionService;
+  private FilePipelineService filePipelineService;
+  private BlobRewriteService blobRewriteService;
+
+  @BeforeEach
+  void setUp() throws NoSuchAlgorithmException {
+    KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+    keyGenerator.init(256);
+    // Only tests that read or write blobs use the keys
+    lenient().when(keyManagementService.getSecretKey()).thenReturn(keyGenerator.generateKey());
+    lenient().when(keyManagementService.getCurrentMasterKeyVersion()).thenReturn(1);
+    lenient().when(keyManagementService.getMasterKey(1)).thenReturn(keyGenerator.generateKey());
+    when(blobRewriteJobRepository.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
+
+    CompressionProperties compressionProperties = new CompressionProperties();
+    compressionProperties.setDefaultCodec(CompressionCodec.GZIP);
+    fileEncryptionService = new FileEncryptionService(keyManagementService, new AesGcmEngine());
+    fileCompressionService = new FileCompressionService(compressionProperties,
+        List.of(new GzipCompressor()));
+    FileStorageService fileStorageService = new FileStorageService(storageRoot.toString(),
+        Optional.empty(), new DurabilityProperties(), new TieringProperties());
+    filePipelineService = new FilePipelineService(fileEncryptionService, fileCompressionService,
+        new DataKeyService(keyManagementService, new AesGcmEngine(), new EncryptionProperties()),
+        fileStorageService, segmentPool, 64 * 1024);
+
+    BlobRewriteProperties properties = new BlobRewriteProperties();
+    properties.setBatchSize(10);
+    properties.setMaxBytesPerSecond(0);
+    properties.setCpuShare(1);
+    blobRewriteService = new BlobRewriteService(fileMetadataRepository, contentBlobRepository,
+        blobRewriteJobRepository, filePipelineService, fileCompressionService, fileStorageService,
+        new StorageLayout(new StorageLayoutProperties()),
+        new DecryptedContentCache(new ContentCacheProperties()), properties, transactionManager);
+  }
+
+  @AfterEach
+  void tearDown() {
+    segmentPool.shutdownNow();
+  }
+
+  @Test
+  void rewriteBlobsShouldRewriteLegacyBlobsAndSkipCurrentOnes() throws IOException {
+    // Given
+    // Long and repetitive enough for the trial compression to pick the codec
+    byte[] content = "legacy content, compressed then encrypted\n".repeat(256).getBytes();
+    FileMetadata legacy = legacyFile(content);
+    StoredContent stored = filePipelineService.store("current",
+        new ByteArrayInputStream(content), "text/plain");
+    FileMetadata current = file(UUID.randomUUID(), "current", stored.storageFormat(),
+        stored.compressionCodec(), content.length);
+    current.setWrappedKey(stored.wrappedKey());
+    current.setKeyVersion(stored.keyVersion());
+    givenJob(false);
+    givenFiles(legacy, current);
+    when(fileMetadataRepository.replaceStoredBlob(eq("legacy"), anyString(), any(), any(), any(),
+        any(), any())).thenReturn(1);
+
+    // When
+    blobRewriteService.rewriteBlobs();
+
+    // Then
+    ArgumentCaptor<String> newPath = ArgumentCaptor.forClass(String.class);
+    ArgumentCaptor<byte[]> wrappedKey = ArgumentCaptor.forClass(byte[].class);
+    verify(fileMetadataRepository).replaceStoredBlob(eq("legacy"), newPath.capture(), any(),
+        eq(StorageFormat.SEGMENTED), eq(CompressionCodec.GZIP), wrappedKey.capture(), eq(1));
+    verify(contentBlobRepository).replaceStoredBlob(eq("legacy"), eq(newPath.getValue()), any(),
+        eq(StorageFormat.SEGMENTED), eq(CompressionCodec.GZIP), any(), eq(1));
+    verify(fileMetadataRepository, never()).replaceStoredBlob(eq("current"), anyString(), any(),
+        any(), any(), any(), any());
+    assertFalse(Files.exists(storageRoot.resolve("legacy")));
+    assertTrue(Files.exists(storageRoot.resolve("current")));
+
+    FileMetadata rewritten = file(legacy.getId(), newPath.getValue(), StorageFormat.SEGMENTED,
+        CompressionCodec.GZIP, content.length);
+    rewritten.setWrappedKey(wrappedKey.getValue());
+    rewritten.setKeyVersion(1);
+    try (InputStream rewrittenContent = filePipelineService.open(rewritten)) {
+      assertArrayEquals(content, rewrittenContent.readAllBytes());
+    }
+
+    BlobRewriteStatusDto status = blobRewriteService.getStatus();
+    assertFalse(status.running());
+    assertEquals(BlobRewriteStatus.FINISHED, status.status());
+    assertEquals(2, status.scanned());
+    assertEquals(1, status.rewritten());
+    assertEquals(0, status.failed());
+    assertEquals(content.length, status.bytesRewritten());
+    assertNotNull(status.finishedAt());
+  }
+
+  @Test
+  void rewriteBlobsShouldRewriteBlobSharedByFilesOfOneBatchOnce() throws IOException {
+    // Given
+    byte[] content = "content shared by two files".getBytes();
+    FileMetadata first = legacyFile(content);
+    FileMetadata second = file(UUID.randomUUID(), "legacy", StorageFormat.COMPRESS_THEN_ENCRYPT,
+        CompressionCodec.GZIP, content.length);
+    givenJob(false);
+    when(fileMetadataRepository.findAfterId(eq(FIRST_ID), anyInt()))
+        .thenReturn(List.of(first, second));
+    when(fileMetadataRepository.findAfterId(eq(second.getId()), anyInt())).thenReturn(List.of());
+    when(fileMetadataRepository.replaceStoredBlob(eq("legacy"), anyString(), any(), any(), any(),
+        any(), any())).thenReturn(2);
+
+    // When
+    blobRewriteService.rewriteBlobs();
+
+    // Then
+    verify(fileMetadataRepository, times(1)).replaceStoredBlob(eq("legacy"), anyString(), any(),
+        any(), any(), any(), any());
+    assertFalse(Files.exists(storageRoot.resolve("legacy")));
+    BlobRewriteStatusDto status = blobRewriteService.getStatus();
+    assertEquals(2, status.scanned());
+    assertEquals(1, status.rewritten());
+    assertEquals(0, status.failed());
+  }
+
+  @Test
+  void rewriteBlobsShouldResumeAfterLastCheckedFileAndCountFailures() {
+    // Given
+    UUID lastFileId = UUID.randomUUID();
+    BlobRewriteJob job = givenJob(false);
+    job.setLastFileId(lastFileId);
+    job.setScanned(5);
+    FileMetadata missing = file(UUID.randomUUID(), "missing", StorageFormat.COMPRESS_THEN_ENCRYPT,
+        CompressionCodec.GZIP, 10);
+    when(fileMetadataRepository.findAfterId(eq(lastFileId), anyInt()))
+        .thenReturn(List.of(missing));
+    when(fileMetadataRepository.findAfterId(eq(missing.getId()), anyInt())).thenReturn(List.of());
+
+    // When
+    blobRewriteService.rewriteBlobs();
+
+    // Then
+    verify(fileMetadataRepository, never()).findAfterId(eq(FIRST_ID), anyInt());
+    verify(fileMetadataRepository, never()).replaceStoredBlob(anyString(), anyString(), any(),
+        any(), any(), any(), any());
+    BlobRewriteStatusDto status = blobRewriteService.getStatus();
+    assertEquals(6, status.scanned());
+    assertEquals(1, status.failed());
+    assertEquals(missing.getId(), job.getLastFileId());
+  }
+
+  @Test
+  void rewriteBlobsWhenFilesWereDeletedMeanwhileShouldDropNewBlob() throws IOException {
+    // Given
+    FileMetadata legacy = legacyFile("deleted meanwhile".getBytes());
+    givenJob(false);
+    givenFiles(legacy);
+
+    // When
+    blobRewriteService.rewriteBlobs();
+
+    // Then
+    assertTrue(Files.exists(storageRoot.resolve("legacy")));
+    try (var blobs = Files.walk(storageRoot)) {
+      assertEquals(1, blobs.filter(Files::isRegularFile).count());
+    }
+    assertEquals(0, blobRewriteService.getStatus().rewritten());
+  }
+
+  private BlobRewriteJob givenJob(boolean rewriteAll) {
+    BlobRewriteJob job = BlobRewriteJob.builder()
+        .id(UUID.randomUUID())
+        .status(BlobRewriteStatus.RUNNING)
+        .rewriteAll(rewriteAll)
+        .lastFileId(FIRST_ID)
+        .build();
+    when(blobRewriteJobRepository.findFirstByOrderByStartedAtDesc()).thenReturn(Optional.of(job));
+    blobRewriteService.getStatus();
+    return job;
+  }
+
+  private void givenFiles(FileMetadata... files) {
+    UUID after = FIRST_ID;
+    for (FileMetadata file : files) {
+      when(fileMetadataRepository.findAfterId(eq(after), anyInt())).thenReturn(List.of(file));
+      after = file.getId();
+    }
+    when(fileMetadataRepository.findAfterId(eq(after), anyInt())).thenReturn(List.of());
+  }
+
+  private FileMetadata legacyFile(byte[] content) throws IOException {
+    byte[] iv = fileEncryptionService.generateIv();
+    try (OutputStream stored = Files.newOutputStream(storageRoot.resolve("legacy"))) {
+      stored.write(iv);
+      try (OutputStream compressed = fileCompressionService.compressingStream(
+          fileEncryptionService.encryptingStream(stored, iv), CompressionCodec.GZIP)) {
+        compressed.write(content);
+      }
+    }
+    return file(UUID.randomUUID(), "legacy", StorageFormat.COMPRESS_THEN_ENCRYPT,
+        CompressionCodec.GZIP, content.length);
+  }
+
+  private static FileMetadata file(UUID id, String storagePath, StorageFormat storageFormat,
+      CompressionCodec codec, long size) {
+    return FileMetadata.builder()
+        .id(id)
+        .storagePath(storagePath)
+        .contentType("text/plain")
+        .storageFormat(storageFormat)
+        .compressionCodec(codec)
+        .originalFileSize(size)
+        .build();
+  }
+}
@@ -0,0 +1,213 @@
+package com.mvasilakos.filestorage.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.mvasilakos.filestorage.config.BulkUploadProperties;
+import com.mvasilakos.filestorage.dto.BulkUploadResultDto;
+import com.mvasilakos.filestorage.dto.FileMetadataDto;
+import com.mvasilakos.filestorage.exception.FileStorageException;
+import com.mvasilakos.filestorage.exception.InvalidFileException;
+import com.mvasilakos.filestorage.mapper.FileMetadataMapper;
+import com.mvasilakos.filestorage.model.CompressionCodec;
+import com.mvasilakos.filestorage.model.FileMetadata;
+import com.mvasilakos.filestorage.model.StorageFormat;
+import com.mvasilakos.filestorage.model.User;
+import com.mvasilakos.filestorage.validator.FileValidator;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.web.multipart.MultipartFile;
+
+
+@ExtendWith(MockitoExtension.class)
+class BulkUploadServiceTest {
+
+  @Mock
+  private FileService fileService;
+
+  @Mock
+  private FileValidator fileValidator;
+
+  @Mock
+  private FileMetadataMapper fileMetadataMapper;
+
+  @Mock
+  private JdbcTemplate jdbcTemplate;
+
+  @Mock
+  private PlatformTransactionManager transactionManager;
+
+  private User owner;
+  private MultipartFile first;
+  private MultipartFile invalid;
+  private MultipartFile second;
+  private BulkUploadService bulkUploadService;
+
+  @BeforeEach
+  void setUp() {
+    owner = User.builder()
+        .id(UUID.randomUUID())
+        .username("owner")
+        .email("owner@example.com")
+        .build();
+    first = new MockMultipartFile("files", "first.txt", "text/plain", new byte[10]);
+    invalid = new MockMultipartFile("files", "empty.txt", "text/plain", new byte[0]);
+    second = new MockMultipartFile("files", "second.txt", "text/plain", new byte[20]);
+
+    BulkUploadProperties properties = new BulkUploadProperties();
+    properties.setMaxFiles(3);
+    properties.setParallelism(2);
+    bulkUploadService = new BulkUploadService(fileService, fileValidator, fileMetadataMapper,
+        jdbcTemplate, properties, transactionManager, false);
+  }
+
+  @AfterEach
+  void tearDown() {
+    bulkUploadService.close();
+  }
+
+  @Test
+  void uploadFilesShouldStoreValidFilesAndInsertTheirMetadataInOneBatch() {
+    // Given
+    when(fileValidator.validateFile(first)).thenReturn("text/plain");
+    when(fileValidator.validateFile(invalid))
+        .thenThrow(new InvalidFileException("Cannot store empty file"));
+    when(fileValidator.validateFile(second)).thenReturn("text/plain");
+    FileMetadata firstMetadata = metadata("first.txt");
+    when(fileService.storeFile(first, "text/plain", owner)).thenReturn(firstMetadata);
+    when(fileService.storeFile(second, "text/plain", owner))
+        .thenThrow(new FileStorageException("Failed to encrypt/store file: \"second.txt\""));
+    FileMetadataDto firstDto = FileMetadataDto.builder().id(firstMetadata.getId()).build();
+    when(fileMetadataMapper.toDto(firstMetadata)).thenReturn(firstDto);
+
+    // When
+    List<BulkUploadResultDto> results = bulkUploadService.uploadFiles(
+        List.of(first, invalid, second), owner);
+
+    // Then
+    verify(fileService).checkStorageLimit(owner, 30);
+    ArgumentCaptor<List<Object[]>> rows = ArgumentCaptor.forClass(List.class);
+    verify(jdbcTemplate).batchUpdate(anyString(), rows.capture());
+    assertEquals(1, rows.getValue().size());
+    assertEquals(firstMetadata.getId(), rows.getValue().get(0)[0]);
+    assertEquals(owner.getId(), rows.getValue().get(0)[13]);
+
+    assertEquals(3, results.size());
+    assertTrue(results.get(0).uploaded());
+    assertEquals(firstDto, results.get(0).file());
+    assertFalse(results.get(1).uploaded());
+    assertEquals("Cannot store empty file", results.get(1).error());
+    assertFalse(results.get(2).uploaded());
+    assertEquals("second.txt", results.get(2).filename());
+    assertNull(results.get(2).file());
+  }
+
+  @Test
+  void uploadFilesWhenBatchExceedsStorageLimitShouldStoreNothing() {
+    // Given
+    when(fileValidator.validateFile(any())).thenReturn("text/plain");
+    doThrow(new FileStorageException("User storage limit exceeded"))
+        .when(fileService).checkStorageLimit(owner, 30);
+
+    // When & Then
+    assertThrows(FileStorageException.class,
+        () -> bulkUploadService.uploadFiles(List.of(first, second), owner));
+    verify(fileService, never()).storeFile(any(), anyString(), any());
+  }
+
+  @Test
+  void uploadFilesWhenMetadataInsertFailsShouldReleaseStoredContent() {
+    // Given
+    when(fileValidator.validateFile(first)).thenReturn("text/plain");
+    FileMetadata firstMetadata = metadata("first.txt");
+    when(fileService.storeFile(first, "text/plain", owner)).thenReturn(firstMetadata);
+    when(jdbcTemplate.batchUpdate(anyString(), anyList()))
+        .thenThrow(new DataIntegrityViolationException("insert failed"));
+
+    // When
+    List<BulkUploadResultDto> results = bulkUploadService.uploadFiles(List.of(first), owner);
+
+    // Then
+    verify(fileService).cleanupAfterUploadFail(firstMetadata);
+    assertFalse(results.get(0).uploaded());
+    assertEquals("Failed to save file metadata", results.get(0).error());
+  }
+
+  @Test
+  void uploadFilesWhenInterruptedShouldReleaseFilesAlreadyStored() {
+    // Given
+    BulkUploadProperties properties = new BulkUploadProperties();
+    properties.setMaxFiles(3);
+    properties.setParallelism(1);
+    BulkUploadService sequentialUploadService = new BulkUploadService(fileService, fileValidator,
+        fileMetadataMapper, jdbcTemplate, properties, transactionManager, false);
+    when(fileValidator.validateFile(any())).thenReturn("text/plain");
+    FileMetadata firstMetadata = metadata("first.txt");
+    Thread caller = Thread.currentThread();
+    when(fileService.storeFile(first, "text/plain", owner)).thenAnswer(invocation -> {
+      // Interrupts the caller before the permit the second file waits for is released
+      caller.interrupt();
+      return firstMetadata;
+    });
+
+    // When
+    try {
+      assertThrows(FileStorageException.class,
+          () -> sequentialUploadService.uploadFiles(List.of(first, second), owner));
+    } finally {
+      Thread.interrupted();
+      sequentialUploadService.close();
+    }
+
+    // Then
+    verify(fileService).cleanupAfterUploadFail(firstMetadata);
+    verify(fileService, never()).storeFile(eq(second), anyString(), any());
+    verify(jdbcTemplate, never()).batchUpdate(anyString(), anyList());
+  }
+
+  @Test
+  void uploadFilesWhenThereAreTooManyFilesShouldThrowException() {
+    assertThrows(FileStorageException.class,
+        () -> bulkUploadService.uploadFiles(List.of(first, first, first, first), owner));
+    verify(fileValidator, never()).validateFile(eq(first));
+  }
+
+  private static FileMetadata metadata(String filename) {
+    return FileMetadata.builder()
+        .id(UUID.randomUUID())
+        .filename(filename)
+        .contentType("text/plain")
+        .size(8L)
+        .originalFileSize(10L)
+        .uploadDate(LocalDateTime.now())
+        .storagePath("aa/bb/" + UUID.randomUUID())
+        .contentHash("abc123")
+        .storageFormat(StorageFormat.SEGMENTED)
+        .compressionCodec(CompressionCodec.ZSTD)
+        .keyVersion(1)
+        .build();
+  }
+}
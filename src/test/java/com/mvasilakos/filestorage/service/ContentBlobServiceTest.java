@@ -0,0 +1,178 @@
+package com.mvasilakos.filestorage.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import com.mvasilakos.filestorage.model.CompressionCodec;
+import com.mvasilakos.filestorage.model.ContentBlob;
+import com.mvasilakos.filestorage.model.DeduplicationScope;
+import com.mvasilakos.filestorage.model.StorageFormat;
+import com.mvasilakos.filestorage.model.User;
+import com.mvasilakos.filestorage.repository.ContentBlobRepository;
+import com.mvasilakos.filestorage.service.FilePipelineService.StoredContent;
+import java.util.Optional;
+import java.util.UUID;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataIntegrityViolationException;
+
+
+@ExtendWith(MockitoExtension.class)
+class ContentBlobServiceTest {
+
+  private static final String HASH = "9f86d081884c7d659a2feaa0c55ad015";
+
+  @Mock
+  private ContentBlobRepository contentBlobRepository;
+
+  @Mock
+  private FileStorageService fileStorageService;
+
+  private ContentBlobService contentBlobService;
+  private StoredContent storedContent;
+  private User owner;
+
+  @BeforeEach
+  void setUp() {
+    contentBlobService = new ContentBlobService(
+        contentBlobRepository, fileStorageService, DeduplicationScope.GLOBAL);
+    storedContent = new StoredContent(42L, StorageFormat.SEGMENTED, CompressionCodec.ZSTD, HASH,
+        new byte[]{1, 2, 3}, 1);
+    owner = User.builder().id(UUID.randomUUID()).username("owner").build();
+  }
+
+  @Test
+  void deduplicateWhenContentIsNewShouldRegisterFreshBlob() {
+    // Given
+    when(contentBlobRepository.incrementRefCount(HASH)).thenReturn(0);
+    when(contentBlobRepository.saveAndFlush(any()))
+        .thenAnswer(invocation -> invocation.getArgument(0));
+
+    // When
+    Optional<ContentBlob> blob = contentBlobService.deduplicate("fresh", storedContent, owner);
+
+    // Then
+    assertTrue(blob.isPresent());
+    assertEquals("fresh", blob.get().getStoragePath());
+    assertEquals(HASH, blob.get().getDedupKey());
+    assertEquals(1L, blob.get().getRefCount());
+    assertArrayEquals(new byte[]{1, 2, 3}, blob.get().getWrappedKey());
+    assertEquals(1, blob.get().getKeyVersion());
+    verify(fileStorageService, never()).deleteFile(any());
+  }
+
+  @Test
+  void deduplicateWhenContentExistsShouldReferenceItAndDeleteFreshBlob() {
+    // Given
+    ContentBlob existing = ContentBlob.builder().dedupKey(HASH).storagePath("shared").build();
+    when(contentBlobRepository.incrementRefCount(HASH)).thenReturn(1);
+    when(contentBlobRepository.findByDedupKey(HASH)).thenReturn(Optional.of(existing));
+
+    // When
+    Optional<ContentBlob> blob = contentBlobService.deduplicate("fresh", storedContent, owner);
+
+    // Then
+    assertEquals(Optional.of(existing), blob);
+    verify(fileStorageService).deleteFile("fresh");
+    verify(contentBlobRepository, never()).saveAndFlush(any());
+  }
+
+  @Test
+  void deduplicateWhenIdenticalContentIsRegisteredConcurrentlyShouldRetry() {
+    // Given
+    ContentBlob existing = ContentBlob.builder().dedupKey(HASH).storagePath("shared").build();
+    when(contentBlobRepository.incrementRefCount(HASH)).thenReturn(0, 1);
+    when(contentBlobRepository.saveAndFlush(any()))
+        .thenThrow(new DataIntegrityViolationException("duplicate key"));
+    when(contentBlobRepository.findByDedupKey(HASH)).thenReturn(Optional.of(existing));
+
+    // When
+    Optional<ContentBlob> blob = contentBlobService.deduplicate("fresh", storedContent, owner);
+
+    // Then
+    assertEquals(Optional.of(existing), blob);
+    verify(fileStorageService).deleteFile("fresh");
+  }
+
+  @Test
+  void deduplicatePerUserShouldScopeKeyToOwner() {
+    // Given
+    contentBlobService = new ContentBlobService(
+        contentBlobRepository, fileStorageService, DeduplicationScope.PER_USER);
+    String dedupKey = owner.getId() + ":" + HASH;
+    when(contentBlobRepository.incrementRefCount(dedupKey)).thenReturn(0);
+    when(contentBlobRepository.saveAndFlush(any()))
+        .thenAnswer(invocation -> invocation.getArgument(0));
+
+    // When
+    contentBlobService.deduplicate("fresh", storedContent, owner);
+
+    // Then
+    ArgumentCaptor<ContentBlob> blobCaptor = ArgumentCaptor.forClass(ContentBlob.class);
+    verify(contentBlobRepository).saveAndFlush(blobCaptor.capture());
+    assertEquals(dedupKey, blobCaptor.getValue().getDedupKey());
+  }
+
+  @Test
+  void deduplicateWhenDisabledShouldNotShareContent() {
+    // Given
+    contentBlobService = new ContentBlobService(
+        contentBlobRepository, fileStorageService, DeduplicationScope.NONE);
+
+    // When
+    Optional<ContentBlob> blob = contentBlobService.deduplicate("fresh", storedContent, owner);
+
+    // Then
+    assertTrue(blob.isEmpty());
+    verifyNoInteractions(contentBlobRepository, fileStorageService);
+  }
+
+  @Test
+  void releaseWhenBlobIsStillReferencedShouldKeepIt() {
+    // Given
+    when(contentBlobRepository.decrementRefCount("shared")).thenReturn(1);
+    when(contentBlobRepository.deleteUnreferenced("shared")).thenReturn(0);
+
+    // When
+    contentBlobService.release("shared");
+
+    // Then
+    verify(fileStorageService, never()).deleteFile(any());
+  }
+
+  @Test
+  void releaseWhenLastReferenceIsDroppedShouldDeleteBlob() {
+    // Given
+    when(contentBlobRepository.decrementRefCount("shared")).thenReturn(1);
+    when(contentBlobRepository.deleteUnreferenced("shared")).thenReturn(1);
+
+    // When
+    contentBlobService.release("shared");
+
+    // Then
+    verify(fileStorageService).deleteFile("shared");
+  }
+
+  @Test
+  void releaseWhenBlobIsNotSharedShouldDeleteIt() {
+    // Given
+    when(contentBlobRepository.decrementRefCount("legacy")).thenReturn(0);
+
+    // When
+    contentBlobService.release("legacy");
+
+    // Then
+    verify(fileStorageService).deleteFile("legacy");
+    verify(contentBlobRepository, never()).deleteUnreferenced(any());
+  }
+}
@@ -0,0 +1,136 @@
+package com.mvasilakos.filestorage.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.when;
+
+import com.mvasilakos.filestorage.config.EncryptionProperties;
+import com.mvasilakos.filestorage.crypto.AesGcmEngine;
+import com.mvasilakos.filestorage.exception.FileEncryptionException;
+import com.mvasilakos.filestorage.model.FileMetadata;
+import com.mvasilakos.filestorage.service.DataKeyService.DataKey;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+
+@ExtendWith(MockitoExtension.class)
+class DataKeyServiceTest {
+
+  @Mock
+  private SimpleKeyManagementService keyManagementService;
+
+  private final AesGcmEngine aesGcmEngine = new AesGcmEngine();
+  private KeyGenerator keyGenerator;
+  private EncryptionProperties properties;
+  private DataKeyService dataKeyService;
+
+  @BeforeEach
+  void setUp() throws NoSuchAlgorithmException {
+    keyGenerator = KeyGenerator.getInstance("AES");
+    keyGenerator.init(256);
+    properties = new EncryptionProperties();
+    properties.setKeyCacheSize(2);
+    dataKeyService = new DataKeyService(keyManagementService, aesGcmEngine, properties);
+  }
+
+  @Test
+  void generateDataKeyShouldWrapRandomKeyByCurrentMasterKey() {
+    // Given
+    when(keyManagementService.getCurrentMasterKeyVersion()).thenReturn(3);
+    when(keyManagementService.getMasterKey(3)).thenReturn(keyGenerator.generateKey());
+    DataKeyService restarted = new DataKeyService(keyManagementService, aesGcmEngine, properties);
+
+    // When
+    DataKey first = dataKeyService.generateDataKey();
+    DataKey second = dataKeyService.generateDataKey();
+
+    // Then
+    assertEquals(3, first.keyVersion());
+    assertFalse(Arrays.equals(first.key().getEncoded(), second.key().getEncoded()));
+    assertEquals(AesGcmEngine.NONCE_LENGTH + 32 + AesGcmEngine.TAG_LENGTH,
+        first.wrappedKey().length);
+    assertArrayEquals(first.key().getEncoded(),
+        restarted.unwrap(first.wrappedKey(), 3).getEncoded());
+    assertEquals(1, restarted.getCacheMisses());
+  }
+
+  @Test
+  void unwrapShouldServeRecentlyUnwrappedKeysFromBoundedCache() {
+    // Given
+    when(keyManagementService.getCurrentMasterKeyVersion()).thenReturn(1);
+    when(keyManagementService.getMasterKey(1)).thenReturn(keyGenerator.generateKey());
+    DataKey first = dataKeyService.generateDataKey();
+    DataKey second = dataKeyService.generateDataKey();
+    DataKey third = dataKeyService.generateDataKey();
+
+    // When
+    SecretKey cached = dataKeyService.unwrap(third.wrappedKey(), 1);
+    SecretKey evicted = dataKeyService.unwrap(first.wrappedKey(), 1);
+
+    // Then
+    assertSame(third.key(), cached);
+    assertArrayEquals(first.key().getEncoded(), evicted.getEncoded());
+    assertEquals(2, dataKeyService.getCachedKeyCount());
+    assertEquals(1, dataKeyService.getCacheHits());
+    assertEquals(1, dataKeyService.getCacheMisses());
+    assertArrayEquals(second.key().getEncoded(),
+        dataKeyService.unwrap(second.wrappedKey(), 1).getEncoded());
+  }
+
+  @Test
+  void rewrapShouldKeepDataKeyAndWrapItByCurrentMasterKey() {
+    // Given
+    SecretKey oldMasterKey = keyGenerator.generateKey();
+    when(keyManagementService.getCurrentMasterKeyVersion()).thenReturn(1, 2);
+    when(keyManagementService.getMasterKey(1)).thenReturn(oldMasterKey);
+    when(keyManagementService.getMasterKey(2)).thenReturn(keyGenerator.generateKey());
+    DataKey dataKey = dataKeyService.generateDataKey();
+
+    // When
+    DataKey rewrapped = dataKeyService.rewrap(dataKey.wrappedKey(), 1);
+
+    // Then
+    assertEquals(2, rewrapped.keyVersion());
+    DataKeyService restarted = new DataKeyService(keyManagementService, aesGcmEngine, properties);
+    assertArrayEquals(dataKey.key().getEncoded(),
+        restarted.unwrap(rewrapped.wrappedKey(), 2).getEncoded());
+  }
+
+  @Test
+  void unwrapWhenVersionDoesNotMatchWrappingMasterKeyShouldThrowException() {
+    // Given
+    SecretKey masterKey = keyGenerator.generateKey();
+    when(keyManagementService.getCurrentMasterKeyVersion()).thenReturn(1);
+    when(keyManagementService.getMasterKey(1)).thenReturn(masterKey);
+    when(keyManagementService.getMasterKey(2)).thenReturn(masterKey);
+    DataKey dataKey = new DataKeyService(keyManagementService, aesGcmEngine, properties)
+        .generateDataKey();
+
+    // When & Then
+    assertThrows(FileEncryptionException.class,
+        () -> dataKeyService.unwrap(dataKey.wrappedKey(), 2));
+  }
+
+  @Test
+  void contentKeyWhenFileHasNoDataKeyShouldReturnLegacyKey() {
+    // Given
+    SecretKey legacyKey = keyGenerator.generateKey();
+    when(keyManagementService.getSecretKey()).thenReturn(legacyKey);
+
+    // When
+    SecretKey contentKey = dataKeyService.contentKey(FileMetadata.builder().build());
+
+    // Then
+    assertSame(legacyKey, contentKey);
+  }
+}
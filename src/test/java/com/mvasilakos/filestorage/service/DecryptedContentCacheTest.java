@@ -0,0 +1,147 @@
+package com.mvasilakos.filestorage.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.mvasilakos.filestorage.config.ContentCacheProperties;
+import com.mvasilakos.filestorage.dto.ContentCacheStatsDto;
+import com.mvasilakos.filestorage.model.FileMetadata;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.UUID;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+
+class DecryptedContentCacheTest {
+
+  private ContentCacheProperties properties;
+  private DecryptedContentCache cache;
+
+  @BeforeEach
+  void setUp() {
+    properties = new ContentCacheProperties();
+    properties.setEnabled(true);
+    properties.setCapacity(100);
+    properties.setMaxEntrySize(60);
+    cache = new DecryptedContentCache(properties);
+  }
+
+  @Test
+  void shouldCacheShouldAdmitFilesOnTheirSecondDownloadOnly() {
+    // Given
+    FileMetadata small = file("aa/small", 10);
+    FileMetadata large = file("aa/large", 61);
+
+    // When & Then
+    assertFalse(cache.shouldCache(small));
+    assertTrue(cache.shouldCache(small));
+    assertFalse(cache.shouldCache(large));
+    assertFalse(cache.shouldCache(large));
+  }
+
+  @Test
+  void getShouldServeWholeContentAndRangesOfCachedFile() throws IOException {
+    // Given
+    FileMetadata metadata = file("aa/blob", 10);
+    cache.put(metadata, "0123456789".getBytes());
+
+    // When
+    InputStream content = cache.get(metadata);
+    InputStream range = cache.getRange(metadata, 3, 4);
+
+    // Then
+    assertArrayEquals("0123456789".getBytes(), content.readAllBytes());
+    assertArrayEquals("3456".getBytes(), range.readAllBytes());
+    assertArrayEquals("0123456789".getBytes(), cache.get(metadata).readAllBytes());
+  }
+
+  @Test
+  void getShouldMissOnceFilePointsToAnotherBlob() {
+    // Given
+    FileMetadata metadata = file("aa/blob", 10);
+    cache.put(metadata, new byte[10]);
+    metadata.setStoragePath("bb/blob");
+
+    // When
+    InputStream content = cache.get(metadata);
+
+    // Then
+    assertNull(content);
+    assertEquals(1, cache.getStats().misses());
+  }
+
+  @Test
+  void putShouldEvictLeastRecentlyUsedFilesOverCapacity() {
+    // Given
+    FileMetadata first = file("aa/first", 40);
+    FileMetadata second = file("aa/second", 40);
+    FileMetadata third = file("aa/third", 40);
+    cache.put(first, new byte[40]);
+    cache.put(second, new byte[40]);
+    cache.get(first);
+
+    // When
+    cache.put(third, new byte[40]);
+
+    // Then
+    assertNotNull(cache.get(first));
+    assertNull(cache.get(second));
+    assertNotNull(cache.get(third));
+    ContentCacheStatsDto stats = cache.getStats();
+    assertEquals(2, stats.entries());
+    assertEquals(80, stats.usedBytes());
+    assertEquals(1, stats.evictions());
+    assertEquals(3, stats.hits());
+    assertEquals(1, stats.misses());
+    assertEquals(0.75, stats.hitRate());
+  }
+
+  @Test
+  void invalidateShouldRemoveDeletedFilesAndFilesOfMovedBlobs() {
+    // Given
+    FileMetadata deleted = file("aa/blob", 10);
+    FileMetadata shared = file("aa/shared", 10);
+    FileMetadata sharedCopy = file("aa/shared", 10);
+    cache.put(deleted, new byte[10]);
+    cache.put(shared, new byte[10]);
+    cache.put(sharedCopy, new byte[10]);
+
+    // When
+    cache.invalidateFile(deleted.getId());
+    cache.invalidateBlob("aa/shared");
+
+    // Then
+    assertNull(cache.get(deleted));
+    assertNull(cache.get(shared));
+    assertNull(cache.get(sharedCopy));
+    assertEquals(0, cache.getStats().usedBytes());
+    assertEquals(3, cache.getStats().invalidations());
+  }
+
+  @Test
+  void cacheWhenDisabledShouldNeitherAdmitNorServeFiles() {
+    // Given
+    properties.setEnabled(false);
+    FileMetadata metadata = file("aa/blob", 10);
+    cache.put(metadata, new byte[10]);
+
+    // When & Then
+    assertFalse(cache.shouldCache(metadata));
+    assertFalse(cache.shouldCache(metadata));
+    assertNull(cache.get(metadata));
+    assertEquals(0, cache.getStats().entries());
+  }
+
+  private static FileMetadata file(String storagePath, long size) {
+    return FileMetadata.builder()
+        .id(UUID.randomUUID())
+        .storagePath(storagePath)
+        .originalFileSize(size)
+        .build();
+  }
+}
@@ -0,0 +1,172 @@
+package com.mvasilakos.filestorage.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.mvasilakos.filestorage.config.ArchiveProperties;
+import com.mvasilakos.filestorage.config.ContentCacheProperties;
+import com.mvasilakos.filestorage.dto.ArchiveRequest;
+import com.mvasilakos.filestorage.exception.FileStorageException;
+import com.mvasilakos.filestorage.model.CompressionCodec;
+import com.mvasilakos.filestorage.model.FileMetadata;
+import com.mvasilakos.filestorage.model.User;
+import com.mvasilakos.filestorage.repository.FileMetadataRepository;
+import com.mvasilakos.filestorage.service.FileArchiveService.FileArchive;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+
+@ExtendWith(MockitoExtension.class)
+class FileArchiveServiceTest {
+
+  private static final byte[] CONTENT = "archived content ".repeat(1000).getBytes();
+
+  @Mock
+  private FileMetadataRepository fileMetadataRepository;
+
+  @Mock
+  private FilePipelineService filePipelineService;
+
+  @Mock
+  private StorageTieringService storageTieringService;
+
+  private User user;
+  private FileArchiveService fileArchiveService;
+
+  @BeforeEach
+  void setUp() {
+    user = User.builder()
+        .id(UUID.randomUUID())
+        .username("testUser")
+        .email("test@example.com")
+        .build();
+
+    ArchiveProperties properties = new ArchiveProperties();
+    properties.setMaxFiles(3);
+    fileArchiveService = new FileArchiveService(fileMetadataRepository, filePipelineService,
+        new DecryptedContentCache(new ContentCacheProperties()), storageTieringService,
+        properties);
+  }
+
+  @Test
+  void prepareArchiveShouldStreamAccessibleFilesInRequestedOrder() throws IOException {
+    // Given
+    FileMetadata text = file("notes.txt", CompressionCodec.ZSTD);
+    FileMetadata image = file("notes.txt", CompressionCodec.NONE);
+    FileMetadata unreadable = file("missing.txt", CompressionCodec.ZSTD);
+    UUID inaccessibleId = UUID.randomUUID();
+    List<UUID> fileIds = List.of(image.getId(), inaccessibleId, unreadable.getId(), text.getId());
+    when(fileMetadataRepository.findAllByIdInAndOwnerOrSharedWith(any(), eq(user)))
+        .thenReturn(List.of(text, unreadable, image));
+    when(filePipelineService.open(image)).thenReturn(new ByteArrayInputStream(CONTENT));
+    when(filePipelineService.open(text)).thenReturn(new ByteArrayInputStream(CONTENT));
+    when(filePipelineService.open(unreadable))
+        .thenThrow(new FileStorageException("Stored file not found"));
+
+    // When
+    FileArchive archive = fileArchiveService.prepareArchive(
+        new ArchiveRequest(fileIds, null), user);
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    archive.writeTo(output);
+
+    // Then
+    assertEquals(3, archive.getFileCount());
+    try (ZipInputStream zip = new ZipInputStream(
+        new ByteArrayInputStream(output.toByteArray()))) {
+      ZipEntry first = zip.getNextEntry();
+      assertEquals("notes.txt", first.getName());
+      assertArrayEquals(CONTENT, zip.readAllBytes());
+      // Not recompressed, so it takes a little more space than the content
+      assertTrue(first.getCompressedSize() >= CONTENT.length);
+
+      ZipEntry second = zip.getNextEntry();
+      assertEquals("notes (1).txt", second.getName());
+      assertArrayEquals(CONTENT, zip.readAllBytes());
+      assertTrue(second.getCompressedSize() < CONTENT.length / 10);
+
+      assertNull(zip.getNextEntry());
+    }
+    verify(storageTieringService).recordAccess(text.getStoragePath());
+    verify(storageTieringService, never()).recordAccess(unreadable.getStoragePath());
+  }
+
+  @Test
+  void prepareArchiveWhenTooManyRequestedFilesAreAccessibleShouldThrowException() {
+    // Given
+    List<UUID> fileIds = List.of(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(),
+        UUID.randomUUID(), UUID.randomUUID());
+    when(fileMetadataRepository.findAllByIdInAndOwnerOrSharedWith(any(), eq(user)))
+        .thenReturn(List.of(file("notes-1.txt", CompressionCodec.NONE),
+            file("notes-2.txt", CompressionCodec.NONE), file("notes-3.txt", CompressionCodec.NONE),
+            file("notes-4.txt", CompressionCodec.NONE)));
+
+    // When & Then
+    assertThrows(FileStorageException.class,
+        () -> fileArchiveService.prepareArchive(new ArchiveRequest(fileIds, null), user));
+    verify(fileMetadataRepository).findAllByIdInAndOwnerOrSharedWith(
+        eq(fileIds.subList(0, 4)), eq(user));
+  }
+
+  @Test
+  void prepareArchiveWhenKeywordMatchesTooManyFilesShouldThrowException() {
+    // Given
+    when(fileMetadataRepository.searchOwnerOrSharedWith(eq(user), eq("%notes%"), any()))
+        .thenReturn(List.of(file("notes-1.txt", CompressionCodec.NONE),
+            file("notes-2.txt", CompressionCodec.NONE), file("notes-3.txt", CompressionCodec.NONE),
+            file("notes-4.txt", CompressionCodec.NONE)));
+
+    // When & Then
+    assertThrows(FileStorageException.class,
+        () -> fileArchiveService.prepareArchive(new ArchiveRequest(null, "notes"), user));
+  }
+
+  @Test
+  void prepareArchiveWhenNothingWasRequestedShouldThrowException() {
+    assertThrows(FileStorageException.class,
+        () -> fileArchiveService.prepareArchive(new ArchiveRequest(List.of(), " "), user));
+    verify(fileMetadataRepository, never()).searchOwnerOrSharedWith(any(), anyString(), any());
+  }
+
+  @Test
+  void entryNamesShouldReplacePathSeparatorsAndNumberDuplicates() {
+    // Given
+    FileArchiveService.EntryNames entryNames = new FileArchiveService.EntryNames();
+
+    // When & Then
+    assertEquals("a_b.txt", entryNames.next("a/b.txt"));
+    assertEquals("a_b (1).txt", entryNames.next("a\\b.txt"));
+    assertEquals("_", entryNames.next(".."));
+    assertEquals("file", entryNames.next(null));
+    assertEquals("file (1)", entryNames.next(""));
+  }
+
+  private static FileMetadata file(String filename, CompressionCodec codec) {
+    UUID id = UUID.randomUUID();
+    return FileMetadata.builder()
+        .id(id)
+        .filename(filename)
+        .storagePath("aa/" + id)
+        .compressionCodec(codec)
+        .originalFileSize((long) CONTENT.length)
+        .build();
+  }
+}
@@ -0,0 +1,93 @@
+package com.mvasilakos.filestorage.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.mvasilakos.filestorage.compression.GzipCompressor;
+import com.mvasilakos.filestorage.config.CompressionProperties;
+import com.mvasilakos.filestorage.exception.FileCompressionException;
+import com.mvasilakos.filestorage.model.CompressionCodec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+
+class FileCompressionServiceTest {
+
+  private static final byte[] TEXT_SAMPLE = "compressible content ".repeat(400).getBytes();
+
+  private FileCompressionService fileCompressionService;
+
+  @BeforeEach
+  void setUp() {
+    CompressionProperties compressionProperties = new CompressionProperties();
+    compressionProperties.setDefaultCodec(CompressionCodec.ZSTD);
+    compressionProperties.setCodecByType(Map.of("application/json", CompressionCodec.GZIP));
+    compressionProperties.setIncompressibleTypes(Set.of("image/png"));
+
+    fileCompressionService = new FileCompressionService(
+        compressionProperties, List.of(new GzipCompressor()));
+  }
+
+  @Test
+  void selectCodecShouldUseDefaultCodecForCompressibleContent() {
+    assertEquals(CompressionCodec.ZSTD,
+        fileCompressionService.selectCodec("text/plain", TEXT_SAMPLE));
+  }
+
+  @Test
+  void selectCodecShouldUseCodecConfiguredForContentType() {
+    assertEquals(CompressionCodec.GZIP,
+        fileCompressionService.selectCodec("application/json", TEXT_SAMPLE));
+  }
+
+  @Test
+  void selectCodecWhenContentTypeIsIncompressibleShouldReturnNone() {
+    assertEquals(CompressionCodec.NONE,
+        fileCompressionService.selectCodec("image/png", TEXT_SAMPLE));
+  }
+
+  @Test
+  void selectCodecWhenSampleDoesNotCompressShouldReturnNone() {
+    byte[] sample = new byte[8192];
+    new Random(42).nextBytes(sample);
+
+    assertEquals(CompressionCodec.NONE, fileCompressionService.selectCodec("text/plain", sample));
+  }
+
+  @Test
+  void compressingStreamShouldRoundTripThroughSelectedCodec() throws IOException {
+    // Given
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+
+    // When
+    try (OutputStream out = fileCompressionService.compressingStream(
+        compressed, CompressionCodec.GZIP)) {
+      out.write(TEXT_SAMPLE);
+    }
+
+    // Then
+    try (InputStream in = fileCompressionService.decompressingStream(
+        new ByteArrayInputStream(compressed.toByteArray()), CompressionCodec.GZIP)) {
+      assertArrayEquals(TEXT_SAMPLE, in.readAllBytes());
+    }
+  }
+
+  @Test
+  void compressingStreamWhenCodecIsUnavailableShouldThrowException() {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+
+    assertThrows(FileCompressionException.class,
+        () -> fileCompressionService.compressingStream(compressed, CompressionCodec.LZ4));
+  }
+
+}
@@ -0,0 +1,271 @@
+package com.mvasilakos.filestorage.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.when;
+
+import com.mvasilakos.filestorage.compression.GzipCompressor;
+import com.mvasilakos.filestorage.config.CompressionProperties;
+import com.mvasilakos.filestorage.config.DurabilityProperties;
+import com.mvasilakos.filestorage.config.EncryptionProperties;
+import com.mvasilakos.filestorage.config.TieringProperties;
+import com.mvasilakos.filestorage.crypto.AesGcmEngine;
+import com.mvasilakos.filestorage.exception.FileEncryptionException;
+import com.mvasilakos.filestorage.exception.FileStorageException;
+import com.mvasilakos.filestorage.format.SegmentedBlobFormat;
+import com.mvasilakos.filestorage.model.CompressionCodec;
+import com.mvasilakos.filestorage.model.FileMetadata;
+import com.mvasilakos.filestorage.model.StorageFormat;
+import com.mvasilakos.filestorage.service.FilePipelineService.StoredContent;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPOutputStream;
+import javax.crypto.KeyGenerator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+
+@ExtendWith(MockitoExtension.class)
+class FilePipelineServiceTest {
+
+  private static final int SEGMENT_SIZE = 64 * 1024;
+
+  @Mock
+  private SimpleKeyManagementService keyManagementService;
+
+  @TempDir
+  private Path storageRoot;
+
+  private final ForkJoinPool segmentPool = new ForkJoinPool(4);
+  private FilePipelineService filePipelineService;
+
+  @BeforeEach
+  void setUp() throws NoSuchAlgorithmException {
+    KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+    keyGenerator.init(256);
+    when(keyManagementService.getSecretKey()).thenReturn(keyGenerator.generateKey());
+    // Only files stored by the test have data keys wrapped by a master key
+    lenient().when(keyManagementService.getCurrentMasterKeyVersion()).thenReturn(1);
+    lenient().when(keyManagementService.getMasterKey(1)).thenReturn(keyGenerator.generateKey());
+
+    CompressionProperties compressionProperties = new CompressionProperties();
+    compressionProperties.setDefaultCodec(CompressionCodec.GZIP);
+    compressionProperties.setIncompressibleTypes(Set.of("image/jpeg"));
+
+    filePipelineService = new FilePipelineService(
+        new FileEncryptionService(keyManagementService, new AesGcmEngine()),
+        new FileCompressionService(compressionProperties, List.of(new GzipCompressor())),
+        new DataKeyService(keyManagementService, new AesGcmEngine(), new EncryptionProperties()),
+        new FileStorageService(storageRoot.toString(), Optional.empty(),
+            new DurabilityProperties(), new TieringProperties()),
+        segmentPool,
+        SEGMENT_SIZE);
+  }
+
+  @AfterEach
+  void tearDown() {
+    segmentPool.shutdown();
+  }
+
+  @Test
+  void storeThenOpenShouldRoundTripCompressibleContent()
+      throws IOException, NoSuchAlgorithmException {
+    // Given
+    byte[] content = "compressible content ".repeat(50_000).getBytes();
+
+    // When
+    StoredContent stored = filePipelineService.store(
+        "file", new ByteArrayInputStream(content), "text/plain");
+
+    // Then
+    assertEquals(Files.size(storageRoot.resolve("file")), stored.storedSize());
+    assertEquals(StorageFormat.SEGMENTED, stored.storageFormat());
+    assertEquals(CompressionCodec.GZIP, stored.compressionCodec());
+    assertTrue(stored.storedSize() < content.length);
+    assertEquals(HexFormat.of().formatHex(
+        MessageDigest.getInstance("SHA-256").digest(content)), stored.contentHash());
+    try (InputStream restored = filePipelineService.open(metadataFor("file", stored))) {
+      assertArrayEquals(content, restored.readAllBytes());
+    }
+  }
+
+  @Test
+  void storeWhenContentIsIncompressibleShouldSkipCompression() throws IOException {
+    // Given
+    byte[] content = new byte[1_000_003];
+    new Random(42).nextBytes(content);
+
+    // When
+    StoredContent stored = filePipelineService.store(
+        "file", new ByteArrayInputStream(content), "application/octet-stream");
+
+    // Then
+    assertEquals(CompressionCodec.NONE, stored.compressionCodec());
+    try (InputStream restored = filePipelineService.open(metadataFor("file", stored))) {
+      assertArrayEquals(content, restored.readAllBytes());
+    }
+  }
+
+  @Test
+  void storeWhenContentTypeIsIncompressibleShouldSkipCompression() {
+    // Given
+    byte[] content = "not really a jpeg ".repeat(1_000).getBytes();
+
+    // When
+    StoredContent stored = filePipelineService.store(
+        "file", new ByteArrayInputStream(content), "image/jpeg");
+
+    // Then
+    assertEquals(CompressionCodec.NONE, stored.compressionCodec());
+  }
+
+  @Test
+  void storeThenOpenShouldRoundTripEmptyContent() throws IOException {
+    // When
+    StoredContent stored = filePipelineService.store(
+        "file", new ByteArrayInputStream(new byte[0]), "text/plain");
+
+    // Then
+    try (InputStream restored = filePipelineService.open(metadataFor("file", stored))) {
+      assertEquals(0, restored.readAllBytes().length);
+    }
+  }
+
+  @Test
+  void openRangeShouldReturnRequestedBytesAcrossSegments() throws IOException {
+    // Given
+    byte[] content = new byte[1_000_003];
+    new Random(42).nextBytes(content);
+    StoredContent stored = filePipelineService.store(
+        "file", new ByteArrayInputStream(content), "application/pdf");
+    FileMetadata metadata = metadataFor("file", stored);
+
+    // When
+    try (InputStream middle = filePipelineService.openRange(metadata, 65_000, 200_000);
+         InputStream tail = filePipelineService.openRange(metadata, 1_000_000, 3)) {
+
+      // Then
+      assertArrayEquals(Arrays.copyOfRange(content, 65_000, 265_000), middle.readAllBytes());
+      assertArrayEquals(Arrays.copyOfRange(content, 1_000_000, 1_000_003), tail.readAllBytes());
+    }
+  }
+
+  @Test
+  void openRangeWhenRangeExceedsContentShouldThrowException() {
+    // Given
+    StoredContent stored = filePipelineService.store(
+        "file", new ByteArrayInputStream(new byte[100]), "text/plain");
+    FileMetadata metadata = metadataFor("file", stored);
+
+    // When & Then
+    assertThrows(FileStorageException.class,
+        () -> filePipelineService.openRange(metadata, 50, 51));
+  }
+
+  @Test
+  void openWhenSegmentIsTamperedShouldThrowException() throws IOException {
+    // Given
+    byte[] content = "compressible content ".repeat(50_000).getBytes();
+    StoredContent stored = filePipelineService.store(
+        "file", new ByteArrayInputStream(content), "text/plain");
+    Path blob = storageRoot.resolve("file");
+    byte[] bytes = Files.readAllBytes(blob);
+    bytes[SegmentedBlobFormat.HEADER_LENGTH + 100] ^= 1;
+    Files.write(blob, bytes);
+
+    // When & Then
+    try (InputStream restored = filePipelineService.open(metadataFor("file", stored))) {
+      assertThrows(FileEncryptionException.class, restored::readAllBytes);
+    }
+  }
+
+  @Test
+  void storeShouldEncryptEveryFileUnderADataKeyOfItsOwn() throws IOException {
+    // Given
+    byte[] content = "same content ".repeat(1000).getBytes();
+
+    // When
+    StoredContent first = filePipelineService.store(
+        "first", new ByteArrayInputStream(content), "text/plain");
+    StoredContent second = filePipelineService.store(
+        "second", new ByteArrayInputStream(content), "text/plain");
+
+    // Then
+    assertEquals(1, first.keyVersion());
+    assertFalse(Arrays.equals(first.wrappedKey(), second.wrappedKey()));
+    try (InputStream restored = filePipelineService.open(metadataFor("second", second))) {
+      assertArrayEquals(content, restored.readAllBytes());
+    }
+    FileMetadata withWrongKey = metadataFor("second", first);
+    assertThrows(FileEncryptionException.class, () -> {
+      try (InputStream restored = filePipelineService.open(withWrongKey)) {
+        restored.readAllBytes();
+      }
+    });
+  }
+
+  @Test
+  void openWhenFileUsesLegacyFormatShouldDecompressThenDecrypt() throws IOException {
+    // Given
+    byte[] content = "legacy content".getBytes();
+    FileEncryptionService fileEncryptionService =
+        new FileEncryptionService(keyManagementService, new AesGcmEngine());
+    byte[] iv = fileEncryptionService.generateIv();
+    try (OutputStream out = Files.newOutputStream(storageRoot.resolve("legacy"))) {
+      out.write(iv);
+      try (OutputStream compressed = new GZIPOutputStream(out);
+           OutputStream encrypted = fileEncryptionService.encryptingStream(compressed, iv)) {
+        encrypted.write(content);
+      }
+    }
+    StoredContent legacy = new StoredContent(
+        0L, StorageFormat.ENCRYPT_THEN_COMPRESS, CompressionCodec.GZIP, null, null, null);
+
+    // When
+    try (InputStream restored = filePipelineService.open(metadataFor("legacy", legacy))) {
+      // Then
+      assertArrayEquals(content, restored.readAllBytes());
+    }
+  }
+
+  @Test
+  void openWhenFileIsMissingShouldThrowException() {
+    StoredContent stored = new StoredContent(
+        0L, StorageFormat.COMPRESS_THEN_ENCRYPT, CompressionCodec.GZIP, null, null, null);
+    FileMetadata metadata = metadataFor("missing", stored);
+    assertThrows(FileStorageException.class, () -> filePipelineService.open(metadata));
+  }
+
+  private FileMetadata metadataFor(String storagePath, StoredContent stored) {
+    return FileMetadata.builder()
+        .storagePath(storagePath)
+        .storageFormat(stored.storageFormat())
+        .compressionCodec(stored.compressionCodec())
+        .wrappedKey(stored.wrappedKey())
+        .keyVersion(stored.keyVersion())
+        .build();
+  }
+
+}
@@ -1,27 +1,43 @@
 package com.mvasilakos.filestorage.service;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.mvasilakos.filestorage.config.StorageLayoutProperties;
 import com.mvasilakos.filestorage.dto.FileMetadataDto;
 import com.mvasilakos.filestorage.exception.FileStorageException;
+import com.mvasilakos.filestorage.exception.RangeNotSatisfiableException;
 import com.mvasilakos.filestorage.mapper.FileMetadataMapper;
+import com.mvasilakos.filestorage.model.CompressionCodec;
+import com.mvasilakos.filestorage.model.ContentBlob;
 import com.mvasilakos.filestorage.model.FileAccessLevel;
 import com.mvasilakos.filestorage.model.FileMetadata;
 import com.mvasilakos.filestorage.model.FilePermission;
+import com.mvasilakos.filestorage.model.StorageFormat;
 import com.mvasilakos.filestorage.model.User;
 import com.mvasilakos.filestorage.repository.FileMetadataRepository;
 import com.mvasilakos.filestorage.repository.FilePermissionRepository;
-import com.mvasilakos.filestorage.service.FileStorageService.StoredFileData;
+import com.mvasilakos.filestorage.service.FilePipelineService.StoredContent;
+import com.mvasilakos.filestorage.service.FileService.ContentRange;
+import com.mvasilakos.filestorage.service.FileService.FileDownload;
+import com.mvasilakos.filestorage.validator.FileValidator;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.time.LocalDateTime;
 import java.util.Collections;
 import java.util.List;
@@ -33,8 +49,10 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.springframework.core.io.Resource;
+import org.springframework.http.HttpRange;
+import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.util.ReflectionTestUtils;
 
 
@@ -54,13 +72,22 @@ class FileServiceTest {
   private UserService userService;
 
   @Mock
-  private FileStorageService fileStorageService;
+  private ContentBlobService contentBlobService;
 
   @Mock
-  private FileEncryptionService fileEncryptionService;
+  private FilePipelineService filePipelineService;
 
   @Mock
-  private FileCompressionService fileCompressionService;
+  private FileValidator fileValidator;
+
+  @Mock
+  private StorageTieringService storageTieringService;
+
+  @Mock
+  private DecryptedContentCache decryptedContentCache;
+
+  @Spy
+  private StorageLayout storageLayout = new StorageLayout(new StorageLayoutProperties());
 
   @InjectMocks
   private FileService fileService;
@@ -110,6 +137,160 @@ class FileServiceTest {
     ReflectionTestUtils.setField(fileService, "maxStoragePerUser", 10485760L);
   }
 
+  @Test
+  void uploadFileShouldStreamContentThroughPipelineAndSaveMetadata() {
+    // Given
+    MockMultipartFile file = new MockMultipartFile(
+        "file", "test.txt", "text/plain", "file content".getBytes());
+    when(fileMetadataRepository.sumSizeByOwner(ownerUser)).thenReturn(0L);
+    when(fileValidator.validateFile(file)).thenReturn("text/plain");
+    when(filePipelineService.store(anyString(), any(), eq("text/plain")))
+        .thenReturn(new StoredContent(42L, StorageFormat.COMPRESS_THEN_ENCRYPT,
+            CompressionCodec.GZIP, "abc123", new byte[]{1, 2, 3}, 1));
+    when(fileMetadataRepository.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
+    when(fileMetadataMapper.toDto(any())).thenReturn(testFileMetadataDto);
+
+    // When
+    FileMetadataDto result = fileService.uploadFile(file, ownerUser);
+
+    // Then
+    assertEquals(testFileMetadataDto, result);
+
+    ArgumentCaptor<FileMetadata> metadataCaptor = ArgumentCaptor.forClass(FileMetadata.class);
+    verify(fileMetadataRepository).save(metadataCaptor.capture());
+    FileMetadata savedMetadata = metadataCaptor.getValue();
+
+    assertEquals("test.txt", savedMetadata.getFilename());
+    assertEquals(42L, savedMetadata.getSize());
+    assertEquals(file.getSize(), savedMetadata.getOriginalFileSize());
+    assertEquals(ownerUser, savedMetadata.getOwner());
+    assertEquals(StorageFormat.COMPRESS_THEN_ENCRYPT, savedMetadata.getStorageFormat());
+    assertEquals(CompressionCodec.GZIP, savedMetadata.getCompressionCodec());
+    assertEquals("abc123", savedMetadata.getContentHash());
+    assertArrayEquals(new byte[]{1, 2, 3}, savedMetadata.getWrappedKey());
+    assertEquals(1, savedMetadata.getKeyVersion());
+    assertTrue(savedMetadata.getStoragePath().matches(
+        "[0-9a-f]{2}/[0-9a-f]{2}/" + savedMetadata.getId()));
+  }
+
+  @Test
+  void uploadFileWithDuplicateContentShouldReferenceSharedBlob() {
+    // Given
+    MockMultipartFile file = new MockMultipartFile(
+        "file", "test.txt", "text/plain", "file content".getBytes());
+    StoredContent storedContent = new StoredContent(42L, StorageFormat.SEGMENTED,
+        CompressionCodec.GZIP, "abc123", new byte[]{1, 2, 3}, 2);
+    ContentBlob sharedBlob = ContentBlob.builder()
+        .storagePath("shared-blob")
+        .storedSize(40L)
+        .storageFormat(StorageFormat.SEGMENTED)
+        .compressionCodec(CompressionCodec.ZSTD)
+        .wrappedKey(new byte[]{4, 5, 6})
+        .keyVersion(1)
+        .build();
+    when(fileMetadataRepository.sumSizeByOwner(ownerUser)).thenReturn(0L);
+    when(fileValidator.validateFile(file)).thenReturn("text/plain");
+    when(filePipelineService.store(anyString(), any(), eq("text/plain")))
+        .thenReturn(storedContent);
+    when(contentBlobService.deduplicate(anyString(), eq(storedContent), eq(ownerUser)))
+        .thenReturn(Optional.of(sharedBlob));
+    when(fileMetadataRepository.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
+    when(fileMetadataMapper.toDto(any())).thenReturn(testFileMetadataDto);
+
+    // When
+    fileService.uploadFile(file, ownerUser);
+
+    // Then
+    ArgumentCaptor<FileMetadata> metadataCaptor = ArgumentCaptor.forClass(FileMetadata.class);
+    verify(fileMetadataRepository).save(metadataCaptor.capture());
+    FileMetadata savedMetadata = metadataCaptor.getValue();
+
+    assertEquals("shared-blob", savedMetadata.getStoragePath());
+    assertEquals(40L, savedMetadata.getSize());
+    assertEquals(CompressionCodec.ZSTD, savedMetadata.getCompressionCodec());
+    assertEquals("abc123", savedMetadata.getContentHash());
+    assertArrayEquals(new byte[]{4, 5, 6}, savedMetadata.getWrappedKey());
+    assertEquals(1, savedMetadata.getKeyVersion());
+  }
+
+  @Test
+  void uploadFileWhenPipelineFailsShouldCleanUpAndThrow() {
+    // Given
+    MockMultipartFile file = new MockMultipartFile(
+        "file", "test.txt", "text/plain", "file content".getBytes());
+    when(fileMetadataRepository.sumSizeByOwner(ownerUser)).thenReturn(0L);
+    when(filePipelineService.store(anyString(), any(), any()))
+        .thenThrow(new FileStorageException("Failed to store encrypted file"));
+
+    // When & Then
+    assertThrows(FileStorageException.class, () -> fileService.uploadFile(file, ownerUser));
+
+    verify(contentBlobService).release(anyString());
+    verify(fileMetadataRepository, never()).save(any());
+  }
+
+  @Test
+  void uploadRawFileShouldStreamWholeBodyThroughPipelineAndSaveMetadata() {
+    // Given
+    byte[] content = "raw file content".getBytes();
+    when(fileMetadataRepository.sumSizeByOwner(ownerUser)).thenReturn(0L);
+    when(fileValidator.validateContentType(any(), eq("raw.txt"))).thenAnswer(invocation -> {
+      // Detection reads the leading bytes and resets, as Tika does
+      InputStream sniffed = invocation.getArgument(0);
+      sniffed.mark(content.length);
+      sniffed.readNBytes(4);
+      sniffed.reset();
+      return "text/plain";
+    });
+    byte[][] storedBytes = new byte[1][];
+    when(filePipelineService.store(anyString(), any(), eq("text/plain"))).thenAnswer(
+        invocation -> {
+          storedBytes[0] = invocation.<InputStream>getArgument(1).readAllBytes();
+          return new StoredContent(30L, StorageFormat.SEGMENTED, CompressionCodec.NONE,
+              "abc123", new byte[]{1, 2, 3}, 1);
+        });
+    when(fileMetadataRepository.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
+    when(fileMetadataMapper.toDto(any())).thenReturn(testFileMetadataDto);
+
+    // When
+    FileMetadataDto result = fileService.uploadRawFile("raw.txt", content.length,
+        new ByteArrayInputStream(content), ownerUser);
+
+    // Then
+    assertEquals(testFileMetadataDto, result);
+    assertArrayEquals(content, storedBytes[0]);
+    verify(fileValidator).validateDeclaredFile("raw.txt", content.length);
+
+    ArgumentCaptor<FileMetadata> metadataCaptor = ArgumentCaptor.forClass(FileMetadata.class);
+    verify(fileMetadataRepository).save(metadataCaptor.capture());
+    FileMetadata savedMetadata = metadataCaptor.getValue();
+    assertEquals("raw.txt", savedMetadata.getFilename());
+    assertEquals("text/plain", savedMetadata.getContentType());
+    assertEquals(30L, savedMetadata.getSize());
+    assertEquals(content.length, savedMetadata.getOriginalFileSize());
+    assertEquals("abc123", savedMetadata.getContentHash());
+  }
+
+  @Test
+  void uploadRawFileOverStorageLimitShouldThrowBeforeReadingBody() {
+    // Given
+    when(fileMetadataRepository.sumSizeByOwner(ownerUser)).thenReturn(10_000_000L);
+    InputStream body = new InputStream() {
+      @Override
+      public int read() throws IOException {
+        throw new IOException("Body must not be read");
+      }
+    };
+
+    // When & Then
+    assertThrows(FileStorageException.class,
+        () -> fileService.uploadRawFile("raw.txt", 1_000_000L, body, ownerUser));
+
+    verify(fileValidator, never()).validateContentType(any(), any());
+    verify(filePipelineService, never()).store(any(), any(), any());
+    verify(fileMetadataRepository, never()).save(any());
+  }
+
   @Test
   void renameFileShouldChangeFileNameAndReturnMetadata() {
     // Given
@@ -196,48 +377,156 @@ class FileServiceTest {
   }
 
   @Test
-  void downloadFileAsResourceWhenFileExistsShouldReturnResource() {
+  void downloadFileWhenFileExistsShouldReturnContentStream() throws IOException {
+    // Given
     when(fileMetadataRepository.findByIdAndOwnerOrSharedWith(testFileId, testUser))
         .thenReturn(Optional.of(testFileMetadata));
-
-    StoredFileData dummyStoredData = new StoredFileData(
-        "dummyPath".getBytes(), "dummyData".getBytes());
-    when(fileStorageService.readEncryptedFile(any())).thenReturn(dummyStoredData);
-
-    when(fileCompressionService.decompress(any())).thenReturn("decompressedData".getBytes());
-    when(fileEncryptionService.decrypt(any(), any())).thenReturn("file content".getBytes());
+    when(fileMetadataMapper.toDto(testFileMetadata)).thenReturn(testFileMetadataDto);
+    when(filePipelineService.open(testFileMetadata))
+        .thenReturn(new ByteArrayInputStream("file content".getBytes()));
 
     // When
-    Resource result = fileService.downloadFile(testFileId, testUser);
+    FileDownload result = fileService.downloadFile(testFileId, testUser);
 
     // Then
     assertNotNull(result);
-    assertTrue(result.exists());
-    assertTrue(result.isReadable());
+    assertEquals(testFileMetadataDto, result.metadata());
+    assertArrayEquals("file content".getBytes(), result.content().readAllBytes());
     verify(fileMetadataRepository).findByIdAndOwnerOrSharedWith(testFileId, testUser);
-    verify(fileStorageService).readEncryptedFile(any());
-    verify(fileCompressionService).decompress(any());
-    verify(fileEncryptionService).decrypt(any(), any());
+    verify(filePipelineService).open(testFileMetadata);
   }
 
   @Test
-  void downloadFileAsResourceWhenFileNotFoundShouldThrowException() {
+  void downloadFileWhenContentIsCachedShouldNotReadStoredBlob() throws IOException {
+    // Given
+    when(fileMetadataRepository.findByIdAndOwnerOrSharedWith(testFileId, testUser))
+        .thenReturn(Optional.of(testFileMetadata));
+    when(fileMetadataMapper.toDto(testFileMetadata)).thenReturn(testFileMetadataDto);
+    when(decryptedContentCache.get(testFileMetadata))
+        .thenReturn(new ByteArrayInputStream("cached content".getBytes()));
+
+    // When
+    FileDownload result = fileService.downloadFile(testFileId, testUser);
+
+    // Then
+    assertArrayEquals("cached content".getBytes(), result.content().readAllBytes());
+    verify(filePipelineService, never()).open(any());
+  }
+
+  @Test
+  void downloadFileWhenCacheAdmitsFileShouldLoadContentIntoCache() throws IOException {
+    // Given
+    when(fileMetadataRepository.findByIdAndOwnerOrSharedWith(testFileId, testUser))
+        .thenReturn(Optional.of(testFileMetadata));
+    when(fileMetadataMapper.toDto(testFileMetadata)).thenReturn(testFileMetadataDto);
+    when(decryptedContentCache.shouldCache(testFileMetadata)).thenReturn(true);
+    when(filePipelineService.open(testFileMetadata))
+        .thenReturn(new ByteArrayInputStream("file content".getBytes()));
+
+    // When
+    FileDownload result = fileService.downloadFile(testFileId, testUser);
+
+    // Then
+    assertArrayEquals("file content".getBytes(), result.content().readAllBytes());
+    verify(decryptedContentCache).put(testFileMetadata, "file content".getBytes());
+  }
+
+  @Test
+  void downloadFileWhenFileNotFoundShouldThrowException() {
     // Given
     when(fileMetadataRepository.findByIdAndOwnerOrSharedWith(testFileId, testUser))
         .thenReturn(Optional.empty());
 
     // When & Then
     assertThrows(RuntimeException.class, () -> fileService.downloadFile(testFileId, testUser));
+    verify(filePipelineService, never()).open(any());
   }
 
   @Test
-  void downloadFileAsResourceWhenFileDoesNotExistOnDiskShouldThrowException() {
+  void downloadFileWhenFileDoesNotExistOnDiskShouldThrowException() {
     // Given
     when(fileMetadataRepository.findByIdAndOwnerOrSharedWith(testFileId, testUser))
         .thenReturn(Optional.of(testFileMetadata));
+    when(filePipelineService.open(testFileMetadata))
+        .thenThrow(new FileStorageException("Stored file not found on disk"));
 
     // When & Then
-    assertThrows(RuntimeException.class, () -> fileService.downloadFile(testFileId, testUser));
+    assertThrows(FileStorageException.class,
+        () -> fileService.downloadFile(testFileId, testUser));
+  }
+
+  @Test
+  void downloadFileWithRangeShouldOpenOnlyRequestedRange() throws IOException {
+    // Given
+    testFileMetadata.setOriginalFileSize(1000L);
+    when(fileMetadataRepository.findByIdAndOwnerOrSharedWith(testFileId, testUser))
+        .thenReturn(Optional.of(testFileMetadata));
+    when(fileMetadataMapper.toDto(testFileMetadata)).thenReturn(testFileMetadataDto);
+    when(filePipelineService.supportsRanges(testFileMetadata)).thenReturn(true);
+    when(filePipelineService.openRange(testFileMetadata, 900L, 100L))
+        .thenReturn(new ByteArrayInputStream("range".getBytes()));
+
+    // When
+    FileDownload result = fileService.downloadFile(
+        testFileId, testUser, HttpRange.parseRanges("bytes=900-"));
+
+    // Then
+    assertTrue(result.acceptsRanges());
+    assertEquals(new ContentRange(900L, 999L, 1000L), result.range());
+    assertArrayEquals("range".getBytes(), result.content().readAllBytes());
+    verify(filePipelineService, never()).open(any());
+  }
+
+  @Test
+  void downloadFileWithRangeWhenFormatIsNotSeekableShouldReturnWholeFile() {
+    // Given
+    when(fileMetadataRepository.findByIdAndOwnerOrSharedWith(testFileId, testUser))
+        .thenReturn(Optional.of(testFileMetadata));
+    when(fileMetadataMapper.toDto(testFileMetadata)).thenReturn(testFileMetadataDto);
+    when(filePipelineService.open(testFileMetadata))
+        .thenReturn(new ByteArrayInputStream("file content".getBytes()));
+
+    // When
+    FileDownload result = fileService.downloadFile(
+        testFileId, testUser, HttpRange.parseRanges("bytes=0-9"));
+
+    // Then
+    assertFalse(result.acceptsRanges());
+    assertNull(result.range());
+    verify(filePipelineService, never()).openRange(any(), anyLong(), anyLong());
+  }
+
+  @Test
+  void downloadFileWithRangeBeyondContentShouldThrowException() {
+    // Given
+    testFileMetadata.setOriginalFileSize(1000L);
+    when(fileMetadataRepository.findByIdAndOwnerOrSharedWith(testFileId, testUser))
+        .thenReturn(Optional.of(testFileMetadata));
+    when(filePipelineService.supportsRanges(testFileMetadata)).thenReturn(true);
+    List<HttpRange> ranges = HttpRange.parseRanges("bytes=1000-1999");
+
+    // When & Then
+    RangeNotSatisfiableException exception = assertThrows(RangeNotSatisfiableException.class,
+        () -> fileService.downloadFile(testFileId, testUser, ranges));
+    assertEquals(1000L, exception.getContentLength());
+  }
+
+  @Test
+  void downloadFileWhenNotModifiedShouldNotOpenContent() {
+    // Given
+    when(fileMetadataRepository.findByIdAndOwnerOrSharedWith(testFileId, testUser))
+        .thenReturn(Optional.of(testFileMetadata));
+    when(fileMetadataMapper.toDto(testFileMetadata)).thenReturn(testFileMetadataDto);
+
+    // When
+    Optional<FileDownload> result = fileService.downloadFile(testFileId, testUser,
+        HttpRange.parseRanges("bytes=1000-1999"), metadata -> metadata == testFileMetadataDto);
+
+    // Then
+    assertTrue(result.isEmpty());
+    verify(fileMetadataRepository).findByIdAndOwnerOrSharedWith(testFileId, testUser);
+    verify(filePipelineService, never()).open(any());
+    verify(filePipelineService, never()).openRange(any(), anyLong(), anyLong());
   }
 
   @Test
@@ -301,6 +590,21 @@ class FileServiceTest {
     verify(fileMetadataMapper).toDtoList(metadataList);
   }
 
+  @Test
+  void deleteFileShouldReleaseBlobAndInvalidateCachedContent() {
+    // Given
+    when(fileMetadataRepository.findByIdAndOwner(testFileId, ownerUser))
+        .thenReturn(Optional.of(testFileMetadata));
+
+    // When
+    fileService.deleteFile(testFileId, ownerUser);
+
+    // Then
+    verify(contentBlobService).release(testFileMetadata.getStoragePath());
+    verify(fileMetadataRepository).delete(testFileMetadata);
+    verify(decryptedContentCache).invalidateFile(testFileId);
+  }
+
   @Test
   void deleteFileWhenFileNotFoundShouldThrowException() {
     // Given
@@ -321,7 +625,7 @@ class FileServiceTest {
     // File doesn't exist on disk, will cause IOException
     when(fileMetadataRepository.findByIdAndOwner(testFileId, ownerUser))
         .thenReturn(Optional.of(testFileMetadata));
-    doThrow(new FileStorageException("")).when(fileStorageService).deleteFile(any());
+    doThrow(new FileStorageException("")).when(contentBlobService).release(any());
 
     // When & Then
     assertThrows(FileStorageException.class, () -> fileService.deleteFile(testFileId, ownerUser));
@@ -0,0 +1,220 @@
+package com.mvasilakos.filestorage.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.mvasilakos.filestorage.config.DurabilityProperties;
+import com.mvasilakos.filestorage.config.PackingProperties;
+import com.mvasilakos.filestorage.config.TieringProperties;
+import com.mvasilakos.filestorage.exception.FileStorageException;
+import com.mvasilakos.filestorage.model.StorageTier;
+import com.mvasilakos.filestorage.storage.PackedBlobStore;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+class FileStorageServiceTest {
+
+  private static final int THRESHOLD = 1024;
+
+  @TempDir
+  private Path storageRoot;
+
+  @TempDir
+  private Path coldRoot;
+
+  private PackedBlobStore packedBlobStore;
+  private FileStorageService fileStorageService;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    PackingProperties properties = new PackingProperties();
+    properties.setThreshold(THRESHOLD);
+    packedBlobStore = new PackedBlobStore(storageRoot.toString(), properties,
+        new DurabilityProperties());
+    packedBlobStore.open();
+    fileStorageService = new FileStorageService(storageRoot.toString(),
+        Optional.of(packedBlobStore), new DurabilityProperties(), new TieringProperties());
+  }
+
+  @AfterEach
+  void tearDown() {
+    packedBlobStore.close();
+  }
+
+  @Test
+  void storeBlobWhenBlobIsSmallShouldPackIt() throws IOException {
+    // Given
+    byte[] blob = content(THRESHOLD);
+
+    // When
+    long storedSize = fileStorageService.storeBlob("ab/small", out -> out.write(blob));
+
+    // Then
+    assertEquals(blob.length, storedSize);
+    assertTrue(packedBlobStore.contains("ab/small"));
+    assertFalse(Files.exists(storageRoot.resolve("ab/small")));
+    assertTrue(fileStorageService.fileExists("ab/small"));
+    assertEquals(blob.length, fileStorageService.getFileSize("ab/small"));
+    try (InputStream range = fileStorageService.openFileRange("ab/small", 10, 20)) {
+      assertArrayEquals(Arrays.copyOfRange(blob, 10, 30), range.readAllBytes());
+    }
+
+    fileStorageService.deleteFile("ab/small");
+    assertFalse(fileStorageService.fileExists("ab/small"));
+  }
+
+  @Test
+  void storeBlobWhenBlobOutgrowsThresholdShouldSpillToFile() throws IOException {
+    // Given
+    byte[] blob = content(3 * THRESHOLD);
+
+    // When
+    long storedSize = fileStorageService.storeBlob("ab/large", out -> {
+      for (int offset = 0; offset < blob.length; offset += 100) {
+        out.write(blob, offset, Math.min(100, blob.length - offset));
+      }
+    });
+
+    // Then
+    assertEquals(blob.length, storedSize);
+    assertFalse(packedBlobStore.contains("ab/large"));
+    assertArrayEquals(blob, Files.readAllBytes(storageRoot.resolve("ab/large")));
+    try (InputStream stored = fileStorageService.openFile("ab/large")) {
+      assertArrayEquals(blob, stored.readAllBytes());
+    }
+  }
+
+  @Test
+  void storeFileWhenWriterFailsShouldKeepPreviousFileAndLeaveNoTemporaryFile() throws IOException {
+    // Given
+    byte[] previous = content(100);
+    fileStorageService.storeFile("ab/file", out -> out.write(previous));
+
+    // When & Then
+    assertThrows(FileStorageException.class, () ->
+        fileStorageService.storeFile("ab/file", out -> {
+          out.write(content(200));
+          throw new IOException("Client went away");
+        }));
+    assertArrayEquals(previous, Files.readAllBytes(storageRoot.resolve("ab/file")));
+    assertEquals(List.of(storageRoot.resolve("ab/file")), filesIn(storageRoot.resolve("ab")));
+  }
+
+  @Test
+  void storeBlobWhenWriterFailsAfterSpillingShouldLeaveNoFile() throws IOException {
+    // When & Then
+    assertThrows(FileStorageException.class, () ->
+        fileStorageService.storeBlob("ab/large", out -> {
+          out.write(content(3 * THRESHOLD));
+          throw new IOException("Client went away");
+        }));
+    assertFalse(fileStorageService.fileExists("ab/large"));
+    assertEquals(List.of(), filesIn(storageRoot.resolve("ab")));
+  }
+
+  @Test
+  void moveToTierShouldMoveLooseBlobBetweenTiersAndKeepItReadable() throws IOException {
+    // Given
+    FileStorageService tieredStorageService = tieredStorageService();
+    byte[] blob = content(3 * THRESHOLD);
+    tieredStorageService.storeBlob("ab/large", out -> out.write(blob));
+
+    // When
+    assertTrue(tieredStorageService.moveToTier("ab/large", StorageTier.COLD));
+
+    // Then
+    assertFalse(Files.exists(storageRoot.resolve("ab/large")));
+    assertArrayEquals(blob, Files.readAllBytes(coldRoot.resolve("ab/large")));
+    assertTrue(tieredStorageService.fileExists("ab/large"));
+    assertEquals(blob.length, tieredStorageService.getFileSize("ab/large"));
+    try (InputStream range = tieredStorageService.openFileRange("ab/large", 100, 50)) {
+      assertArrayEquals(Arrays.copyOfRange(blob, 100, 150), range.readAllBytes());
+    }
+    assertFalse(tieredStorageService.moveToTier("ab/large", StorageTier.COLD));
+
+    // When
+    assertTrue(tieredStorageService.moveToTier("ab/large", StorageTier.HOT));
+
+    // Then
+    assertFalse(Files.exists(coldRoot.resolve("ab/large")));
+    try (InputStream stored = tieredStorageService.openFile("ab/large")) {
+      assertArrayEquals(blob, stored.readAllBytes());
+    }
+  }
+
+  @Test
+  void moveToTierShouldUnpackDemotedBlobsAndPackThemAgainOnPromotion() throws IOException {
+    // Given
+    FileStorageService tieredStorageService = tieredStorageService();
+    byte[] blob = content(THRESHOLD / 2);
+    tieredStorageService.storeBlob("ab/small", out -> out.write(blob));
+
+    // When
+    tieredStorageService.moveToTier("ab/small", StorageTier.COLD);
+
+    // Then
+    assertFalse(packedBlobStore.contains("ab/small"));
+    try (InputStream stored = tieredStorageService.openFile("ab/small")) {
+      assertArrayEquals(blob, stored.readAllBytes());
+    }
+
+    // When
+    tieredStorageService.moveToTier("ab/small", StorageTier.HOT);
+
+    // Then
+    assertTrue(packedBlobStore.contains("ab/small"));
+    assertFalse(Files.exists(coldRoot.resolve("ab/small")));
+    tieredStorageService.deleteFile("ab/small");
+    assertFalse(tieredStorageService.fileExists("ab/small"));
+  }
+
+  @Test
+  void deleteFileShouldDeleteBlobFromColdTier() throws IOException {
+    // Given
+    FileStorageService tieredStorageService = tieredStorageService();
+    tieredStorageService.storeBlob("ab/large", out -> out.write(content(3 * THRESHOLD)));
+    tieredStorageService.moveToTier("ab/large", StorageTier.COLD);
+
+    // When
+    tieredStorageService.deleteFile("ab/large");
+
+    // Then
+    assertFalse(Files.exists(coldRoot.resolve("ab/large")));
+    assertFalse(tieredStorageService.fileExists("ab/large"));
+    assertThrows(FileStorageException.class, () -> tieredStorageService.openFile("ab/large"));
+  }
+
+  private FileStorageService tieredStorageService() {
+    TieringProperties tieringProperties = new TieringProperties();
+    tieringProperties.setColdLocation(coldRoot.toString());
+    return new FileStorageService(storageRoot.toString(), Optional.of(packedBlobStore),
+        new DurabilityProperties(), tieringProperties);
+  }
+
+  private List<Path> filesIn(Path directory) throws IOException {
+    try (Stream<Path> paths = Files.list(directory)) {
+      return paths.toList();
+    }
+  }
+
+  private byte[] content(int length) {
+    byte[] content = new byte[length];
+    new Random(length).nextBytes(content);
+    return content;
+  }
+}
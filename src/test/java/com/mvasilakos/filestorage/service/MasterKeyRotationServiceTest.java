@@ -0,0 +1,149 @@
+package com.mvasilakos.filestorage.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.mvasilakos.filestorage.config.EncryptionProperties;
+import com.mvasilakos.filestorage.crypto.AesGcmEngine;
+import com.mvasilakos.filestorage.dto.KeyRotationStatusDto;
+import com.mvasilakos.filestorage.model.ContentBlob;
+import com.mvasilakos.filestorage.model.FileMetadata;
+import com.mvasilakos.filestorage.repository.ContentBlobRepository;
+import com.mvasilakos.filestorage.repository.FileMetadataRepository;
+import com.mvasilakos.filestorage.service.DataKeyService.DataKey;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import javax.crypto.KeyGenerator;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+
+@ExtendWith(MockitoExtension.class)
+class MasterKeyRotationServiceTest {
+
+  private static final UUID FIRST_ID = new UUID(0, 0);
+
+  @Mock
+  private SimpleKeyManagementService keyManagementService;
+
+  @Mock
+  private FileMetadataRepository fileMetadataRepository;
+
+  @Mock
+  private ContentBlobRepository contentBlobRepository;
+
+  @Mock
+  private JdbcTemplate jdbcTemplate;
+
+  private KeyGenerator keyGenerator;
+  private DataKeyService dataKeyService;
+  private MasterKeyRotationService rotationService;
+
+  @BeforeEach
+  void setUp() throws NoSuchAlgorithmException {
+    keyGenerator = KeyGenerator.getInstance("AES");
+    keyGenerator.init(256);
+    when(keyManagementService.getMasterKey(1)).thenReturn(keyGenerator.generateKey());
+
+    EncryptionProperties properties = new EncryptionProperties();
+    properties.setRewrapBatchSize(2);
+    properties.setRewrapBatchDelay(Duration.ZERO);
+    dataKeyService = new DataKeyService(keyManagementService, new AesGcmEngine(), properties);
+    rotationService = new MasterKeyRotationService(keyManagementService, dataKeyService,
+        fileMetadataRepository, contentBlobRepository, jdbcTemplate, properties);
+  }
+
+  @Test
+  void rewrapAllShouldRewrapDataKeysBatchByBatch() {
+    // Given
+    when(keyManagementService.getCurrentMasterKeyVersion()).thenReturn(1);
+    DataKey blobKey = dataKeyService.generateDataKey();
+    DataKey fileKey = dataKeyService.generateDataKey();
+    ContentBlob blob = ContentBlob.builder().id(UUID.randomUUID())
+        .wrappedKey(blobKey.wrappedKey()).keyVersion(1).build();
+    List<FileMetadata> files = List.of(file(fileKey), file(fileKey), file(fileKey));
+
+    when(keyManagementService.getCurrentMasterKeyVersion()).thenReturn(2);
+    when(keyManagementService.getMasterKey(2)).thenReturn(keyGenerator.generateKey());
+    when(contentBlobRepository.findWithKeyVersionBelow(2, FIRST_ID, 2))
+        .thenReturn(List.of(blob));
+    when(contentBlobRepository.findWithKeyVersionBelow(2, blob.getId(), 2))
+        .thenReturn(List.of());
+    when(fileMetadataRepository.findWithKeyVersionBelow(2, FIRST_ID, 2))
+        .thenReturn(files.subList(0, 2));
+    when(fileMetadataRepository.findWithKeyVersionBelow(2, files.get(1).getId(), 2))
+        .thenReturn(files.subList(2, 3));
+    when(fileMetadataRepository.findWithKeyVersionBelow(2, files.get(2).getId(), 2))
+        .thenReturn(List.of());
+    when(jdbcTemplate.batchUpdate(anyString(), anyList()))
+        .thenReturn(new int[]{1}, new int[]{1, 0}, new int[]{1});
+
+    // When
+    rotationService.rewrapAll();
+
+    // Then
+    @SuppressWarnings("unchecked")
+    ArgumentCaptor<List<Object[]>> updates = ArgumentCaptor.forClass(List.class);
+    verify(jdbcTemplate).batchUpdate(eq("UPDATE content_blobs "
+        + "SET wrapped_key = ?, key_version = ? WHERE id = ? AND key_version = ?"),
+        updates.capture());
+    Object[] blobUpdate = updates.getValue().get(0);
+    assertEquals(2, blobUpdate[1]);
+    assertEquals(blob.getId(), blobUpdate[2]);
+    assertEquals(1, blobUpdate[3]);
+    assertArrayEquals(blobKey.key().getEncoded(),
+        new DataKeyService(keyManagementService, new AesGcmEngine(), new EncryptionProperties())
+            .unwrap((byte[]) blobUpdate[0], 2).getEncoded());
+
+    KeyRotationStatusDto status = rotationService.getStatus();
+    assertFalse(status.running());
+    assertEquals(2, status.masterKeyVersion());
+    assertEquals(4, status.scanned());
+    assertEquals(3, status.rewrapped());
+    assertEquals(0, status.failed());
+  }
+
+  @Test
+  void rewrapAllWhenDataKeyCannotBeUnwrappedShouldSkipIt() {
+    // Given
+    when(keyManagementService.getCurrentMasterKeyVersion()).thenReturn(2);
+    FileMetadata corrupt = FileMetadata.builder().id(UUID.randomUUID())
+        .wrappedKey(new byte[60]).keyVersion(1).build();
+    when(contentBlobRepository.findWithKeyVersionBelow(2, FIRST_ID, 2)).thenReturn(List.of());
+    when(fileMetadataRepository.findWithKeyVersionBelow(2, FIRST_ID, 2))
+        .thenReturn(List.of(corrupt));
+    when(fileMetadataRepository.findWithKeyVersionBelow(2, corrupt.getId(), 2))
+        .thenReturn(List.of());
+
+    // When
+    rotationService.rewrapAll();
+
+    // Then
+    verify(jdbcTemplate, never()).batchUpdate(anyString(),
+        anyList());
+    assertEquals(1, rotationService.getStatus().scanned());
+    assertEquals(1, rotationService.getStatus().failed());
+  }
+
+  private static FileMetadata file(DataKey dataKey) {
+    return FileMetadata.builder()
+        .id(UUID.randomUUID())
+        .wrappedKey(dataKey.wrappedKey())
+        .keyVersion(dataKey.keyVersion())
+        .build();
+  }
+}
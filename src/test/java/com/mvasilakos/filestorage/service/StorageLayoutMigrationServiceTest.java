@@ -0,0 +1,139 @@
+package com.mvasilakos.filestorage.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.mvasilakos.filestorage.config.ContentCacheProperties;
+import com.mvasilakos.filestorage.config.DurabilityProperties;
+import com.mvasilakos.filestorage.config.StorageLayoutProperties;
+import com.mvasilakos.filestorage.config.TieringProperties;
+import com.mvasilakos.filestorage.dto.StorageMigrationStatusDto;
+import com.mvasilakos.filestorage.repository.ContentBlobRepository;
+import com.mvasilakos.filestorage.repository.FileMetadataRepository;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+
+
+@ExtendWith(MockitoExtension.class)
+class StorageLayoutMigrationServiceTest {
+
+  @Mock
+  private FileMetadataRepository fileMetadataRepository;
+
+  @Mock
+  private ContentBlobRepository contentBlobRepository;
+
+  @Mock
+  private PlatformTransactionManager transactionManager;
+
+  @TempDir
+  private Path storageRoot;
+
+  private StorageLayout storageLayout;
+  private StorageLayoutMigrationService migrationService;
+
+  @BeforeEach
+  void setUp() {
+    StorageLayoutProperties properties = new StorageLayoutProperties();
+    properties.setMigrationBatchSize(2);
+    properties.setMigrationBatchDelay(Duration.ZERO);
+    storageLayout = new StorageLayout(properties);
+
+    FileStorageService fileStorageService = new FileStorageService(storageRoot.toString(),
+        Optional.empty(), new DurabilityProperties(), new TieringProperties());
+    migrationService = new StorageLayoutMigrationService(fileMetadataRepository,
+        contentBlobRepository, fileStorageService, storageLayout,
+        properties, new DecryptedContentCache(new ContentCacheProperties()), transactionManager);
+  }
+
+  @Test
+  void migrateAllShouldMoveFlatBlobsIntoShardsAndRepointFiles() throws IOException {
+    // Given
+    byte[] content = "stored blob".getBytes();
+    Files.write(storageRoot.resolve("blob-a"), content);
+    Files.write(storageRoot.resolve("blob-b"), content);
+    String shardedPath = storageLayout.storagePathFor("blob-c");
+    Files.createDirectories(storageRoot.resolve(shardedPath).getParent());
+    Files.write(storageRoot.resolve(shardedPath), content);
+
+    when(fileMetadataRepository.findStoragePathsAfter(eq(""), any()))
+        .thenReturn(List.of("blob-a", "blob-b"));
+    when(fileMetadataRepository.findStoragePathsAfter(eq("blob-b"), any()))
+        .thenReturn(List.of(shardedPath));
+    when(fileMetadataRepository.findStoragePathsAfter(eq(shardedPath), any()))
+        .thenReturn(List.of());
+    when(fileMetadataRepository.updateStoragePath(anyString(), anyString())).thenReturn(1);
+
+    // When
+    migrationService.migrateAll();
+
+    // Then
+    for (String blobName : List.of("blob-a", "blob-b")) {
+      String newPath = storageLayout.storagePathFor(blobName);
+      assertFalse(Files.exists(storageRoot.resolve(blobName)));
+      assertArrayEquals(content, Files.readAllBytes(storageRoot.resolve(newPath)));
+      verify(fileMetadataRepository).updateStoragePath(blobName, newPath);
+      verify(contentBlobRepository).updateStoragePath(blobName, newPath);
+    }
+    verify(fileMetadataRepository, never()).updateStoragePath(eq(shardedPath), anyString());
+
+    StorageMigrationStatusDto status = migrationService.getStatus();
+    assertFalse(status.running());
+    assertEquals(3, status.scanned());
+    assertEquals(2, status.migrated());
+    assertEquals(0, status.failed());
+  }
+
+  @Test
+  void migrateAllWhenFilesWereDeletedMeanwhileShouldDropNewLink() throws IOException {
+    // Given
+    Files.write(storageRoot.resolve("blob-a"), "stored blob".getBytes());
+    when(fileMetadataRepository.findStoragePathsAfter(eq(""), any()))
+        .thenReturn(List.of("blob-a"));
+    when(fileMetadataRepository.findStoragePathsAfter(eq("blob-a"), any()))
+        .thenReturn(List.of());
+
+    // When
+    migrationService.migrateAll();
+
+    // Then
+    assertTrue(Files.exists(storageRoot.resolve("blob-a")));
+    assertFalse(Files.exists(storageRoot.resolve(storageLayout.storagePathFor("blob-a"))));
+    assertEquals(0, migrationService.getStatus().migrated());
+  }
+
+  @Test
+  void migrateAllWhenBlobIsMissingShouldCountFailureAndKeepFiles() {
+    // Given
+    when(fileMetadataRepository.findStoragePathsAfter(eq(""), any()))
+        .thenReturn(List.of("missing"));
+    when(fileMetadataRepository.findStoragePathsAfter(eq("missing"), any()))
+        .thenReturn(List.of());
+
+    // When
+    migrationService.migrateAll();
+
+    // Then
+    verify(fileMetadataRepository, never()).updateStoragePath(anyString(), anyString());
+    assertEquals(1, migrationService.getStatus().failed());
+  }
+}
@@ -0,0 +1,61 @@
+package com.mvasilakos.filestorage.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.mvasilakos.filestorage.config.StorageLayoutProperties;
+import org.junit.jupiter.api.Test;
+
+
+class StorageLayoutTest {
+
+  @Test
+  void storagePathForShouldNestBlobInHashPrefixDirectories() {
+    // Given
+    StorageLayout storageLayout = new StorageLayout(new StorageLayoutProperties());
+
+    // When
+    String storagePath = storageLayout.storagePathFor("blob");
+
+    // Then
+    // SHA-256("blob") starts with fa2c
+    assertEquals("fa/2c/blob", storagePath);
+    assertEquals("blob", storageLayout.blobName(storagePath));
+    assertTrue(storageLayout.isCurrent(storagePath));
+    assertFalse(storageLayout.isCurrent("blob"));
+  }
+
+  @Test
+  void storagePathForShouldFollowConfiguredFanOut() {
+    // Given
+    StorageLayoutProperties properties = new StorageLayoutProperties();
+    properties.setShardDepth(3);
+    properties.setShardWidth(1);
+    StorageLayout storageLayout = new StorageLayout(properties);
+
+    // When & Then
+    assertEquals("f/a/2/blob", storageLayout.storagePathFor("blob"));
+    assertFalse(storageLayout.isCurrent("fa/2c/blob"));
+  }
+
+  @Test
+  void storagePathForWithoutShardsShouldKeepStorageRootFlat() {
+    // Given
+    StorageLayoutProperties properties = new StorageLayoutProperties();
+    properties.setShardDepth(0);
+    StorageLayout storageLayout = new StorageLayout(properties);
+
+    // When & Then
+    assertEquals("blob", storageLayout.storagePathFor("blob"));
+    assertTrue(storageLayout.isCurrent("blob"));
+  }
+
+  @Test
+  void constructorWhenShardsExceedHashShouldThrowException() {
+    StorageLayoutProperties properties = new StorageLayoutProperties();
+    properties.setShardDepth(33);
+    assertThrows(IllegalArgumentException.class, () -> new StorageLayout(properties));
+  }
+}
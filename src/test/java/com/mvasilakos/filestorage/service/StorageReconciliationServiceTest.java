@@ -0,0 +1,264 @@
+package com.mvasilakos.filestorage.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.mvasilakos.filestorage.config.DurabilityProperties;
+import com.mvasilakos.filestorage.config.PackingProperties;
+import com.mvasilakos.filestorage.config.ReconciliationProperties;
+import com.mvasilakos.filestorage.config.TieringProperties;
+import com.mvasilakos.filestorage.dto.ReconciliationReportDto;
+import com.mvasilakos.filestorage.model.ReconciliationAction;
+import com.mvasilakos.filestorage.repository.ContentBlobRepository;
+import com.mvasilakos.filestorage.repository.FileMetadataRepository;
+import com.mvasilakos.filestorage.storage.PackedBlobStore;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+
+
+@ExtendWith(MockitoExtension.class)
+class StorageReconciliationServiceTest {
+
+  private static final byte[] CONTENT = "stored blob".getBytes();
+
+  @Mock
+  private FileMetadataRepository fileMetadataRepository;
+
+  @Mock
+  private ContentBlobRepository contentBlobRepository;
+
+  @Mock
+  private PlatformTransactionManager transactionManager;
+
+  @TempDir
+  private Path storageRoot;
+
+  @TempDir
+  private Path coldRoot;
+
+  private ReconciliationProperties properties;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    properties = new ReconciliationProperties();
+    properties.setBatchSize(2);
+    properties.setScanRate(0);
+    properties.setParallelism(2);
+
+    // One referenced blob, two orphans and a file whose blob is missing
+    write("aa/blob-a");
+    write("aa/blob-b");
+    write("blob-z");
+    write("bb/blob-c.0123456789abcdef.tmp");
+    write(".uploads/session/0");
+    when(fileMetadataRepository.findStoragePathsInByteOrderAfter("", 2))
+        .thenReturn(List.of("aa/blob-a", "cc/blob-missing"));
+    when(fileMetadataRepository.findStoragePathsInByteOrderAfter("cc/blob-missing", 2))
+        .thenReturn(List.of());
+  }
+
+  @Test
+  void reconcileShouldQuarantineOrphanBlobsOnlyOnceTwoRunsFoundThem() throws IOException {
+    // Given
+    StorageReconciliationService reconciliationService =
+        reconciliationService(fileStorageService());
+
+    // When
+    reconciliationService.reconcile();
+
+    // Then
+    ReconciliationReportDto firstReport = reconciliationService.getReport();
+    assertEquals(3, firstReport.blobsScanned());
+    assertEquals(2, firstReport.rowsScanned());
+    assertEquals(2, firstReport.suspectedBlobs());
+    assertEquals(1, firstReport.suspectedRows());
+    assertEquals(0, firstReport.orphanBlobs());
+    assertTrue(Files.exists(storageRoot.resolve("aa/blob-b")));
+
+    // When
+    reconciliationService.reconcile();
+
+    // Then
+    ReconciliationReportDto secondReport = reconciliationService.getReport();
+    assertEquals(2, secondReport.orphanBlobs());
+    assertEquals(1, secondReport.orphanRows());
+    assertEquals(2, secondReport.quarantined());
+    assertEquals(0, secondReport.deleted());
+    assertEquals(List.of("cc/blob-missing"), secondReport.orphanRowSamples());
+    assertFalse(Files.exists(storageRoot.resolve("aa/blob-b")));
+    assertArrayEquals(CONTENT, Files.readAllBytes(
+        storageRoot.resolve(FileStorageService.QUARANTINE_DIRECTORY).resolve("aa/blob-b")));
+    assertArrayEquals(CONTENT, Files.readAllBytes(
+        storageRoot.resolve(FileStorageService.QUARANTINE_DIRECTORY).resolve("blob-z")));
+    assertTrue(Files.exists(storageRoot.resolve("aa/blob-a")));
+    assertTrue(Files.exists(storageRoot.resolve("bb/blob-c.0123456789abcdef.tmp")));
+    assertTrue(Files.exists(storageRoot.resolve(".uploads/session/0")));
+    verify(contentBlobRepository).deleteUnreferenced("aa/blob-b");
+    verify(fileMetadataRepository, never()).deleteByStoragePath(anyString());
+  }
+
+  @Test
+  void reconcileShouldDeleteOrphanBlobsAndFilesWithoutBlob() {
+    // Given
+    properties.setAction(ReconciliationAction.DELETE);
+    StorageReconciliationService reconciliationService =
+        reconciliationService(fileStorageService());
+
+    // When
+    reconciliationService.reconcile();
+    reconciliationService.reconcile();
+
+    // Then
+    assertEquals(3, reconciliationService.getReport().deleted());
+    assertFalse(Files.exists(storageRoot.resolve("aa/blob-b")));
+    assertFalse(Files.exists(storageRoot.resolve("blob-z")));
+    assertTrue(Files.exists(storageRoot.resolve("aa/blob-a")));
+    verify(fileMetadataRepository).deleteByStoragePath("cc/blob-missing");
+    verify(contentBlobRepository).deleteByStoragePath("cc/blob-missing");
+  }
+
+  @Test
+  void reconcileShouldOnlyReportWhenConfiguredTo() {
+    // Given
+    properties.setAction(ReconciliationAction.REPORT);
+    StorageReconciliationService reconciliationService =
+        reconciliationService(fileStorageService());
+
+    // When
+    reconciliationService.reconcile();
+    reconciliationService.reconcile();
+
+    // Then
+    ReconciliationReportDto report = reconciliationService.getReport();
+    assertEquals(2, report.orphanBlobs());
+    assertEquals(1, report.orphanRows());
+    assertEquals(0, report.quarantined() + report.deleted());
+    assertTrue(Files.exists(storageRoot.resolve("aa/blob-b")));
+    verify(contentBlobRepository, never()).deleteByStoragePath(anyString());
+  }
+
+  @Test
+  void reconcileShouldLeaveBlobReferencedSinceThePreviousRun() {
+    // Given
+    StorageReconciliationService reconciliationService =
+        reconciliationService(fileStorageService());
+    reconciliationService.reconcile();
+    when(fileMetadataRepository.existsByStoragePath("aa/blob-b")).thenReturn(true);
+
+    // When
+    reconciliationService.reconcile();
+
+    // Then
+    assertEquals(1, reconciliationService.getReport().quarantined());
+    assertTrue(Files.exists(storageRoot.resolve("aa/blob-b")));
+    assertFalse(Files.exists(storageRoot.resolve("blob-z")));
+  }
+
+  @Test
+  void reconcileShouldLeaveSharedBlobWhoseRecordCountsReferences() {
+    // Given
+    StorageReconciliationService reconciliationService =
+        reconciliationService(fileStorageService());
+    reconciliationService.reconcile();
+    when(contentBlobRepository.existsByStoragePath("aa/blob-b")).thenReturn(true);
+
+    // When
+    reconciliationService.reconcile();
+
+    // Then
+    assertEquals(1, reconciliationService.getReport().quarantined());
+    assertTrue(Files.exists(storageRoot.resolve("aa/blob-b")));
+    assertFalse(Files.exists(storageRoot.resolve("blob-z")));
+    verify(contentBlobRepository, never()).deleteByStoragePath("aa/blob-b");
+  }
+
+  @Test
+  void reconcileShouldCompareBlobsOnTheColdTier() throws IOException {
+    // Given
+    TieringProperties tieringProperties = new TieringProperties();
+    tieringProperties.setColdLocation(coldRoot.toString());
+    FileStorageService fileStorageService = new FileStorageService(storageRoot.toString(),
+        Optional.empty(), new DurabilityProperties(), tieringProperties);
+    // A referenced blob caught while being moved to the cold tier, and an orphan on the cold tier
+    Files.createDirectories(coldRoot.resolve("aa"));
+    Files.write(coldRoot.resolve("aa/blob-a"), CONTENT);
+    Files.createDirectories(coldRoot.resolve("cold"));
+    Files.write(coldRoot.resolve("cold/blob-y"), CONTENT);
+    StorageReconciliationService reconciliationService =
+        reconciliationService(fileStorageService);
+
+    // When
+    reconciliationService.reconcile();
+    reconciliationService.reconcile();
+
+    // Then
+    ReconciliationReportDto report = reconciliationService.getReport();
+    assertEquals(4, report.blobsScanned());
+    assertEquals(3, report.orphanBlobs());
+    assertEquals(3, report.quarantined());
+    assertTrue(Files.exists(coldRoot.resolve("aa/blob-a")));
+    assertArrayEquals(CONTENT, Files.readAllBytes(
+        coldRoot.resolve(FileStorageService.QUARANTINE_DIRECTORY).resolve("cold/blob-y")));
+  }
+
+  @Test
+  void reconcileShouldQuarantineUnreferencedPackedBlobs() throws IOException {
+    // Given
+    PackedBlobStore packedBlobStore = new PackedBlobStore(storageRoot.toString(),
+        new PackingProperties(), new DurabilityProperties());
+    packedBlobStore.open();
+    packedBlobStore.put("aa/packed-a", CONTENT, CONTENT.length);
+    packedBlobStore.put("aa/packed-b", CONTENT, CONTENT.length);
+    when(fileMetadataRepository.findReferencedStoragePaths(any()))
+        .thenReturn(List.of("aa/packed-a"));
+    FileStorageService fileStorageService = new FileStorageService(storageRoot.toString(),
+        Optional.of(packedBlobStore), new DurabilityProperties(), new TieringProperties());
+    StorageReconciliationService reconciliationService = reconciliationService(
+        fileStorageService);
+
+    // When
+    reconciliationService.reconcile();
+    reconciliationService.reconcile();
+
+    // Then
+    assertTrue(packedBlobStore.contains("aa/packed-a"));
+    assertFalse(packedBlobStore.contains("aa/packed-b"));
+    assertArrayEquals(CONTENT, Files.readAllBytes(
+        storageRoot.resolve(FileStorageService.QUARANTINE_DIRECTORY).resolve("aa/packed-b")));
+    packedBlobStore.close();
+  }
+
+  private FileStorageService fileStorageService() {
+    return new FileStorageService(storageRoot.toString(), Optional.empty(),
+        new DurabilityProperties(), new TieringProperties());
+  }
+
+  private StorageReconciliationService reconciliationService(
+      FileStorageService fileStorageService) {
+    return new StorageReconciliationService(fileMetadataRepository, contentBlobRepository,
+        fileStorageService, fileStorageService, properties, transactionManager);
+  }
+
+  private void write(String storagePath) throws IOException {
+    Path path = storageRoot.resolve(storagePath);
+    Files.createDirectories(path.getParent());
+    Files.write(path, CONTENT);
+  }
+}
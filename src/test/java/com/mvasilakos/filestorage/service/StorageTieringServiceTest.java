@@ -0,0 +1,177 @@
+package com.mvasilakos.filestorage.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.mvasilakos.filestorage.config.DurabilityProperties;
+import com.mvasilakos.filestorage.config.TieringProperties;
+import com.mvasilakos.filestorage.model.StorageTier;
+import com.mvasilakos.filestorage.repository.FileMetadataRepository;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+
+@ExtendWith(MockitoExtension.class)
+class StorageTieringServiceTest {
+
+  private static final byte[] CONTENT = "stored blob".getBytes();
+
+  @Mock
+  private FileMetadataRepository fileMetadataRepository;
+
+  @TempDir
+  private Path storageRoot;
+
+  @TempDir
+  private Path coldRoot;
+
+  private TieringProperties properties;
+  private StorageTieringService tieringService;
+
+  @BeforeEach
+  void setUp() {
+    properties = new TieringProperties();
+    properties.setEnabled(true);
+    properties.setColdLocation(coldRoot.toString());
+    properties.setBatchSize(2);
+    properties.setBatchDelay(Duration.ZERO);
+    FileStorageService fileStorageService = new FileStorageService(storageRoot.toString(),
+        Optional.empty(), new DurabilityProperties(), properties);
+    tieringService = new StorageTieringService(fileMetadataRepository, fileStorageService,
+        properties);
+  }
+
+  @Test
+  void moveBetweenTiersShouldDemoteUnreadBlobsAndPromoteReadOnes() throws IOException {
+    // Given
+    write(storageRoot, "aa/unread");
+    write(coldRoot, "bb/read");
+    when(fileMetadataRepository.findStoragePathsToDemote(eq(""), any(), eq(2)))
+        .thenReturn(List.of("aa/unread"));
+    when(fileMetadataRepository.findStoragePathsToPromote(eq(""), any(), eq(2)))
+        .thenReturn(List.of("bb/read"));
+    when(fileMetadataRepository.updateStorageTier("aa/unread", StorageTier.COLD)).thenReturn(1);
+    when(fileMetadataRepository.updateStorageTier("bb/read", StorageTier.HOT)).thenReturn(1);
+
+    // When
+    tieringService.moveBetweenTiers();
+
+    // Then
+    assertFalse(Files.exists(storageRoot.resolve("aa/unread")));
+    assertArrayEquals(CONTENT, Files.readAllBytes(coldRoot.resolve("aa/unread")));
+    assertFalse(Files.exists(coldRoot.resolve("bb/read")));
+    assertArrayEquals(CONTENT, Files.readAllBytes(storageRoot.resolve("bb/read")));
+  }
+
+  @Test
+  void moveAllShouldContinueAfterLastPathOfFullBatch() throws InterruptedException, IOException {
+    // Given
+    for (String storagePath : List.of("aa/one", "aa/three", "aa/two")) {
+      write(storageRoot, storagePath);
+      when(fileMetadataRepository.updateStorageTier(storagePath, StorageTier.COLD))
+          .thenReturn(1);
+    }
+    LocalDateTime cutoff = LocalDateTime.now();
+    when(fileMetadataRepository.findStoragePathsToDemote("", cutoff, 2))
+        .thenReturn(List.of("aa/one", "aa/three"));
+    when(fileMetadataRepository.findStoragePathsToDemote("aa/three", cutoff, 2))
+        .thenReturn(List.of("aa/two"));
+
+    // When
+    int moved = tieringService.moveAll(StorageTier.COLD, cutoff);
+
+    // Then
+    assertEquals(3, moved);
+  }
+
+  @Test
+  void moveAllShouldDeleteBlobWhenItsFilesWereDeletedMeanwhile() throws Exception {
+    // Given
+    write(storageRoot, "aa/deleted");
+    LocalDateTime cutoff = LocalDateTime.now();
+    when(fileMetadataRepository.findStoragePathsToDemote("", cutoff, 2))
+        .thenReturn(List.of("aa/deleted"));
+
+    // When
+    int moved = tieringService.moveAll(StorageTier.COLD, cutoff);
+
+    // Then
+    assertEquals(0, moved);
+    assertFalse(Files.exists(storageRoot.resolve("aa/deleted")));
+    assertFalse(Files.exists(coldRoot.resolve("aa/deleted")));
+  }
+
+  @Test
+  void moveAllShouldOnlyRecordTierOfBlobAlreadyMoved() throws Exception {
+    // Given
+    write(coldRoot, "aa/moved");
+    LocalDateTime cutoff = LocalDateTime.now();
+    when(fileMetadataRepository.findStoragePathsToDemote("", cutoff, 2))
+        .thenReturn(List.of("aa/moved"));
+    when(fileMetadataRepository.updateStorageTier("aa/moved", StorageTier.COLD)).thenReturn(1);
+
+    // When
+    int moved = tieringService.moveAll(StorageTier.COLD, cutoff);
+
+    // Then
+    assertEquals(0, moved);
+    assertArrayEquals(CONTENT, Files.readAllBytes(coldRoot.resolve("aa/moved")));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void flushAccessesShouldRecordEachReadPathOnce() {
+    // Given
+    tieringService.recordAccess("aa/one");
+    tieringService.recordAccess("aa/two");
+    tieringService.recordAccess("aa/one");
+
+    // When
+    tieringService.flushAccesses();
+    tieringService.flushAccesses();
+
+    // Then
+    ArgumentCaptor<List<String>> captor = ArgumentCaptor.forClass(List.class);
+    verify(fileMetadataRepository).updateLastAccessedAt(captor.capture(), any());
+    assertEquals(Set.of("aa/one", "aa/two"), Set.copyOf(captor.getValue()));
+  }
+
+  @Test
+  void recordAccessWhenTieringIsDisabledShouldNotRecordReads() {
+    // Given
+    properties.setEnabled(false);
+
+    // When
+    tieringService.recordAccess("aa/one");
+    tieringService.flushAccesses();
+
+    // Then
+    verify(fileMetadataRepository, never()).updateLastAccessedAt(anyCollection(), any());
+  }
+
+  private void write(Path location, String storagePath) throws IOException {
+    Path path = location.resolve(storagePath);
+    Files.createDirectories(path.getParent());
+    Files.write(path, CONTENT);
+  }
+}
@@ -0,0 +1,246 @@
+package com.mvasilakos.filestorage.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.mvasilakos.filestorage.config.DurabilityProperties;
+import com.mvasilakos.filestorage.config.TieringProperties;
+import com.mvasilakos.filestorage.config.UploadProperties;
+import com.mvasilakos.filestorage.crypto.AesGcmEngine;
+import com.mvasilakos.filestorage.dto.FileMetadataDto;
+import com.mvasilakos.filestorage.dto.UploadSessionDto;
+import com.mvasilakos.filestorage.exception.FileStorageException;
+import com.mvasilakos.filestorage.exception.InvalidFileException;
+import com.mvasilakos.filestorage.model.UploadSession;
+import com.mvasilakos.filestorage.model.User;
+import com.mvasilakos.filestorage.repository.UploadSessionRepository;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import javax.crypto.KeyGenerator;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.web.multipart.MultipartFile;
+
+
+@ExtendWith(MockitoExtension.class)
+class UploadSessionServiceTest {
+
+  private static final int CHUNK_SIZE = 1024;
+
+  @Mock
+  private UploadSessionRepository uploadSessionRepository;
+
+  @Mock
+  private SimpleKeyManagementService keyManagementService;
+
+  @Mock
+  private FileService fileService;
+
+  @TempDir
+  private Path storageRoot;
+
+  private UploadSessionService uploadSessionService;
+  private User owner;
+  private UploadSession session;
+
+  @BeforeEach
+  void setUp() throws NoSuchAlgorithmException {
+    KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+    keyGenerator.init(256);
+    when(keyManagementService.getSecretKey()).thenReturn(keyGenerator.generateKey());
+
+    UploadProperties uploadProperties = new UploadProperties();
+    uploadProperties.setChunkSize(CHUNK_SIZE);
+    uploadProperties.setSessionTtl(Duration.ofHours(1));
+
+    uploadSessionService = new UploadSessionService(
+        uploadSessionRepository,
+        new FileStorageService(storageRoot.toString(), Optional.empty(),
+            new DurabilityProperties(), new TieringProperties()),
+        new FileEncryptionService(keyManagementService, new AesGcmEngine()),
+        fileService,
+        uploadProperties,
+        10 * CHUNK_SIZE);
+
+    owner = User.builder().id(UUID.randomUUID()).username("owner").build();
+    session = UploadSession.builder()
+        .id(UUID.randomUUID())
+        .owner(owner)
+        .filename("test.txt")
+        .contentType("text/plain")
+        .totalSize(2L * CHUNK_SIZE + 100)
+        .chunkSize(CHUNK_SIZE)
+        .createdAt(LocalDateTime.now())
+        .expiresAt(LocalDateTime.now().plusHours(1))
+        .build();
+  }
+
+  @Test
+  void createSessionShouldSplitFileIntoChunks() {
+    // Given
+    when(uploadSessionRepository.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
+
+    // When
+    UploadSessionDto result = uploadSessionService.createSession(
+        "test.txt", "text/plain", 2L * CHUNK_SIZE + 100, owner);
+
+    // Then
+    assertEquals(CHUNK_SIZE, result.chunkSize());
+    assertEquals(3, result.chunkCount());
+    assertEquals(List.of(), result.receivedChunks());
+  }
+
+  @Test
+  void createSessionWhenFileIsTooLargeShouldThrowException() {
+    assertThrows(InvalidFileException.class, () -> uploadSessionService.createSession(
+        "test.txt", "text/plain", 10L * CHUNK_SIZE + 1, owner));
+    verify(uploadSessionRepository, never()).save(any());
+  }
+
+  @Test
+  void uploadChunksInAnyOrderThenCommitShouldStoreContentInOrder() throws IOException {
+    // Given
+    byte[] content = new byte[2 * CHUNK_SIZE + 100];
+    Arrays.fill(content, CHUNK_SIZE, 2 * CHUNK_SIZE, (byte) 1);
+    Arrays.fill(content, 2 * CHUNK_SIZE, content.length, (byte) 2);
+    when(uploadSessionRepository.findByIdAndOwner(session.getId(), owner))
+        .thenReturn(Optional.of(session));
+    FileMetadataDto metadata = FileMetadataDto.builder().filename("test.txt").build();
+    byte[][] committedContent = new byte[1][];
+    when(fileService.uploadFile(any(), eq(owner))).thenAnswer(invocation -> {
+      MultipartFile file = invocation.getArgument(0);
+      assertEquals("test.txt", file.getOriginalFilename());
+      assertEquals(content.length, file.getSize());
+      committedContent[0] = file.getBytes();
+      return metadata;
+    });
+
+    // When
+    uploadSessionService.uploadChunk(session.getId(), 2, chunk(content, 2), owner);
+    uploadSessionService.uploadChunk(session.getId(), 0, chunk(content, 0), owner);
+    uploadSessionService.uploadChunk(session.getId(), 1, chunk(content, 1), owner);
+    FileMetadataDto result = uploadSessionService.commit(session.getId(), owner);
+
+    // Then
+    assertEquals(metadata, result);
+    assertArrayEquals(content, committedContent[0]);
+    assertFalse(Files.exists(storageRoot.resolve(".uploads").resolve(session.getId().toString())));
+    verify(uploadSessionRepository).delete(session);
+  }
+
+  @Test
+  void uploadChunkShouldNotStageContentInPlaintext() throws IOException {
+    // Given
+    byte[] content = "plaintext chunk ".repeat(64).getBytes();
+    session.setTotalSize((long) content.length);
+    when(uploadSessionRepository.findByIdAndOwner(session.getId(), owner))
+        .thenReturn(Optional.of(session));
+
+    // When
+    uploadSessionService.uploadChunk(session.getId(), 0, new ByteArrayInputStream(content), owner);
+
+    // Then
+    byte[] staged = Files.readAllBytes(
+        storageRoot.resolve(".uploads").resolve(session.getId().toString()).resolve("0"));
+    assertFalse(new String(staged).contains("plaintext chunk"));
+    assertEquals(List.of(0), uploadSessionService.getSession(session.getId(), owner)
+        .receivedChunks());
+  }
+
+  @Test
+  void uploadChunkWithWrongLengthShouldThrowExceptionAndStageNothing() {
+    // Given
+    when(uploadSessionRepository.findByIdAndOwner(session.getId(), owner))
+        .thenReturn(Optional.of(session));
+
+    // When & Then
+    assertThrows(InvalidFileException.class, () -> uploadSessionService.uploadChunk(
+        session.getId(), 0, new ByteArrayInputStream(new byte[CHUNK_SIZE - 1]), owner));
+    assertThrows(InvalidFileException.class, () -> uploadSessionService.uploadChunk(
+        session.getId(), 0, new ByteArrayInputStream(new byte[CHUNK_SIZE + 1]), owner));
+    assertEquals(List.of(), uploadSessionService.getSession(session.getId(), owner)
+        .receivedChunks());
+  }
+
+  @Test
+  void uploadChunkWithIndexOutOfRangeShouldThrowException() {
+    // Given
+    when(uploadSessionRepository.findByIdAndOwner(session.getId(), owner))
+        .thenReturn(Optional.of(session));
+
+    // When & Then
+    assertThrows(InvalidFileException.class, () -> uploadSessionService.uploadChunk(
+        session.getId(), 3, new ByteArrayInputStream(new byte[100]), owner));
+  }
+
+  @Test
+  void commitWhenChunksAreMissingShouldThrowException() {
+    // Given
+    when(uploadSessionRepository.findByIdAndOwner(session.getId(), owner))
+        .thenReturn(Optional.of(session));
+    uploadSessionService.uploadChunk(
+        session.getId(), 0, new ByteArrayInputStream(new byte[CHUNK_SIZE]), owner);
+
+    // When & Then
+    FileStorageException exception = assertThrows(FileStorageException.class,
+        () -> uploadSessionService.commit(session.getId(), owner));
+    assertEquals("Upload is missing chunks: [1, 2]", exception.getMessage());
+    verify(fileService, never()).uploadFile(any(), any());
+  }
+
+  @Test
+  void getSessionWhenSessionExpiredShouldThrowException() {
+    // Given
+    session.setExpiresAt(LocalDateTime.now().minusMinutes(1));
+    when(uploadSessionRepository.findByIdAndOwner(session.getId(), owner))
+        .thenReturn(Optional.of(session));
+
+    // When & Then
+    assertThrows(FileStorageException.class,
+        () -> uploadSessionService.getSession(session.getId(), owner));
+  }
+
+  @Test
+  void purgeExpiredSessionsShouldDeleteSessionsAndChunks() {
+    // Given
+    when(uploadSessionRepository.findByIdAndOwner(session.getId(), owner))
+        .thenReturn(Optional.of(session));
+    uploadSessionService.uploadChunk(
+        session.getId(), 0, new ByteArrayInputStream(new byte[CHUNK_SIZE]), owner);
+    when(uploadSessionRepository.findByExpiresAtBefore(any())).thenReturn(List.of(session));
+
+    // When
+    uploadSessionService.purgeExpiredSessions();
+
+    // Then
+    assertFalse(Files.exists(storageRoot.resolve(".uploads").resolve(session.getId().toString())));
+    verify(uploadSessionRepository).delete(session);
+  }
+
+  private InputStream chunk(byte[] content, int index) {
+    int offset = index * CHUNK_SIZE;
+    return new ByteArrayInputStream(
+        content, offset, Math.min(CHUNK_SIZE, content.length - offset));
+  }
+}
@@ -0,0 +1,108 @@
+package com.mvasilakos.filestorage.storage;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+class GroupCommitCoordinatorTest {
+
+  @TempDir
+  private Path directory;
+
+  private GroupCommitCoordinator groupCommitCoordinator;
+
+  @BeforeEach
+  void setUp() {
+    groupCommitCoordinator = new GroupCommitCoordinator("test-group-commit",
+        Duration.ofMillis(50), 16);
+  }
+
+  @AfterEach
+  void tearDown() {
+    groupCommitCoordinator.close();
+  }
+
+  @Test
+  void commitShouldFlushChannel() throws IOException {
+    // Given
+    try (FileChannel channel = openChannel("segment")) {
+      channel.write(ByteBuffer.wrap(new byte[] {1, 2, 3}));
+
+      // When
+      groupCommitCoordinator.commit(channel);
+    }
+
+    // Then
+    assertArrayEquals(new byte[] {1, 2, 3}, Files.readAllBytes(directory.resolve("segment")));
+  }
+
+  @Test
+  void commitShouldCompleteConcurrentAppendsAndFailOnlyThoseToBrokenChannel() throws Exception {
+    // Given
+    ExecutorService writers = Executors.newFixedThreadPool(8);
+    List<Future<?>> commits = new ArrayList<>();
+
+    // When
+    try (FileChannel channel = openChannel("segment")) {
+      FileChannel closedChannel = openChannel("closed-segment");
+      closedChannel.close();
+      for (int i = 0; i < 8; i++) {
+        FileChannel target = i == 3 ? closedChannel : channel;
+        commits.add(writers.submit(() -> {
+          groupCommitCoordinator.commit(target);
+          return null;
+        }));
+      }
+
+      // Then
+      for (int i = 0; i < commits.size(); i++) {
+        if (i == 3) {
+          Future<?> brokenCommit = commits.get(i);
+          ExecutionException exception = assertThrows(ExecutionException.class,
+              brokenCommit::get);
+          assertInstanceOf(ClosedChannelException.class, exception.getCause());
+        } else {
+          commits.get(i).get();
+        }
+      }
+    } finally {
+      writers.shutdownNow();
+    }
+  }
+
+  @Test
+  void commitWhenClosedShouldFail() throws IOException {
+    // Given
+    groupCommitCoordinator.close();
+
+    // When & Then
+    try (FileChannel channel = openChannel("segment")) {
+      assertThrows(IOException.class, () -> groupCommitCoordinator.commit(channel));
+    }
+  }
+
+  private FileChannel openChannel(String name) throws IOException {
+    return FileChannel.open(directory.resolve(name),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+  }
+}
@@ -0,0 +1,262 @@
+package com.mvasilakos.filestorage.storage;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.mvasilakos.filestorage.config.DurabilityProperties;
+import com.mvasilakos.filestorage.config.PackingProperties;
+import com.mvasilakos.filestorage.model.DurabilityMode;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+class PackedBlobStoreTest {
+
+  // Header, six character path, data and checksum of the records written by the tests
+  private static final long PUT_RECORD_LENGTH = 7 + 6 + 100 + 4;
+  private static final long TOMBSTONE_LENGTH = 7 + 6 + 4;
+
+  @TempDir
+  private Path storageRoot;
+
+  private PackingProperties properties;
+  private DurabilityProperties durabilityProperties;
+  private PackedBlobStore packedBlobStore;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    properties = new PackingProperties();
+    properties.setSegmentSize(1024);
+    durabilityProperties = new DurabilityProperties();
+    packedBlobStore = openStore();
+  }
+
+  @AfterEach
+  void tearDown() {
+    packedBlobStore.close();
+  }
+
+  @Test
+  void putThenReadShouldReturnBlobAndRanges() throws IOException {
+    // Given
+    byte[] blob = "packed blob content".getBytes();
+
+    // When
+    packedBlobStore.put("ab/cd/blob", blob, blob.length);
+
+    // Then
+    assertTrue(packedBlobStore.contains("ab/cd/blob"));
+    assertEquals(blob.length, packedBlobStore.size("ab/cd/blob"));
+    assertArrayEquals(blob, packedBlobStore.read("ab/cd/blob", 0, Long.MAX_VALUE));
+    assertArrayEquals("blob".getBytes(), packedBlobStore.read("ab/cd/blob", 7, 4));
+    assertNull(packedBlobStore.read("missing", 0, Long.MAX_VALUE));
+  }
+
+  @Test
+  void deleteShouldRemoveBlob() throws IOException {
+    // Given
+    packedBlobStore.put("blob", new byte[10], 10);
+
+    // When & Then
+    assertTrue(packedBlobStore.delete("blob"));
+    assertFalse(packedBlobStore.contains("blob"));
+    assertEquals(-1, packedBlobStore.size("blob"));
+    assertFalse(packedBlobStore.delete("blob"));
+  }
+
+  @Test
+  void openShouldRebuildIndexFromSegments() throws IOException {
+    // Given
+    for (int i = 0; i < 50; i++) {
+      packedBlobStore.put("blob-" + i, blob(i), 100);
+    }
+    for (int i = 0; i < 50; i += 2) {
+      packedBlobStore.delete("blob-" + i);
+    }
+    packedBlobStore.put("blob-1", blob(99), 100);
+
+    // When
+    packedBlobStore.close();
+    packedBlobStore = openStore();
+
+    // Then
+    assertTrue(segmentCount() > 1);
+    for (int i = 0; i < 50; i++) {
+      assertEquals(i % 2 == 1, packedBlobStore.contains("blob-" + i));
+    }
+    assertArrayEquals(blob(99), packedBlobStore.read("blob-1", 0, Long.MAX_VALUE));
+    assertArrayEquals(blob(3), packedBlobStore.read("blob-3", 0, Long.MAX_VALUE));
+  }
+
+  @Test
+  void openShouldCutOffTornRecordAtEndOfNewestSegment() throws IOException {
+    // Given
+    packedBlobStore.put("complete", blob(1), 100);
+    packedBlobStore.put("torn", blob(2), 100);
+    packedBlobStore.close();
+    Path segment = newestSegment();
+    try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+      channel.truncate(channel.size() - 10);
+    }
+
+    // When
+    packedBlobStore = openStore();
+
+    // Then
+    assertTrue(packedBlobStore.contains("complete"));
+    assertFalse(packedBlobStore.contains("torn"));
+    packedBlobStore.put("after", blob(3), 100);
+    packedBlobStore.close();
+    packedBlobStore = openStore();
+    assertArrayEquals(blob(3), packedBlobStore.read("after", 0, Long.MAX_VALUE));
+  }
+
+  @Test
+  void compactShouldReclaimDeadSegmentsAndKeepLiveBlobs() throws IOException {
+    // Given
+    for (int i = 0; i < 40; i++) {
+      packedBlobStore.put("blob-" + i, blob(i), 100);
+    }
+    for (int i = 0; i < 40; i++) {
+      if (i % 10 != 0) {
+        packedBlobStore.delete("blob-" + i);
+      }
+    }
+    long sizeBefore = totalSegmentSize();
+
+    // When
+    packedBlobStore.compact();
+
+    // Then
+    assertTrue(totalSegmentSize() < sizeBefore);
+    packedBlobStore.close();
+    packedBlobStore = openStore();
+    for (int i = 0; i < 40; i++) {
+      assertEquals(i % 10 == 0, packedBlobStore.contains("blob-" + i));
+    }
+    assertArrayEquals(blob(30), packedBlobStore.read("blob-30", 0, Long.MAX_VALUE));
+  }
+
+  @Test
+  void compactShouldOnlyCarryTombstonesShadowingOlderSegments() throws IOException {
+    // Given
+    for (int i = 0; i < 7; i++) {
+      packedBlobStore.put("keep-" + i, blob(i), 100);
+    }
+    packedBlobStore.put("gone-0", blob(7), 100);
+    for (int i = 0; i < 8; i++) {
+      packedBlobStore.put("temp-" + i, blob(i), 100);
+    }
+    packedBlobStore.delete("gone-0");
+    for (int i = 0; i < 4; i++) {
+      packedBlobStore.delete("temp-" + i);
+    }
+    packedBlobStore.put("fill-0", blob(8), 100);
+    List<Path> segments = segments();
+    assertEquals(3, segments.size());
+    long sizeBefore = totalSegmentSize();
+    long compactedSize = Files.size(segments.get(1));
+
+    // When
+    packedBlobStore.compact();
+
+    // Then
+    assertEquals(sizeBefore - compactedSize + 4 * PUT_RECORD_LENGTH + TOMBSTONE_LENGTH,
+        totalSegmentSize());
+    packedBlobStore.close();
+    packedBlobStore = openStore();
+    assertFalse(packedBlobStore.contains("gone-0"));
+    for (int i = 0; i < 8; i++) {
+      assertEquals(i >= 4, packedBlobStore.contains("temp-" + i));
+    }
+    assertArrayEquals(blob(6), packedBlobStore.read("keep-6", 0, Long.MAX_VALUE));
+  }
+
+  @Test
+  void putWithGroupCommitShouldStoreConcurrentBlobs() throws Exception {
+    // Given
+    packedBlobStore.close();
+    durabilityProperties.setMode(DurabilityMode.GROUP_COMMIT);
+    packedBlobStore = openStore();
+    ExecutorService writers = Executors.newFixedThreadPool(8);
+    List<Future<?>> puts = new ArrayList<>();
+
+    // When
+    try {
+      for (int i = 0; i < 40; i++) {
+        String storagePath = "blob-" + i;
+        byte[] blob = blob(i);
+        puts.add(writers.submit(() -> {
+          packedBlobStore.put(storagePath, blob, blob.length);
+          return null;
+        }));
+      }
+      for (Future<?> put : puts) {
+        put.get();
+      }
+    } finally {
+      writers.shutdownNow();
+    }
+
+    // Then
+    packedBlobStore.close();
+    packedBlobStore = openStore();
+    for (int i = 0; i < 40; i++) {
+      assertArrayEquals(blob(i), packedBlobStore.read("blob-" + i, 0, Long.MAX_VALUE));
+    }
+  }
+
+  private PackedBlobStore openStore() throws IOException {
+    PackedBlobStore store = new PackedBlobStore(storageRoot.toString(), properties,
+        durabilityProperties);
+    store.open();
+    return store;
+  }
+
+  private byte[] blob(int seed) {
+    byte[] blob = new byte[100];
+    for (int i = 0; i < blob.length; i++) {
+      blob[i] = (byte) (seed + i);
+    }
+    return blob;
+  }
+
+  private List<Path> segments() throws IOException {
+    try (Stream<Path> paths = Files.list(storageRoot.resolve(PackedBlobStore.PACK_DIRECTORY))) {
+      return paths.sorted().toList();
+    }
+  }
+
+  private int segmentCount() throws IOException {
+    return segments().size();
+  }
+
+  private Path newestSegment() throws IOException {
+    List<Path> segments = segments();
+    return segments.get(segments.size() - 1);
+  }
+
+  private long totalSegmentSize() throws IOException {
+    long size = 0;
+    for (Path segment : segments()) {
+      size += Files.size(segment);
+    }
+    return size;
+  }
+}
@@ -0,0 +1,335 @@
+package com.mvasilakos.filestorage.storage;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.mvasilakos.filestorage.config.S3Properties;
+import com.mvasilakos.filestorage.exception.FileStorageException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+
+class S3BlobStoreTest {
+
+  private static final int PART_SIZE = 64 * 1024;
+
+  private FakeObjectStore objectStore;
+  private S3BlobStore blobStore;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    objectStore = new FakeObjectStore();
+    S3Properties properties = new S3Properties();
+    properties.setEndpoint("http://localhost:" + objectStore.port());
+    properties.setBucket("bucket");
+    properties.setPrefix("blobs/");
+    properties.setAccessKey("access");
+    properties.setSecretKey("secret");
+    properties.setPartSize(PART_SIZE);
+    properties.setUploadParallelism(2);
+    properties.setDownloadParallelism(2);
+    blobStore = new S3BlobStore(properties, false);
+  }
+
+  @AfterEach
+  void tearDown() {
+    blobStore.close();
+    objectStore.stop();
+  }
+
+  @Test
+  void storeBlobShouldPutSmallBlobInOneRequest() throws IOException {
+    // Given
+    byte[] content = randomBytes(1000);
+
+    // When
+    long size = blobStore.storeBlob("aa/small blob", outputStream -> outputStream.write(content));
+
+    // Then
+    assertEquals(content.length, size);
+    assertEquals(0, objectStore.uploadsStarted.get());
+    assertArrayEquals(content, objectStore.objects.get("/bucket/blobs/aa/small%20blob"));
+    assertEquals(content.length, blobStore.getFileSize("aa/small blob"));
+    assertTrue(blobStore.fileExists("aa/small blob"));
+    try (InputStream inputStream = blobStore.openFile("aa/small blob")) {
+      assertArrayEquals(content, inputStream.readAllBytes());
+    }
+  }
+
+  @Test
+  void storeBlobShouldUploadLargeBlobInParallelParts() throws IOException {
+    // Given
+    byte[] content = randomBytes(5 * PART_SIZE + 100);
+    objectStore.partDelayMillis = 100;
+
+    // When
+    long size = blobStore.storeBlob("aa/large", outputStream -> {
+      for (int offset = 0; offset < content.length; offset += 1000) {
+        outputStream.write(content, offset, Math.min(1000, content.length - offset));
+      }
+    });
+
+    // Then
+    assertEquals(content.length, size);
+    assertEquals(1, objectStore.uploadsStarted.get());
+    assertEquals(6, objectStore.partsUploaded.get());
+    assertEquals(2, objectStore.maxPartsInFlight.get());
+    assertArrayEquals(content, objectStore.objects.get("/bucket/blobs/aa/large"));
+  }
+
+  @Test
+  void openFileRangeShouldFetchLargeRangesInParallelParts() throws IOException {
+    // Given
+    byte[] content = randomBytes(4 * PART_SIZE);
+    objectStore.objects.put("/bucket/blobs/aa/large", content);
+
+    // When
+    byte[] range;
+    try (InputStream inputStream = blobStore.openFileRange("aa/large", 100, 3 * PART_SIZE)) {
+      range = inputStream.readAllBytes();
+    }
+
+    // Then
+    assertArrayEquals(Arrays.copyOfRange(content, 100, 100 + 3 * PART_SIZE), range);
+    assertEquals(3, objectStore.rangesRead.get());
+  }
+
+  @Test
+  void openFileRangeShouldKeepOneRangeAheadOfSlowReader()
+      throws IOException, InterruptedException {
+    // Given
+    byte[] content = randomBytes(4 * PART_SIZE);
+    objectStore.objects.put("/bucket/blobs/aa/large", content);
+
+    // When
+    try (InputStream inputStream = blobStore.openFileRange("aa/large", 0, content.length)) {
+      int firstByte = inputStream.read();
+      awaitRangesRead(2);
+
+      // Then
+      assertEquals(content[0] & 0xFF, firstByte);
+      assertEquals(2, objectStore.rangesRead.get());
+      assertArrayEquals(Arrays.copyOfRange(content, 1, content.length),
+          inputStream.readAllBytes());
+    }
+    assertEquals(4, objectStore.rangesRead.get());
+  }
+
+  @Test
+  void deleteFileShouldRemoveBlobAndIgnoreMissingOnes() {
+    // Given
+    objectStore.objects.put("/bucket/blobs/aa/blob", randomBytes(10));
+
+    // When
+    blobStore.deleteFile("aa/blob");
+    blobStore.deleteFile("aa/blob");
+
+    // Then
+    assertFalse(blobStore.fileExists("aa/blob"));
+    FileStorageException exception = assertThrows(FileStorageException.class,
+        () -> blobStore.openFile("aa/blob"));
+    assertTrue(exception.getMessage().startsWith("Stored file not found"));
+  }
+
+  @Test
+  void storeBlobShouldAbortUploadWhenWriterFails() {
+    // Given
+    byte[] content = randomBytes(3 * PART_SIZE);
+
+    // When
+    assertThrows(FileStorageException.class, () -> blobStore.storeBlob("aa/failed",
+        outputStream -> {
+          outputStream.write(content);
+          throw new IOException("Source stream failed");
+        }));
+
+    // Then
+    assertEquals(1, objectStore.uploadsStarted.get());
+    assertEquals(1, objectStore.uploadsAborted.get());
+    assertTrue(objectStore.uploads.isEmpty());
+    assertFalse(objectStore.objects.containsKey("/bucket/blobs/aa/failed"));
+  }
+
+  private void awaitRangesRead(int ranges) throws InterruptedException {
+    // Range requests are sent from the transfer threads, so the count lags behind the reads
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (objectStore.rangesRead.get() < ranges && System.nanoTime() < deadline) {
+      Thread.sleep(1);
+    }
+  }
+
+  private static byte[] randomBytes(int length) {
+    byte[] bytes = new byte[length];
+    new Random(length).nextBytes(bytes);
+    return bytes;
+  }
+
+  /**
+   * Stand-in for an S3-compatible object store, serving the subset of the API the blob store
+   * uses from memory.
+   */
+  private static final class FakeObjectStore {
+
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+    private static final Pattern PART_NUMBER = Pattern.compile("partNumber=(\\d+)");
+
+    private final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+    private final Map<String, Map<Integer, byte[]>> uploads = new ConcurrentHashMap<>();
+    private final AtomicInteger uploadsStarted = new AtomicInteger();
+    private final AtomicInteger uploadsAborted = new AtomicInteger();
+    private final AtomicInteger partsUploaded = new AtomicInteger();
+    private final AtomicInteger partsInFlight = new AtomicInteger();
+    private final AtomicInteger maxPartsInFlight = new AtomicInteger();
+    private final AtomicInteger rangesRead = new AtomicInteger();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final HttpServer server;
+    private volatile long partDelayMillis;
+
+    private FakeObjectStore() throws IOException {
+      server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+      server.createContext("/", this::handle);
+      server.setExecutor(executor);
+      server.start();
+    }
+
+    private int port() {
+      return server.getAddress().getPort();
+    }
+
+    private void stop() {
+      server.stop(0);
+      executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+      try (exchange) {
+        if (!exchange.getRequestHeaders().getFirst("Authorization")
+            .startsWith("AWS4-HMAC-SHA256 Credential=access/")) {
+          exchange.sendResponseHeaders(403, -1);
+          return;
+        }
+        String key = exchange.getRequestURI().getRawPath();
+        String query = exchange.getRequestURI().getRawQuery();
+        byte[] body = exchange.getRequestBody().readAllBytes();
+        String uploadId = query == null ? null : parameters(query).get("uploadId");
+        switch (exchange.getRequestMethod()) {
+          case "PUT" -> {
+            if (uploadId == null) {
+              objects.put(key, body);
+            } else {
+              uploadPart(uploadId, query, body);
+            }
+            exchange.getResponseHeaders().add("ETag", "\"" + UUID.randomUUID() + "\"");
+            exchange.sendResponseHeaders(200, -1);
+          }
+          case "POST" -> {
+            if ("uploads".equals(query)) {
+              String newUploadId = UUID.randomUUID().toString();
+              uploads.put(newUploadId, new ConcurrentHashMap<>());
+              uploadsStarted.incrementAndGet();
+              respond(exchange, 200, "<InitiateMultipartUploadResult><UploadId>" + newUploadId
+                  + "</UploadId></InitiateMultipartUploadResult>");
+            } else {
+              completeUpload(key, uploadId, new String(body));
+              respond(exchange, 200, "<CompleteMultipartUploadResult/>");
+            }
+          }
+          case "DELETE" -> {
+            if (uploadId != null) {
+              uploads.remove(uploadId);
+              uploadsAborted.incrementAndGet();
+            } else {
+              objects.remove(key);
+            }
+            exchange.sendResponseHeaders(204, -1);
+          }
+          case "HEAD" -> {
+            byte[] object = objects.get(key);
+            if (object != null) {
+              exchange.getResponseHeaders().add("Content-Length", String.valueOf(object.length));
+            }
+            exchange.sendResponseHeaders(object == null ? 404 : 200, -1);
+          }
+          case "GET" -> {
+            byte[] object = objects.get(key);
+            Matcher range = RANGE.matcher(exchange.getRequestHeaders().getFirst("Range"));
+            if (object == null || !range.matches()) {
+              exchange.sendResponseHeaders(404, -1);
+              return;
+            }
+            rangesRead.incrementAndGet();
+            byte[] slice = Arrays.copyOfRange(object, Integer.parseInt(range.group(1)),
+                Math.min(object.length, Integer.parseInt(range.group(2)) + 1));
+            exchange.sendResponseHeaders(206, slice.length);
+            exchange.getResponseBody().write(slice);
+          }
+          default -> exchange.sendResponseHeaders(405, -1);
+        }
+      }
+    }
+
+    private void uploadPart(String uploadId, String query, byte[] body) {
+      int inFlight = partsInFlight.incrementAndGet();
+      maxPartsInFlight.accumulateAndGet(inFlight, Math::max);
+      try {
+        Thread.sleep(partDelayMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      Matcher partNumber = PART_NUMBER.matcher(query);
+      partNumber.find();
+      uploads.get(uploadId).put(Integer.parseInt(partNumber.group(1)), body);
+      partsUploaded.incrementAndGet();
+      partsInFlight.decrementAndGet();
+    }
+
+    private void completeUpload(String key, String uploadId, String body) throws IOException {
+      Map<Integer, byte[]> parts = uploads.remove(uploadId);
+      ByteArrayOutputStream object = new ByteArrayOutputStream();
+      Matcher partNumber = Pattern.compile("<PartNumber>(\\d+)</PartNumber>").matcher(body);
+      while (partNumber.find()) {
+        object.write(parts.get(Integer.parseInt(partNumber.group(1))));
+      }
+      objects.put(key, object.toByteArray());
+    }
+
+    private static Map<String, String> parameters(String query) {
+      Map<String, String> parameters = new HashMap<>();
+      for (String parameter : query.split("&")) {
+        List<String> nameAndValue = List.of(parameter.split("=", 2));
+        parameters.put(nameAndValue.get(0), nameAndValue.size() > 1 ? nameAndValue.get(1) : "");
+      }
+      return parameters;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body)
+        throws IOException {
+      byte[] bytes = body.getBytes();
+      exchange.sendResponseHeaders(status, bytes.length);
+      exchange.getResponseBody().write(bytes);
+    }
+  }
+}